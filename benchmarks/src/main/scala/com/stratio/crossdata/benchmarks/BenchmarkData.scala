@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.benchmarks
+
+import java.sql.Timestamp
+
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema
+import org.apache.spark.sql.catalyst.util.ArrayBasedMapData
+import org.apache.spark.sql.types._
+
+import scala.collection.mutable.WrappedArray
+
+/**
+  * Schema and rows shaped like the results of an orders table: Nested structs, arrays of structs, maps and decimals.
+  */
+object BenchmarkData {
+
+  val LocationType = StructType(List(
+    StructField("lat", DoubleType, true),
+    StructField("lon", DoubleType, true)
+  ))
+
+  val AddressType = StructType(List(
+    StructField("street", StringType, true),
+    StructField("city", StringType, true),
+    StructField("zip", IntegerType, true),
+    StructField("location", LocationType, true)
+  ))
+
+  val LineType = StructType(List(
+    StructField("sku", StringType, true),
+    StructField("quantity", IntegerType, true),
+    StructField("price", DecimalType(10, 2), true)
+  ))
+
+  val schema = StructType(List(
+    StructField("id", LongType, false),
+    StructField("customer", StringType, true),
+    StructField("amount", DecimalType(20, 4), true),
+    StructField("discount", DoubleType, true),
+    StructField("paid", BooleanType, true),
+    StructField("created", TimestampType, true),
+    StructField("tags", ArrayType(StringType, true), true),
+    StructField("attributes", MapType(StringType, StringType, true), true),
+    StructField("address", AddressType, true),
+    StructField("lines", ArrayType(LineType, true), true)
+  ))
+
+  private val Cities = Array("Madrid", "Barcelona", "Sevilla", "Valencia", "Bilbao")
+
+  private val Tags = Array("priority", "gift", "wholesale", "returned", "express", "international")
+
+  private def created(i: Int): Timestamp = new Timestamp(1475272800000L + i * 60000L)
+
+  /**
+    * Row as received by the serializers, with Catalyst's representation of decimals and maps.
+    */
+  def serializableRow(i: Int): Row = new GenericRowWithSchema(Array(
+    i.toLong,
+    s"customer-${i % 1000}",
+    Decimal(BigDecimal(i) * 3 + BigDecimal("0.1234")),
+    (i % 20) / 100.0,
+    i % 3 != 0,
+    created(i),
+    WrappedArray make tags(i),
+    ArrayBasedMapData(attributes(i)),
+    new GenericRowWithSchema(address(i), AddressType),
+    WrappedArray make lines(i).map(new GenericRowWithSchema(_, LineType))
+  ), schema)
+
+  /**
+    * Row as collected from a DataFrame, with Scala's representation of decimals and maps.
+    */
+  def externalRow(i: Int): Row = Row(
+    i.toLong,
+    s"customer-${i % 1000}",
+    new java.math.BigDecimal(i * 3L).add(new java.math.BigDecimal("0.1234")),
+    (i % 20) / 100.0,
+    i % 3 != 0,
+    created(i),
+    tags(i).toSeq,
+    attributes(i),
+    Row.fromSeq(address(i).updated(3, Row.fromSeq(location(i)))),
+    lines(i).toSeq.map(line => Row(line(0), line(1), line(2).asInstanceOf[Decimal].toJavaBigDecimal))
+  )
+
+  def serializableRows(n: Int): Array[Row] = Array.tabulate(n)(serializableRow)
+
+  def externalRows(n: Int): Array[Row] = Array.tabulate(n)(externalRow)
+
+  private def tags(i: Int): Array[String] = Array.tabulate(1 + i % 3)(j => Tags((i + j) % Tags.length))
+
+  private def attributes(i: Int): Map[String, String] =
+    Map("channel" -> (if (i % 2 == 0) "web" else "store"), "campaign" -> s"campaign-${i % 7}")
+
+  private def location(i: Int): Array[Any] = Array(40.0 + (i % 100) / 100.0, -3.0 - (i % 100) / 100.0)
+
+  private def address(i: Int): Array[Any] = Array(
+    s"Street ${i % 500}",
+    Cities(i % Cities.length),
+    28000 + i % 100,
+    new GenericRowWithSchema(location(i), LocationType)
+  )
+
+  private def lines(i: Int): Array[Array[Any]] = Array.tabulate(1 + i % 4) { j =>
+    Array[Any](s"sku-${(i + j) % 200}", 1 + j, Decimal(BigDecimal(10 + j) + BigDecimal("0.99")))
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import com.stratio.crossdata.connector.elasticsearch.ElasticSearchRowConverter
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types._
+import org.elasticsearch.search.SearchHitField
+import org.elasticsearch.search.internal.InternalSearchHitField
+import org.openjdk.jmh.annotations._
+
+import scala.collection.JavaConverters._
+
+/**
+  * Conversion of search hits into rows. Hits are fed to [[ElasticSearchRowConverter.hitAsRow]], the per-hit
+  * conversion of [[ElasticSearchRowConverter.asRows]], since search hits can only be built by the Elasticsearch client.
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class ElasticSearchRowConverterBenchmark {
+
+  @Param(Array("100", "10000"))
+  var hitCount: Int = _
+
+  // The converter supports neither arrays nor maps: Documents nest objects instead
+  val schema = StructType(List(
+    StructField("id", LongType, true),
+    StructField("customer", StringType, true),
+    StructField("amount", DecimalType(20, 4), true),
+    StructField("discount", DoubleType, true),
+    StructField("paid", BooleanType, true),
+    StructField("created", TimestampType, true),
+    StructField("address", BenchmarkData.AddressType, true)
+  ))
+
+  val requiredFields: Seq[String] = schema.fieldNames
+
+  var hits: Array[(Map[String, SearchHitField], Map[String, AnyRef])] = _
+
+  @Setup
+  def setup(): Unit = {
+    hits = Array.tabulate(hitCount)(hit)
+  }
+
+  private def hit(i: Int): (Map[String, SearchHitField], Map[String, AnyRef]) = {
+    def field(name: String, value: AnyRef): (String, SearchHitField) =
+      name -> new InternalSearchHitField(name, List(value).asJava)
+
+    val fields = Map(
+      field("id", Long.box(i)),
+      field("customer", s"customer-${i % 1000}"),
+      field("amount", Double.box(i * 3 + 0.1234)),
+      field("discount", Double.box((i % 20) / 100.0)),
+      field("paid", Boolean.box(i % 3 != 0)),
+      field("created", new java.util.Date(1475272800000L + i * 60000L))
+    )
+
+    val location = new java.util.HashMap[String, AnyRef]()
+    location.put("lat", Double.box(40.0 + (i % 100) / 100.0))
+    location.put("lon", Double.box(-3.0 - (i % 100) / 100.0))
+
+    val address = new java.util.HashMap[String, AnyRef]()
+    address.put("street", s"Street ${i % 500}")
+    address.put("city", s"City ${i % 5}")
+    address.put("zip", Int.box(28000 + i % 100))
+    address.put("location", location)
+
+    fields -> Map("address" -> address)
+  }
+
+  @Benchmark
+  def hitsAsRows(): Array[Row] = hits map { case (fields, subDocuments) =>
+    ElasticSearchRowConverter.hitAsRow(fields, subDocuments, schema, requiredFields)
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame}
+import org.apache.spark.{SparkConf, SparkContext}
+import org.openjdk.jmh.annotations._
+
+/**
+  * Collection of nested results, flattened as requested by clients which can't handle structs, compared to the plain
+  * collection of the same query.
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class FlattenedCollectBenchmark {
+
+  @Param(Array("1000", "100000"))
+  var rowCount: Int = _
+
+  var sparkContext: SparkContext = _
+  var xdContext: XDContext = _
+
+  @Setup
+  def setup(): Unit = {
+    val conf = new SparkConf().set("spark.ui.enabled", "false").set("spark.sql.shuffle.partitions", "4")
+    sparkContext = new SparkContext("local[4]", "flattened-collect-benchmark", conf)
+    xdContext = new XDContext(sparkContext)
+
+    val rows = sparkContext.parallelize(BenchmarkData.externalRows(rowCount).toSeq, 4)
+    xdContext.createDataFrame(rows, BenchmarkData.schema).cache().registerTempTable("orders")
+    xdContext.table("orders").count()
+  }
+
+  @TearDown
+  def tearDown(): Unit = sparkContext.stop()
+
+  private def query(): XDDataFrame =
+    xdContext.sql("SELECT id, customer, amount, address, lines FROM orders").asInstanceOf[XDDataFrame]
+
+  @Benchmark
+  def collect(): Array[Row] = query().collect()
+
+  @Benchmark
+  def flattenedCollect(): Array[Row] = query().flattenedCollect()
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import com.stratio.crossdata.common.result.SuccessfulSQLResult
+import org.openjdk.jmh.annotations._
+
+/**
+  * Tabular rendering of results, as printed by the shell.
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class PrettyResultBenchmark {
+
+  @Param(Array("100", "10000"))
+  var rowCount: Int = _
+
+  var result: SuccessfulSQLResult = _
+
+  @Setup
+  def setup(): Unit = {
+    result = SuccessfulSQLResult(BenchmarkData.externalRows(rowCount), BenchmarkData.schema)
+  }
+
+  @Benchmark
+  def prettyResult(): Array[String] = result.prettyResult
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import com.stratio.crossdata.common.serializers.{CrossdataCommonSerializer, RowSerializer}
+import org.apache.spark.sql.Row
+import org.json4s.jackson.JsonMethods._
+import org.json4s.{Extraction, Formats}
+import org.openjdk.jmh.annotations._
+
+/**
+  * JSON (de)serialization of result rows, as done for every row sent by the server to the HTTP driver.
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class RowSerializerBenchmark extends CrossdataCommonSerializer {
+
+  @Param(Array("100", "10000"))
+  var rowCount: Int = _
+
+  implicit val formats: Formats = json4sJacksonFormats + RowSerializer(BenchmarkData.schema)
+
+  var rows: Array[Row] = _
+  var serializedRows: Array[String] = _
+
+  @Setup
+  def setup(): Unit = {
+    rows = BenchmarkData.serializableRows(rowCount)
+    serializedRows = serialize()
+  }
+
+  @Benchmark
+  def serialize(): Array[String] = rows.map(row => compact(render(Extraction.decompose(row))))
+
+  @Benchmark
+  def deserialize(): Array[Row] = serializedRows.map(parse(_).extract[Row])
+
+}
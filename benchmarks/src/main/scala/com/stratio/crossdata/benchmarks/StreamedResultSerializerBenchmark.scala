@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import com.stratio.crossdata.common.result.{InternalStreamedSuccessfulSQLResult, StreamedRow, StreamedSchema}
+import com.stratio.crossdata.common.serializers.{CrossdataCommonSerializer, StreamedRowSerializer}
+import org.json4s.jackson.JsonMethods._
+import org.json4s.{Extraction, Formats}
+import org.openjdk.jmh.annotations._
+
+/**
+  * Framing of streamed results: The schema message followed by one message per row, as sent to the HTTP driver.
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class StreamedResultSerializerBenchmark extends CrossdataCommonSerializer {
+
+  @Param(Array("100", "10000"))
+  var rowCount: Int = _
+
+  val schema = BenchmarkData.schema
+
+  val streamedRowFormats: Formats = json4sJacksonFormats + new StreamedRowSerializer(schema)
+
+  var messages: Array[InternalStreamedSuccessfulSQLResult] = _
+  var frames: Array[String] = _
+
+  @Setup
+  def setup(): Unit = {
+    messages = StreamedSchema(schema) +: BenchmarkData.serializableRows(rowCount).map(StreamedRow(_, Some(schema)))
+    frames = serialize()
+  }
+
+  @Benchmark
+  def serialize(): Array[String] = messages.map(message => compact(render(Extraction.decompose(message))))
+
+  @Benchmark
+  def deserialize(): Array[InternalStreamedSuccessfulSQLResult] = {
+    val schemaMessage = parse(frames.head).extract[InternalStreamedSuccessfulSQLResult]
+    val rowMessages = {
+      implicit val json4sJacksonFormats: Formats = streamedRowFormats
+      frames.tail.map(parse(_).extract[InternalStreamedSuccessfulSQLResult])
+    }
+    schemaMessage +: rowMessages
+  }
+
+}
@@ -20,37 +20,114 @@ import com.datastax.driver.core.ResultSet
 import com.datastax.spark.connector.CassandraRowMetadata
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import com.stratio.crossdata.connector.cassandra.CassandraAttributeRole.{CassandraAttributeRole, ClusteringKey, Function, Indexed, NonIndexed, PartitionKey, Unknown}
-import com.stratio.crossdata.connector.{SQLLikeQueryProcessorUtils, SQLLikeUDFQueryProcessorUtils}
+import com.stratio.crossdata.connector.{NativeRowIterator, SQLLikeQueryProcessorUtils, SQLLikeUDFQueryProcessorUtils}
 import org.apache.spark.sql.cassandra.{CassandraSQLRow, CassandraXDSourceRelation}
-import org.apache.spark.sql.catalyst.expressions.aggregate.Count
-import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute, Expression, Literal, NamedExpression}
+import org.apache.spark.sql.catalyst.expressions.{Attribute, Literal, NamedExpression}
 import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Limit, LogicalPlan}
 import org.apache.spark.sql.crossdata.catalyst.NativeUDF
-import org.apache.spark.sql.crossdata.catalyst.planning.ExtendedPhysicalOperation
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate.{AggregatedColumn, NativeFunction}
+import org.apache.spark.sql.crossdata.catalyst.planning.{ExtendedPhysicalOperation, NativeAggregate, NativeAggregation}
 import org.apache.spark.sql.sources.CatalystToCrossdataAdapter._
 import org.apache.spark.sql.sources.{CatalystToCrossdataAdapter, Filter => SourceFilter}
 import org.apache.spark.sql.{Row, sources}
 
+import scala.util.control.NonFatal
+
 object CassandraQueryProcessor extends SQLLikeQueryProcessorUtils with SQLLikeUDFQueryProcessorUtils {
 
-  val DefaultLimit = 10000
   type ColumnName = String
 
   case class CassandraQueryProcessorContext(udfs: Map[String, NativeUDF]) extends SQLLikeUDFQueryProcessorUtils.ContextWithUDFs
   override type ProcessingContext = CassandraQueryProcessorContext
 
-  case class CassandraPlan(basePlan: BaseLogicalPlan, limit: Option[Int]){
+  case class CassandraPlan(basePlan: BaseLogicalPlan, limit: Option[Int], aggregation: Option[NativeAggregation] = None){
     def projects: Seq[NamedExpression] = basePlan.projects
+    def outputNames: Seq[String] =
+      aggregation.fold(projects.map(_.name))(_.outputColumns.map(_.output.name)) ++ nonNullCounts.map(_ => "count")
+    def nonNullCounts: Seq[(Int, Attribute)] = aggregation.toSeq flatMap nonNullCountedColumns
     def filters: Array[SourceFilter] = basePlan.filters
     def udfsMap: Map[Attribute, NativeUDF] = basePlan.udfsMap
   }
 
   def apply(cassandraRelation: CassandraXDSourceRelation, logicalPlan: LogicalPlan) = new CassandraQueryProcessor(cassandraRelation, logicalPlan)
 
+  // CQL sums and averages no values as 0 where Spark returns null, so the values of those columns are also counted
+  def nonNullCountedColumns(aggregation: NativeAggregation): Seq[(Int, Attribute)] =
+    aggregation.outputColumns.zipWithIndex collect {
+      case (AggregatedColumn(NativeFunction.Sum | NativeFunction.Avg, Some(column), _), i) => i -> column
+    }
+
+  /**
+    * @return the CQL selectors computing the aggregation, followed by the counts of the non-null values of its summed
+    *         and averaged columns.
+    */
+  def aggregationSelectors(aggregation: NativeAggregation): Seq[String] = {
+
+    def buildAggregationExpression(function: NativeFunction.NativeFunction, column: Option[Attribute]): String = {
+      val argument = column.fold("*")(_.name)
+      function match {
+        case NativeFunction.Count => s"count($argument)"
+        case NativeFunction.Sum => s"sum($argument)"
+        case NativeFunction.Min => s"min($argument)"
+        case NativeFunction.Max => s"max($argument)"
+        case NativeFunction.Avg => s"avg($argument)"
+      }
+    }
+
+    aggregation.outputColumns.map {
+      case AggregatedColumn(function, column, _) => buildAggregationExpression(function, column)
+      case groupingColumn => sys.error(s"Unexpected grouping column $groupingColumn")
+    } ++ nonNullCountedColumns(aggregation).map { case (_, column) => buildAggregationExpression(NativeFunction.Count, Some(column)) }
+  }
+
+  /**
+    * Sums and averages of no values become null and the trailing counts of non-null values are dropped.
+    */
+  def withoutNonNullCounts(aggregation: NativeAggregation, rows: Iterator[Row]): Iterator[Row] = {
+    val nonNullCounts = nonNullCountedColumns(aggregation)
+    val outputSize = aggregation.outputColumns.length
+    if (nonNullCounts.isEmpty) rows
+    else rows map { row =>
+      val emptyColumns = nonNullCounts.zipWithIndex collect {
+        case ((i, _), j) if row.get(outputSize + j) == null || row.getAs[Number](outputSize + j).longValue == 0 => i
+      }
+      Row.fromSeq((0 until outputSize) map { i => if (emptyColumns.contains(i)) null else row.get(i) })
+    }
+  }
+
+  /**
+    * Cassandra aggregates the rows of a single partition only, so every partition key column must be
+    * filtered by equality.
+    *
+    * @param partitionKey Partition key columns of the table.
+    * @param columnNames Columns of the table.
+    * @return the reason why Cassandra cannot execute the aggregation or None if it can.
+    */
+  def nativeAggregationRejection(aggregation: NativeAggregation,
+                                 filters: Array[SourceFilter],
+                                 partitionKey: Seq[ColumnName],
+                                 columnNames: Set[ColumnName]): Option[String] = {
+
+    val aggregatedColumns = aggregation.outputColumns flatMap {
+      case AggregatedColumn(_, column, _) => column
+      case _ => None
+    }
+    val equalityFilteredColumns = filters collect { case sources.EqualTo(attribute, _) => attribute }
+
+    if (!aggregation.isGlobal)
+      Some(s"Grouped aggregations cannot be executed natively: ${aggregation.groupingColumns.mkString(", ")}")
+    else if (aggregatedColumns.exists(column => !columnNames.contains(column.name)))
+      Some(s"Only table columns can be aggregated natively: ${aggregatedColumns.mkString(", ")}")
+    else if (!partitionKey.forall(equalityFilteredColumns.contains))
+      Some("Aggregations are only executed natively within a partition")
+    else
+      None
+  }
+
   def buildNativeQuery(tableQN: String,
                        requiredColumns: Seq[String],
                        filters: Array[SourceFilter],
-                       limit: Int,
+                       limit: Option[Int],
                        udfs: Map[String, NativeUDF] = Map.empty): String = {
 
     implicit val procCtx = CassandraQueryProcessorContext(udfs)
@@ -70,7 +147,9 @@ object CassandraQueryProcessor extends SQLLikeQueryProcessorUtils with SQLLikeUD
     val filter = if (filters.nonEmpty) filters.map(filterToCQL).mkString("WHERE ", " AND ", "") else ""
     val columns = requiredColumns.map(expandAttribute).mkString(", ")
 
-    s"SELECT $columns FROM $tableQN $filter LIMIT $limit ALLOW FILTERING"
+    val limitClause = limit.fold("")(n => s" LIMIT $n")
+
+    s"SELECT $columns FROM $tableQN $filter$limitClause ALLOW FILTERING"
   }
 
 }
@@ -80,82 +159,122 @@ class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logi
 
   import CassandraQueryProcessor._
 
-  def execute(): Option[Array[Row]] = {
+  /**
+    * @return the rows read page by page from Cassandra, as they are consumed, or None if the plan cannot be
+    *         executed natively. The session is released when the iterator is closed.
+    * @throws Exception if Cassandra fails executing the query
+    */
+  def execute(): Option[NativeRowIterator] = {
     def annotateRepeatedNames(names: Seq[String]): Seq[String] = {
       val indexedNames = names zipWithIndex
       val name2pos = indexedNames.groupBy(_._1).values.flatMap(_.zipWithIndex.map(x => x._1._2 -> x._2)).toMap
       indexedNames map { case (name, index) => val c = name2pos(index); if (c > 0) s"$name$c" else name }
     }
 
-    def buildAggregationExpression(names: Expression): String = {
-      names match {
-        case Alias(child, _) => buildAggregationExpression(child)
-        case Count(children) => s"count(${children.map(buildAggregationExpression).mkString(",")})"
-        case Literal(1, _) => "*"
+    plannedNativeQuery map { cassandraPlan =>
+      if (cassandraPlan.limit.exists(_ == 0)) {
+        NativeRowIterator.empty(logicalPlan.schema)
+      } else {
+        val session = cassandraRelation.connector.openSession()
+        try {
+          val resultSet = session.execute(cqlQuery(cassandraPlan))
+          val resultRows = sparkResultFromCassandra(annotateRepeatedNames(cassandraPlan.outputNames).toArray, resultSet)
+          val rows = cassandraPlan.aggregation.fold(resultRows)(withoutNonNullCounts(_, resultRows))
+          new NativeRowIterator(logicalPlan.schema, rows, () => session.close())
+        } catch {
+          case exc: Exception =>
+            session.close()
+            throw exc
+        }
       }
     }
 
+  }
+
+  // Errors planning the query just prevent the native execution; errors executing it are thrown to the caller
+  private[this] def plannedNativeQuery: Option[CassandraPlan] =
     try {
-      validatedNativePlan.map { cassandraPlan =>
-        if (cassandraPlan.limit.exists(_ == 0)) {
-          Array.empty[Row]
-        } else {
-          val projectsString: Seq[String] = cassandraPlan.basePlan match {
-            case SimpleLogicalPlan(projects, _, _, _) =>
-              projects.map(_.toString())
-
-            case AggregationLogicalPlan(projects, groupingExpression, _, _, _) =>
-              require(groupingExpression.isEmpty)
-              projects.map(buildAggregationExpression)
-          }
+      validatedNativePlan
+    } catch {
+      case NonFatal(exc) => log.warn(s"Exception planning the native query $logicalPlan", exc.getMessage); None
+    }
 
-          val cqlQuery = buildNativeQuery(
-            cassandraRelation.tableDef.name,
-            projectsString,
-            cassandraPlan.filters,
-            cassandraPlan.limit.getOrElse(CassandraQueryProcessor.DefaultLimit),
-            cassandraPlan.udfsMap map { case (k, v) => k.toString -> v }
-          )
-          val resultSet = cassandraRelation.connector.withSessionDo { session =>
-            session.execute(cqlQuery)
-          }
-          sparkResultFromCassandra(annotateRepeatedNames(cassandraPlan.projects.map(_.name)).toArray, resultSet)
-        }
 
-      }
+  /**
+    * @return the CQL query which would be executed or the reason why the plan cannot be executed natively
+    */
+  def explain(): Either[String, String] =
+    try {
+      nativePlan.right.map(cqlQuery)
     } catch {
-      case exc: Exception => log.warn(s"Exception executing the native query $logicalPlan", exc.getMessage); None
+      case exc: Exception => Left(s"Unexpected plan: ${exc.getMessage}")
     }
 
-  }
-
+  def validatedNativePlan: Option[CassandraPlan] = nativePlan.right.toOption
 
-  def validatedNativePlan: Option[CassandraPlan] = {
+  private[this] def nativePlan: Either[String, CassandraPlan] = {
     lazy val limit: Option[Int] = logicalPlan.collectFirst { case Limit(Literal(num: Int, _), _) => num }
 
-    def findBasePlan(lplan: LogicalPlan): Option[BaseLogicalPlan] = {
+    def findBasePlan(lplan: LogicalPlan): Either[String, BaseLogicalPlan] = {
       lplan match {
         // TODO lines below seem to be duplicated in ExtendedPhysicalOperation when finding filters and projects
         case Limit(_, child) =>
           findBasePlan(child)
 
-        case Aggregate(_, _, child) =>
+        case NativeAggregate(_, child) if child.collectFirst { case limit: Limit => limit }.isDefined =>
+          Left("Aggregations over limited results cannot be executed natively")
+
+        case NativeAggregate(_, child) =>
           findBasePlan(child)
 
+        case aggregate: Aggregate =>
+          Left(s"Unsupported aggregation: ${aggregate.aggregateExpressions.mkString(", ")}")
+
         case ExtendedPhysicalOperation(projectList, filterList, _, crossdataExecutionPlan) =>
           crossdataExecutionPlan match {
             case CrossdataExecutionPlan(_, ProjectReport(exprIgnored), FilterReport(filtersIgnored, _)) if filtersIgnored.nonEmpty || exprIgnored.nonEmpty =>
-              None
+              Left(s"Expressions which cannot be pushed down: ${(exprIgnored ++ filtersIgnored).mkString(", ")}")
             case CrossdataExecutionPlan(basePlan, _, _) =>
-              Some(basePlan)
+              Right(basePlan)
           }
       }
     }
-    findBasePlan(logicalPlan).collect{ case bp if checkNativeFilters(bp.filters, bp.udfsMap) => CassandraPlan(bp, limit)}
+
+    lazy val aggregation: Option[NativeAggregation] = logicalPlan.collectFirst { case NativeAggregate(agg, _) => agg }
+
+    for {
+      basePlan <- findBasePlan(logicalPlan).right
+      _ <- nativeFiltersRejection(basePlan.filters, basePlan.udfsMap).toLeft(()).right
+      _ <- aggregation.flatMap { agg =>
+        nativeAggregationRejection(
+          agg,
+          basePlan.filters,
+          cassandraRelation.tableDef.partitionKey.map(_.columnName),
+          cassandraRelation.tableDef.columns.map(_.columnName).toSet
+        )
+      }.toLeft(()).right
+    } yield CassandraPlan(basePlan, limit, aggregation)
   }
 
-  private[this] def checkNativeFilters(filters: Array[SourceFilter],
-                                       udfs: Map[Attribute, NativeUDF]): Boolean = {
+  private[this] def cqlQuery(cassandraPlan: CassandraPlan): String = {
+
+    val projectsString: Seq[String] =
+      cassandraPlan.aggregation.fold(cassandraPlan.projects.map(_.toString()))(aggregationSelectors)
+
+    buildNativeQuery(
+      cassandraRelation.tableDef.name,
+      projectsString,
+      cassandraPlan.filters,
+      cassandraPlan.limit,
+      cassandraPlan.udfsMap map { case (k, v) => k.toString -> v }
+    )
+  }
+
+  /**
+    * @return the reason why Cassandra cannot execute the filters or None if it can.
+    */
+  private[this] def nativeFiltersRejection(filters: Array[SourceFilter],
+                                           udfs: Map[Attribute, NativeUDF]): Option[String] = {
 
     val udfNames = udfs.keys.map(_.toString).toSet
 
@@ -204,10 +323,20 @@ class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logi
         }
       }
 
-    {
-      !groupedFilters.contains(Unknown) && !groupedFilters.contains(NonIndexed) &&
-        checksPartitionKeyFilters && checksClusteringKeyFilters && checksSecondaryIndexesFilters
-    }
+    def filtersWith(role: CassandraAttributeRole): String = groupedFilters(role).mkString(", ")
+
+    if (groupedFilters.contains(Unknown))
+      Some(s"Unsupported filters: ${filtersWith(Unknown)}")
+    else if (groupedFilters.contains(NonIndexed))
+      Some(s"Filters on columns which are neither keys nor indexed: ${filtersWith(NonIndexed)}")
+    else if (!checksPartitionKeyFilters)
+      Some(s"Partition key columns only accept equality filters, or IN on the last one: ${filtersWith(PartitionKey)}")
+    else if (!checksClusteringKeyFilters)
+      Some(s"Filters on clustering columns must include every clustering column: ${filtersWith(ClusteringKey)}")
+    else if (!checksSecondaryIndexesFilters)
+      Some(s"Indexed columns only accept equality filters: ${filtersWith(Indexed)}")
+    else
+      None
 
   }
 
@@ -230,10 +359,11 @@ class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logi
       case _ => NonIndexed
     }
 
-  private[this] def sparkResultFromCassandra(requiredColumns: Array[ColumnName], resultSet: ResultSet): Array[Row] = {
+  // The driver fetches the following pages, using the paging state of the current one, as the iterator reaches its end
+  private[this] def sparkResultFromCassandra(requiredColumns: Array[ColumnName], resultSet: ResultSet): Iterator[Row] = {
     import scala.collection.JavaConversions._
     val cassandraRowMetadata = CassandraRowMetadata.fromColumnNames(requiredColumns)
-    resultSet.all().map(CassandraSQLRow.fromJavaDriverRow(_, cassandraRowMetadata)).toArray
+    resultSet.iterator().map(CassandraSQLRow.fromJavaDriverRow(_, cassandraRowMetadata))
   }
 
 }
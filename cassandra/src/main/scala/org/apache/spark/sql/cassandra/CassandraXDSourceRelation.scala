@@ -32,13 +32,14 @@ import com.datastax.spark.connector.writer.{SqlRowWriter, WriteConf}
 import com.datastax.spark.connector.{ColumnName, ColumnRef, FunctionCallRef, SomeColumns, _}
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import com.stratio.crossdata.connector.cassandra.CassandraQueryProcessor
-import com.stratio.crossdata.connector.{NativeFunctionExecutor, NativeScan}
+import com.stratio.crossdata.connector.{NativeFunctionExecutor, NativeRowIterator, StreamingNativeScan}
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.cassandra.DataTypeConverter.toStructField
 import org.apache.spark.sql.catalyst.CatalystTypeConverters
-import org.apache.spark.sql.catalyst.expressions.aggregate.Count
-import org.apache.spark.sql.catalyst.expressions.{Alias, AttributeReference, GenericRowWithSchema, Literal}
+import org.apache.spark.sql.catalyst.expressions.{AttributeReference, GenericRowWithSchema, Literal}
 import org.apache.spark.sql.catalyst.plans.logical._
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate.{AggregatedColumn, NativeFunction}
 import org.apache.spark.sql.crossdata.catalyst.{EvaluateNativeUDF, NativeUDF}
 import org.apache.spark.sql.sources.{BaseRelation, Filter, InsertableRelation, PrunedFilteredScan}
 import org.apache.spark.sql.types.{StructType, _}
@@ -63,26 +64,34 @@ class CassandraXDSourceRelation(tableRef: TableRef,
   with InsertableRelation
   with PrunedFilteredScan
   with NativeFunctionExecutor
-  with NativeScan with SparkLoggerComponent {
+  with StreamingNativeScan with SparkLoggerComponent {
 
   // NativeScan implementation ~~
 
-  override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
+  override def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[NativeRowIterator] = {
     logDebug(s"Processing ${optimizedLogicalPlan.toString()}")
     val queryExecutor = CassandraQueryProcessor(this, optimizedLogicalPlan)
 
+    // Cassandra values are converted to the Spark types of the schema as each row is read
     val toCatalyst = CatalystTypeConverters.createToCatalystConverter(optimizedLogicalPlan.schema)
     val toScala = CatalystTypeConverters.createToScalaConverter(optimizedLogicalPlan.schema)
 
     queryExecutor.execute() map { rows =>
-      rows map { row =>
-        val iRow = toCatalyst(row)
-        toScala(iRow).asInstanceOf[GenericRowWithSchema]
+      rows mapRows { row =>
+        toScala(toCatalyst(row)).asInstanceOf[GenericRowWithSchema]
       }
     }
 
   }
 
+  override def explainNativeQuery(optimizedLogicalPlan: LogicalPlan): Either[String, String] =
+    CassandraQueryProcessor(this, optimizedLogicalPlan).explain()
+
+  override def nativeDatasource: String = {
+    val cluster = tableRef.cluster getOrElse connector.hosts.map(_.getHostAddress).toSeq.sorted.mkString(",")
+    s"cassandra:$cluster/${tableRef.keyspace}"
+  }
+
   override def isSupported(logicalStep: LogicalPlan, wholeLogicalPlan: LogicalPlan): Boolean = logicalStep match {
     case ln: LeafNode => true // TODO leafNode == LogicalRelation(xdSourceRelation)
     case un: UnaryNode => un match {
@@ -93,10 +102,27 @@ class CassandraXDSourceRelation(tableRef: TableRef,
     case unsupportedLogicalPlan => log.debug(s"LogicalPlan $unsupportedLogicalPlan cannot be executed natively"); false
   }
 
+  /**
+    * Cassandra computes global aggregations whose results match Spark's. Its SUM and AVG keep the type of the
+    * column, so integral columns are only counted, compared or summed as bigint. Whether the aggregation is
+    * restricted to a single partition is checked when the query is built.
+    */
   def isAggregateSupported(aggregateLogicalPlan: Aggregate): Boolean = aggregateLogicalPlan match {
-    case Aggregate(Nil, aggregateExpressions, _) if aggregateExpressions.length == 1 =>
-      aggregateExpressions.head match {
-        case Alias(Count(Literal(1, _) :: Nil), _) => false // TODO Keep it unless Cassandra implement the count efficiently
+    case NativeAggregate(aggregation, _) if aggregation.isGlobal =>
+      aggregation.outputColumns.forall {
+        case AggregatedColumn(NativeFunction.Count, _, _) => true
+        case AggregatedColumn(NativeFunction.Min | NativeFunction.Max, Some(column), _) =>
+          column.dataType.isInstanceOf[NumericType] || column.dataType == StringType
+        case AggregatedColumn(NativeFunction.Sum, Some(column), _) =>
+          column.dataType match {
+            case LongType | DoubleType | _: DecimalType => true
+            case _ => false
+          }
+        case AggregatedColumn(NativeFunction.Avg, Some(column), _) =>
+          column.dataType match {
+            case DoubleType | _: DecimalType => true
+            case _ => false
+          }
         case _ => false
       }
     case _ => false
@@ -16,8 +16,11 @@
 package com.stratio.crossdata.connector.cassandra
 
 import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
 import org.apache.spark.sql.catalyst.expressions.{AttributeReference, Literal}
 import org.apache.spark.sql.crossdata.catalyst.NativeUDF
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate.{AggregatedColumn, GroupingColumn, NativeFunction}
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregation
 import org.apache.spark.sql.sources
 import org.apache.spark.sql.types.DataTypes
 import org.junit.runner.RunWith
@@ -49,64 +52,84 @@ class CassandraQueryProcessorSpec extends BaseXDTest {
 
   protected def getFunctionName(fid: String): String = fid.split("#").head.trim
 
+  val AgeAttribute = AttributeReference(ColumnAge, DataTypes.IntegerType)()
+  val IdAttribute = AttributeReference(ColumnId, DataTypes.StringType)()
+
+  val GlobalAggregation = NativeAggregation(Seq.empty, Seq(
+    AggregatedColumn(NativeFunction.Count, None, AttributeReference("count", DataTypes.LongType)()),
+    AggregatedColumn(NativeFunction.Sum, Some(AgeAttribute), AttributeReference("sum", DataTypes.LongType)()),
+    AggregatedColumn(NativeFunction.Avg, Some(AgeAttribute), AttributeReference("avg", DataTypes.DoubleType)())
+  ))
+
+  val GroupedAggregation = NativeAggregation(Seq(IdAttribute), Seq(
+    GroupingColumn(IdAttribute),
+    AggregatedColumn(NativeFunction.Sum, Some(AgeAttribute), AttributeReference("sum", DataTypes.LongType)())
+  ))
+
   "A CassandraQueryProcessor" should "build a query requiring some columns" in {
-    val query = CassandraQueryProcessor.buildNativeQuery(TableQN, Array(ColumnId, ColumnAge), Array(), Limit)
+    val query = CassandraQueryProcessor.buildNativeQuery(TableQN, Array(ColumnId, ColumnAge), Array(), Some(Limit))
 
     query should be(s"SELECT $ColumnId, $ColumnAge FROM $TableQN  LIMIT $Limit ALLOW FILTERING")
   }
 
+  it should "build a query without limit" in {
+    val query = CassandraQueryProcessor.buildNativeQuery(TableQN, Array(ColumnId), Array(), None)
+
+    query should be(s"SELECT $ColumnId FROM $TableQN  ALLOW FILTERING")
+  }
+
   it should "build a query with two equal filters" in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.EqualTo(ColumnAge, ValueAge), sources.EqualTo(ColumnId, ValueId)), Limit)
+      TableQN, Array(ColumnId), Array(sources.EqualTo(ColumnAge, ValueAge), sources.EqualTo(ColumnId, ValueId)), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge = $ValueAge AND $ColumnId = '$ValueId' LIMIT $Limit ALLOW FILTERING")
   }
 
   it should "build a query with a IN clause" in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.In(ColumnAge, Array(ValueAge, ValueAge2))), Limit)
+      TableQN, Array(ColumnId), Array(sources.In(ColumnAge, Array(ValueAge, ValueAge2))), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge IN ($ValueAge,$ValueAge2) LIMIT $Limit ALLOW FILTERING")
   }
 
   it should "build a query with a IN clause and a single value" in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.In(ColumnAge, Array(ValueAge))), Limit)
+      TableQN, Array(ColumnId), Array(sources.In(ColumnAge, Array(ValueAge))), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge IN ($ValueAge) LIMIT $Limit ALLOW FILTERING")
   }
 
   it should "build a query with a LT clause " in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.LessThan(ColumnAge, ValueAge)), Limit)
+      TableQN, Array(ColumnId), Array(sources.LessThan(ColumnAge, ValueAge)), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge < $ValueAge LIMIT $Limit ALLOW FILTERING")
   }
 
   it should "build a query with a LTE clause " in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.LessThanOrEqual(ColumnAge, ValueAge)), Limit)
+      TableQN, Array(ColumnId), Array(sources.LessThanOrEqual(ColumnAge, ValueAge)), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge <= $ValueAge LIMIT $Limit ALLOW FILTERING")
   }
 
   it should "build a query with a GT clause " in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.GreaterThan(ColumnAge, ValueAge)), Limit)
+      TableQN, Array(ColumnId), Array(sources.GreaterThan(ColumnAge, ValueAge)), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge > $ValueAge LIMIT $Limit ALLOW FILTERING")
   }
 
   it should "build a query with a GTE clause " in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.GreaterThanOrEqual(ColumnAge, ValueAge)), Limit)
+      TableQN, Array(ColumnId), Array(sources.GreaterThanOrEqual(ColumnAge, ValueAge)), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge >= $ValueAge LIMIT $Limit ALLOW FILTERING")
   }
 
   it should "build a query with an AND clause " in {
     val query = CassandraQueryProcessor.buildNativeQuery(
-      TableQN, Array(ColumnId), Array(sources.And(sources.GreaterThan(ColumnAge, ValueAge), sources.LessThan(ColumnAge, ValueAge2))), Limit)
+      TableQN, Array(ColumnId), Array(sources.And(sources.GreaterThan(ColumnAge, ValueAge), sources.LessThan(ColumnAge, ValueAge2))), Some(Limit))
 
     query should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnAge > $ValueAge AND $ColumnAge < $ValueAge2 LIMIT $Limit ALLOW FILTERING")
   }
@@ -123,7 +146,7 @@ class CassandraQueryProcessorSpec extends BaseXDTest {
 
     for((predicate, operatorStr) <- predicate2expectationOp) {
       val query = CassandraQueryProcessor.buildNativeQuery(
-        TableQN, Array(ColumnId), Array(predicate), Limit, udfs
+        TableQN, Array(ColumnId), Array(predicate), Some(Limit), udfs
       )
       query should be(
         s"SELECT $ColumnId FROM $TableQN WHERE ${getFunctionName(Function01)}($ColumnId) ${operatorStr} '$ValueId' LIMIT $Limit ALLOW FILTERING"
@@ -140,13 +163,54 @@ class CassandraQueryProcessorSpec extends BaseXDTest {
 
     for((f, sel) <- function2expectedSel) {
       val query = CassandraQueryProcessor.buildNativeQuery(
-        TableQN, Array(f.toString), Array.empty, Limit, udfs
+        TableQN, Array(f.toString), Array.empty, Some(Limit), udfs
       )
       query should be(s"SELECT $sel FROM $TableQN  LIMIT $Limit ALLOW FILTERING")
     }
 
   }
   
+  it should "build a global aggregation query counting the values of the summed and averaged columns" in {
+    val selectors = CassandraQueryProcessor.aggregationSelectors(GlobalAggregation)
+    selectors shouldBe Seq("count(*)", s"sum($ColumnAge)", s"avg($ColumnAge)", s"count($ColumnAge)", s"count($ColumnAge)")
+
+    val query = CassandraQueryProcessor.buildNativeQuery(TableQN, selectors, Array(sources.EqualTo(ColumnId, ValueId)), None)
+    query should be(
+      s"SELECT count(*), sum($ColumnAge), avg($ColumnAge), count($ColumnAge), count($ColumnAge) FROM $TableQN WHERE $ColumnId = '$ValueId' ALLOW FILTERING"
+    )
+  }
+
+  it should "return null sums and averages, as Spark does, when there are no values to aggregate" in {
+    val emptyInput = Iterator(Row(0L, 0L, 0.0, 0L, 0L))
+    CassandraQueryProcessor.withoutNonNullCounts(GlobalAggregation, emptyInput).toList shouldBe List(Row(0L, null, null))
+
+    val input = Iterator(Row(2L, 55L, 27.5, 2L, 2L))
+    CassandraQueryProcessor.withoutNonNullCounts(GlobalAggregation, input).toList shouldBe List(Row(2L, 55L, 27.5))
+  }
+
+  it should "aggregate natively within a partition only" in {
+    val partitionKey = Seq(ColumnId)
+    val columns = Set(ColumnId, ColumnAge)
+
+    CassandraQueryProcessor.nativeAggregationRejection(
+      GlobalAggregation, Array(sources.EqualTo(ColumnId, ValueId)), partitionKey, columns
+    ) shouldBe None
+
+    CassandraQueryProcessor.nativeAggregationRejection(
+      GlobalAggregation, Array.empty, partitionKey, columns
+    ) shouldBe Some("Aggregations are only executed natively within a partition")
+
+    CassandraQueryProcessor.nativeAggregationRejection(
+      GlobalAggregation, Array(sources.In(ColumnId, Array(ValueId))), partitionKey, columns
+    ) shouldBe Some("Aggregations are only executed natively within a partition")
+  }
+
+  it should "not aggregate natively grouped aggregations" in {
+    CassandraQueryProcessor.nativeAggregationRejection(
+      GroupedAggregation, Array(sources.EqualTo(ColumnId, ValueId)), Seq(ColumnId), Set(ColumnId, ColumnAge)
+    ) shouldBe defined
+  }
+
   /*
      "A CassandraXDSourceRelation" should "support natively a table scan" in {
 
@@ -21,6 +21,8 @@ import akka.cluster.ClusterEvent.CurrentClusterState
 import com.stratio.crossdata.common.result.SQLResult
 import com.stratio.crossdata.common.security.Session
 import com.typesafe.config.Config
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.StructType
 
 import scala.collection._
 import scala.concurrent.duration.FiniteDuration
@@ -30,11 +32,56 @@ trait Command {
   private[crossdata] val requestId = UUID.randomUUID()
 }
 
+/**
+  * Priority classes: Pending interactive jobs are always started before pending batch jobs.
+  */
+object JobPriority extends Enumeration {
+  type JobPriority = Value
+  val Interactive = Value("interactive")
+  val Batch = Value("batch")
+}
+
+/**
+  * Commands run by a server job, identified within their session by `queryId`.
+  */
+trait QueryCommand extends Command {
+  def queryId: UUID
+  def flattenResults: Boolean
+  def timeout: Option[FiniteDuration]
+  def priority: JobPriority.JobPriority
+
+  // Description of the job shown in logs and in the Spark UI
+  def description: String
+}
+
+/**
+  * @param streamResults When enabled, the result is delivered incrementally: a [[StreamedSchemaReply]] followed by
+  *                      [[StreamedRowsChunkReply]]s, each of them acknowledged by the requester through
+  *                      [[AckStreamedChunk]], and a final [[StreamCompletedReply]].
+  * @param cacheResults Allows the server to reply with (and to keep) a cached result of an equivalent query. It can
+  *                     be enabled for a whole session through the `crossdata.cache.results.enabled` property.
+  * @param priority Priority class of the job running the query.
+  * @param fetchSize Opens a server side cursor: The result is streamed (see `streamResults`) in chunks of
+  *                  `fetchSize` rows, the first one right away and the next ones on [[FetchNext]] requests. Cursors
+  *                  left idle for too long are closed by the server; [[CloseCursor]] closes them before the end.
+  * @param parameters Values bound to the `?` placeholders of `sql`, which is run as a prepared statement: Its
+  *                   analyzed plan is kept by the session and reused by later executions of the same sentence.
+  * @param profile Returns the time spent in each phase of the query along with its result, see
+  *                [[com.stratio.crossdata.common.result.QueryProfile]]. Only for results which aren't streamed.
+  */
 case class SQLCommand private(sql: String,
                                                  queryId: UUID = UUID.randomUUID(),
                                                  flattenResults: Boolean = false,
-                                                 timeout: Option[FiniteDuration] = None
-                                                ) extends Command {
+                                                 timeout: Option[FiniteDuration] = None,
+                                                 streamResults: Boolean = false,
+                                                 cacheResults: Boolean = false,
+                                                 priority: JobPriority.JobPriority = JobPriority.Interactive,
+                                                 fetchSize: Option[Int] = None,
+                                                 parameters: Option[List[StatementParameter]] = None,
+                                                 profile: Boolean = false
+                                                ) extends QueryCommand {
+
+  override def description: String = sql
 
   def this(query: String,
            retrieveColNames: Boolean,
@@ -48,6 +95,44 @@ case class SQLCommand private(sql: String,
 }
 
 
+/**
+  * Sentences run in order by a single job, which replies with a [[BatchSQLReply]]. Results are collected, so
+  * batches are meant for commands and small queries.
+  *
+  * @param stopOnError Skips the sentences following the first one which fails.
+  */
+case class BatchSQLCommand(statements: List[String],
+                           queryId: UUID = UUID.randomUUID(),
+                           flattenResults: Boolean = false,
+                           timeout: Option[FiniteDuration] = None,
+                           stopOnError: Boolean = true,
+                           priority: JobPriority.JobPriority = JobPriority.Interactive
+                          ) extends QueryCommand {
+
+  override def description: String = statements.mkString("; ")
+}
+
+/**
+  * Value bound to a `?` placeholder of a prepared statement (see [[SQLCommand]]). It's sent along with its type so
+  * the server binds the value as it was provided.
+  *
+  * @param value `null` or a value of one of the [[StatementParameter.SupportedClasses]].
+  */
+case class StatementParameter(value: Any) {
+  require(
+    value == null || StatementParameter.SupportedClasses.exists(_.isInstance(value)),
+    s"Unsupported statement parameter type: ${value.getClass.getName}"
+  )
+}
+
+object StatementParameter {
+  val SupportedClasses: Seq[Class[_]] = Seq(
+    classOf[String], classOf[java.lang.Integer], classOf[java.lang.Long], classOf[java.lang.Short],
+    classOf[java.lang.Byte], classOf[java.lang.Float], classOf[java.lang.Double], classOf[java.lang.Boolean],
+    classOf[java.math.BigDecimal], classOf[BigDecimal], classOf[java.sql.Date], classOf[java.sql.Timestamp]
+  )
+}
+
 case class AddJARCommand(path: String, hdfsConfig: Option[Config] = None,
                          timeout: Option[FiniteDuration] = None, toClassPath:Option[Boolean]= None
                         ) extends Command {
@@ -97,7 +182,18 @@ trait ControlCommand extends Command
 
 private[crossdata] case class GetJobStatus() extends ControlCommand
 
-private[crossdata] case class CancelQueryExecution(queryId: UUID) extends ControlCommand
+// Control commands targeting a running job
+private[crossdata] trait JobControlCommand extends ControlCommand {
+  def queryId: UUID
+}
+
+private[crossdata] case class CancelQueryExecution(queryId: UUID) extends JobControlCommand
+
+private[crossdata] case class AckStreamedChunk(queryId: UUID, chunkIndex: Int) extends JobControlCommand
+
+private[crossdata] case class FetchNext(queryId: UUID) extends JobControlCommand
+
+private[crossdata] case class CloseCursor(queryId: UUID) extends JobControlCommand
 
 /*
   Note that this message implies that the server trust the client in regard to the relation between the session id
@@ -115,6 +211,19 @@ private[crossdata] case class QueryCancelledReply(requestId: UUID, cancellationR
 
 private[crossdata] case class SQLReply(requestId: UUID, sqlResult: SQLResult) extends ServerReply
 
+/**
+  * @param results Results of the sentences of a [[BatchSQLCommand]] which have been run, in order. Errors
+  *                preventing the batch from being run at all are notified through [[SQLReply]].
+  */
+private[crossdata] case class BatchSQLReply(requestId: UUID, results: List[SQLResult]) extends ServerReply
+
+// Incremental result delivery (see [[SQLCommand]]#streamResults). Errors are notified through [[SQLReply]]
+private[crossdata] case class StreamedSchemaReply(requestId: UUID, schema: StructType) extends ServerReply
+
+private[crossdata] case class StreamedRowsChunkReply(requestId: UUID, chunkIndex: Int, rows: Array[Row]) extends ServerReply
+
+private[crossdata] case class StreamCompletedReply(requestId: UUID) extends ServerReply
+
 /**
   * This class encapsulates the information about the state of the Crossdata cluster.
   *
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.result
+
+/**
+  * Wall-clock time spent by a query in each phase of its execution.
+  *
+  * @param executionPath Native connector which has run the query or `Spark`.
+  * @param phases Phases in the order they have been run. Some phases include others, e.g: The global index lookup
+  *               is part of the optimization.
+  * @param totalMicros Time since the query started to be run until its result was ready to be sent.
+  */
+case class QueryProfile(executionPath: String, phases: List[QueryPhase], totalMicros: Long)
+
+case class QueryPhase(name: String, micros: Long)
+
+object QueryProfile {
+  val SparkExecutionPath = "Spark"
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.result
+
+import java.util.concurrent.TimeoutException
+
+import akka.NotUsed
+import akka.actor.Scheduler
+import akka.stream.scaladsl.Source
+import com.stratio.crossdata.common._
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.StructType
+
+import scala.collection.mutable
+import scala.concurrent.duration.{Duration, FiniteDuration}
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
+import scala.util.{Failure, Success, Try}
+
+/**
+  * Turns an incrementally delivered result ([[StreamedSchemaReply]], [[StreamedRowsChunkReply]]s and a final
+  * [[StreamCompletedReply]] or error [[SQLReply]]) into a backpressured [[Source]] of rows: Each chunk is
+  * acknowledged, thus allowing the server to send a new one, only once the consumer pulls it.
+  *
+  * @param ackChunk Acknowledges a chunk to the server.
+  * @param cancel Notifies the server that the consumer has given up before the end of the result.
+  */
+private[crossdata] class StreamedRowsReceiver(ackChunk: Int => Unit, cancel: () => Unit)
+                                             (implicit executionContext: ExecutionContext) {
+
+  private type Pull = Option[(Unit, Array[Row])]
+
+  private val schemaPromise = Promise[StructType]()
+
+  private val receivedChunks = mutable.Queue.empty[(Int, Array[Row])]
+  private var pendingPull: Option[Promise[Pull]] = None
+  private var end: Option[Try[Unit]] = None
+
+  def schema: Future[StructType] = schemaPromise.future
+
+  /**
+    * Fails the schema, and gives up the result, if the schema isn't received within the timeout. It bounds the
+    * wait of consumers which cannot rely on the server to notice that the job has died.
+    */
+  def schemaWithin(timeout: FiniteDuration, scheduler: Scheduler): Future[StructType] = {
+    val expiration = scheduler.scheduleOnce(timeout) {
+      if (schemaPromise.tryFailure(new TimeoutException(s"The result schema hasn't been received within $timeout"))) {
+        consumerTerminated()
+      }
+    }
+    schema onComplete (_ => expiration.cancel())
+    schema
+  }
+
+  def rows: Source[Row, NotUsed] =
+    Source.unfoldAsync(())(_ => nextChunk()).mapConcat(_.toList).watchTermination() { (notUsed, termination) =>
+      termination onComplete { _ => consumerTerminated() }
+      notUsed
+    }
+
+  /**
+    * Blocking alternative to `rows`.
+    *
+    * @param timeout Maximum wait for the schema and each chunk.
+    */
+  def cursor(timeout: Duration): SQLCursor = new SQLCursor {
+
+    private var chunk: Iterator[Row] = Iterator.empty
+    private var exhausted = false
+
+    override def schema: StructType = Await.result(StreamedRowsReceiver.this.schema, timeout)
+
+    override def hasNext: Boolean = chunk.hasNext || !exhausted && {
+      Await.result(nextChunk(), timeout) match {
+        case Some((_, rows)) => chunk = rows.iterator
+        case None => exhausted = true
+      }
+      hasNext
+    }
+
+    override def next(): Row = if (hasNext) chunk.next() else Iterator.empty.next()
+
+    override def close(): Unit = {
+      exhausted = true
+      chunk = Iterator.empty
+      consumerTerminated()
+    }
+  }
+
+  /**
+    * @return `true` if the reply has completed the result.
+    */
+  def receive(reply: ServerReply): Boolean = synchronized {
+    if (end.isEmpty) reply match {
+      case StreamedSchemaReply(_, streamedSchema) =>
+        schemaPromise.trySuccess(streamedSchema)
+
+      case StreamedRowsChunkReply(_, chunkIndex, chunk) =>
+        pendingPull map { pull =>
+          pendingPull = None
+          ackChunk(chunkIndex)
+          pull.success(Some(((), chunk)))
+        } getOrElse {
+          receivedChunks.enqueue(chunkIndex -> chunk)
+        }
+
+      case StreamCompletedReply(_) =>
+        finish(Success(()))
+
+      case SQLReply(_, ErrorSQLResult(message, cause)) =>
+        finish(Failure(cause.getOrElse(new RuntimeException(message))))
+
+      case other =>
+        finish(Failure(new RuntimeException(s"Unexpected reply within a streamed result: $other")))
+    }
+    end.isDefined
+  }
+
+  private def nextChunk(): Future[Pull] = synchronized {
+    if (receivedChunks.nonEmpty) {
+      val (chunkIndex, chunk) = receivedChunks.dequeue()
+      ackChunk(chunkIndex)
+      Future.successful(Some(((), chunk)))
+    } else end map {
+      case Success(_) => Future.successful(None)
+      case Failure(error) => Future.failed[Pull](error)
+    } getOrElse {
+      val pull = Promise[Pull]()
+      pendingPull = Some(pull)
+      pull.future
+    }
+  }
+
+  private def finish(result: Try[Unit]): Unit = {
+    end = Some(result)
+    result match {
+      case Failure(error) => schemaPromise.tryFailure(error)
+      case _ => schemaPromise.tryFailure(new RuntimeException("Streamed result completed without schema"))
+    }
+    pendingPull foreach { pull =>
+      pendingPull = None
+      pull.complete(result.map(_ => None))
+    }
+  }
+
+  private def consumerTerminated(): Unit = synchronized {
+    if (end.isEmpty) {
+      end = Some(Failure(new RuntimeException("Streamed result cancelled by its consumer")))
+      receivedChunks.clear()
+      cancel()
+    }
+  }
+
+}
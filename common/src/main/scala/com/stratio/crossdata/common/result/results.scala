@@ -91,7 +91,11 @@ sealed trait SQLResult extends Result {
   }
 }
 
-case class SuccessfulSQLResult(resultSet: Array[Row], schema: StructType) extends SQLResult {
+/**
+  * @param profile Time spent in each phase of the query, only returned if requested (see [[com.stratio.crossdata.common.SQLCommand]]).
+  */
+case class SuccessfulSQLResult(resultSet: Array[Row], schema: StructType, profile: Option[QueryProfile] = None)
+  extends SQLResult {
   val hasError = false
 }
 
@@ -135,6 +139,15 @@ case class StreamedErrorSQLResult(message: String, cause: Option[Throwable] = No
 }
 
 
+/**
+  * Lazy iterator over the rows of a query result held by a server side cursor: Rows are fetched as it's consumed.
+  * Closing it before the end releases the cursor.
+  */
+trait SQLCursor extends Iterator[Row] with java.io.Closeable {
+  def schema: StructType
+}
+
+
 object InternalStreamedSuccessfulSQLResult {
   implicit def schema2streamed(schema: StructType): InternalStreamedSuccessfulSQLResult = StreamedSchema(schema)
   implicit def row2streamed(row: Row)(implicit providedSchema: StructType): InternalStreamedSuccessfulSQLResult =
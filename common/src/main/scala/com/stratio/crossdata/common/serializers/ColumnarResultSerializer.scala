@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream}
+import java.nio.charset.StandardCharsets
+
+import akka.http.scaladsl.model.{ContentType, MediaType}
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.GenericRow
+import org.apache.spark.sql.catalyst.util.DateTimeUtils
+import org.apache.spark.sql.types._
+
+import scala.collection.mutable
+
+/**
+  * Binary columnar encoding of query results, an alternative to the JSON rows produced by [[RowSerializer]].
+  *
+  * A result is a sequence of frames, each of them prefixed by its length (4 bytes, big endian) and a frame kind:
+  * The schema frame comes first followed by row batch frames. Within a batch each column is written as a vector
+  * of its non-null values preceded by a null bitmap; string columns with repeated values are dictionary encoded.
+  *
+  * Only atomic types are supported, see [[ColumnarResultSerializer.supports]]: Results with nested values are
+  * still sent as JSON.
+  */
+object ColumnarResultSerializer {
+
+  val ColumnarMediaType: MediaType.Binary =
+    MediaType.applicationBinary("x-crossdata-columnar", MediaType.NotCompressible)
+
+  val ColumnarContentType: ContentType.Binary = ContentType(ColumnarMediaType)
+
+  // Rows per batch frame
+  val BatchSize = 1024
+
+  val LengthFieldSize = 4
+  val MaxFrameLength = 64 * 1024 * 1024
+
+  private val SchemaFrame: Byte = 0
+  private val RowsFrame: Byte = 1
+
+  private val PlainEncoding: Byte = 0
+  private val DictionaryEncoding: Byte = 1
+
+  def supports(schema: StructType): Boolean = schema.forall(field => isAtomic(field.dataType))
+
+  private def isAtomic(dataType: DataType): Boolean = dataType match {
+    case NullType | BooleanType | ByteType | ShortType | IntegerType | LongType | FloatType | DoubleType |
+         StringType | BinaryType | DateType | TimestampType | _: DecimalType => true
+    case _ => false
+  }
+
+  def serializeSchema(schema: StructType): Array[Byte] = frame(SchemaFrame) { out =>
+    writeString(out, schema.json)
+  }
+
+  def serializeRows(schema: StructType, rows: Seq[Row]): Array[Byte] = frame(RowsFrame) { out =>
+    out.writeInt(rows.size)
+    schema.fields.zipWithIndex foreach { case (field, idx) =>
+      val values = rows.map(row => if (row.isNullAt(idx)) null else row.get(idx))
+      writeNulls(out, values)
+      writeColumn(out, field.dataType, values.filter(_ != null))
+    }
+  }
+
+  /**
+    * @param frame A complete frame, including its length prefix.
+    */
+  def deserializeSchema(frame: Array[Byte]): StructType = {
+    val in = frameInput(frame, SchemaFrame)
+    DataType.fromJson(readString(in)).asInstanceOf[StructType]
+  }
+
+  /**
+    * @param frame A complete frame, including its length prefix.
+    */
+  def deserializeRows(schema: StructType, frame: Array[Byte]): Seq[Row] = {
+    val in = frameInput(frame, RowsFrame)
+    val nRows = in.readInt()
+    val columns: Array[Array[Any]] = schema.fields map { field =>
+      val nulls = readNulls(in, nRows)
+      val values = readColumn(in, field.dataType, nRows - nulls.count(identity)).iterator
+      Array.tabulate[Any](nRows)(i => if (nulls(i)) null else values.next())
+    }
+    Seq.tabulate(nRows)(i => new GenericRow(columns.map(_(i))))
+  }
+
+  private def frame(kind: Byte)(writeBody: DataOutputStream => Unit): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream()
+    val out = new DataOutputStream(bytes)
+    out.writeInt(0) // Length placeholder
+    out.writeByte(kind)
+    writeBody(out)
+    out.flush()
+
+    val result = bytes.toByteArray
+    val length = result.length - LengthFieldSize
+    (0 until LengthFieldSize) foreach { i =>
+      result(i) = (length >>> (8 * (LengthFieldSize - 1 - i))).toByte
+    }
+    result
+  }
+
+  private def frameInput(frame: Array[Byte], expectedKind: Byte): DataInputStream = {
+    val in = new DataInputStream(new ByteArrayInputStream(frame))
+    in.readInt()
+    val kind = in.readByte()
+    require(kind == expectedKind, s"Unexpected columnar result frame kind $kind, $expectedKind was expected")
+    in
+  }
+
+  private def writeNulls(out: DataOutputStream, values: Seq[Any]): Unit =
+    if (!values.contains(null)) out.writeBoolean(false)
+    else {
+      out.writeBoolean(true)
+      values.grouped(8) foreach { group =>
+        out.writeByte(group.zipWithIndex.foldLeft(0) { case (bits, (v, i)) => if (v == null) bits | (1 << i) else bits })
+      }
+    }
+
+  private def readNulls(in: DataInputStream, nRows: Int): Array[Boolean] =
+    if (!in.readBoolean()) Array.fill(nRows)(false)
+    else {
+      val bitmap = Array.fill((nRows + 7) / 8)(in.readByte())
+      Array.tabulate(nRows)(i => (bitmap(i / 8) & (1 << (i % 8))) != 0)
+    }
+
+  private def writeColumn(out: DataOutputStream, dataType: DataType, values: Seq[Any]): Unit = dataType match {
+    case NullType =>
+    case BooleanType => values.foreach(v => out.writeBoolean(v.asInstanceOf[Boolean]))
+    case ByteType => values.foreach(v => out.writeByte(v.asInstanceOf[Byte]))
+    case ShortType => values.foreach(v => out.writeShort(v.asInstanceOf[Short]))
+    case IntegerType => values.foreach(v => out.writeInt(v.asInstanceOf[Int]))
+    case LongType => values.foreach(v => out.writeLong(v.asInstanceOf[Long]))
+    case FloatType => values.foreach(v => out.writeFloat(v.asInstanceOf[Float]))
+    case DoubleType => values.foreach(v => out.writeDouble(v.asInstanceOf[Double]))
+    case DateType => values foreach {
+      case days: Int => out.writeInt(days)
+      case date: java.sql.Date => out.writeInt(DateTimeUtils.fromJavaDate(date))
+    }
+    case TimestampType => values foreach {
+      case micros: Long => out.writeLong(micros)
+      case timestamp: java.sql.Timestamp => out.writeLong(DateTimeUtils.fromJavaTimestamp(timestamp))
+    }
+    case _: DecimalType => values foreach {
+      case decimal: Decimal => writeString(out, decimal.toJavaBigDecimal.toString)
+      case decimal => writeString(out, decimal.toString)
+    }
+    case BinaryType => values foreach { v =>
+      val bytes = v.asInstanceOf[Array[Byte]]
+      out.writeInt(bytes.length)
+      out.write(bytes)
+    }
+    case StringType => writeStrings(out, values.map(_.toString))
+  }
+
+  private def readColumn(in: DataInputStream, dataType: DataType, n: Int): Seq[Any] = dataType match {
+    case NullType => Seq.empty
+    case BooleanType => Seq.fill(n)(in.readBoolean())
+    case ByteType => Seq.fill(n)(in.readByte())
+    case ShortType => Seq.fill(n)(in.readShort())
+    case IntegerType => Seq.fill(n)(in.readInt())
+    case LongType => Seq.fill(n)(in.readLong())
+    case FloatType => Seq.fill(n)(in.readFloat())
+    case DoubleType => Seq.fill(n)(in.readDouble())
+    case DateType => Seq.fill(n)(DateTimeUtils.toJavaDate(in.readInt()))
+    case TimestampType => Seq.fill(n)(DateTimeUtils.toJavaTimestamp(in.readLong()))
+    case _: DecimalType => Seq.fill(n)(new java.math.BigDecimal(readString(in)))
+    case BinaryType => Seq.fill(n) {
+      val bytes = new Array[Byte](in.readInt())
+      in.readFully(bytes)
+      bytes
+    }
+    case StringType => readStrings(in, n)
+  }
+
+  // Dictionary encoding pays off when, on average, each distinct value appears at least twice
+  private def writeStrings(out: DataOutputStream, values: Seq[String]): Unit = {
+    val dictionary = mutable.LinkedHashMap.empty[String, Int]
+    values.foreach(v => dictionary.getOrElseUpdate(v, dictionary.size))
+
+    if (dictionary.size * 2 > values.size) {
+      out.writeByte(PlainEncoding)
+      values.foreach(writeString(out, _))
+    } else {
+      out.writeByte(DictionaryEncoding)
+      out.writeInt(dictionary.size)
+      dictionary.keys.foreach(writeString(out, _))
+      val writeCode = codeWriter(out, dictionary.size)
+      values.foreach(v => writeCode(dictionary(v)))
+    }
+  }
+
+  private def readStrings(in: DataInputStream, n: Int): Seq[String] = in.readByte() match {
+    case PlainEncoding => Seq.fill(n)(readString(in))
+    case DictionaryEncoding =>
+      val dictionary = Array.fill(in.readInt())(readString(in))
+      val readCode = codeReader(in, dictionary.length)
+      Seq.fill(n)(dictionary(readCode()))
+  }
+
+  // Dictionary codes take the fewest bytes able to represent every entry
+  private def codeWriter(out: DataOutputStream, dictionarySize: Int): Int => Unit =
+    if (dictionarySize <= (1 << 8)) out.writeByte
+    else if (dictionarySize <= (1 << 16)) out.writeShort
+    else out.writeInt
+
+  private def codeReader(in: DataInputStream, dictionarySize: Int): () => Int =
+    if (dictionarySize <= (1 << 8)) () => in.readUnsignedByte()
+    else if (dictionarySize <= (1 << 16)) () => in.readUnsignedShort()
+    else () => in.readInt()
+
+  private def writeString(out: DataOutputStream, str: String): Unit = {
+    val bytes = str.getBytes(StandardCharsets.UTF_8)
+    out.writeInt(bytes.length)
+    out.write(bytes)
+  }
+
+  private def readString(in: DataInputStream): String = {
+    val bytes = new Array[Byte](in.readInt())
+    in.readFully(bytes)
+    new String(bytes, StandardCharsets.UTF_8)
+  }
+
+}
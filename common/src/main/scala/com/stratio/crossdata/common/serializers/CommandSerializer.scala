@@ -17,6 +17,7 @@ package com.stratio.crossdata.common.serializers
 
 import com.stratio.crossdata.common._
 import org.json4s._
+import org.json4s.ext.EnumNameSerializer
 import CommandSerializerHelper._
 
 import scala.reflect.ClassTag
@@ -34,10 +35,12 @@ private [serializers] object CommandSerializerHelper {
       CommandWithName(None)
   }
 
-  implicit val _ = DefaultFormats + UUIDSerializer + FiniteDurationSerializer
+  implicit val _ = DefaultFormats + UUIDSerializer + FiniteDurationSerializer + StatementParameterSerializer +
+    new EnumNameSerializer(JobPriority)
 
   val commandExtractor = Map[String, JValue => Command](
     "SQLCommand" -> { jSQLCommand => (jSQLCommand \ "details").extract[SQLCommand] },
+    "BatchSQLCommand" -> { jSQLCommand => (jSQLCommand \ "details").extract[BatchSQLCommand] },
     "CancelQueryExecution" -> { jSQLCommand => (jSQLCommand \ "details").extract[CancelQueryExecution] },
     "OpenSessionCommand" -> { jSQLCommand => (jSQLCommand \ "details").extract[OpenSessionCommand] },
     "CloseSessionCommand" -> { _.extract[CloseSessionCommand] },
@@ -47,6 +50,8 @@ private [serializers] object CommandSerializerHelper {
   val commandSerializer: PartialFunction[Any, JValue] = {
     case command: SQLCommand =>
       Extraction.decompose(CommandWithName(command))
+    case command: BatchSQLCommand =>
+      Extraction.decompose(CommandWithName(command))
     case command: OpenSessionCommand =>
       Extraction.decompose(CommandWithName(command))
     case _: CloseSessionCommand =>
@@ -15,7 +15,7 @@
  */
 package com.stratio.crossdata.common.serializers
 
-import com.stratio.crossdata.common.result.{ErrorSQLResult, SQLResult, SuccessfulSQLResult}
+import com.stratio.crossdata.common.result.{ErrorSQLResult, QueryProfile, SQLResult, SuccessfulSQLResult}
 import org.apache.spark.sql.Row
 import org.apache.spark.sql.crossdata.serializers.StructTypeSerializer
 import org.apache.spark.sql.types.StructType
@@ -28,6 +28,7 @@ object SQLResultSerializerHelper {
     val ERRORMSG = "error"
     val SCHEMA   = "schema"
     val ROWS     = "rows"
+    val PROFILE  = "profile"
   }
 }
 
@@ -37,7 +38,7 @@ object SQLResultSerializer extends CustomSerializer[SQLResult]( format => (
   {
     case JObject(JField(SUCCESS, JBool(false))::JField(ERRORMSG, JString(message))::_) =>
       ErrorSQLResult(message)
-    case JObject(JField(SUCCESS, JBool(true))::JField(SCHEMA, json_schema)::JField(ROWS, JArray(json_rows)) ::_) =>
+    case json @ JObject(JField(SUCCESS, JBool(true))::JField(SCHEMA, json_schema)::JField(ROWS, JArray(json_rows)) ::_) =>
 
       val schema = {
         implicit val formats = DefaultFormats + StructTypeSerializer
@@ -47,14 +48,15 @@ object SQLResultSerializer extends CustomSerializer[SQLResult]( format => (
       implicit val formats = DefaultFormats + StructTypeSerializer + RowSerializer(schema)
 
       val rows = json_rows.map(_.extract[Row]).toArray
-      SuccessfulSQLResult(rows, schema)
+      SuccessfulSQLResult(rows, schema, (json \ PROFILE).extractOpt[QueryProfile])
   },
   {
     case ErrorSQLResult(message, _) =>
       (SUCCESS -> false) ~ (ERRORMSG -> message)
-    case SuccessfulSQLResult(resultSet, schema) =>
+    case SuccessfulSQLResult(resultSet, schema, profile) =>
       implicit val formats = DefaultFormats + StructTypeSerializer + RowSerializer(schema)
-      (SUCCESS -> true) ~ (SCHEMA -> Extraction.decompose(schema)) ~ (ROWS -> Extraction.decompose(resultSet))
+      (SUCCESS -> true) ~ (SCHEMA -> Extraction.decompose(schema)) ~ (ROWS -> Extraction.decompose(resultSet)) ~
+        (PROFILE -> profile.map(p => Extraction.decompose(p)))
   }
   )
 )
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import java.sql.{Date, Timestamp}
+
+import com.stratio.crossdata.common.StatementParameter
+import org.json4s.JsonAST._
+import org.json4s.JsonDSL._
+import org.json4s.{CustomSerializer, MappingException}
+
+/**
+  * Statement parameters are serialized as their type name along with their JSON value, so they're deserialized as
+  * the same type they had.
+  */
+object StatementParameterSerializer extends CustomSerializer[StatementParameter](formats =>
+  (
+    {
+      case jParameter: JObject =>
+        val value = (jParameter \ "type", jParameter \ "value") match {
+          case (_, JNull) => null
+          case (JString("string"), JString(v)) => v
+          case (JString("integer"), JInt(v)) => v.toInt
+          case (JString("long"), JInt(v)) => v.toLong
+          case (JString("short"), JInt(v)) => v.toShort
+          case (JString("byte"), JInt(v)) => v.toByte
+          case (JString("float"), JDouble(v)) => v.toFloat
+          case (JString("double"), JDouble(v)) => v
+          case (JString("boolean"), JBool(v)) => v
+          case (JString("decimal"), JString(v)) => new java.math.BigDecimal(v)
+          case (JString("date"), JString(v)) => Date.valueOf(v)
+          case (JString("timestamp"), JString(v)) => Timestamp.valueOf(v)
+          case _ => throw new MappingException(s"Can't deserialize statement parameter $jParameter")
+        }
+        StatementParameter(value)
+    },
+    {
+      case StatementParameter(value) =>
+        val (typeName, jValue): (String, JValue) = value match {
+          case null => ("null", JNull)
+          case v: String => ("string", JString(v))
+          case v: Int => ("integer", JInt(v))
+          case v: Long => ("long", JInt(v))
+          case v: Short => ("short", JInt(v.toInt))
+          case v: Byte => ("byte", JInt(v.toInt))
+          case v: Float => ("float", JDouble(v.toDouble))
+          case v: Double => ("double", JDouble(v))
+          case v: Boolean => ("boolean", JBool(v))
+          case v: java.math.BigDecimal => ("decimal", JString(v.toString))
+          case v: BigDecimal => ("decimal", JString(v.toString))
+          case v: Date => ("date", JString(v.toString))
+          case v: Timestamp => ("timestamp", JString(v.toString))
+        }
+        ("type" -> typeName) ~ ("value" -> jValue)
+    }
+  )
+)
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.util
+
+import java.io.{BufferedInputStream, File, FileInputStream}
+import java.security.MessageDigest
+
+/**
+  * SHA-256 hashes identifying files by their content, e.g: Jars uploaded to the servers.
+  */
+object ContentHash {
+
+  val Algorithm = "SHA-256"
+
+  val HexPattern = "[0-9a-f]{64}"
+
+  def newDigest(): MessageDigest = MessageDigest.getInstance(Algorithm)
+
+  def hex(digest: MessageDigest): String = digest.digest().map("%02x".format(_)).mkString
+
+  def ofFile(file: File): String = {
+    val digest = newDigest()
+    val in = new BufferedInputStream(new FileInputStream(file))
+    try {
+      val buffer = new Array[Byte](64 * 1024)
+      Iterator.continually(in.read(buffer)).takeWhile(_ != -1).foreach(digest.update(buffer, 0, _))
+    } finally in.close()
+    hex(digest)
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.result
+
+import java.util.UUID
+import java.util.concurrent.TimeoutException
+
+import akka.actor.ActorSystem
+import akka.stream.ActorMaterializer
+import akka.stream.scaladsl.Sink
+import com.stratio.crossdata.common.{SQLReply, StreamCompletedReply, StreamedRowsChunkReply, StreamedSchemaReply}
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.{IntegerType, StructField, StructType}
+import org.junit.runner.RunWith
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.concurrent.Eventually
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.time.{Seconds, Span}
+
+import scala.collection.mutable
+import scala.concurrent.Await
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+
+@RunWith(classOf[JUnitRunner])
+class StreamedRowsReceiverSpec extends BaseXDTest with BeforeAndAfterAll with Eventually {
+
+  implicit val system = ActorSystem("StreamedRowsReceiverSpec")
+  implicit val materializer = ActorMaterializer()
+
+  val requestId = UUID.randomUUID()
+  val schema = StructType(StructField("id", IntegerType) :: Nil)
+
+  override def afterAll(): Unit = system.terminate()
+
+  "A StreamedRowsReceiver" should "only acknowledge the chunks pulled by the consumer" in {
+    val acks = mutable.ListBuffer.empty[Int]
+    val receiver = new StreamedRowsReceiver(chunkIndex => acks.synchronized(acks += chunkIndex), () => ())
+
+    receiver.receive(StreamedSchemaReply(requestId, schema)) shouldBe false
+    receiver.receive(StreamedRowsChunkReply(requestId, 0, Array(Row(1), Row(2)))) shouldBe false
+    receiver.receive(StreamedRowsChunkReply(requestId, 1, Array(Row(3)))) shouldBe false
+    receiver.receive(StreamCompletedReply(requestId)) shouldBe true
+
+    acks shouldBe empty
+
+    Await.result(receiver.schema, 5 seconds) shouldBe schema
+    Await.result(receiver.rows.runWith(Sink.seq), 5 seconds) shouldBe Seq(Row(1), Row(2), Row(3))
+    acks shouldBe Seq(0, 1)
+  }
+
+  it should "fail both the schema and the rows when the server notifies an error" in {
+    val receiver = new StreamedRowsReceiver(_ => (), () => ())
+
+    receiver.receive(SQLReply(requestId, ErrorSQLResult("Query failed"))) shouldBe true
+
+    the [RuntimeException] thrownBy Await.result(receiver.schema, 5 seconds) should have message "Query failed"
+    the [RuntimeException] thrownBy {
+      Await.result(receiver.rows.runWith(Sink.seq), 5 seconds)
+    } should have message "Query failed"
+  }
+
+  it should "cancel the server side execution when the consumer gives up" in {
+    @volatile var cancelled = false
+    val receiver = new StreamedRowsReceiver(_ => (), () => cancelled = true)
+
+    receiver.receive(StreamedSchemaReply(requestId, schema))
+    receiver.receive(StreamedRowsChunkReply(requestId, 0, Array(Row(1), Row(2))))
+
+    Await.result(receiver.rows.take(1).runWith(Sink.seq), 5 seconds) shouldBe Seq(Row(1))
+    eventually(timeout(Span(5, Seconds))) {
+      cancelled shouldBe true
+    }
+  }
+
+  it should "give up the result when its schema isn't received in time" in {
+    @volatile var cancelled = false
+    val receiver = new StreamedRowsReceiver(_ => (), () => cancelled = true)
+
+    a [TimeoutException] should be thrownBy Await.result(receiver.schemaWithin(100 milliseconds, system.scheduler), 5 seconds)
+    cancelled shouldBe true
+    receiver.receive(StreamedSchemaReply(requestId, schema)) shouldBe true
+  }
+
+  it should "fetch a new chunk each time a cursor consumes the previous one" in {
+    val fetches = mutable.ListBuffer.empty[Int]
+    @volatile var closed = false
+    val receiver = new StreamedRowsReceiver(chunkIndex => fetches.synchronized(fetches += chunkIndex), () => closed = true)
+    val cursor = receiver.cursor(5 seconds)
+
+    receiver.receive(StreamedSchemaReply(requestId, schema))
+    receiver.receive(StreamedRowsChunkReply(requestId, 0, Array(Row(1), Row(2))))
+
+    cursor.schema shouldBe schema
+    cursor.take(2).toList shouldBe List(Row(1), Row(2))
+    fetches shouldBe Seq(0)
+
+    receiver.receive(StreamedRowsChunkReply(requestId, 1, Array(Row(3))))
+    cursor.next() shouldBe Row(3)
+    fetches shouldBe Seq(0, 1)
+
+    cursor.close()
+    closed shouldBe true
+    cursor.hasNext shouldBe false
+  }
+
+}
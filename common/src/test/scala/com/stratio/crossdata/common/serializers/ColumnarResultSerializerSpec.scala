@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import java.sql.{Date, Timestamp}
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types._
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class ColumnarResultSerializerSpec extends BaseXDTest {
+
+  import ColumnarResultSerializer._
+
+  val schema = StructType(List(
+    StructField("int", IntegerType, true),
+    StructField("long", LongType, true),
+    StructField("string", StringType, true),
+    StructField("boolean", BooleanType, true),
+    StructField("double", DoubleType, true),
+    StructField("float", FloatType, true),
+    StructField("decimal", DecimalType(10, 2), true),
+    StructField("date", DateType, true),
+    StructField("timestamp", TimestampType, true),
+    StructField("smallint", ShortType, true),
+    StructField("tinyint", ByteType, true),
+    StructField("binary", BinaryType, true)
+  ))
+
+  def row(i: Int): Row = Row(
+    i,
+    i * 1000000000L,
+    s"value${i % 3}",
+    i % 2 == 0,
+    i / 3.0,
+    i / 2.0f,
+    new java.math.BigDecimal(s"$i.25"),
+    Date.valueOf("2016-09-01"),
+    Timestamp.valueOf("2016-09-01 10:20:30.123"),
+    i.toShort,
+    i.toByte,
+    Array[Byte](1, i.toByte)
+  )
+
+  // Binary values are compared by content
+  def comparable(rows: Seq[Row]): Seq[Seq[Any]] = rows.map(_.toSeq.map {
+    case bytes: Array[Byte] => bytes.toList
+    case other => other
+  })
+
+  "A ColumnarResultSerializer" should "serialize and deserialize schemas" in {
+    deserializeSchema(serializeSchema(schema)) shouldBe schema
+  }
+
+  it should "serialize and deserialize batches of rows with every supported type" in {
+    val rows = (1 to 20).map(row)
+    comparable(deserializeRows(schema, serializeRows(schema, rows))) shouldBe comparable(rows)
+  }
+
+  it should "keep null values" in {
+    val rows = Seq(row(1), Row.fromSeq(Seq.fill(schema.length)(null)), row(2))
+    comparable(deserializeRows(schema, serializeRows(schema, rows))) shouldBe comparable(rows)
+  }
+
+  it should "encode repeated strings with a dictionary" in {
+    val stringSchema = StructType(StructField("string", StringType, true) :: Nil)
+    val repeated = Seq.fill(1000)(Row("a rather long repeated value"))
+    val distinct = (1 to 1000).map(i => Row(s"a rather long distinct value $i"))
+
+    serializeRows(stringSchema, repeated).length should be < serializeRows(stringSchema, distinct).length / 10
+    deserializeRows(stringSchema, serializeRows(stringSchema, repeated)) shouldBe repeated
+  }
+
+  it should "prefix each frame with its length" in {
+    val frame = serializeRows(schema, Seq(row(1)))
+    BigInt(frame.take(LengthFieldSize)).toInt shouldBe frame.length - LengthFieldSize
+  }
+
+  it should "only support schemas made of atomic types" in {
+    supports(schema) shouldBe true
+    supports(StructType(StructField("array", ArrayType(IntegerType), true) :: Nil)) shouldBe false
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package com.stratio.crossdata.common.serializers
 
+import java.sql.Date
 import java.util.UUID
 
 import com.stratio.crossdata.common.serializers.XDSerializationTest.TestCase
@@ -34,6 +35,17 @@ class CommandSerializerSpec extends XDSerializationTest[Command] with CrossdataC
     TestCase("marshall & unmarshall a SQLCommand 0", SQLCommand("select * from highschool")),
     TestCase("marshall & unmarshall a SQLCommand 1", SQLCommand("select * from highschool", flattenResults = true)),
     TestCase("marshall & unmarshall a SQLCommand 2", SQLCommand("select * from highschool", timeout = Some(5 seconds))),
+    TestCase("marshall & unmarshall a SQLCommand 3", SQLCommand("select * from highschool", priority = JobPriority.Batch)),
+    TestCase("marshall & unmarshall a SQLCommand 4", SQLCommand(
+      "select * from highschool where id = ? and name = ? and age > ? and birth = ? and score < ? and active = ?",
+      parameters = Some(List(
+        StatementParameter(1L), StatementParameter("Sam"), StatementParameter(null), StatementParameter(Date.valueOf("2001-02-03")),
+        StatementParameter(new java.math.BigDecimal("9.50")), StatementParameter(true)
+      ))
+    )),
+    TestCase("marshall & unmarshall a BatchSQLCommand", BatchSQLCommand(
+      List("CREATE TEMPORARY VIEW v AS SELECT * FROM highschool", "SELECT * FROM v"), stopOnError = false
+    )),
     TestCase("marshall & unmarshall an OpenSessionCommand", OpenSessionCommand("usr")),
     TestCase("marshall & unmarshall an CloseSessionCommand", CloseSessionCommand()),
     TestCase("marshall & unmarshall an CancelQueryExecution", CancelQueryExecution(UUID.randomUUID()))
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import com.stratio.crossdata.common.result.{QueryPhase, QueryProfile, SQLResult, SuccessfulSQLResult}
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.{IntegerType, StructField, StructType}
+import org.json4s.Extraction
+import org.json4s.jackson.JsonMethods._
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class SQLResultSerializerSpec extends BaseXDTest with CrossdataCommonSerializer {
+
+  val schema = StructType(StructField("id", IntegerType, true) :: Nil)
+  val rows = Array[Row](Row(1), Row(2))
+
+  def roundTrip(result: SQLResult): SuccessfulSQLResult =
+    parse(compact(render(Extraction.decompose(result))), false).extract[SQLResult].asInstanceOf[SuccessfulSQLResult]
+
+  "A SQLResultSerializer" should "serialize successful results without profile" in {
+    val extracted = roundTrip(SuccessfulSQLResult(rows, schema))
+
+    extracted.schema shouldBe schema
+    extracted.resultSet.toSeq shouldBe rows.toSeq
+    extracted.profile shouldBe None
+  }
+
+  it should "serialize the query profile of successful results" in {
+    val profile = QueryProfile("CassandraXDSourceRelation", List(QueryPhase("analysis", 120), QueryPhase("nativeExecution", 3000)), 3500)
+
+    roundTrip(SuccessfulSQLResult(rows, schema, Some(profile))).profile shouldBe Some(profile)
+  }
+
+}
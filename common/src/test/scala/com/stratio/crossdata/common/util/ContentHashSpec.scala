@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.util
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class ContentHashSpec extends BaseXDTest {
+
+  val content = "abc".getBytes(StandardCharsets.UTF_8)
+  val contentHash = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad"
+
+  "A ContentHash" should "hash file contents as SHA-256 hexadecimal strings" in {
+    val file = Files.createTempFile("contentHash", ".jar")
+    try {
+      Files.write(file, content)
+      ContentHash.ofFile(file.toFile) shouldBe contentHash
+    } finally Files.delete(file)
+  }
+
+  it should "hash content digested in chunks as a whole" in {
+    val digest = ContentHash.newDigest()
+    content.grouped(2).foreach(digest.update)
+    ContentHash.hex(digest) shouldBe contentHash
+    contentHash should fullyMatch regex ContentHash.HexPattern
+  }
+
+}
@@ -15,6 +15,8 @@
  */
 package com.stratio.crossdata.connector
 
+import java.io.Closeable
+
 import org.apache.spark.annotation.DeveloperApi
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.{Row, SQLContext}
@@ -23,17 +25,125 @@ import org.apache.spark.sql.crossdata.catalyst.NativeUDF
 import org.apache.spark.sql.sources.{DataSourceRegister, Filter}
 import org.apache.spark.sql.types.{DataType, StructType}
 
+import scala.collection.mutable.ArrayBuffer
 import scala.util.Try
 
 
 /**
  * A BaseRelation that can execute the whole logical plan without running the query
  * on the Spark cluster. If a specific logical plan cannot be resolved by the datasource
- * a None should be returned and the process will be executed on Spark.
+ * a None should be returned and the process will be executed on Spark. Errors of the datasource
+ * should be thrown instead: the process is executed on Spark too, but the failure is accounted by
+ * the circuit breaker of the datasource.
  */
 @DeveloperApi
 trait NativeScan extends PushDownable {
   def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]]
+
+  /**
+   * Describes the query which would be sent to the datasource to execute a logical plan natively. It is
+   * shown by EXPLAIN ANALYZE.
+   *
+   * @param optimizedLogicalPlan the logical plan once it has been processed by the parser, analyzer and optimizer.
+   * @return the native query or the reason why the plan cannot be executed natively
+   */
+  def explainNativeQuery(optimizedLogicalPlan: LogicalPlan): Either[String, String] =
+    Left("The datasource doesn't describe its native queries")
+
+  /**
+   * Identifies the datasource the native queries are sent to (e.g: its cluster and keyspace) so the failures of a
+   * datasource don't prevent the native executions of other datasources of the same connector.
+   */
+  def nativeDatasource: String = getClass.getSimpleName
+}
+
+/**
+ * A [[NativeScan]] whose results are read as the datasource returns them instead of being materialized first.
+ */
+@DeveloperApi
+trait StreamingNativeScan extends NativeScan {
+
+  /**
+   * @param optimizedLogicalPlan the logical plan once it has been processed by the parser, analyzer and optimizer.
+   * @return the rows resulting from the native execution or None if the plan cannot be executed natively.
+   */
+  def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[NativeRowIterator]
+
+  override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] =
+    buildScanIterator(optimizedLogicalPlan).map(_.drain())
+}
+
+/**
+ * Rows of a native execution, already converted to the Spark types of its schema. It is closed once fully
+ * consumed; otherwise it must be closed in order to release the resources of the datasource (e.g: cursors).
+ */
+@DeveloperApi
+class NativeRowIterator(val schema: StructType, rows: Iterator[Row], onClose: () => Unit = () => ())
+  extends Iterator[Row] with Closeable {
+
+  private var closed = false
+
+  override def hasNext: Boolean = {
+    val more = !closed && rows.hasNext
+    if (!more) close()
+    more
+  }
+
+  override def next(): Row = rows.next()
+
+  override def close(): Unit = if (!closed) {
+    closed = true
+    onClose()
+  }
+
+  /**
+   * Transforms the rows which haven't been consumed yet, closing the datasource resources when the result is closed.
+   */
+  def mapRows(f: Row => Row): NativeRowIterator = new NativeRowIterator(schema, rows map f, () => close())
+
+  /**
+   * Reads the rows which haven't been consumed yet and closes the iterator.
+   */
+  def drain(): Array[Row] = try toArray finally close()
+
+  /**
+   * Reads the rows which haven't been consumed yet as long as they fit in the budget, and closes the iterator.
+   *
+   * @param maxRows maximum number of rows to read
+   * @param maxBytes maximum estimated size of the rows to read, see [[NativeRowIterator.estimatedSize]]
+   * @return the rows or None if they exceed the budget
+   */
+  def drain(maxRows: Long, maxBytes: Long): Option[Array[Row]] = try {
+    val result = ArrayBuffer.empty[Row]
+    var bytes = 0L
+    while (result.length <= maxRows && bytes <= maxBytes && hasNext) {
+      val row = next()
+      bytes += NativeRowIterator.estimatedSize(row)
+      result += row
+    }
+    if (result.length > maxRows || bytes > maxBytes) None else Some(result.toArray)
+  } finally close()
+
+}
+
+object NativeRowIterator {
+  def empty(schema: StructType): NativeRowIterator = new NativeRowIterator(schema, Iterator.empty)
+
+  private val ReferenceSize = 8
+
+  /**
+   * Rough size of a row in memory, computed from its values without inspecting the JVM objects.
+   */
+  def estimatedSize(value: Any): Long = value match {
+    case null => ReferenceSize
+    case string: String => ReferenceSize + 2L * string.length
+    case bytes: Array[Byte] => ReferenceSize + bytes.length
+    case row: Row => ReferenceSize + (0 until row.length).map(i => estimatedSize(row.get(i))).sum
+    case map: scala.collection.Map[_, _] => ReferenceSize + map.map { case (k, v) => estimatedSize(k) + estimatedSize(v) }.sum
+    case iterable: Iterable[_] => ReferenceSize + iterable.map(estimatedSize).sum
+    case _: java.math.BigDecimal => 4L * ReferenceSize
+    case _ => 2L * ReferenceSize
+  }
 }
 
 /**
@@ -15,7 +15,7 @@
  */
 package com.stratio.crossdata.util
 
-import java.io.{BufferedInputStream, File, FileInputStream, InputStream}
+import java.io.{BufferedInputStream, File, FileInputStream, InputStream, OutputStream}
 
 import akka.event.slf4j.SLF4JLogging
 import com.typesafe.config.Config
@@ -33,6 +33,15 @@ case class HdfsUtils(dfs: FileSystem, userName: String) {
 
   def fileExist(fileName:String): Boolean = dfs.exists(new Path(fileName))
 
+  def create(fileName: String): OutputStream = dfs.create(new Path(fileName), false)
+
+  def mkdirs(path: String): Boolean = dfs.mkdirs(new Path(path))
+
+  /**
+    * @return false if the file couldn't be renamed, e.g: the destination already exists.
+    */
+  def rename(src: String, dst: String): Boolean = dfs.rename(new Path(src), new Path(dst))
+
   def delete(path: String): Unit = {
     dfs.delete(new Path(path), true)
   }
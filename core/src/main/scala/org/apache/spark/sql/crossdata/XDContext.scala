@@ -45,10 +45,11 @@ import org.apache.spark.sql.crossdata.catalyst.execution.ImportTablesUsingWithOp
 import org.apache.spark.sql.crossdata.catalyst.optimizer.XDOptimizer
 import org.apache.spark.sql.crossdata.catalyst.parser.{CrossdataParserDialect, XDDdlParser}
 import org.apache.spark.sql.crossdata.catalyst.planning.{ExtendedDataSourceStrategy, XDStrategies}
-import org.apache.spark.sql.crossdata.catalyst.{ExtractNativeUDFs, NativeUDF, XDFunctionRegistry}
+import org.apache.spark.sql.crossdata.catalyst.{ExtractNativeUDFs, NativeUDF, ParameterPlaceholder, PlanCache, PreparedPlan, XDFunctionRegistry}
 import org.apache.spark.sql.crossdata.config.CoreConfig
 import org.apache.spark.sql.crossdata.execution.XDQueryExecution
 import org.apache.spark.sql.crossdata.launcher.SparkJobLauncher
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
 import org.apache.spark.sql.crossdata.user.functions.GroupConcat
 import org.apache.spark.sql.execution.{ExtractPythonUDFs, SparkSQLParser}
 import org.apache.spark.sql.execution.datasources.{PreInsertCastAndRename, PreWriteCheck}
@@ -234,8 +235,65 @@ class XDContext protected(@transient val sc: SparkContext,
     )
   }
 
+  /**
+    * The parsed plan of a repeated sentence is reused as long as the catalog doesn't change, see [[PlanCache]].
+    */
   override def sql(sqlText: String): DataFrame = {
-    XDDataFrame(this, parseSql(sqlText))
+    val parsingStart = System.nanoTime()
+    val parsed = parsedPlans.getOrElseUpdate(parsedPlanKey(sqlText), XDCatalog.catalogEpoch) {
+      XDMetricsSource.timed(XDMetricsSource.queriesParsing)(parseSql(sqlText))
+    }
+    val parsingTime = System.nanoTime() - parsingStart
+
+    val df = XDDataFrame(this, parsed)
+    df.queryExecution match {
+      case xdQueryExecution: XDQueryExecution => xdQueryExecution.profiler.recordPrevious("parsing", parsingTime)
+      case _ =>
+    }
+    df
+  }
+
+  @transient
+  private lazy val parsedPlans = new PlanCache[LogicalPlan](
+    Try(xdConfig.getInt(ParsedPlansMaxCachedKey)).getOrElse(DefaultParsedPlansMaxCached),
+    XDMetricsSource.parsedPlansHits,
+    XDMetricsSource.parsedPlansMisses
+  )
+
+  // Settings the parsing and the analysis depend on
+  private def parsedPlanKey(sqlText: String): String =
+    s"${conf.dialect}|${conf.caseSensitiveAnalysis}|$sqlText"
+
+  @transient
+  private lazy val preparedPlans = new PlanCache[PreparedPlan](
+    Try(xdConfig.getInt(PreparedStatementsMaxCachedKey)).getOrElse(DefaultPreparedStatementsMaxCached),
+    XDMetricsSource.preparedPlansHits,
+    XDMetricsSource.preparedPlansMisses
+  )
+
+  /**
+    * Executes a prepared statement, a SQL sentence whose `?` placeholders are replaced by the parameters.
+    * The sentence is only parsed and analyzed on its first execution, later ones bind the parameters to its analyzed
+    * plan, so they are only optimized and planned, unless the catalog has changed in between.
+    *
+    * @param sqlText The SQL sentence.
+    * @param parameters Values of the placeholders, in order. Each of them is cast to the type expected where its
+    *                   placeholder is used, failing if it can't.
+    */
+  def executePrepared(sqlText: String, parameters: Seq[Any]): DataFrame = {
+    val preparedPlan = preparedPlans.getOrElseUpdate(parsedPlanKey(sqlText), XDCatalog.catalogEpoch) {
+      val (parseableSql, parameterCount) = ParameterPlaceholder.replacePlaceholders(sqlText)
+      val parsed = ParameterPlaceholder.fromParsedPlan(parseSql(parseableSql))
+      val queryExecution = executePlan(parsed)
+      queryExecution.assertAnalyzed()
+      PreparedPlan(parsed, queryExecution.analyzed, parameterCount)
+    }
+
+    // The bound plan is used as the analyzed one, only its authorization is checked again since permissions may have
+    // changed since the statement was prepared
+    val queryExecution = new XDQueryExecution(this, preparedPlan.parsed, catalogIdentifier, Some(preparedPlan.bind(parameters)))
+    queryExecution.assertAnalyzed()
+    new XDDataFrame(this, queryExecution)
   }
 
   /**
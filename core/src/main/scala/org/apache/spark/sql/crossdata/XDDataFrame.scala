@@ -16,8 +16,12 @@
 package org.apache.spark.sql.crossdata
 
 
+import java.util.{UUID, LinkedHashMap => JLinkedHashMap, Map => JMap}
+import java.util.concurrent.{Callable, ExecutionException, ExecutorCompletionService, Future, RejectedExecutionException, SynchronousQueue, ThreadPoolExecutor, TimeUnit}
+
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
-import com.stratio.crossdata.connector.NativeScan
+import com.stratio.crossdata.common.result.QueryProfile
+import com.stratio.crossdata.connector.{NativeScan, StreamingNativeScan}
 import org.apache.spark.annotation.DeveloperApi
 import org.apache.spark.sql.DataFrame
 import org.apache.spark.sql.Row
@@ -29,24 +33,76 @@ import org.apache.spark.sql.crossdata.ExecutionType.Default
 import org.apache.spark.sql.crossdata.ExecutionType.ExecutionType
 import org.apache.spark.sql.crossdata.ExecutionType.Native
 import org.apache.spark.sql.crossdata.ExecutionType.Spark
-import org.apache.spark.sql.crossdata.XDDataFrame.findNativeQueryExecutor
+import org.apache.spark.sql.crossdata.XDDataFrame.{JobGroupIdProperty, findNativeQueryExecutor, hybridRejectionKey, isHybridRejection, isReadOnlyCommand, rememberHybridRejection, speculativeExecutor}
+import org.apache.spark.sql.crossdata.catalog.XDCatalog
+import org.apache.spark.sql.crossdata.catalyst.execution.ExplainAnalyze
+import org.apache.spark.sql.crossdata.catalyst.planning.FlattenedPlan
+import org.apache.spark.sql.crossdata.catalyst.streaming.{DescribeEphemeralTable, ShowAllEphemeralStatuses, ShowEphemeralQueries, ShowEphemeralStatus, ShowEphemeralTables}
 import org.apache.spark.sql.crossdata.exceptions.NativeExecutionException
-import org.apache.spark.sql.execution.QueryExecution
-import org.apache.spark.sql.execution.datasources.LogicalRelation
-import org.apache.spark.sql.types.ArrayType
-import org.apache.spark.sql.types.StructField
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
+import org.apache.spark.sql.crossdata.execution.{NativeCircuitBreaker, QueryProfiler, XDQueryExecution}
+import org.apache.spark.sql.execution.{DescribeCommand, DescribeFunction, ExplainCommand, QueryExecution, SetCommand, ShowFunctions, ShowTablesCommand}
+import org.apache.spark.sql.execution.datasources.{CreateTableUsingAsSelect, LogicalRelation, DescribeCommand => LogicalDescribeCommand}
 import org.apache.spark.sql.types.StructType
+import org.apache.spark.util.ThreadUtils
 
-import scala.collection.mutable.BufferLike
-import scala.collection.{GenTraversableOnce, immutable, mutable}
-import scala.collection.generic.CanBuildFrom
+import scala.annotation.tailrec
+import scala.util.{Failure, Success, Try}
 
 private[sql] object XDDataFrame {
 
+  // Property of the Spark jobs' group, see SparkContext#setJobGroup
+  private val JobGroupIdProperty = "spark.jobGroup.id"
+
+  // Each speculative execution takes up to two threads; queries are executed without speculation once they are taken
+  private val MaxSpeculativeExecutionThreads = 64
+
+  private[crossdata] lazy val speculativeExecutor = new ThreadPoolExecutor(
+    0, MaxSpeculativeExecutionThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue[Runnable](),
+    ThreadUtils.namedThreadFactory("crossdata-speculative-execution")
+  )
+
+  // Native subtree of a hybrid execution whose rows exceeded the maximum
+  private case class HybridRejection(epoch: Long, maxRows: Int)
+
+  private val MaxHybridRejections = 1000
+
+  private val hybridRejections = new JLinkedHashMap[String, HybridRejection](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: JMap.Entry[String, HybridRejection]): Boolean = size() > MaxHybridRejections
+  }
+
+  private val ExpressionIdPattern = "#\\d+".r
+
+  private def hybridRejectionKey(provider: NativeScan, plan: LogicalPlan): String =
+    s"${provider.nativeDatasource}|${ExpressionIdPattern.replaceAllIn(plan.treeString, "")}"
+
+  // Rejections are forgotten once the catalog or the data changes, the subtree may return fewer rows then
+  private def isHybridRejection(key: String, maxRows: Int): Boolean = hybridRejections.synchronized {
+    Option(hybridRejections.get(key)) exists { rejection =>
+      rejection.epoch == XDCatalog.epoch && rejection.maxRows >= maxRows
+    }
+  }
+
+  private def rememberHybridRejection(key: String, maxRows: Int): Unit = hybridRejections.synchronized {
+    hybridRejections.put(key, HybridRejection(XDCatalog.epoch, maxRows))
+  }
+
   def apply(sqlContext: SQLContext, logicalPlan: LogicalPlan): DataFrame = {
     new XDDataFrame(sqlContext, logicalPlan)
   }
 
+  /**
+   * Commands changing neither the catalog nor the data, so they don't start a new epoch which would invalidate the
+   * cached results.
+   */
+  private[crossdata] def isReadOnlyCommand(plan: LogicalPlan): Boolean = plan match {
+    case _: SetCommand | _: ShowTablesCommand | _: ShowFunctions | _: DescribeFunction => true
+    case _: DescribeCommand | _: LogicalDescribeCommand | _: ExplainCommand | _: ExplainAnalyze => true
+    case _: DescribeEphemeralTable | ShowEphemeralTables | _: ShowEphemeralStatus | ShowAllEphemeralStatuses => true
+    case _: ShowEphemeralQueries => true
+    case _ => false
+  }
+
   /**
    * Finds a [[org.apache.spark.sql.sources.BaseRelation]] mixing-in [[NativeScan]] supporting native execution.
    *
@@ -78,7 +134,7 @@ private[sql] object XDDataFrame {
 
         case _ =>
           if (nativeExecutors.sliding(2).forall { tuple =>
-            tuple.head.getClass == tuple.head.getClass
+            tuple.head.getClass == tuple.last.getClass
           }) {
             nativeExecutors.headOption
           } else {
@@ -97,11 +153,19 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
                                @transient override val queryExecution: QueryExecution)
   extends DataFrame(sqlContext, queryExecution) with SparkLoggerComponent {
 
+  // Commands have already been eagerly run (see DataFrame#logicalPlan) and may have changed the catalog or the data
+  queryExecution.logical match {
+    case command if isReadOnlyCommand(command) =>
+    case _: Command | _: InsertIntoTable | _: CreateTableUsingAsSelect => XDCatalog.nextEpoch()
+    case _ =>
+  }
+
   def this(sqlContext: SQLContext, logicalPlan: LogicalPlan) = {
     this(sqlContext, {
       val qe = sqlContext.executePlan(logicalPlan)
       if (sqlContext.conf.dataFrameEagerAnalysis) {
-        qe.assertAnalyzed() // This should force analysis and throw errors if there are any
+        // This should force analysis and throw errors if there are any
+        XDMetricsSource.timed(XDMetricsSource.queriesAnalysis)(qe.assertAnalyzed())
       }
       qe
     }
@@ -111,23 +175,231 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
   /**
    * @inheritdoc
     */
-  override def collect(): Array[Row] = {
+  override def collect(): Array[Row] =
+    speculativeCollect() orElse nativeCollect() orElse hybridCollect() getOrElse sparkCollect()
+
+  private def nativeCollect(): Option[Array[Row]] = {
     // If cache doesn't go through native
     if (sqlContext.cacheManager.lookupCachedData(this).nonEmpty) {
-      super.collect()
+      None
     } else {
-      val nativeQueryExecutor: Option[NativeScan] = findNativeQueryExecutor(queryExecution.optimizedPlan)
+      val nativeQueryExecutor: Option[NativeScan] =
+        XDMetricsSource.timed(XDMetricsSource.queriesOptimization)(findNativeQueryExecutor(queryExecution.optimizedPlan))
       if (nativeQueryExecutor.isEmpty) {
         logInfo(s"Spark Query: ${queryExecution.simpleString}")
       } else {
         logInfo(s"Native query: ${queryExecution.simpleString}")
       }
-      nativeQueryExecutor.flatMap(executeNativeQuery).getOrElse(super.collect())
+      nativeQueryExecutor.flatMap(executeNativeQuery(_))
+    }
+  }
+
+  /**
+   * Executes natively the queries supported by a datasource and, if the native execution exceeds the latency budget
+   * given by [[XDSQLConf.SpeculativeExecutionLatencyBudgetPropertyKey]], executes them by Spark as well. The first
+   * execution returning the rows wins and the other one is cancelled.
+   *
+   * @return the rows or None if the speculative execution is disabled, saturated or the query cannot be executed
+   *         natively.
+   */
+  private def speculativeCollect(): Option[Array[Row]] = {
+    val enabled = sqlContext.conf.getConfString(XDSQLConf.SpeculativeExecutionEnabledPropertyKey, "false").toBoolean
+    lazy val optimizedPlan = queryExecution.optimizedPlan
+    lazy val nativeQueryExecutor = findNativeQueryExecutor(optimizedPlan).filter(isPlanSupported(_, optimizedPlan))
+
+    if (!enabled || sqlContext.cacheManager.lookupCachedData(this).nonEmpty || nativeQueryExecutor.isEmpty) {
+      None
+    } else {
+      val latencyBudget = sqlContext.conf.getConfString(
+        XDSQLConf.SpeculativeExecutionLatencyBudgetPropertyKey, XDSQLConf.DefaultSpeculativeExecutionLatencyBudget.toString
+      ).toLong
+      val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyBudget)
+
+      val executions = new ExecutorCompletionService[(ExecutionType, Option[Array[Row]])](speculativeExecutor)
+      Try(new SpeculativeNativeExecution(executions, nativeQueryExecutor.get)) match {
+        case Failure(_: RejectedExecutionException) =>
+          logWarning(s"Speculative executions are saturated, executing without speculation: ${queryExecution.simpleString}")
+          None
+        case submittedNative =>
+          val native = submittedNative.get
+          // Planned within the latency budget so the Spark execution only starts the jobs
+          Try(queryExecution.executedPlan).failed foreach { exc =>
+            native.cancel()
+            throw exc
+          }
+
+          Option(executions.poll(math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS)) map { nativeExecution =>
+            val (_, nativeRows) = speculativeResult(nativeExecution).get
+            if (nativeRows.isDefined) XDMetricsSource.speculativeNativeInBudget.inc()
+            nativeRows getOrElse sparkCollect()
+          } orElse {
+            logInfo(s"Native execution exceeds $latencyBudget ms, racing it against Spark: ${queryExecution.simpleString}")
+            Some(raceAgainstSpark(executions, native))
+          }
+      }
     }
   }
 
+  /**
+   * Native execution of a speculative collect. Its cancellation, e.g. once it has lost the race against Spark, says
+   * nothing about the health of the datasource so the circuit breaker doesn't account it.
+   */
+  private class SpeculativeNativeExecution(executions: ExecutorCompletionService[(ExecutionType, Option[Array[Row]])],
+                                           provider: NativeScan) {
+    @volatile private var cancelled = false
+
+    val future: Future[(ExecutionType, Option[Array[Row]])] =
+      executions.submit(new Callable[(ExecutionType, Option[Array[Row]])] {
+        override def call() = Native -> executeNativeQuery(provider, () => cancelled)
+      })
+
+    def cancel(): Unit = {
+      cancelled = true
+      future.cancel(true)
+    }
+  }
+
+  private def raceAgainstSpark(executions: ExecutorCompletionService[(ExecutionType, Option[Array[Row]])],
+                               native: SpeculativeNativeExecution): Array[Row] = {
+    val sparkContext = sqlContext.sparkContext
+    val jobGroup = Option(sparkContext.getLocalProperty(JobGroupIdProperty)) getOrElse {
+      s"crossdata-speculative-${UUID.randomUUID()}"
+    }
+    Try(executions.submit(new Callable[(ExecutionType, Option[Array[Row]])] {
+      override def call() = {
+        sparkContext.setJobGroup(jobGroup, s"Speculative execution: ${queryExecution.simpleString}", interruptOnCancel = true)
+        try Spark -> Some(sparkCollect()) finally sparkContext.clearJobGroup()
+      }
+    })) match {
+      case Failure(_: RejectedExecutionException) =>
+        logWarning(s"Speculative executions are saturated, waiting for the native execution: ${queryExecution.simpleString}")
+        val (_, nativeRows) = speculativeResult(native.future).get
+        nativeRows getOrElse sparkCollect()
+      case submittedSpark =>
+        raceWinner(executions, native, submittedSpark.get, jobGroup)
+    }
+  }
+
+  @tailrec
+  private def raceWinner(executions: ExecutorCompletionService[(ExecutionType, Option[Array[Row]])],
+                         native: SpeculativeNativeExecution,
+                         spark: Future[(ExecutionType, Option[Array[Row]])],
+                         jobGroup: String,
+                         pending: Int = 2,
+                         failure: Option[Throwable] = None): Array[Row] =
+    speculativeResult(executions.take()) match {
+      case Success((Native, Some(rows))) =>
+        XDMetricsSource.speculativeNativeWins.inc()
+        spark.cancel(true)
+        sqlContext.sparkContext.cancelJobGroup(jobGroup)
+        rows
+      case Success((_, Some(rows))) =>
+        XDMetricsSource.speculativeSparkWins.inc()
+        native.cancel()
+        profiler.foreach(_.executedBy(QueryProfile.SparkExecutionPath))
+        rows
+      case result if pending > 1 =>
+        raceWinner(executions, native, spark, jobGroup, pending - 1, failure orElse result.failed.toOption)
+      case result =>
+        throw (failure orElse result.failed.toOption) getOrElse new NativeExecutionException
+    }
+
+  private def speculativeResult[T](execution: Future[T]): Try[T] =
+    Try(execution.get()) recoverWith {
+      case exc: ExecutionException if exc.getCause != null => Failure(exc.getCause)
+    }
+
+  private def hybridCollect(): Option[Array[Row]] = hybridPlan() map { plan =>
+    logInfo(s"Hybrid query: ${queryExecution.simpleString}")
+    val rows = profiled("sparkExecution") {
+      XDMetricsSource.timed(XDMetricsSource.queriesSparkExecution)(new DataFrame(sqlContext, plan).collect())
+    }
+    XDMetricsSource.queriesResultRows.update(rows.length)
+    rows
+  }
+
+  private def sparkCollect(): Array[Row] = {
+    queryExecution.executedPlan // Planned before so the planning isn't accounted as execution time
+    val rows = profiled("sparkExecution") {
+      XDMetricsSource.timed(XDMetricsSource.queriesSparkExecution)(super.collect())
+    }
+    XDMetricsSource.queriesResultRows.update(rows.length)
+    rows
+  }
+
+  private def profiler: Option[QueryProfiler] = queryExecution match {
+    case xdQueryExecution: XDQueryExecution => Some(xdQueryExecution.profiler)
+    case _ => None
+  }
+
+  private def profiled[T](phase: String)(body: => T): T =
+    profiler map (_.timed(phase)(body)) getOrElse body
+
+  /**
+   * Returns an iterator that contains all of [[Row]]s in this [[XDDataFrame]]. Spark results are fetched one
+   * partition at a time so the driver only holds the partition being consumed; native results are already local
+   * and, if the datasource is a [[StreamingNativeScan]], read as they are consumed. In that case the iterator
+   * is [[java.io.Closeable]] and must be closed if it isn't fully consumed.
+   */
+  def toLocalIterator(): Iterator[Row] = {
+    // If cache doesn't go through native
+    if (sqlContext.cacheManager.lookupCachedData(this).nonEmpty) {
+      rdd.toLocalIterator
+    } else {
+      val nativeQueryExecutor: Option[NativeScan] = findNativeQueryExecutor(queryExecution.optimizedPlan)
+      nativeQueryExecutor.flatMap(executeNativeQueryIterator) orElse {
+        hybridPlan() map (new DataFrame(sqlContext, _).rdd.toLocalIterator)
+      } getOrElse {
+        logInfo(s"Spark Query: ${queryExecution.simpleString}")
+        rdd.toLocalIterator
+      }
+    }
+  }
+
+  /**
+   * Returns the rows of this [[XDDataFrame]] with their struct columns replaced by their fields and their array
+   * columns exploded into one row per element (see [[FlattenedPlan]]). The flattening is part of the executed plan
+   * so only the flat rows are collected.
+   */
   def flattenedCollect(): Array[Row] = {
+    val (limit, columnNames) = flattening
+
+    if (queryExecution.analyzed.output.forall(column => FlattenedPlan.isFlat(column.dataType))) {
+      // Flat results just need their columns renamed
+      val flattenedSchema = StructType(schema.fields zip columnNames map { case (field, name) => field.copy(name = name) })
+      collect() map (row => new GenericRowWithSchema(row.toSeq.toArray, flattenedSchema))
+    } else {
+      // Native results are already local, they are flattened by Spark along with the rest of the plan
+      val source = nativeCollect() map { rows =>
+        sqlContext.createDataFrame(sqlContext.sparkContext.parallelize(rows), schema).logicalPlan
+      } getOrElse logicalPlan
+
+      profiled("flattenedExecution") {
+        flattenedDataFrame(source, limit, columnNames).collect()
+      }
+    }
+  }
 
+  /**
+   * Returns this [[XDDataFrame]] flattened as [[flattenedCollect]] does, so its flat rows can be streamed by
+   * [[toLocalIterator]] instead of being collected at once.
+   */
+  def flattened(): XDDataFrame = {
+    val (limit, columnNames) = flattening
+    flattenedDataFrame(logicalPlan, limit, columnNames)
+  }
+
+  // Exploded arrays multiply the rows so the limit of the query, if any, is applied again to the flattened plan
+  private[this] def flattenedDataFrame(source: LogicalPlan, limit: Option[Expression], columnNames: Seq[String]) = {
+    val flattenedPlan = FlattenedPlan(source, columnNames)
+    new XDDataFrame(sqlContext, limit.map(Limit(_, flattenedPlan)).getOrElse(flattenedPlan))
+  }
+
+  /**
+   * @return the limit of the query and the names of its flattened output columns. Projected struct fields are
+   *         named after their whole path.
+   */
+  private[this] def flattening: (Option[Expression], Seq[String]) = {
     def flattenProjectedColumns(exp: Expression, prev: List[String] = Nil): (List[String], Boolean) = exp match {
       case GetStructField(child, _, Some(fieldName))  =>
         flattenProjectedColumns(child, fieldName :: prev)
@@ -144,102 +416,24 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
       case _ => prev -> false
     }
 
-    def flatRows(
-                  rows: Seq[Row],
-                  firstLevelNames: Seq[(Seq[String], Boolean)] = Seq.empty
-                  ): Seq[Row] = {
-
-      def baseName(parentName: String): String = parentName.headOption.map(_ => s"$parentName.").getOrElse("")
-
-      def flatRow(
-                   row: GenericRowWithSchema,
-                   parentsNamesAndAlias: Seq[(String, Boolean)] = Seq.empty): Array[(StructField, Any)] = {
-        (row.schema.fields zip row.values zipAll(parentsNamesAndAlias, null, "" -> false)) flatMap {
-          case (null, _) => Seq.empty
-          case ((StructField(_, t, nable, mdata), vobject), (name, true)) =>
-            Seq((StructField(name, t, nable, mdata), vobject))
-          case ((StructField(name, StructType(_), _, _), col: GenericRowWithSchema), (parentName, false)) =>
-            flatRow(col, Seq.fill(col.schema.size)(s"${baseName(parentName)}$name" -> false))
-          case ((StructField(name, dtype, nullable, meta), vobject), (parentName, false)) =>
-            Seq((StructField(s"${baseName(parentName)}$name", dtype, nullable, meta), vobject))
-        }
-      }
+    val output = queryExecution.analyzed.output
 
-      require(firstLevelNames.isEmpty ||rows.isEmpty || firstLevelNames.size == rows.headOption.map(_.length).getOrElse(0))
-      val thisLevelNames = firstLevelNames.map {
-        case (nameseq, true) => (nameseq.headOption.getOrElse(""), true)
-        case (nameseq, false) => (nameseq.init mkString ".", false)
-      }
-
-      rows map {
-        case row: GenericRowWithSchema =>
-          val newFieldsArray = flatRow(row, thisLevelNames)
-          val horizontallyFlattened: Row = new GenericRowWithSchema(
-            newFieldsArray.map(_._2), StructType(newFieldsArray.map(_._1)))
-          horizontallyFlattened
-        case row: Row =>
-          row
-      }
+    val (limit, projectList) = queryExecution.optimizedPlan match {
+      case Limit(lexp, Project(plist, _)) => (Some(lexp), Some(plist))
+      case Project(plist, _) => (None, Some(plist))
+      case Limit(lexp, _) => (Some(lexp), None)
+      case _ => (None, None)
     }
 
-    def verticallyFlatRowArrays(row: GenericRowWithSchema)(limit: Int): Seq[GenericRowWithSchema] = {
-
-      def cartesian[T](ls: Seq[Seq[T]]): Seq[Seq[T]] = (ls :\ Seq(Seq.empty[T])) {
-        case (cur: Seq[T], prev) => for(x <- prev; y <- cur) yield y +: x
+    val columnNames = projectList map { plist =>
+      plist map (flattenProjectedColumns(_)) zip output map {
+        case ((name :: _, true), _) => name
+        case ((path, false), column) if path.nonEmpty => (path.init :+ column.name) mkString "."
+        case (_, column) => column.name
       }
+    } getOrElse output.map(_.name)
 
-      val newSchema = StructType(
-        row.schema map {
-          case StructField(name, ArrayType(etype, _), nullable, meta) =>
-            StructField(name, etype, true)
-          case other => other
-        }
-      )
-
-      val elementsWithIndex = row.values zipWithIndex
-
-      val arrayColumnValues: Seq[Seq[(Int, _)]] = elementsWithIndex collect {
-        case (res: Seq[_], idx) => res map(idx -> _)
-      }
-
-      cartesian(arrayColumnValues).take(limit) map { case replacements: Seq[(Int, _) @unchecked] =>
-        val idx2newVal: Map[Int, Any] = replacements.toMap
-        val values = elementsWithIndex map { case (prevVal, idx: Int) =>
-          idx2newVal.getOrElse(idx, prevVal)
-        }
-        new GenericRowWithSchema(values, newSchema)
-      }
-    }
-
-    import WithTrackerFlatMapSeq._
-
-    def iterativeFlatten(
-                          rows: Seq[Row],
-                          firstLevelNames: Seq[(Seq[String], Boolean)] = Seq.empty
-                        )(limit: Int = Int.MaxValue): Seq[Row] =
-      flatRows(rows, firstLevelNames) withTrackerFlatMap {
-        case (_, Some(currentSize)) if(currentSize >= limit) => Seq()
-        case (row: GenericRowWithSchema, currentSize) =>
-          row.schema collectFirst {
-            case StructField(_, _: ArrayType, _, _) =>
-              val newLimit = limit-currentSize.getOrElse(0)
-              iterativeFlatten(verticallyFlatRowArrays(row)(newLimit))(newLimit)
-          } getOrElse Seq(row)
-        case (row: Row, _) => Seq(row)
-      }
-
-    def processProjection(plist: Seq[NamedExpression], child: LogicalPlan, limit: Int = Int.MaxValue): Array[Row] = {
-      val fullyAnnotatedRequestedColumns = plist map (flattenProjectedColumns(_))
-      iterativeFlatten(collect(), fullyAnnotatedRequestedColumns)(limit) toArray
-    }
-
-    queryExecution.optimizedPlan match {
-      case Limit(lexp, Project(plist, child)) => processProjection(plist, child, lexp.toString().toInt)
-      case Project(plist, child) => processProjection(plist, child)
-      case Limit(lexp, _) => iterativeFlatten(collect())(lexp.toString().toInt) toArray
-      case _ => iterativeFlatten(collect())() toArray
-    }
-
+    (limit, columnNames)
   }
 
   /**
@@ -253,9 +447,9 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
   @DeveloperApi
   def collect(executionType: ExecutionType): Array[Row] = executionType match {
     case Default => collect()
-    case Spark => super.collect()
+    case Spark => sparkCollect()
     case Native =>
-      val result = findNativeQueryExecutor(queryExecution.optimizedPlan).flatMap(executeNativeQuery)
+      val result = findNativeQueryExecutor(queryExecution.optimizedPlan).flatMap(executeNativeQuery(_))
       result.getOrElse(throw new NativeExecutionException)
   }
 
@@ -280,65 +474,228 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
 
 
   /**
-   * Executes the logical plan.
+   * Executes the logical plan. The results of a [[StreamingNativeScan]] are read within the budget given by
+   * [[XDSQLConf.NativeExecutionMaxRowsPropertyKey]] and [[XDSQLConf.NativeExecutionMaxBytesPropertyKey]].
    *
    * @param provider [[org.apache.spark.sql.sources.BaseRelation]] mixing-in [[NativeScan]]
+   * @param cancelled whether the execution has been cancelled, then its outcome isn't accounted by the circuit breaker
    * @return an array that contains all of [[Row]]s in this [[XDDataFrame]]
-   *         or None if the provider cannot resolve the entire [[XDDataFrame]] natively.
+   *         or None if the provider cannot resolve the entire [[XDDataFrame]] natively or its results exceed the budget.
+   */
+  private[this] def executeNativeQuery(provider: NativeScan, cancelled: () => Boolean = () => false): Option[Array[Row]] = {
+    val optimizedPlan = queryExecution.optimizedPlan
+    val scan = provider match {
+      case streamingProvider: StreamingNativeScan =>
+        val maxRows = sqlContext.conf.getConfString(
+          XDSQLConf.NativeExecutionMaxRowsPropertyKey, XDSQLConf.DefaultNativeExecutionMaxRows.toString
+        ).toLong
+        val maxBytes = sqlContext.conf.getConfString(
+          XDSQLConf.NativeExecutionMaxBytesPropertyKey, XDSQLConf.DefaultNativeExecutionMaxBytes.toString
+        ).toLong
+        () => streamingProvider.buildScanIterator(optimizedPlan) flatMap { rows =>
+          val result = rows.drain(maxRows, maxBytes)
+          if (result.isEmpty) logInfo(s"Native results exceed $maxRows rows or $maxBytes bytes, executing with Spark")
+          result
+        }
+      case _ =>
+        () => provider.buildScan(optimizedPlan)
+    }
+    executeNatively(provider, cancelled)(scan()) map { rows =>
+      XDMetricsSource.queriesResultRows.update(rows.length)
+      rows
+    }
+  }
+
+  /**
+   * Executes the logical plan, streaming the results if the provider is a [[StreamingNativeScan]]. Then the
+   * execution time only accounts for the start of the native query.
    */
-  private[this] def executeNativeQuery(provider: NativeScan): Option[Array[Row]] = {
+  private[this] def executeNativeQueryIterator(provider: NativeScan): Option[Iterator[Row]] = provider match {
+    case streamingProvider: StreamingNativeScan =>
+      executeNatively(provider)(streamingProvider.buildScanIterator(queryExecution.optimizedPlan))
+    case _ =>
+      executeNativeQuery(provider).map(_.iterator)
+  }
 
-    val containsSubfields = notSupportedProject(queryExecution.optimizedPlan)
-    val planSupported = !containsSubfields && queryExecution.optimizedPlan.map(lp => lp).forall(provider.isSupported(_, queryExecution.optimizedPlan))
-    if(planSupported) {
-      // TODO handle failed executions which are currently wrapped within the option, so these jobs will appear duplicated
+  private[this] def executeNatively[T](provider: NativeScan, cancelled: () => Boolean = () => false)
+                                      (scan: => Option[T]): Option[T] =
+    if (isPlanSupported(provider, queryExecution.optimizedPlan)) {
       // TODO the plan should notice the native execution
-      withNewExecutionId{
-        provider.buildScan(queryExecution.optimizedPlan)
-      }
+      val result = nativeScan(provider, cancelled)(scan)
+      result.foreach(_ => profiler.foreach(_.executedBy(provider.getClass.getSimpleName)))
+      result
     } else
       None
 
-  }
+  /**
+   * Runs a native scan unless the circuit of the datasource is open, see [[NativeCircuitBreaker]]. Failed scans are
+   * accounted by the circuit breaker and return None, so they are run by Spark. Scans returning None aren't
+   * accounted, they say nothing about the health of the datasource, and neither are cancelled scans.
+   */
+  private[this] def nativeScan[T](provider: NativeScan, cancelled: () => Boolean = () => false)
+                                 (scan: => Option[T]): Option[T] = {
+    val connectorName = provider.getClass.getSimpleName
+    val datasource = provider.nativeDatasource
+    val connectorMetrics = XDMetricsSource.connector(connectorName)
+    val circuitBreaker = NativeCircuitBreaker(connectorName, datasource)
+    val circuitSettings = NativeCircuitBreaker.Settings(sqlContext.conf)
+
+    if (!circuitBreaker.tryAcquire(circuitSettings)) {
+      logDebug(s"Circuit of $datasource is open, executing with Spark")
+      connectorMetrics.circuitRejections.inc()
+      None
+    } else {
+      val startTime = System.currentTimeMillis()
+      val result = try {
+        Try {
+          profiled("nativeExecution") {
+            XDMetricsSource.timed(XDMetricsSource.queriesNativeExecution) {
+              XDMetricsSource.timed(connectorMetrics.latency) {
+                withNewExecutionId {
+                  scan
+                }
+              }
+            }
+          }
+        }
+      } catch {
+        // Cancellations (e.g. speculative executions lost against Spark) and fatal errors mustn't leave it half-open
+        case e: Throwable if cancelled() =>
+          circuitBreaker.onInconclusive()
+          throw e
+        case e: Throwable =>
+          circuitBreaker.onFailure(circuitSettings)
+          throw e
+      }
 
-  private[this] def notSupportedProject(optimizedLogicalPlan: LogicalPlan): Boolean = {
+      val circuitOpened = result match {
+        case _ if cancelled() =>
+          logDebug(s"Native execution of $datasource cancelled")
+          circuitBreaker.onInconclusive()
+          false
+        case Success(Some(_)) =>
+          circuitBreaker.onSuccess(System.currentTimeMillis() - startTime, circuitSettings)
+        case Success(None) =>
+          connectorMetrics.fallbacks.inc()
+          circuitBreaker.onInconclusive()
+          false
+        case Failure(e) =>
+          logWarning(s"Native execution of $datasource failed, executing with Spark", e)
+          connectorMetrics.failures.inc()
+          circuitBreaker.onFailure(circuitSettings)
+      }
+      if (circuitOpened) {
+        logWarning(s"Circuit of $datasource opened for ${circuitSettings.coolDownMillis} ms")
+        connectorMetrics.circuitOpenings.inc()
+      }
 
-    optimizedLogicalPlan collectFirst {
-      case a@Project(seq, _) if seq.collectFirst { case b: GetMapValue => b }.isDefined => a
-      case a@Project(seq, _) if seq.collectFirst { case b: GetStructField => b }.isDefined => a
-      case a@Project(seq, _) if seq.collectFirst { case Alias(b: GetMapValue, _) => a }.isDefined => a
-      case a@Project(seq, _) if seq.collectFirst { case Alias(b: GetStructField, _) => a }.isDefined => a
-    } isDefined
+      result.toOption.flatten
+    }
   }
 
+  private[this] def isPlanSupported(provider: NativeScan, plan: LogicalPlan): Boolean =
+    !notSupportedProject(plan) && plan.map(lp => lp).forall(provider.isSupported(_, plan))
 
+  /**
+   * Plans a query which cannot be executed natively as a whole. Its largest subtrees supported by a single datasource
+   * are executed natively and replaced by their rows, so Spark only reads the rest of the relations and broadcasts
+   * the native results when joining them. The subtrees are limited to one row more than
+   * [[XDSQLConf.HybridExecutionMaxRowsPropertyKey]]; larger results are discarded and read by Spark, which keeps
+   * reading that subtree until the catalog or the data changes. The decisions are recorded by the profiler.
+   *
+   * @return the plan to execute by Spark or None if no subtree has been executed natively.
+   */
+  private[this] def hybridPlan(): Option[LogicalPlan] = {
+    val optimizedPlan = queryExecution.optimizedPlan
+    val maxRows = sqlContext.conf.getConfString(
+      XDSQLConf.HybridExecutionMaxRowsPropertyKey, XDSQLConf.DefaultHybridExecutionMaxRows.toString
+    ).toInt
+
+    def boundedPlan(plan: LogicalPlan): Option[LogicalPlan] = plan match {
+      case Limit(Literal(limit: Int, _), _) if limit <= maxRows => Some(plan)
+      case Limit(_, child) if child.find(_.isInstanceOf[Limit]).isEmpty => Some(Limit(Literal(maxRows + 1), child))
+      case _ if plan.find(_.isInstanceOf[Limit]).isEmpty => Some(Limit(Literal(maxRows + 1), plan))
+      case _ => None
+    }
 
-  //TODO: Move to a common library
-  private[crossdata] object WithTrackerFlatMapSeq {
-    implicit def seq2superflatmapseq[T](s: Seq[T]): WithTrackerFlatMapSeq[T] = new WithTrackerFlatMapSeq(s)
-  }
+    def decided(decision: String): Unit = profiler.foreach(_.decided(decision))
 
-  //TODO: Move to a common library
-  private[crossdata] class WithTrackerFlatMapSeq[T] private(val s: Seq[T])
-    extends scala.collection.immutable.Seq[T] {
-    override def length: Int = s.length
-    override def apply(idx: Int): T = s(idx)
-    override def iterator: Iterator[T] = s.iterator
-
-
-    def withTrackerFlatMap[B, That](
-                                     f: (T, Option[Int]) => GenTraversableOnce[B]
-                                     )(implicit bf: CanBuildFrom[immutable.Seq[T], B, That]): That = {
-      def builder : mutable.Builder[B, That] = bf(repr)
-      val b = builder
-      val builderAsBufferLike = b match {
-        case bufferl: BufferLike[_, _] => Some(bufferl)
-        case _ => None
+    def withNativeSubtrees(plan: LogicalPlan): LogicalPlan =
+      findNativeQueryExecutor(plan).filter(isPlanSupported(_, plan)) map { provider =>
+        val subtree = plan.simpleString
+        val rejectionKey = hybridRejectionKey(provider, plan)
+        val nativeRows =
+          if (isHybridRejection(rejectionKey, maxRows)) {
+            decided(s"[Spark] $subtree <- Exceeded $maxRows rows in a previous execution")
+            None
+          } else boundedPlan(plan) filter (isPlanSupported(provider, _)) match {
+            case None =>
+              decided(s"[Spark] $subtree <- Its rows cannot be limited to $maxRows natively")
+              None
+            case Some(bounded) =>
+              nativeScan(provider)(provider.buildScan(bounded)) match {
+                case Some(rows) if rows.length > maxRows =>
+                  rememberHybridRejection(rejectionKey, maxRows)
+                  decided(s"[Spark] $subtree <- Exceeds $maxRows rows")
+                  None
+                case Some(rows) =>
+                  decided(s"[Native] $subtree <- ${rows.length} rows")
+                  Some(rows)
+                case None =>
+                  decided(s"[Spark] $subtree <- Not executed natively by ${provider.getClass.getSimpleName}")
+                  None
+              }
+          }
+        nativeRows map (LocalRelation.fromExternalRows(plan.output, _)) getOrElse plan
+      } getOrElse {
+        plan.withNewChildren(plan.children map withNativeSubtrees)
       }
-      for (x <- this) b ++= f(x, builderAsBufferLike.map(_.length)).seq
-      b.result
+
+    val fullyNative = findNativeQueryExecutor(optimizedPlan).exists(isPlanSupported(_, optimizedPlan))
+    if (maxRows <= 0 || fullyNative || sqlContext.cacheManager.lookupCachedData(this).nonEmpty) {
+      None
+    } else {
+      Some(withNativeSubtrees(optimizedPlan)) filterNot (_ eq optimizedPlan)
+    }
+  }
+
+  private[this] def notSupportedProject(optimizedLogicalPlan: LogicalPlan): Boolean =
+    optimizedLogicalPlan.find(isNotSupportedProject).isDefined
+
+  private[this] def isNotSupportedProject(logicalStep: LogicalPlan): Boolean = logicalStep match {
+    case Project(seq, _) => seq exists {
+      case Alias(_: GetMapValue, _) | Alias(_: GetStructField, _) => true
+      case _ => false
     }
+    case _ => false
+  }
 
+  /**
+   * Decides, for each operator of the optimized plan, whether it can be executed natively. It doesn't take into
+   * account the datasource which may still reject the whole plan, see [[NativeScan.explainNativeQuery]].
+   *
+   * @return a function giving the reason why an operator cannot be executed natively, or None if it can.
+   */
+  private[crossdata] def nativeExecutionRejections(): LogicalPlan => Option[String] = {
+    val optimizedPlan = queryExecution.optimizedPlan
+    val cached = sqlContext.cacheManager.lookupCachedData(this).nonEmpty
+    val nativeQueryExecutor = findNativeQueryExecutor(optimizedPlan)
+
+    logicalStep => nativeQueryExecutor match {
+      case _ if cached =>
+        Some("The query is cached so it is read from the Spark cache")
+      case None => logicalStep match {
+        case LogicalRelation(_: NativeScan, _) => Some("Relations from different datasources cannot be executed natively")
+        case _: LeafNode => Some("The relation doesn't support native execution")
+        case _ => Some("Not every relation of the query supports native execution")
+      }
+      case Some(_) if isNotSupportedProject(logicalStep) =>
+        Some("Projections of struct fields or map values are executed by Spark")
+      case Some(provider) if !provider.isSupported(logicalStep, optimizedPlan) =>
+        Some(s"Not supported by ${provider.getClass.getSimpleName}")
+      case Some(_) =>
+        None
+    }
   }
 
 }
@@ -26,6 +26,32 @@ object XDSQLConf {
 
   val UserIdPropertyKey = "crossdata.security.user"
 
+  // Enables the server query result cache for every query of the session
+  val ResultCacheEnabledPropertyKey = "crossdata.cache.results.enabled"
+
+  // Maximum number of rows of the subtrees executed natively within a query executed by Spark, 0 disables it
+  val HybridExecutionMaxRowsPropertyKey = "crossdata.execution.hybrid.maxRows"
+  val DefaultHybridExecutionMaxRows = 10000
+
+  // Budget of the results of a native execution, larger results are computed by Spark
+  val NativeExecutionMaxRowsPropertyKey = "crossdata.execution.native.maxRows"
+  val DefaultNativeExecutionMaxRows = 1000000L
+  val NativeExecutionMaxBytesPropertyKey = "crossdata.execution.native.maxBytes"
+  val DefaultNativeExecutionMaxBytes = 256L * 1024 * 1024
+
+  // Races Spark against the native executions which exceed the latency budget (milliseconds)
+  val SpeculativeExecutionEnabledPropertyKey = "crossdata.execution.speculative.enabled"
+  val SpeculativeExecutionLatencyBudgetPropertyKey = "crossdata.execution.speculative.latencyBudgetMs"
+  val DefaultSpeculativeExecutionLatencyBudget = 200L
+
+  // Circuit breaker skipping the native executions of a failing datasource, see NativeCircuitBreaker
+  val NativeCircuitBreakerEnabledPropertyKey = "crossdata.execution.native.circuitBreaker.enabled"
+  val NativeCircuitBreakerFailureThresholdPropertyKey = "crossdata.execution.native.circuitBreaker.failureThreshold"
+  val DefaultNativeCircuitBreakerFailureThreshold = 5
+  val NativeCircuitBreakerCoolDownPropertyKey = "crossdata.execution.native.circuitBreaker.coolDownMs"
+  val DefaultNativeCircuitBreakerCoolDown = 30000L
+  val NativeCircuitBreakerSlowCallPropertyKey = "crossdata.execution.native.circuitBreaker.slowCallMs"
+
   implicit def fromSQLConf(conf: SQLConf): XDSQLConf = new XDSQLConf {
 
     override def enableCacheInvalidation(enable: Boolean): XDSQLConf = this
@@ -21,6 +21,7 @@ import org.apache.spark.sql.catalyst.{CatalystConf, TableIdentifier}
 import org.apache.spark.sql.crossdata.XDContext
 import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataApp, CrossdataIndex, CrossdataTable, IndexIdentifier, ViewIdentifier}
 import org.apache.spark.sql.crossdata.catalog.interfaces.{XDCatalogCommon, XDPersistentCatalog, XDStreamingCatalog, XDTemporaryCatalog}
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
 import org.apache.spark.sql.crossdata.models.{EphemeralQueryModel, EphemeralStatusModel, EphemeralTableModel}
 
 import scala.util.{Failure, Try}
@@ -103,6 +104,10 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
   }
 
 
+  // Any change bumps the catalog epoch, so plans and results computed against the previous catalog state are discarded
+  private def changingCatalog[T](operation: => T): T =
+    try operation finally XDCatalog.nextCatalogEpoch()
+
   private def persistentChainedLookup[R](lookup: XDPersistentCatalog => Option[R]): Option[R] =
     persistentCatalogs.view map lookup collectFirst {
       case Some(res) => res
@@ -112,20 +117,30 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
    * TemporaryCatalog
    */
   override def registerView(viewIdentifier: ViewIdentifier, logicalPlan: LogicalPlan, sql: Option[String]): Unit =
-    temporaryCatalogs.foreach(_.saveView(normalize(viewIdentifier), logicalPlan, sql))
+    changingCatalog {
+      temporaryCatalogs.foreach(_.saveView(normalize(viewIdentifier), logicalPlan, sql))
+    }
 
   // TODO throw an exception if there is no temp catalogs! Review CatalogChain
   override def registerTable(tableIdent: TableIdentifier, plan: LogicalPlan, crossdataTable: Option[CrossdataTable]): Unit =
-    temporaryCatalogs.foreach(_.saveTable(normalize(tableIdent), plan, crossdataTable))
+    changingCatalog {
+      temporaryCatalogs.foreach(_.saveTable(normalize(tableIdent), plan, crossdataTable))
+    }
 
   override def unregisterView(viewIdentifier: ViewIdentifier): Unit =
-    temporaryCatalogs.foreach(_.dropView(normalize(viewIdentifier)))
+    changingCatalog {
+      temporaryCatalogs.foreach(_.dropView(normalize(viewIdentifier)))
+    }
 
   override def unregisterTable(tableIdent: TableIdentifier): Unit =
-    temporaryCatalogs.foreach(_.dropTable(normalize(tableIdent)))
+    changingCatalog {
+      temporaryCatalogs.foreach(_.dropTable(normalize(tableIdent)))
+    }
 
   override def unregisterAllTables(): Unit =
-    temporaryCatalogs.foreach(_.dropAllTables())
+    changingCatalog {
+      temporaryCatalogs.foreach(_.dropAllTables())
+    }
 
 
   /**
@@ -133,7 +148,9 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
    */
 
   private def lookupRelationOpt(tableIdent: TableIdentifier): Option[LogicalPlan] =
-    chainedLookup(_.relation(normalize(tableIdent)), tableIdent)
+    XDMetricsSource.timed(XDMetricsSource.catalogLookups) {
+      chainedLookup(_.relation(normalize(tableIdent)), tableIdent)
+    }
 
   override def lookupRelation(tableIdent: TableIdentifier, alias: Option[String]): LogicalPlan =
     lookupRelationOpt(tableIdent) map { processAlias(tableIdent, _, alias)(conf)} getOrElse {
@@ -169,19 +186,24 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
    */
 
   override def persistTable(crossdataTable: CrossdataTable, table: LogicalPlan): Unit =
-    persistentCatalogs.foreach(_.saveTable(crossdataTable, table))
+    changingCatalog {
+      persistentCatalogs.foreach(_.saveTable(crossdataTable, table))
+    }
 
   override def persistView(viewIdentifier: ViewIdentifier, plan: LogicalPlan, sqlText: String): Unit =
-    persistentCatalogs.foreach(_.saveView(normalize(viewIdentifier), plan, sqlText))
+    changingCatalog {
+      persistentCatalogs.foreach(_.saveView(normalize(viewIdentifier), plan, sqlText))
+    }
 
-  override def persistIndex(crossdataIndex: CrossdataIndex): Unit =
+  override def persistIndex(crossdataIndex: CrossdataIndex): Unit = changingCatalog {
     if (tableMetadata(crossdataIndex.tableIdentifier.toTableIdentifier).isEmpty) {
       throw new RuntimeException(s"Cannot create the index. Table ${crossdataIndex.tableIdentifier} doesn't exist or is temporary")
     } else {
       persistentCatalogs.foreach(_.saveIndex(crossdataIndex))
     }
+  }
 
-  override def dropTable(tableIdentifier: TableIdentifier): Unit = {
+  override def dropTable(tableIdentifier: TableIdentifier): Unit = changingCatalog {
     val strTable = tableIdentifier.unquotedString
     if (!tableExists(tableIdentifier)) throw new RuntimeException(s"Table $strTable can't be deleted because it doesn't exist")
     logInfo(s"Deleting table $strTable from catalog")
@@ -199,14 +221,14 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
 
   }
 
-  override def dropAllTables(): Unit = {
+  override def dropAllTables(): Unit = changingCatalog {
     dropAllViews()
     dropAllIndexes()
     temporaryCatalogs foreach (_.dropAllTables())
     persistentCatalogs foreach (_.dropAllTables())
   }
 
-  override def dropView(viewIdentifier: ViewIdentifier): Unit = {
+  override def dropView(viewIdentifier: ViewIdentifier): Unit = changingCatalog {
     val strView = viewIdentifier.unquotedString
     if (lookupRelationOpt(viewIdentifier).isEmpty) throw new RuntimeException(s"View $strView can't be deleted because it doesn't exist")
     logInfo(s"Deleting view ${viewIdentifier.unquotedString} from catalog")
@@ -214,13 +236,13 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
     persistentCatalogs foreach (_.dropView(normalize(viewIdentifier)))
   }
 
-  override def dropAllViews(): Unit = {
+  override def dropAllViews(): Unit = changingCatalog {
     temporaryCatalogs foreach (_.dropAllViews())
     persistentCatalogs foreach (_.dropAllViews())
   }
 
 
-  override def dropIndex(indexIdentifier: IndexIdentifier): Unit = {
+  override def dropIndex(indexIdentifier: IndexIdentifier): Unit = changingCatalog {
     val strIndex = indexIdentifier.unquotedString
     if(indexMetadata(indexIdentifier).isEmpty) throw new RuntimeException(s"Index $strIndex can't be deleted because it doesn't exist")
     logInfo(s"Deleting index ${indexIdentifier.unquotedString} from catalog")
@@ -240,7 +262,7 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
       case Some(index) =>index
     }
 
-  override def dropAllIndexes(): Unit = {
+  override def dropAllIndexes(): Unit = changingCatalog {
     persistentCatalogs foreach (_.dropAllIndexes())
 
   }
@@ -249,7 +271,9 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
     persistentChainedLookup(_.lookupTable(normalize(tableIdentifier)))
 
   override def refreshTable(tableIdent: TableIdentifier): Unit =
-    persistentCatalogs.foreach(_.refreshCache(normalize(tableIdent)))
+    changingCatalog {
+      persistentCatalogs.foreach(_.refreshCache(normalize(tableIdent)))
+    }
 
   /**
    * StreamingCatalog
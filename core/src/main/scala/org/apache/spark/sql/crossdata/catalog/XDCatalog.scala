@@ -15,6 +15,7 @@
  */
 package org.apache.spark.sql.crossdata.catalog
 
+import java.util.concurrent.atomic.AtomicLong
 
 import org.apache.spark.sql.catalyst.{CatalystConf, TableIdentifier}
 import org.apache.spark.sql.catalyst.analysis.Catalog
@@ -31,6 +32,28 @@ object XDCatalog extends CrossdataSerializer {
 
 implicit def asXDCatalog (catalog: Catalog): XDCatalog = catalog.asInstanceOf[XDCatalog]
 
+  private val epochCounter = new AtomicLong(0L)
+  private val catalogEpochCounter = new AtomicLong(0L)
+
+  /**
+    * Version of the catalogs (and the data) seen by this JVM: It changes each time a catalog is modified or a
+    * command (e.g. an insertion) is run. Changes made by other Crossdata servers aren't reflected.
+    */
+  def epoch: Long = epochCounter.get()
+
+  /**
+    * Version of the catalogs seen by this JVM: Unlike [[epoch]], it only changes when a catalog is modified, so
+    * it's the one plans depend on.
+    */
+  def catalogEpoch: Long = catalogEpochCounter.get()
+
+  private[crossdata] def nextEpoch(): Long = epochCounter.incrementAndGet()
+
+  private[crossdata] def nextCatalogEpoch(): Long = {
+    catalogEpochCounter.incrementAndGet()
+    nextEpoch()
+  }
+
   type ViewIdentifier = TableIdentifier
   type ViewIdentifierNormalized = TableIdentifierNormalized
 
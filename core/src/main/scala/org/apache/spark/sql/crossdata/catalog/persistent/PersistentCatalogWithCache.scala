@@ -22,6 +22,7 @@ import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
 import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataIndex, CrossdataTable, ViewIdentifierNormalized}
 import org.apache.spark.sql.crossdata.catalog.interfaces.{XDCatalogCommon, XDPersistentCatalog}
 import org.apache.spark.sql.crossdata.catalog.{IndexIdentifierNormalized, TableIdentifierNormalized}
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
 import org.apache.spark.sql.crossdata.util.CreateRelationUtil
 
 import scala.collection.mutable
@@ -41,7 +42,8 @@ abstract class PersistentCatalogWithCache(catalystConf: CatalystConf) extends XD
   val indexCache: mutable.Map[TableIdentifierNormalized, CrossdataIndex] = mutable.Map.empty
 
   override final def relation(relationIdentifier: TableIdentifierNormalized)(implicit sqlContext: SQLContext): Option[LogicalPlan] =
-    (tableCache get relationIdentifier) orElse (viewCache get relationIdentifier) orElse {
+    cachedRelation(relationIdentifier) orElse {
+      XDMetricsSource.catalogCacheMisses.inc()
       logInfo(s"PersistentCatalog: Looking up table ${relationIdentifier.unquotedString}")
       lookupTable(relationIdentifier) map { crossdataTable =>
         val table: LogicalPlan = createLogicalRelation(sqlContext, crossdataTable)
@@ -57,6 +59,12 @@ abstract class PersistentCatalogWithCache(catalystConf: CatalystConf) extends XD
       }
     }
 
+  private def cachedRelation(relationIdentifier: TableIdentifierNormalized): Option[LogicalPlan] = {
+    val cached = (tableCache get relationIdentifier) orElse (viewCache get relationIdentifier)
+    cached.foreach(_ => XDMetricsSource.catalogCacheHits.inc())
+    cached
+  }
+
   override final def refreshCache(tableIdent: ViewIdentifierNormalized): Unit = tableCache clear
 
   override final def saveView(viewIdentifier: ViewIdentifierNormalized, plan: LogicalPlan, sqlText: String)(implicit sqlContext:SQLContext): Unit = {
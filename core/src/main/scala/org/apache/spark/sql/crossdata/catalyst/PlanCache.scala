@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst
+
+import java.util.{LinkedHashMap => JLinkedHashMap, Map => JMap}
+
+import com.codahale.metrics.Counter
+
+/**
+  * Plans (or anything derived from them) of a session, tied to the catalog epoch they were computed at: Any catalog
+  * change makes them stale.
+  *
+  * @param maxEntries Number of plans kept, the least recently used one is evicted when exceeded.
+  */
+class PlanCache[T](val maxEntries: Int, hits: Counter, misses: Counter) {
+
+  private case class Entry(plan: T, catalogEpoch: Long)
+
+  private val entries = new JLinkedHashMap[String, Entry](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: JMap.Entry[String, Entry]): Boolean = size() > maxEntries
+  }
+
+  /**
+    * @param compute Computes the plan when it isn't cached or it was computed at other catalog epoch.
+    */
+  def getOrElseUpdate(key: String, catalogEpoch: Long)(compute: => T): T = {
+    val cached = synchronized(Option(entries.get(key))).collect {
+      case Entry(plan, `catalogEpoch`) => plan
+    }
+    (if (cached.isDefined) hits else misses).inc()
+
+    cached getOrElse {
+      // Plans are computed out of the lock, concurrent computations of the same plan are harmless
+      val plan = compute
+      if (maxEntries > 0) synchronized(entries.put(key, Entry(plan, catalogEpoch)))
+      plan
+    }
+  }
+
+}
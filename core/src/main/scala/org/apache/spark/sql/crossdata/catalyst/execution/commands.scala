@@ -15,18 +15,25 @@
  */
 package org.apache.spark.sql.crossdata.catalyst.execution
 
+import java.util.concurrent.TimeUnit
+
+import com.stratio.crossdata.common.result.QueryProfile
 import org.apache.spark.sql.catalyst.TableIdentifier
 import org.apache.spark.sql.catalyst.analysis.EliminateSubQueries
+import org.apache.spark.sql.catalyst.expressions.{Attribute, AttributeReference}
 import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
-import org.apache.spark.sql.crossdata.XDContext
+import org.apache.spark.sql.catalyst.trees.TreeNode
+import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame}
 import org.apache.spark.sql._
 import org.apache.spark.sql.crossdata.catalog.XDCatalog.CrossdataTable
 import org.apache.spark.sql.crossdata.catalog.interfaces.XDCatalogCommon
+import org.apache.spark.sql.crossdata.execution.XDQueryExecution
 import org.apache.spark.sql.crossdata.util.CreateRelationUtil._
-import org.apache.spark.sql.execution.RunnableCommand
+import org.apache.spark.sql.execution.{RunnableCommand, SparkPlan}
 import org.apache.spark.sql.execution.datasources.{LogicalRelation, ResolvedDataSource}
+import org.apache.spark.sql.execution.metric.SQLMetricValue
 import org.apache.spark.sql.sources.{HadoopFsRelation, InsertableRelation}
-import org.apache.spark.sql.types.StructType
+import org.apache.spark.sql.types.{StringType, StructType}
 
 private[crossdata] trait DoCatalogDataSourceTable extends RunnableCommand {
 
@@ -178,3 +185,71 @@ private[crossdata] case class PersistSelectAsTable(
   }
 }
 
+/**
+ * Runs a query and reports how it has been executed: Whether each operator could be executed natively or the reason
+ * why it couldn't, the query sent to the datasource, the number of rows and the time spent in each phase. Queries
+ * executed by Spark also report the metrics of every physical operator, e.g: The number of rows they have produced.
+ */
+private[crossdata] case class ExplainAnalyze(query: LogicalPlan) extends RunnableCommand {
+
+  override val output: Seq[Attribute] = Seq(AttributeReference("plan", StringType, nullable = true)())
+
+  override def run(sqlContext: SQLContext): Seq[Row] = {
+
+    val start = System.nanoTime()
+    val dataFrame = new XDDataFrame(sqlContext, query)
+    val optimizedPlan = dataFrame.queryExecution.optimizedPlan
+    val rejection = dataFrame.nativeExecutionRejections()
+
+    // The datasource only receives the plan when every operator can be executed natively
+    val nativeQuery = XDDataFrame.findNativeQueryExecutor(optimizedPlan) collect {
+      case provider if optimizedPlan.find(rejection(_).isDefined).isEmpty =>
+        provider.getClass.getSimpleName -> provider.explainNativeQuery(optimizedPlan)
+    }
+
+    val rows = dataFrame.collect()
+    val totalMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)
+    val (profile, decisions) = dataFrame.queryExecution match {
+      case xdQueryExecution: XDQueryExecution =>
+        (xdQueryExecution.profiler.profile(totalMicros), xdQueryExecution.profiler.executionDecisions)
+      case _ => (QueryProfile(QueryProfile.SparkExecutionPath, List.empty, totalMicros), List.empty)
+    }
+
+    val pushdownReport = "== Native execution ==" +: treeLines(optimizedPlan) { logicalStep =>
+      rejection(logicalStep).fold(s"[Native] ${logicalStep.simpleString}") { reason =>
+        s"[Spark] ${logicalStep.simpleString} <- $reason"
+      }
+    }
+
+    val nativeQueryReport = nativeQuery.toSeq flatMap {
+      case (datasource, Right(nativeQuery)) => s"$datasource query:" +: nativeQuery.split("\n").toSeq
+      case (datasource, Left(reason)) => Seq(s"$datasource cannot execute the plan natively: $reason")
+    }
+
+    val hybridReport = if (decisions.isEmpty) Seq.empty else "== Hybrid execution ==" +: decisions
+
+    val executionReport = Seq("== Execution ==", s"Executed by: ${profile.executionPath}", s"Rows: ${rows.length}") ++
+      profile.phases.map(phase => s"${phase.name}: ${phase.micros} us") :+ s"total: ${profile.totalMicros} us"
+
+    val sparkPlanReport =
+      if (profile.executionPath != QueryProfile.SparkExecutionPath) Seq.empty
+      else "== Spark plan ==" +: treeLines(dataFrame.queryExecution.executedPlan)(describeWithMetrics)
+
+    (pushdownReport ++ nativeQueryReport ++ hybridReport ++ executionReport ++ sparkPlanReport) map (Row(_))
+  }
+
+  private def treeLines[T <: TreeNode[T]](node: T, depth: Int = 0)(describe: T => String): Seq[String] =
+    s"${"  " * depth}${describe(node)}" +: node.children.flatMap(treeLines(_, depth + 1)(describe))
+
+  private def describeWithMetrics(sparkPlan: SparkPlan): String = {
+    val metrics = sparkPlan.metrics map { case (name, metric) =>
+      val value = metric.value match {
+        case metricValue: SQLMetricValue[_] => metricValue.value
+        case other => other
+      }
+      s"$name: $value"
+    }
+    if (metrics.isEmpty) sparkPlan.simpleString else metrics.mkString(s"${sparkPlan.simpleString} {", ", ", "}")
+  }
+
+}
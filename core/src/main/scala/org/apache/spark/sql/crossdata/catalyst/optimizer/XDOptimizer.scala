@@ -27,6 +27,7 @@ import org.apache.spark.sql.crossdata.catalog.XDCatalog.CrossdataIndex
 import org.apache.spark.sql.crossdata.catalyst.ExtendedUnresolvedRelation
 import org.apache.spark.sql.crossdata.catalyst.execution.DDLUtils
 import org.apache.spark.sql.crossdata.catalyst.globalindex.IndexUtils
+import org.apache.spark.sql.crossdata.execution.QueryProfiler
 import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame}
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.sources.BaseRelation
@@ -68,7 +69,9 @@ case class CheckGlobalIndexInFilters(xdContext: XDContext) extends Rule[LogicalP
       val newFilters: Seq[LogicalPlan] = filters map { filter =>
         if (IndexUtils.areAllAttributeIndexedInExpr(filter.condition, crossdataIndex.indexedCols)) {
           val indexLogicalPlan = buildIndexRequestLogicalPlan(filter.condition, crossdataIndex)
-          val indexedRows = XDDataFrame(xdContext, indexLogicalPlan).collect() //TODO: Warning memory issues
+          val indexedRows = profiled("globalIndexLookup") {
+            XDDataFrame(xdContext, indexLogicalPlan).collect() //TODO: Warning memory issues
+          }
           if (indexedRows.nonEmpty) {
 
             //Convert to query with filter IN
@@ -105,6 +108,9 @@ case class CheckGlobalIndexInFilters(xdContext: XDContext) extends Rule[LogicalP
   }
 
 
+  private def profiled[T](phase: String)(body: => T): T =
+    QueryProfiler.current map (_.timed(phase)(body)) getOrElse body
+
   private def analyze(plan: LogicalPlan): LogicalPlan = {
     val analyzed = xdContext.analyzer.execute(plan)
     xdContext.analyzer.checkAnalysis(analyzed)
@@ -63,12 +63,15 @@ class XDDdlParser(parseQuery: String => LogicalPlan, xDContext: XDContext) exten
   protected val IN = Keyword("IN")
   protected val APP = Keyword("APP")
   protected val EXECUTE = Keyword("EXECUTE")
+  protected val EXPLAIN = Keyword("EXPLAIN")
+  protected val ANALYZE = Keyword("ANALYZE")
 
 
   override protected lazy val ddl: Parser[LogicalPlan] =
 
     createTable | describeTable | refreshTable | importStart | dropTable | dropExternalTable |
-      createView | createExternalTable | dropView | addJar | streamingSentences | insertIntoTable | addApp | executeApp | createGlobalIndex
+      createView | createExternalTable | dropView | addJar | streamingSentences | insertIntoTable | addApp | executeApp | createGlobalIndex |
+      explainAnalyze
 
   // TODO move to StreamingDdlParser
   protected lazy val streamingSentences: Parser[LogicalPlan] =
@@ -183,6 +186,12 @@ protected lazy val addApp: Parser[LogicalPlan] =
         val args=arguments map {arg=> arg.toString}
         ExecuteApp(appName, args, opts)
     }
+  protected lazy val explainAnalyze: Parser[LogicalPlan] =
+    EXPLAIN ~> ANALYZE ~> restInput ^^ {
+      case query =>
+        ExplainAnalyze(parseQuery(query))
+    }
+
   /**
    * Streaming
    */
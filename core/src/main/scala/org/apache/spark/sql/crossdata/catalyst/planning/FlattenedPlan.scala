@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst.planning
+
+import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute, AttributeReference, ExprId, Explode, Expression, GetStructField}
+import org.apache.spark.sql.catalyst.plans.logical.{Generate, LogicalPlan, Project}
+import org.apache.spark.sql.types.{ArrayType, DataType, StructType}
+
+import scala.annotation.tailrec
+
+/**
+  * Builds the plan flattening the output of another one, so the flattening is executed along with the query:
+  *  - Struct columns are replaced by their fields, named after their path (e.g: `address.zip`).
+  *  - Array columns are exploded into one row per element, the result of several array columns being the cartesian
+  *  product of their elements. Rows with null or empty arrays are kept, with a null element.
+  */
+object FlattenedPlan {
+
+  def isFlat(dataType: DataType): Boolean = dataType match {
+    case _: StructType | _: ArrayType => false
+    case _ => true
+  }
+
+  /**
+    * @param columnNames The names given to the output columns of the plan, used as the prefix of their nested fields.
+    */
+  def apply(plan: LogicalPlan, columnNames: Seq[String]): LogicalPlan = {
+    require(plan.output.length == columnNames.length, "Every output column must be named")
+    val alreadyFlat = plan.output.forall(column => isFlat(column.dataType)) && plan.output.map(_.name) == columnNames
+    if (alreadyFlat) plan
+    else flatten(plan, plan.output zip columnNames)
+  }
+
+  @tailrec
+  private def flatten(plan: LogicalPlan, columns: Seq[(Expression, String)]): LogicalPlan = {
+
+    val projection = Project(columns flatMap (structFields _).tupled map { case (field, name) => Alias(field, name)() }, plan)
+    val arrays = projection.output.filter(_.dataType.isInstanceOf[ArrayType])
+
+    if (arrays.isEmpty) {
+      projection
+    } else {
+      val (exploded, elements) = arrays.foldLeft(projection: LogicalPlan, Map.empty[ExprId, Attribute]) {
+        case ((child, explodedElements), array) =>
+          val ArrayType(elementType, _) = array.dataType
+          val element = AttributeReference(array.name, elementType, nullable = true)()
+          val generate = Generate(Explode(array), join = true, outer = true, None, element :: Nil, child)
+          (generate, explodedElements + (array.exprId -> element))
+      }
+      // The elements may be structs or arrays themselves
+      flatten(exploded, projection.output map { column =>
+        val flattenedColumn = elements.getOrElse(column.exprId, column)
+        flattenedColumn -> flattenedColumn.name
+      })
+    }
+  }
+
+  private def structFields(column: Expression, name: String): Seq[(Expression, String)] = column.dataType match {
+    case StructType(fields) =>
+      fields.zipWithIndex flatMap { case (field, ordinal) =>
+        structFields(GetStructField(column, ordinal, Some(field.name)), s"$name.${field.name}")
+      }
+    case _ =>
+      Seq(column -> name)
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst.planning
+
+import java.sql.Timestamp
+
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, AggregateFunction, Average, Count, Max, Min, Sum}
+import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute, Cast, Literal, NamedExpression}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, LogicalPlan}
+import org.apache.spark.sql.types._
+
+/**
+  * Aggregation whose results may be computed by the datasources: Grouping by columns and computing COUNT(*) or
+  * COUNT, SUM, MIN, MAX and AVG of columns. Each connector decides which functions and column types its store
+  * computes as Spark would.
+  */
+case class NativeAggregation(groupingColumns: Seq[Attribute], outputColumns: Seq[NativeAggregate.OutputColumn]) {
+  def isGlobal: Boolean = groupingColumns.isEmpty
+}
+
+object NativeAggregate {
+
+  object NativeFunction extends Enumeration {
+    type NativeFunction = Value
+    val Count, Sum, Min, Max, Avg = Value
+  }
+
+  import NativeFunction.NativeFunction
+
+  sealed trait OutputColumn {
+    def output: Attribute
+  }
+
+  case class GroupingColumn(column: Attribute) extends OutputColumn {
+    def output: Attribute = column
+  }
+
+  /**
+    * @param column The aggregated column, None for COUNT(*).
+    */
+  case class AggregatedColumn(function: NativeFunction, column: Option[Attribute], output: Attribute)
+    extends OutputColumn
+
+  def unapply(plan: LogicalPlan): Option[(NativeAggregation, LogicalPlan)] = plan match {
+    case Aggregate(groupingExpressions, aggregateExpressions, child) =>
+      val groupingColumns = groupingExpressions collect { case column: Attribute => column }
+      val outputColumns = aggregateExpressions map outputColumn(groupingColumns)
+      if (groupingColumns.length == groupingExpressions.length && outputColumns.forall(_.isDefined))
+        Some((NativeAggregation(groupingColumns, outputColumns.flatten), child))
+      else
+        None
+    case _ => None
+  }
+
+  private def outputColumn(groupingColumns: Seq[Attribute])(expression: NamedExpression): Option[OutputColumn] =
+    expression match {
+      case column: Attribute if groupingColumns.exists(_.semanticEquals(column)) =>
+        Some(GroupingColumn(column))
+      case alias @ Alias(AggregateExpression(function, _, false), _) =>
+        aggregatedColumn(function) map { case (f, column) => AggregatedColumn(f, column, alias.toAttribute) }
+      case _ =>
+        None
+    }
+
+  // Integral columns are summed by Spark as longs and averaged as doubles; only those numeric widenings are pushed down
+  private def aggregatedColumn(function: AggregateFunction): Option[(NativeFunction, Option[Attribute])] =
+    function match {
+      case Count(Seq(Literal(1, IntegerType))) => Some(NativeFunction.Count -> None)
+      case Count(Seq(column: Attribute)) => Some(NativeFunction.Count -> Some(column))
+      case Sum(column: Attribute) => Some(NativeFunction.Sum -> Some(column))
+      case Sum(Cast(column: Attribute, LongType)) => Some(NativeFunction.Sum -> Some(column))
+      case Min(column: Attribute) => Some(NativeFunction.Min -> Some(column))
+      case Max(column: Attribute) => Some(NativeFunction.Max -> Some(column))
+      case Average(column: Attribute) => Some(NativeFunction.Avg -> Some(column))
+      case Average(Cast(column: Attribute, DoubleType | _: DecimalType)) if column.dataType.isInstanceOf[NumericType] =>
+        Some(NativeFunction.Avg -> Some(column))
+      case _ => None
+    }
+
+  /**
+    * Converts an aggregation result computed by a datasource to the external Spark type of its column.
+    */
+  def toOutputType(value: Any, dataType: DataType): Any = (value, dataType) match {
+    case (null, _) => null
+    case (number: Number, LongType) => number.longValue
+    case (number: Number, IntegerType) => number.intValue
+    case (number: Number, ShortType) => number.shortValue
+    case (number: Number, ByteType) => number.byteValue
+    case (number: Number, DoubleType) => number.doubleValue
+    case (number: Number, FloatType) => number.floatValue
+    case (number: Number, _: DecimalType) => new java.math.BigDecimal(number.toString)
+    case (date: java.util.Date, TimestampType) => new Timestamp(date.getTime)
+    case (other, _) => other
+  }
+
+}
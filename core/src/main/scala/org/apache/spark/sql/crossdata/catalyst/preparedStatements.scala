@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst
+
+import org.apache.spark.sql.catalyst.analysis.UnresolvedFunction
+import org.apache.spark.sql.catalyst.expressions._
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
+import org.apache.spark.sql.types.{DataType, NullType}
+
+
+/**
+  * Value of the `index`-th `?` of a prepared statement, unknown until the statement is executed. Its type is
+  * NullType so the analyzer casts it to the type expected where it's used.
+  */
+case class ParameterPlaceholder(index: Int) extends LeafExpression with Unevaluable {
+  override def dataType: DataType = NullType
+  override def nullable: Boolean = true
+  override def toString: String = s"?$index"
+}
+
+object ParameterPlaceholder {
+
+  // The SQL parser doesn't know about `?`: Placeholders are parsed as calls to this function
+  private val PlaceholderFunction = "xd_parameter_placeholder"
+
+  /**
+    * @return The sentence with its placeholders replaced by calls to `PlaceholderFunction` and the number of them.
+    *         Question marks within quotes, including those following backslash-escaped quotes, are kept.
+    */
+  def replacePlaceholders(sqlText: String): (String, Int) = {
+    val replaced = new StringBuilder
+    var quote: Option[Char] = None
+    var escaped = false
+    var nPlaceholders = 0
+
+    sqlText foreach {
+      case c if escaped =>
+        escaped = false
+        replaced += c
+      case '\\' if quote.isDefined =>
+        escaped = true
+        replaced += '\\'
+      case '?' if quote.isEmpty =>
+        replaced ++= s"$PlaceholderFunction($nPlaceholders)"
+        nPlaceholders += 1
+      case c @ ('\'' | '"' | '`') =>
+        quote = if (quote.isEmpty) Some(c) else quote.filter(_ != c)
+        replaced += c
+      case c =>
+        replaced += c
+    }
+
+    (replaced.toString, nPlaceholders)
+  }
+
+  def fromParsedPlan(parsedPlan: LogicalPlan): LogicalPlan = parsedPlan transformAllExpressions {
+    case UnresolvedFunction(name, Seq(Literal(index: Int, _)), false) if name.equalsIgnoreCase(PlaceholderFunction) =>
+      ParameterPlaceholder(index)
+  }
+
+}
+
+/**
+  * Parsed and analyzed plans of a prepared statement.
+  *
+  * @param parsed Parsed plan, authorization is checked against it on every execution.
+  */
+case class PreparedPlan(parsed: LogicalPlan, analyzed: LogicalPlan, parameterCount: Int) {
+
+  /**
+    * Replaces the placeholders of the analyzed plan by the parameters, converted to the type expected by the
+    * expression using each of them.
+    */
+  def bind(parameters: Seq[Any]): LogicalPlan = {
+    require(
+      parameters.length == parameterCount,
+      s"The statement has $parameterCount parameters but ${parameters.length} were provided"
+    )
+
+    val literals = parameters.zipWithIndex map { case (parameter, index) =>
+      try Literal(parameter) catch {
+        case e: RuntimeException =>
+          throw new IllegalArgumentException(s"Unsupported type of parameter ${index + 1}: ${e.getMessage}", e)
+      }
+    }
+
+    analyzed transformAllExpressions {
+      case Cast(ParameterPlaceholder(index), dataType) => typedLiteral(index, literals(index), dataType)
+      case ParameterPlaceholder(index) => literals(index)
+    }
+  }
+
+  private def typedLiteral(index: Int, literal: Literal, dataType: DataType): Literal = {
+    val value = if (Cast.canCast(literal.dataType, dataType)) Cast(literal, dataType).eval() else null
+    if (value == null && literal.value != null)
+      throw new IllegalArgumentException(
+        s"Parameter ${index + 1} (${literal.value}) can't be bound as ${dataType.simpleString}"
+      )
+    Literal(value, dataType)
+  }
+
+}
@@ -59,6 +59,11 @@ object CoreConfig {
   val SecurityEnabledKey = s"$SecurityConfigKey.$SecurityManagerConfigKey.enabled"
   val SecurityClassConfigKey = s"$SecurityConfigKey.$SecurityManagerConfigKey.$ClassConfigKey"
 
+  val PreparedStatementsMaxCachedKey = "prepared-statements.max-cached"
+  val DefaultPreparedStatementsMaxCached = 256
+  val ParsedPlansMaxCachedKey = "parsed-plans.max-cached"
+  val DefaultParsedPlansMaxCached = 512
+
   val SparkSqlConfigPrefix = "config.spark.sql" //WARNING!! XDServer is using this path to read its parameters
 
 
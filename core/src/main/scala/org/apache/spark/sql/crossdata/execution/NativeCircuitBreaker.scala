@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.execution
+
+import java.util.concurrent.ConcurrentHashMap
+
+import org.apache.spark.sql.SQLConf
+import org.apache.spark.sql.crossdata.XDSQLConf
+import org.apache.spark.sql.crossdata.execution.NativeCircuitBreaker.{CircuitState, Settings}
+
+import scala.collection.JavaConverters._
+
+object NativeCircuitBreaker {
+
+  object CircuitState extends Enumeration {
+    type CircuitState = Value
+    val Closed, HalfOpen, Open = Value
+  }
+
+  /**
+    * @param enabled whether native executions are skipped while the circuit is open
+    * @param failureThreshold consecutive failures opening the circuit
+    * @param coolDownMillis time the circuit stays open before trying a native execution again
+    * @param slowCallMillis native executions lasting longer are accounted as failures, 0 disables it
+    */
+  case class Settings(enabled: Boolean, failureThreshold: Int, coolDownMillis: Long, slowCallMillis: Long)
+
+  object Settings {
+    def apply(conf: SQLConf): Settings = Settings(
+      conf.getConfString(XDSQLConf.NativeCircuitBreakerEnabledPropertyKey, "true").toBoolean,
+      conf.getConfString(
+        XDSQLConf.NativeCircuitBreakerFailureThresholdPropertyKey, XDSQLConf.DefaultNativeCircuitBreakerFailureThreshold.toString
+      ).toInt,
+      conf.getConfString(
+        XDSQLConf.NativeCircuitBreakerCoolDownPropertyKey, XDSQLConf.DefaultNativeCircuitBreakerCoolDown.toString
+      ).toLong,
+      conf.getConfString(XDSQLConf.NativeCircuitBreakerSlowCallPropertyKey, "0").toLong
+    )
+  }
+
+  // Keyed by connector and datasource
+  private val breakers = new ConcurrentHashMap[(String, String), NativeCircuitBreaker]()
+
+  /**
+    * Circuit breaker of a datasource (see [[com.stratio.crossdata.connector.NativeScan#nativeDatasource]]), shared
+    * by every session.
+    */
+  def apply(connector: String, datasource: String): NativeCircuitBreaker = {
+    val key = (connector, datasource)
+    Option(breakers.get(key)) getOrElse synchronized {
+      Option(breakers.get(key)) getOrElse {
+        val breaker = new NativeCircuitBreaker
+        breakers.put(key, breaker)
+        breaker
+      }
+    }
+  }
+
+  /**
+    * @return the least healthy state among the circuits of the datasources of a connector
+    */
+  def connectorState(connector: String): CircuitState.CircuitState = {
+    val states = breakers.asScala collect {
+      case ((`connector`, _), breaker) => breaker.currentState
+    }
+    (states.toSeq :+ CircuitState.Closed).maxBy(_.id)
+  }
+
+}
+
+/**
+  * Tracks the health of the native executions of a datasource. Consecutive failures open the circuit so native
+  * executions are skipped, and run by Spark, during a cool-down period. Then a single native execution is let
+  * through: its success closes the circuit and its failure opens it again. If its outcome isn't conclusive, e.g. the
+  * plan turns out not to be supported natively, the following native execution is let through instead.
+  */
+class NativeCircuitBreaker(clock: () => Long = () => System.currentTimeMillis()) {
+
+  import CircuitState._
+
+  private var state: CircuitState = Closed
+  private var consecutiveFailures = 0
+  private var openedAt = 0L
+
+  def currentState: CircuitState = synchronized(state)
+
+  /**
+    * @return whether a native execution may be attempted. Otherwise it has to be run by Spark.
+    */
+  def tryAcquire(settings: Settings): Boolean = synchronized {
+    state match {
+      case _ if !settings.enabled => true
+      case Closed => true
+      case Open if clock() - openedAt >= settings.coolDownMillis =>
+        state = HalfOpen
+        true
+      case _ => false
+    }
+  }
+
+  /**
+    * @return whether the execution, being too slow, has opened the circuit
+    */
+  def onSuccess(latencyMillis: Long, settings: Settings): Boolean =
+    if (settings.slowCallMillis > 0 && latencyMillis > settings.slowCallMillis) {
+      onFailure(settings)
+    } else synchronized {
+      state = Closed
+      consecutiveFailures = 0
+      false
+    }
+
+  /**
+    * Accounts an execution which is neither a success nor a failure, so it doesn't change the circuit: the execution
+    * let through after the cool-down is released and the following one is let through instead.
+    */
+  def onInconclusive(): Unit = synchronized {
+    if (state == HalfOpen) state = Open
+  }
+
+  /**
+    * @return whether the failure has opened the circuit
+    */
+  def onFailure(settings: Settings): Boolean = synchronized {
+    consecutiveFailures += 1
+    val opens = state == HalfOpen || (state == Closed && consecutiveFailures >= settings.failureThreshold)
+    if (opens) {
+      state = Open
+      openedAt = clock()
+    }
+    opens
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.execution
+
+import java.util.concurrent.TimeUnit
+
+import com.stratio.crossdata.common.result.{QueryPhase, QueryProfile}
+
+import scala.collection.mutable
+
+object QueryProfiler {
+
+  // Profiler of the query being optimized by the current thread, for the rules which don't know its query execution
+  private val active = new ThreadLocal[QueryProfiler]
+
+  def current: Option[QueryProfiler] = Option(active.get)
+
+  def withCurrent[T](profiler: QueryProfiler)(body: => T): T = {
+    val previous = active.get
+    active.set(profiler)
+    try body finally active.set(previous)
+  }
+
+}
+
+/**
+  * Records the wall-clock time spent in each phase of a query and the path it has been executed through.
+  */
+class QueryProfiler {
+
+  private val phases = mutable.ListBuffer.empty[QueryPhase]
+  private val decisions = mutable.ListBuffer.empty[String]
+
+  @volatile private var path: String = QueryProfile.SparkExecutionPath
+
+  def timed[T](phase: String)(body: => T): T = {
+    val start = System.nanoTime()
+    try body finally record(phase, System.nanoTime() - start)
+  }
+
+  def record(phase: String, nanos: Long): Unit = synchronized {
+    phases += QueryPhase(phase, TimeUnit.NANOSECONDS.toMicros(nanos))
+  }
+
+  /**
+    * Records a phase run before the query execution was created, e.g: The parsing.
+    */
+  def recordPrevious(phase: String, nanos: Long): Unit = synchronized {
+    QueryPhase(phase, TimeUnit.NANOSECONDS.toMicros(nanos)) +=: phases
+  }
+
+  def executedBy(executionPath: String): Unit = path = executionPath
+
+  /**
+    * Records how a part of the query has been executed and why, e.g: Each subtree of a hybrid execution.
+    */
+  def decided(decision: String): Unit = synchronized {
+    decisions += decision
+  }
+
+  def executionDecisions: List[String] = synchronized(decisions.toList)
+
+  def profile(totalMicros: Long): QueryProfile = synchronized {
+    QueryProfile(path, phases.toList, totalMicros)
+  }
+
+}
@@ -25,12 +25,22 @@ import org.apache.spark.sql.execution._
 
 /**
   * @inheritdoc
+  *
+  * @param analyzedPlan Already analyzed plan of the parsed one, e.g. a bound prepared statement, so the analysis
+  *                     is skipped. Authorization is still checked against the parsed plan.
   */
-class XDQueryExecution(sqlContext: SQLContext, parsedPlan: LogicalPlan, catalogIdentifier: String) extends QueryExecution(sqlContext, parsedPlan){
+class XDQueryExecution(
+                        sqlContext: SQLContext,
+                        parsedPlan: LogicalPlan,
+                        catalogIdentifier: String,
+                        analyzedPlan: Option[LogicalPlan] = None
+                      ) extends QueryExecution(sqlContext, parsedPlan){
 
   lazy val logger = Logger.getLogger(classOf[XDQueryExecution])
 
-  lazy val authorized: LogicalPlan = {
+  val profiler = new QueryProfiler
+
+  lazy val authorized: LogicalPlan = profiler.timed("authorization") {
     // TODO assertAnalyzed() execute sqlContext.analyzer.execute(authorized) twice??
     val xdContext = sqlContext.asInstanceOf[XDContext]
 
@@ -54,7 +64,25 @@ class XDQueryExecution(sqlContext: SQLContext, parsedPlan: LogicalPlan, catalogI
     parsedPlan
   }
 
-  override lazy val analyzed: LogicalPlan = sqlContext.analyzer.execute(authorized)
+  override lazy val analyzed: LogicalPlan = {
+    val plan = authorized
+    analyzedPlan getOrElse profiler.timed("analysis")(sqlContext.analyzer.execute(plan))
+  }
+
+  override lazy val optimizedPlan: LogicalPlan = {
+    val plan = withCachedData
+    profiler.timed("optimization") {
+      QueryProfiler.withCurrent(profiler)(sqlContext.optimizer.execute(plan))
+    }
+  }
+
+  override lazy val sparkPlan: SparkPlan = {
+    val plan = optimizedPlan
+    profiler.timed("planning") {
+      SQLContext.setActive(sqlContext)
+      sqlContext.planner.plan(plan).next()
+    }
+  }
 
 
   // Extracts
@@ -15,22 +15,145 @@
  */
 package org.apache.spark.sql.crossdata.metrics
 
-import com.codahale.metrics.{Gauge, MetricRegistry}
+import java.util.concurrent.ConcurrentHashMap
+
+import com.codahale.metrics.{Counter, Gauge, Histogram, Meter, MetricRegistry, Timer}
+import org.apache.spark.SparkEnv
 import org.apache.spark.metrics.source.Source
+import org.apache.spark.sql.crossdata.execution.NativeCircuitBreaker
 
-class XDMetricsSource extends Source{
+object XDMetricsSource {
 
-  override val sourceName = "XDMetricsSource"
-  override val metricRegistry = new MetricRegistry()
+  /**
+    * Registry shared by every [[XDMetricsSource]] instance. Spark copies the metrics of a source when it gets
+    * registered, so every metric has to be created here, at object initialization, in order to be reported
+    * by the sinks configured in `xdmetrics.properties`. Connector metrics, see [[connector]], are the exception.
+    */
+  val metricRegistry = new MetricRegistry()
+
+  // Query phases. Execution is split by execution type: Native (connectors) or Spark
+  val queriesParsing: Timer = metricRegistry.timer(MetricRegistry.name("queries", "parsing"))
+  val queriesAnalysis: Timer = metricRegistry.timer(MetricRegistry.name("queries", "analysis"))
+  val queriesOptimization: Timer = metricRegistry.timer(MetricRegistry.name("queries", "optimization"))
+  val queriesNativeExecution: Timer = metricRegistry.timer(MetricRegistry.name("queries", "execution", "native"))
+  val queriesSparkExecution: Timer = metricRegistry.timer(MetricRegistry.name("queries", "execution", "spark"))
+  val queriesResultRows: Histogram = metricRegistry.histogram(MetricRegistry.name("queries", "resultRows"))
+
+  // Speculative executions: Native executions within the latency budget and winners of the races against Spark
+  val speculativeNativeInBudget: Counter = metricRegistry.counter(MetricRegistry.name("queries", "speculative", "nativeInBudget"))
+  val speculativeNativeWins: Counter = metricRegistry.counter(MetricRegistry.name("queries", "speculative", "nativeWins"))
+  val speculativeSparkWins: Counter = metricRegistry.counter(MetricRegistry.name("queries", "speculative", "sparkWins"))
+
+  // Catalog
+  val catalogLookups: Timer = metricRegistry.timer(MetricRegistry.name("catalog", "lookups"))
+  val catalogCacheHits: Counter = metricRegistry.counter(MetricRegistry.name("catalog", "cache", "hits"))
+  val catalogCacheMisses: Counter = metricRegistry.counter(MetricRegistry.name("catalog", "cache", "misses"))
+
+  // Server sessions
+  val sessionsOpen: Counter = metricRegistry.counter(MetricRegistry.name("sessions", "open"))
+
+  // Server job execution engine
+  val jobsQueued: Counter = metricRegistry.counter(MetricRegistry.name("jobs", "queued"))
+  val jobsActive: Counter = metricRegistry.counter(MetricRegistry.name("jobs", "active"))
+  val jobsWaitTime: Timer = metricRegistry.timer(MetricRegistry.name("jobs", "waitTime"))
+  val jobsRejected: Meter = metricRegistry.meter(MetricRegistry.name("jobs", "rejected"))
+  val jobsPending: Counter = metricRegistry.counter(MetricRegistry.name("jobs", "pending"))
+
+  // Server query result cache
+  val resultCacheHits: Counter = metricRegistry.counter(MetricRegistry.name("resultCache", "hits"))
+  val resultCacheMisses: Counter = metricRegistry.counter(MetricRegistry.name("resultCache", "misses"))
+  val resultCacheEvictions: Counter = metricRegistry.counter(MetricRegistry.name("resultCache", "evictions"))
+
+  // Sessions' parsed plans and prepared statements caches
+  val parsedPlansHits: Counter = metricRegistry.counter(MetricRegistry.name("parsedPlans", "hits"))
+  val parsedPlansMisses: Counter = metricRegistry.counter(MetricRegistry.name("parsedPlans", "misses"))
+  val preparedPlansHits: Counter = metricRegistry.counter(MetricRegistry.name("preparedPlans", "hits"))
+  val preparedPlansMisses: Counter = metricRegistry.counter(MetricRegistry.name("preparedPlans", "misses"))
+
+  gauge(MetricRegistry.name("parsedPlans", "hitRatio"))(hitRatio(parsedPlansHits, parsedPlansMisses))
+  gauge(MetricRegistry.name("preparedPlans", "hitRatio"))(hitRatio(preparedPlansHits, preparedPlansMisses))
+  gauge(MetricRegistry.name("catalog", "cache", "hitRatio"))(hitRatio(catalogCacheHits, catalogCacheMisses))
+
+  /**
+    * Native executions of a connector.
+    *
+    * @param failures Executions which have thrown an error.
+    * @param fallbacks Executions the connector couldn't resolve so they have been run by Spark.
+    * @param circuitOpenings Times the circuit breaker of the connector has been opened.
+    * @param circuitRejections Executions run by Spark because the circuit of the connector was open.
+    */
+  case class ConnectorMetrics(
+                               latency: Timer,
+                               failures: Counter,
+                               fallbacks: Counter,
+                               circuitOpenings: Counter,
+                               circuitRejections: Counter
+                             )
+
+  private val connectors = new ConcurrentHashMap[String, ConnectorMetrics]()
+
+  /**
+    * Metrics of a connector, created the first time they are requested since connectors are known at runtime.
+    */
+  def connector(name: String): ConnectorMetrics = Option(connectors.get(name)) getOrElse synchronized {
+    Option(connectors.get(name)) getOrElse {
+      val metrics = ConnectorMetrics(
+        metricRegistry.timer(MetricRegistry.name("connectors", name, "latency")),
+        metricRegistry.counter(MetricRegistry.name("connectors", name, "failures")),
+        metricRegistry.counter(MetricRegistry.name("connectors", name, "fallbacks")),
+        metricRegistry.counter(MetricRegistry.name("connectors", name, "circuit", "openings")),
+        metricRegistry.counter(MetricRegistry.name("connectors", name, "circuit", "rejections"))
+      )
+      // Least healthy circuit of the datasources of the connector. 0: closed, 1: half-open, 2: open
+      gauge(MetricRegistry.name("connectors", name, "circuit", "state"))(NativeCircuitBreaker.connectorState(name).id)
+      connectors.put(name, metrics)
+      refreshSparkRegistration()
+      metrics
+    }
+  }
 
-  // Simple metric registered
-  metricRegistry.register(MetricRegistry.name("executionType"), new Gauge[String] {
-    override def getValue: String = "valueOfExecutionType"
-  })
+  def timed[T](timer: Timer)(body: => T): T = {
+    val context = timer.time()
+    try body finally context.stop()
+  }
+
+  // Source registered again every time new metrics are created
+  private lazy val sparkSource = new XDMetricsSource
+
+  // Spark copies the metrics of a source when it gets registered so metrics created later need it to be registered again
+  private def refreshSparkRegistration(): Unit = Option(SparkEnv.get) foreach { env =>
+    env.metricsSystem.removeSource(sparkSource)
+    env.metricsSystem.registerSource(sparkSource)
+  }
 
-  def registerGauge(name: String): Unit = {
-    metricRegistry.register(MetricRegistry.name("metricName", name), new Gauge[String] {
-      override def getValue: String = name
+  private def hitRatio(hits: Counter, misses: Counter): Double = {
+    val lookups = hits.getCount + misses.getCount
+    if (lookups == 0) 0.0 else hits.getCount.toDouble / lookups
+  }
+
+  /**
+    * Registers a gauge replacing any previous metric with the same name.
+    */
+  def gauge[T](name: String)(value: => T): Gauge[T] = {
+    metricRegistry.remove(name)
+    metricRegistry.register(name, new Gauge[T] {
+      override def getValue: T = value
     })
   }
+
+}
+
+/**
+  * Every instance reports the shared [[XDMetricsSource.metricRegistry]], so they are all equal: Removing any of them
+  * from the Spark metrics system also removes the one created from `xdmetrics.properties`.
+  */
+class XDMetricsSource extends Source{
+
+  override val sourceName = "XDMetricsSource"
+  override val metricRegistry = XDMetricsSource.metricRegistry
+
+  override def equals(other: Any): Boolean = other.isInstanceOf[XDMetricsSource]
+
+  override def hashCode(): Int = sourceName.hashCode
+
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.{IntegerType, StructField, StructType}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class NativeRowIteratorSpec extends BaseXDTest {
+
+  val schema = StructType(StructField("id", IntegerType) :: Nil)
+
+  class Resource {
+    var closings = 0
+    def close(): Unit = closings += 1
+  }
+
+  def rows(resource: Resource): NativeRowIterator =
+    new NativeRowIterator(schema, Iterator(Row(1), Row(2), Row(3)), () => resource.close())
+
+  "A NativeRowIterator" should "release the datasource resources once it is fully consumed" in {
+    val resource = new Resource
+    val iterator = rows(resource)
+    iterator.toList shouldBe List(Row(1), Row(2), Row(3))
+    resource.closings shouldBe 1
+  }
+
+  it should "release the datasource resources only once when closed before being consumed" in {
+    val resource = new Resource
+    val iterator = rows(resource)
+    iterator.next() shouldBe Row(1)
+    iterator.close()
+    iterator.close()
+    iterator.hasNext shouldBe false
+    resource.closings shouldBe 1
+  }
+
+  it should "keep closing the datasource resources when its rows are transformed" in {
+    val resource = new Resource
+    val transformed = rows(resource).mapRows(row => Row(row.getInt(0) * 10))
+    transformed.drain() shouldBe Array(Row(10), Row(20), Row(30))
+    resource.closings shouldBe 1
+  }
+
+  it should "read its rows only while they fit in the budget" in {
+    val resource = new Resource
+    rows(resource).drain(3, Long.MaxValue).map(_.toSeq) shouldBe Some(Seq(Row(1), Row(2), Row(3)))
+    rows(resource).drain(2, Long.MaxValue) shouldBe None
+    rows(resource).drain(3, NativeRowIterator.estimatedSize(Row(1))) shouldBe None
+    resource.closings shouldBe 3
+  }
+
+}
@@ -25,7 +25,7 @@ import org.apache.spark.sql.crossdata.catalyst.execution.PersistDataSourceTable
 import org.apache.spark.sql.crossdata.test.SharedXDContextTest
 import org.apache.spark.sql.execution.ExecutedCommand
 import org.apache.spark.sql.types.{IntegerType, StringType, StructField, StructType}
-import org.apache.spark.sql.{DataFrame, Row}
+import org.apache.spark.sql.{AnalysisException, DataFrame, Row, SQLConf}
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -192,6 +192,49 @@ class XDContextIT extends SharedXDContextTest {
 
   }
 
+  it should "execute prepared statements binding their parameters to the expected types" in {
+    val records = xdContext.createDataFrame(
+      xdContext.sparkContext.parallelize((1 to 5).map(i => Row(s"val_$i", i))),
+      StructType(Array(StructField("id", StringType), StructField("value", IntegerType))))
+    records.registerTempTable("prepared")
+
+    val statement = "SELECT id FROM prepared WHERE value > ? AND id <> '?'"
+
+    xdContext.executePrepared(statement, Seq(3)).collect() should contain theSameElementsAs Seq(Row("val_4"), Row("val_5"))
+    xdContext.executePrepared(statement, Seq(4L)).collect() shouldBe Array(Row("val_5"))
+    xdContext.executePrepared(statement, Seq("1")).collect() should have length 4
+
+    an[IllegalArgumentException] should be thrownBy xdContext.executePrepared(statement, Seq("one"))
+    an[IllegalArgumentException] should be thrownBy xdContext.executePrepared(statement, Seq(1, 2))
+  }
+
+  it should "analyze prepared statements again once the catalog changes" in {
+    val schema = StructType(Array(StructField("id", StringType), StructField("value", IntegerType)))
+    xdContext.createDataFrame(xdContext.sparkContext.parallelize(Seq(Row("a", 1))), schema).registerTempTable("preparedChanging")
+
+    val statement = "SELECT id FROM preparedChanging WHERE value = ?"
+    xdContext.executePrepared(statement, Seq(1)).collect() shouldBe Array(Row("a"))
+
+    xdContext.createDataFrame(xdContext.sparkContext.parallelize(Seq(Row("b", 1))), schema).registerTempTable("preparedChanging")
+    xdContext.executePrepared(statement, Seq(1)).collect() shouldBe Array(Row("b"))
+  }
+
+  it should "analyze prepared statements again once the case sensitivity changes" in {
+    val schema = StructType(Array(StructField("id", StringType), StructField("value", IntegerType)))
+    xdContext.createDataFrame(xdContext.sparkContext.parallelize(Seq(Row("a", 1))), schema).registerTempTable("preparedcase")
+
+    val statement = "SELECT ID FROM preparedcase WHERE VALUE = ?"
+    try {
+      xdContext.setConf(SQLConf.CASE_SENSITIVE.key, "false")
+      xdContext.executePrepared(statement, Seq(1)).collect() shouldBe Array(Row("a"))
+
+      xdContext.setConf(SQLConf.CASE_SENSITIVE.key, "true")
+      an[AnalysisException] should be thrownBy xdContext.executePrepared(statement, Seq(1))
+    } finally {
+      xdContext.setConf(SQLConf.CASE_SENSITIVE.key, "true")
+    }
+  }
+
 
 
 //  it must "execute jar app previously uploaded" in {
@@ -15,21 +15,31 @@
  */
 package org.apache.spark.sql.crossdata
 
+import java.nio.file.Paths
+
+import com.stratio.crossdata.common.result.QueryProfile
 import com.stratio.crossdata.connector.NativeScan
+import org.apache.spark.JobExecutionStatus
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.Row
 import org.apache.spark.sql.catalyst.expressions._
 import org.apache.spark.sql.catalyst.plans.logical._
+import org.apache.spark.sql.crossdata.catalog.XDCatalog
+import org.apache.spark.sql.crossdata.catalyst.execution.ExplainAnalyze
+import org.apache.spark.sql.crossdata.execution.{NativeCircuitBreaker, XDQueryExecution}
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
 import org.apache.spark.sql.crossdata.test.SharedXDContextTest
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.sources.TableScan
-import org.apache.spark.sql.types.{IntegerType, StructField, StructType}
+import org.apache.spark.sql.types.{ArrayType, IntegerType, StringType, StructField, StructType}
 import org.junit.runner.RunWith
 import org.scalatest.Inside
+import org.scalatest.concurrent.Eventually
 import org.scalatest.junit.JUnitRunner
+import org.scalatest.time.{Seconds, Span}
 
 @RunWith(classOf[JUnitRunner])
-class XDDataFrameIT extends SharedXDContextTest with Inside {
+class XDDataFrameIT extends SharedXDContextTest with Inside with Eventually {
 
   lazy val sparkRows = xdContext.createDataFrame(xdContext.sparkContext.parallelize(Seq(Row(1))), StructType(Array(StructField("id", IntegerType)))).collect()
   lazy val nativeRows = Array(Row(2l))
@@ -77,6 +87,192 @@ class XDDataFrameIT extends SharedXDContextTest with Inside {
     XDDataFrame(xdContext, LogicalRelation(mockNativeRelation)).count() should be(2l)
   }
 
+  "A XDDataFrame " should "profile the phases of its execution" in {
+    val nativeDataframe = XDDataFrame(xdContext, LogicalRelation(mockNativeRelation))
+    nativeDataframe.collect()
+    val nativeProfile = nativeDataframe.queryExecution.asInstanceOf[XDQueryExecution].profiler.profile(0)
+    nativeProfile.executionPath should not be QueryProfile.SparkExecutionPath
+    nativeProfile.phases.map(_.name) should contain allOf("analysis", "optimization", "nativeExecution")
+
+    val sparkDataframe = XDDataFrame(xdContext, LogicalRelation(mockNativeRelationUnsupportedPlan))
+    sparkDataframe.collect()
+    val sparkProfile = sparkDataframe.queryExecution.asInstanceOf[XDQueryExecution].profiler.profile(0)
+    sparkProfile.executionPath shouldBe QueryProfile.SparkExecutionPath
+    sparkProfile.phases.map(_.name) should contain allOf("analysis", "planning", "sparkExecution")
+  }
+
+  "A XDDataFrame " should "flatten struct columns and explode array columns when collecting flattened results" in {
+    val schema = StructType(Array(
+      StructField("id", IntegerType),
+      StructField("address", StructType(Array(StructField("city", StringType), StructField("zip", IntegerType)))),
+      StructField("tags", ArrayType(StringType)),
+      StructField("scores", ArrayType(IntegerType))
+    ))
+    val rows = Seq(Row(1, Row("Madrid", 28001), Seq("a", "b"), Seq(1, 2, 3)), Row(2, null, null, Seq.empty))
+    xdContext.createDataFrame(xdContext.sparkContext.parallelize(rows), schema).registerTempTable("nestedTable")
+
+    val result = xdContext.sql("SELECT * FROM nestedTable").flattenedCollect()
+    result.head.schema.fieldNames shouldBe Array("id", "address.city", "address.zip", "tags", "scores")
+    result.filter(_.getInt(0) == 1).map(row => (row.getString(3), row.getInt(4))) should contain theSameElementsAs
+      (for (tag <- Seq("a", "b"); score <- 1 to 3) yield (tag, score))
+    result.filter(_.getInt(0) == 2) shouldBe Array(Row(2, null, null, null, null))
+
+    xdContext.sql("SELECT * FROM nestedTable LIMIT 4").flattenedCollect() should have length 4
+    xdContext.sql("SELECT address.zip FROM nestedTable").flattenedCollect().head.schema.fieldNames shouldBe
+      Array("address.zip")
+
+    // Flattened results can be streamed as well
+    val flattened = xdContext.sql("SELECT * FROM nestedTable").asInstanceOf[XDDataFrame].flattened()
+    flattened.schema.fieldNames shouldBe Array("id", "address.city", "address.zip", "tags", "scores")
+    flattened.toLocalIterator().toList should contain theSameElementsAs result.toList
+  }
+
+  "A XDDataFrame joining native and Spark relations" should "execute natively the subtrees of a single datasource" in {
+    XDDataFrame(xdContext, LogicalRelation(mockNativeLookupRelation)).registerTempTable("nativeLookup")
+    xdContext.createDataFrame(
+      xdContext.sparkContext.parallelize(Seq(Row(3), Row(4))), StructType(Array(StructField("id", IntegerType)))
+    ).registerTempTable("sparkIds")
+    val query = "SELECT n.id FROM nativeLookup n JOIN sparkIds s ON n.id = s.id"
+
+    xdContext.sql(query).collect() shouldBe Array(Row(3))
+    val report = ExplainAnalyze(xdContext.sql(query).logicalPlan).run(xdContext).map(_.getString(0))
+    report should contain("== Hybrid execution ==")
+    report.exists(line => line.startsWith("[Native]") && line.endsWith("rows")) shouldBe true
+
+    // Native results larger than the threshold are discarded and the relation is read by Spark
+    xdContext.setConf(XDSQLConf.HybridExecutionMaxRowsPropertyKey, "1")
+    try {
+      xdContext.sql(query).collect() shouldBe empty
+
+      // The subtree isn't executed natively again until the catalog or the data change
+      val rejectionReport = ExplainAnalyze(xdContext.sql(query).logicalPlan).run(xdContext).map(_.getString(0))
+      rejectionReport.exists(_.endsWith("Exceeded 1 rows in a previous execution")) shouldBe true
+    } finally {
+      xdContext.setConf(XDSQLConf.HybridExecutionMaxRowsPropertyKey, XDSQLConf.DefaultHybridExecutionMaxRows.toString)
+    }
+  }
+
+  "A XDDataFrame executed speculatively" should "race Spark against native executions exceeding the latency budget" in {
+    xdContext.setConf(XDSQLConf.SpeculativeExecutionEnabledPropertyKey, "true")
+    xdContext.setConf(XDSQLConf.SpeculativeExecutionLatencyBudgetPropertyKey, "100")
+    try {
+      val sparkWins = XDMetricsSource.speculativeSparkWins.getCount
+      XDDataFrame(xdContext, LogicalRelation(mockSlowNativeRelation)).collect() shouldBe sparkRows
+      XDMetricsSource.speculativeSparkWins.getCount shouldBe sparkWins + 1
+
+      val nativeInBudget = XDMetricsSource.speculativeNativeInBudget.getCount
+      XDDataFrame(xdContext, LogicalRelation(mockNativeRelation)).collect() shouldBe nativeRows
+      XDMetricsSource.speculativeNativeInBudget.getCount shouldBe nativeInBudget + 1
+    } finally {
+      xdContext.setConf(XDSQLConf.SpeculativeExecutionEnabledPropertyKey, "false")
+    }
+  }
+
+  it should "account native executions lost against Spark neither as failures nor as successes" in {
+    xdContext.setConf(XDSQLConf.SpeculativeExecutionEnabledPropertyKey, "true")
+    xdContext.setConf(XDSQLConf.SpeculativeExecutionLatencyBudgetPropertyKey, "100")
+    xdContext.setConf(XDSQLConf.NativeCircuitBreakerFailureThresholdPropertyKey, "1")
+    try {
+      val connectorName = mockSlowNativeRelation.getClass.getSimpleName
+      val connectorMetrics = XDMetricsSource.connector(connectorName)
+      val circuitBreaker = NativeCircuitBreaker(connectorName, mockSlowNativeRelation.nativeDatasource)
+      val (failures, fallbacks) = (connectorMetrics.failures.getCount, connectorMetrics.fallbacks.getCount)
+      val sparkWins = XDMetricsSource.speculativeSparkWins.getCount
+
+      XDDataFrame(xdContext, LogicalRelation(mockSlowNativeRelation)).collect() shouldBe sparkRows
+
+      XDMetricsSource.speculativeSparkWins.getCount shouldBe sparkWins + 1
+      eventually(timeout(Span(10, Seconds))) {
+        XDDataFrame.speculativeExecutor.getActiveCount shouldBe 0
+      }
+      connectorMetrics.failures.getCount shouldBe failures
+      connectorMetrics.fallbacks.getCount shouldBe fallbacks
+      circuitBreaker.currentState shouldBe NativeCircuitBreaker.CircuitState.Closed
+    } finally {
+      xdContext.setConf(XDSQLConf.SpeculativeExecutionEnabledPropertyKey, "false")
+      xdContext.setConf(
+        XDSQLConf.NativeCircuitBreakerFailureThresholdPropertyKey, XDSQLConf.DefaultNativeCircuitBreakerFailureThreshold.toString
+      )
+    }
+  }
+
+  it should "cancel the Spark jobs when the native execution wins the race" in {
+    val jobGroup = "speculative-native-wins"
+    val sparkContext = xdContext.sparkContext
+    xdContext.setConf(XDSQLConf.SpeculativeExecutionEnabledPropertyKey, "true")
+    xdContext.setConf(XDSQLConf.SpeculativeExecutionLatencyBudgetPropertyKey, "100")
+    sparkContext.setJobGroup(jobGroup, "Speculative execution won by the native one")
+    try {
+      val nativeWins = XDMetricsSource.speculativeNativeWins.getCount
+      XDDataFrame(xdContext, LogicalRelation(mockSlowSparkRelation)).collect() shouldBe nativeRows
+      XDMetricsSource.speculativeNativeWins.getCount shouldBe nativeWins + 1
+
+      val jobs = sparkContext.statusTracker.getJobIdsForGroup(jobGroup)
+      jobs should not be empty
+      eventually(timeout(Span(10, Seconds))) {
+        jobs.flatMap(sparkContext.statusTracker.getJobInfo).map(_.status).toSeq should contain only JobExecutionStatus.FAILED
+      }
+    } finally {
+      sparkContext.clearJobGroup()
+      xdContext.setConf(XDSQLConf.SpeculativeExecutionEnabledPropertyKey, "false")
+    }
+  }
+
+  "A XDDataFrame whose datasource fails" should "be executed by Spark, skipping native executions while the circuit is open" in {
+    xdContext.setConf(XDSQLConf.NativeCircuitBreakerFailureThresholdPropertyKey, "2")
+    try {
+      val relation = new FailingNativeRelation
+      val connectorMetrics = XDMetricsSource.connector(relation.getClass.getSimpleName)
+      val (failures, openings, rejections) =
+        (connectorMetrics.failures.getCount, connectorMetrics.circuitOpenings.getCount, connectorMetrics.circuitRejections.getCount)
+
+      (1 to 3) foreach { _ =>
+        XDDataFrame(xdContext, LogicalRelation(relation)).collect() shouldBe sparkRows
+      }
+
+      relation.nativeExecutions shouldBe 2
+      connectorMetrics.failures.getCount shouldBe failures + 2
+      connectorMetrics.circuitOpenings.getCount shouldBe openings + 1
+      connectorMetrics.circuitRejections.getCount shouldBe rejections + 1
+    } finally {
+      xdContext.setConf(
+        XDSQLConf.NativeCircuitBreakerFailureThresholdPropertyKey, XDSQLConf.DefaultNativeCircuitBreakerFailureThreshold.toString
+      )
+    }
+  }
+
+  "A XDDataFrame running a command" should "start a new catalog epoch only if the command may change the catalog" in {
+    val epoch = XDCatalog.epoch
+    val catalogEpoch = XDCatalog.catalogEpoch
+    xdContext.sql("SET spark.sql.testkey=true")
+    xdContext.sql("SHOW TABLES")
+    xdContext.sql("EXPLAIN SELECT 1")
+    XDCatalog.epoch shouldBe epoch
+    XDCatalog.catalogEpoch shouldBe catalogEpoch
+
+    val jsonPath = Paths.get(getClass.getResource("/core-reference.conf").toURI).toString
+    xdContext.sql(s"CREATE TEMPORARY TABLE epochTable USING org.apache.spark.sql.json OPTIONS (path '$jsonPath')")
+    XDCatalog.epoch should be > epoch
+    XDCatalog.catalogEpoch should be > catalogEpoch
+    xdContext.dropTempTable("epochTable")
+  }
+
+  "EXPLAIN ANALYZE" should "report the operators executed natively and the rows returned" in {
+    val report = ExplainAnalyze(LogicalRelation(mockNativeRelation)).run(xdContext).map(_.getString(0))
+    report.exists(_.trim.startsWith("[Native]")) shouldBe true
+    report.exists(_.trim.startsWith("[Spark]")) shouldBe false
+    report.exists(_.endsWith("The datasource doesn't describe its native queries")) shouldBe true
+    report should contain("Rows: 1")
+  }
+
+  it should "report why a query is executed by Spark along with the metrics of its physical plan" in {
+    val report = ExplainAnalyze(LogicalRelation(mockNativeRelationUnsupportedPlan)).run(xdContext).map(_.getString(0))
+    report.exists(line => line.trim.startsWith("[Spark]") && line.contains("Not supported by")) shouldBe true
+    report should contain(s"Executed by: ${QueryProfile.SparkExecutionPath}")
+    report should contain("== Spark plan ==")
+    report should contain("Rows: 1")
+  }
+
 
   val mockNonNativeRelation = new MockBaseRelation
 
@@ -111,6 +307,63 @@ class XDDataFrameIT extends SharedXDContextTest with Inside {
     override def buildScan(): RDD[Row] = xdContext.createDataFrame(xdContext.sparkContext.parallelize(Seq(Row(1))), StructType(Array(StructField("id", IntegerType)))).rdd
   }
 
+  // Native and Spark executions return different rows to tell which one has been used
+  val mockNativeLookupRelation = new MockBaseRelation with NativeScan with TableScan {
+    override def isSupported(logicalStep: LogicalPlan, fullyLogicalPlan: LogicalPlan) = true
+
+    // Native execution
+    override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = Some(Array(Row(1), Row(3)))
+
+    // Spark execution
+    override def buildScan(): RDD[Row] = xdContext.sparkContext.parallelize(Seq(Row(1), Row(2)))
+  }
+
+  val mockSlowNativeRelation = new MockBaseRelation with NativeScan with TableScan {
+    override def isSupported(logicalStep: LogicalPlan, fullyLogicalPlan: LogicalPlan) = true
+
+    // Native execution
+    override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
+      Thread.sleep(60000)
+      Some(nativeRows)
+    }
+
+    // Spark execution
+    override def buildScan(): RDD[Row] = xdContext.createDataFrame(xdContext.sparkContext.parallelize(Seq(Row(1))), StructType(Array(StructField("id", IntegerType)))).rdd
+  }
+
+  // Exceeds the latency budget, but finishes while its Spark job is still running
+  val mockSlowSparkRelation = new MockBaseRelation with NativeScan with TableScan {
+    override def isSupported(logicalStep: LogicalPlan, fullyLogicalPlan: LogicalPlan) = true
+
+    // Native execution
+    override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
+      Thread.sleep(5000)
+      Some(nativeRows)
+    }
+
+    // Spark execution
+    override def buildScan(): RDD[Row] = xdContext.sparkContext.parallelize(Seq(Row(1))) map { row =>
+      Thread.sleep(60000)
+      row
+    }
+  }
+
+  // A named class so that its circuit breaker isn't shared with the anonymous mocks
+  class FailingNativeRelation extends MockBaseRelation with NativeScan with TableScan {
+    var nativeExecutions = 0
+
+    override def isSupported(logicalStep: LogicalPlan, fullyLogicalPlan: LogicalPlan) = true
+
+    // Native execution
+    override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
+      nativeExecutions += 1
+      throw new RuntimeException("Datasource unavailable")
+    }
+
+    // Spark execution
+    override def buildScan(): RDD[Row] = xdContext.createDataFrame(xdContext.sparkContext.parallelize(Seq(Row(1))), StructType(Array(StructField("id", IntegerType)))).rdd
+  }
+
   val mockNativeRelationUnsupportedPlan = new MockBaseRelation with NativeScan with TableScan {
     override def isSupported(logicalStep: LogicalPlan, fullyLogicalPlan: LogicalPlan) = false
 
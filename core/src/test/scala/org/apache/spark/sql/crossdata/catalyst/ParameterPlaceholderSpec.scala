@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class ParameterPlaceholderSpec extends BaseXDTest {
+
+  "ParameterPlaceholder" should "replace the question marks out of quotes" in {
+    val (sql, parameterCount) = ParameterPlaceholder.replacePlaceholders("SELECT * FROM t WHERE a = ? AND b = '?' AND c = ?")
+    sql shouldBe "SELECT * FROM t WHERE a = xd_parameter_placeholder(0) AND b = '?' AND c = xd_parameter_placeholder(1)"
+    parameterCount shouldBe 2
+  }
+
+  it should "keep the question marks following escaped quotes within a string literal" in {
+    val (sql, parameterCount) = ParameterPlaceholder.replacePlaceholders("""SELECT * FROM t WHERE a = 'it\'s ?' AND b = ?""")
+    sql shouldBe """SELECT * FROM t WHERE a = 'it\'s ?' AND b = xd_parameter_placeholder(0)"""
+    parameterCount shouldBe 1
+  }
+
+}
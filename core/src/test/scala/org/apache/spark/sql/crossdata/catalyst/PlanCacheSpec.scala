@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst
+
+import com.codahale.metrics.Counter
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class PlanCacheSpec extends BaseXDTest {
+
+  "A PlanCache" should "reuse plans computed at the same catalog epoch" in {
+    val hits = new Counter
+    val misses = new Counter
+    val cache = new PlanCache[String](2, hits, misses)
+    var computations = 0
+
+    def lookup(key: String, epoch: Long): String =
+      cache.getOrElseUpdate(key, epoch) {
+        computations += 1
+        s"$key@$epoch"
+      }
+
+    lookup("a", 0) shouldBe "a@0"
+    lookup("a", 0) shouldBe "a@0"
+    computations shouldBe 1
+
+    lookup("a", 1) shouldBe "a@1"
+    computations shouldBe 2
+
+    hits.getCount shouldBe 1
+    misses.getCount shouldBe 2
+  }
+
+  it should "evict the least recently used plans" in {
+    val cache = new PlanCache[String](2, new Counter, new Counter)
+    var computations = 0
+
+    def lookup(key: String): String =
+      cache.getOrElseUpdate(key, 0) {
+        computations += 1
+        key
+      }
+
+    Seq("a", "b", "a", "c", "a", "b") foreach lookup
+    computations shouldBe 4
+  }
+
+}
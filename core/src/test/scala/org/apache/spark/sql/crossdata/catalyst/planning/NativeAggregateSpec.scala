@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst.planning
+
+import java.sql.Timestamp
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.catalyst.expressions.aggregate.{Average, Count, Max, Sum}
+import org.apache.spark.sql.catalyst.expressions.{Alias, AttributeReference, Cast, Literal}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, LocalRelation}
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate.{AggregatedColumn, GroupingColumn, NativeFunction}
+import org.apache.spark.sql.types._
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class NativeAggregateSpec extends BaseXDTest {
+
+  val id = AttributeReference("id", IntegerType)()
+  val city = AttributeReference("city", StringType)()
+  val price = AttributeReference("price", DoubleType)()
+  val relation = LocalRelation(id, city, price)
+
+  "NativeAggregate" should "extract global counts and aggregations of columns" in {
+    val count = Alias(Count(Literal(1)).toAggregateExpression(), "count")()
+    val sum = Alias(Sum(Cast(id, LongType)).toAggregateExpression(), "sum")()
+    val avg = Alias(Average(price).toAggregateExpression(), "avg")()
+
+    val NativeAggregate(aggregation, child) = Aggregate(Nil, Seq(count, sum, avg), relation)
+
+    child shouldBe relation
+    aggregation.isGlobal shouldBe true
+    aggregation.outputColumns shouldBe Seq(
+      AggregatedColumn(NativeFunction.Count, None, count.toAttribute),
+      AggregatedColumn(NativeFunction.Sum, Some(id), sum.toAttribute),
+      AggregatedColumn(NativeFunction.Avg, Some(price), avg.toAttribute)
+    )
+  }
+
+  it should "extract aggregations grouped by columns" in {
+    val max = Alias(Max(price).toAggregateExpression(), "max")()
+
+    val NativeAggregate(aggregation, _) = Aggregate(Seq(city), Seq(city, max), relation)
+
+    aggregation.groupingColumns shouldBe Seq(city)
+    aggregation.outputColumns shouldBe Seq(
+      GroupingColumn(city),
+      AggregatedColumn(NativeFunction.Max, Some(price), max.toAttribute)
+    )
+  }
+
+  it should "not extract distinct aggregations nor aggregations of expressions" in {
+    val distinctCount = Alias(Count(city).toAggregateExpression(isDistinct = true), "count")()
+    val sumOfExpression = Alias(Sum(Cast(city, DoubleType)).toAggregateExpression(), "sum")()
+
+    NativeAggregate.unapply(Aggregate(Nil, Seq(distinctCount), relation)) shouldBe None
+    NativeAggregate.unapply(Aggregate(Nil, Seq(sumOfExpression), relation)) shouldBe None
+    NativeAggregate.unapply(relation) shouldBe None
+  }
+
+  it should "convert the results of the datasources to the types of the output" in {
+    NativeAggregate.toOutputType(3, LongType) shouldBe 3L
+    NativeAggregate.toOutputType(2.0, LongType) shouldBe 2L
+    NativeAggregate.toOutputType(1L, DoubleType) shouldBe 1.0
+    NativeAggregate.toOutputType(null, DoubleType) shouldBe (null: Any)
+    NativeAggregate.toOutputType(new java.util.Date(0), TimestampType) shouldBe new Timestamp(0)
+    NativeAggregate.toOutputType("madrid", StringType) shouldBe "madrid"
+  }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.execution
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.crossdata.execution.NativeCircuitBreaker.{CircuitState, Settings}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class NativeCircuitBreakerSpec extends BaseXDTest {
+
+  val settings = Settings(enabled = true, failureThreshold = 3, coolDownMillis = 1000, slowCallMillis = 0)
+
+  class Clock {
+    var now = 0L
+    def apply(): Long = now
+  }
+
+  def circuitBreaker(clock: Clock): NativeCircuitBreaker = new NativeCircuitBreaker(() => clock())
+
+  "A NativeCircuitBreaker" should "open the circuit after consecutive failures" in {
+    val breaker = circuitBreaker(new Clock)
+
+    breaker.onFailure(settings) shouldBe false
+    breaker.onFailure(settings) shouldBe false
+    breaker.tryAcquire(settings) shouldBe true
+    breaker.onFailure(settings) shouldBe true
+
+    breaker.currentState shouldBe CircuitState.Open
+    breaker.tryAcquire(settings) shouldBe false
+  }
+
+  it should "reset the failures after a successful execution" in {
+    val breaker = circuitBreaker(new Clock)
+
+    breaker.onFailure(settings)
+    breaker.onFailure(settings)
+    breaker.onSuccess(10, settings) shouldBe false
+    breaker.onFailure(settings) shouldBe false
+
+    breaker.currentState shouldBe CircuitState.Closed
+  }
+
+  it should "let a single execution through once the cool-down is over" in {
+    val clock = new Clock
+    val breaker = circuitBreaker(clock)
+    (1 to settings.failureThreshold) foreach (_ => breaker.onFailure(settings))
+
+    clock.now = settings.coolDownMillis
+    breaker.tryAcquire(settings) shouldBe true
+    breaker.currentState shouldBe CircuitState.HalfOpen
+    breaker.tryAcquire(settings) shouldBe false
+
+    breaker.onSuccess(10, settings)
+    breaker.currentState shouldBe CircuitState.Closed
+    breaker.tryAcquire(settings) shouldBe true
+  }
+
+  it should "open the circuit again when the execution after the cool-down fails" in {
+    val clock = new Clock
+    val breaker = circuitBreaker(clock)
+    (1 to settings.failureThreshold) foreach (_ => breaker.onFailure(settings))
+
+    clock.now = settings.coolDownMillis
+    breaker.tryAcquire(settings) shouldBe true
+    breaker.onFailure(settings) shouldBe true
+
+    breaker.currentState shouldBe CircuitState.Open
+    clock.now = settings.coolDownMillis * 2 - 1
+    breaker.tryAcquire(settings) shouldBe false
+  }
+
+  it should "let another execution through when the one after the cool-down is inconclusive" in {
+    val clock = new Clock
+    val breaker = circuitBreaker(clock)
+    (1 to settings.failureThreshold) foreach (_ => breaker.onFailure(settings))
+
+    clock.now = settings.coolDownMillis
+    breaker.tryAcquire(settings) shouldBe true
+    breaker.onInconclusive()
+
+    breaker.currentState shouldBe CircuitState.Open
+    breaker.tryAcquire(settings) shouldBe true
+    breaker.currentState shouldBe CircuitState.HalfOpen
+  }
+
+  it should "not reset the failures after an inconclusive execution" in {
+    val breaker = circuitBreaker(new Clock)
+
+    breaker.onFailure(settings)
+    breaker.onFailure(settings)
+    breaker.onInconclusive()
+    breaker.onFailure(settings) shouldBe true
+  }
+
+  it should "keep a circuit per datasource, reporting the least healthy one as the state of the connector" in {
+    val connector = "CircuitBreakerSpecConnector"
+    val failing = NativeCircuitBreaker(connector, "cluster1/keyspace1")
+    (1 to settings.failureThreshold) foreach (_ => failing.onFailure(settings))
+
+    NativeCircuitBreaker(connector, "cluster1/keyspace1") shouldBe theSameInstanceAs(failing)
+    NativeCircuitBreaker(connector, "cluster2/keyspace1").tryAcquire(settings) shouldBe true
+    NativeCircuitBreaker.connectorState(connector) shouldBe CircuitState.Open
+    NativeCircuitBreaker.connectorState("UnknownConnector") shouldBe CircuitState.Closed
+  }
+
+  it should "account slow executions as failures" in {
+    val breaker = circuitBreaker(new Clock)
+    val slowCallSettings = settings.copy(failureThreshold = 1, slowCallMillis = 100)
+
+    breaker.onSuccess(100, slowCallSettings) shouldBe false
+    breaker.onSuccess(101, slowCallSettings) shouldBe true
+    breaker.currentState shouldBe CircuitState.Open
+  }
+
+  it should "not skip executions when it is disabled" in {
+    val breaker = circuitBreaker(new Clock)
+    (1 to settings.failureThreshold) foreach (_ => breaker.onFailure(settings))
+
+    breaker.tryAcquire(settings.copy(enabled = false)) shouldBe true
+  }
+
+}
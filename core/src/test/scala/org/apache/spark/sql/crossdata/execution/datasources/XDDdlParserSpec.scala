@@ -17,6 +17,7 @@ package org.apache.spark.sql.crossdata.execution.datasources
 
 import com.stratio.crossdata.test.BaseXDTest
 import org.apache.spark.sql.catalyst.TableIdentifier
+import org.apache.spark.sql.catalyst.plans.logical.LocalRelation
 import org.apache.spark.sql.crossdata.XDContext
 import org.apache.spark.sql.crossdata.catalyst.execution._
 import org.apache.spark.sql.crossdata.catalyst.parser.XDDdlParser
@@ -61,6 +62,14 @@ class XDDdlParserSpec extends BaseXDTest with MockitoSugar{
 
   }
 
+  it should "parse an EXPLAIN ANALYZE sentence into an ExplainAnalyze command wrapping the query" in {
+
+    val query = LocalRelation()
+    val explainParser = new XDDdlParser(_ => query, xdContext)
+    explainParser.parse("EXPLAIN ANALYZE SELECT * FROM dummyTable") shouldBe ExplainAnalyze(query)
+
+  }
+
   //Sentences and expected values for SparkSQL core DDL
   val rightSentences = List[(String, PartialFunction[Any, Unit])] (
     ("""CREATE TEMPORARY TABLE words
@@ -15,6 +15,7 @@
  */
 package org.apache.spark.sql.crossdata.metrics
 
+import com.codahale.metrics.MetricRegistry
 import com.stratio.crossdata.test.BaseXDTest
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
@@ -23,15 +24,35 @@ import org.scalatest.junit.JUnitRunner
 class XDMetricsSourceSpec extends BaseXDTest {
 
 
-  "A logical plan (select *) with native relation" should "return a native relation" in {
+  "A XDMetricsSource" should "report the gauges of the shared registry" in {
 
     val xdms = new XDMetricsSource()
 
     //Experimentation
-    xdms.registerGauge("testName")
+    XDMetricsSource.gauge(MetricRegistry.name("testGauge"))(1)
+    XDMetricsSource.gauge(MetricRegistry.name("testGauge"))(2)
 
     //Expectations
-    xdms.metricRegistry.getGauges.keySet() should contain ("metricName.testName")
+    xdms.metricRegistry.getGauges.get("testGauge").getValue shouldBe 2
+    xdms shouldBe new XDMetricsSource()
+  }
+
+  it should "time the given blocks" in {
+    val executions = XDMetricsSource.queriesParsing.getCount
+
+    XDMetricsSource.timed(XDMetricsSource.queriesParsing)(1 + 1) shouldBe 2
+    an[IllegalStateException] should be thrownBy XDMetricsSource.timed(XDMetricsSource.queriesParsing) {
+      throw new IllegalStateException
+    }
+
+    XDMetricsSource.queriesParsing.getCount shouldBe executions + 2
+  }
+
+  it should "create the metrics of each connector once" in {
+    val connectorMetrics = XDMetricsSource.connector("TestConnectorRelation")
+
+    XDMetricsSource.connector("TestConnectorRelation") shouldBe theSameInstanceAs (connectorMetrics)
+    new XDMetricsSource().metricRegistry.getTimers.keySet() should contain ("connectors.TestConnectorRelation.latency")
   }
 
 
@@ -48,8 +48,42 @@ class ClusterClientDriver private[driver](driverConf: DriverConf,
 
   lazy val driverSession: Session = SessionManager.createSession(auth, proxyActor)
 
-  override def sqlStreamedResult(query: String): Future[StreamedSQLResult] =
-    throw new RuntimeException("ClusterClient implementation does not support streams API; use HttpDriver instead")
+  /**
+    * Executes the query receiving its result incrementally: Rows are requested to the server as the returned
+    * stream consumes them, so the result is never fully held neither by the server nor by the driver.
+    */
+  override def sqlStreamedResult(query: String): Future[StreamedSQLResult] = {
+    val sqlCommand = SQLCommand(
+      query, flattenResults = driverConf.getFlattenTables, streamResults = true, priority = driverConf.getJobPriority
+    )
+    val receiver = new StreamedRowsReceiver(
+      chunkIndex => proxyActor ! securitizeCommand(AckStreamedChunk(sqlCommand.queryId, chunkIndex)),
+      () => proxyActor ! securitizeCommand(CancelQueryExecution(sqlCommand.queryId))
+    )
+    proxyActor ! (securitizeCommand(sqlCommand), receiver)
+    receiver.schema map { schema =>
+      StreamedSuccessfulSQLResult(receiver.rows, schema)
+    } recover {
+      case error => StreamedErrorSQLResult(error.getMessage, Some(error))
+    }
+  }
+
+  override def sqlCursor(query: String, fetchSize: Int): SQLCursor = {
+    require(fetchSize > 0, "The fetch size must be positive")
+    val sqlCommand = SQLCommand(
+      query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority, fetchSize = Some(fetchSize)
+    )
+    val receiver = new StreamedRowsReceiver(
+      _ => proxyActor ! securitizeCommand(FetchNext(sqlCommand.queryId)),
+      () => {
+        proxyActor ! securitizeCommand(CloseCursor(sqlCommand.queryId))
+        proxyActor ! ProxyActor.CursorClosed(sqlCommand.requestId)
+      }
+    )
+    proxyActor ! (securitizeCommand(sqlCommand), receiver)
+    // Replies are awaited as long as the servers keep the client's response tunnel open
+    receiver.cursor(driverConf.getTunnelTimeout)
+  }
 
   private lazy val clusterClientActor = {
 
@@ -119,20 +153,51 @@ class ClusterClientDriver private[driver](driverConf: DriverConf,
         val hdfspath = res.resultSet(0).getString(0)
         addApp(hdfspath, clss, realPath)
       case _ =>
-        val sqlCommand = new SQLCommand(query, retrieveColNames = driverConf.getFlattenTables)
-        val futureReply = askCommand(securitizeCommand(sqlCommand)).map {
-          case SQLReply(_, sqlResult) =>
-            sqlResult
-          case other =>
-            throw new RuntimeException(s"SQLReply expected. Received: $other")
-        }
-        new SQLResponse(sqlCommand.requestId, futureReply) {
-          // TODO cancel sync => 5 secs
-          override def cancelCommand(): Future[QueryCancelledReply] =
-            askCommand(securitizeCommand(CancelQueryExecution(sqlCommand.queryId))) map {
-              case reply: QueryCancelledReply => reply
-              case other => throw new RuntimeException(s"CancelQueryExecution expected. Received: $other")
-            }
+        sqlResponse(SQLCommand(query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority))
+    }
+  }
+
+  override def sqlWithProfile(query: String): SQLResponse =
+    sqlResponse(SQLCommand(query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority, profile = true))
+
+  override protected[driver] def executePrepared(query: String, parameters: Seq[StatementParameter]): SQLResponse =
+    sqlResponse(SQLCommand(
+      query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority, parameters = Some(parameters.toList)
+    ))
+
+  override def sqlBatch(
+                         queries: Seq[String], stopOnError: Boolean = true, timeout: Option[FiniteDuration] = None
+                       ): Future[Seq[SQLResult]] = {
+    val batchCommand = BatchSQLCommand(
+      queries.toList,
+      flattenResults = driverConf.getFlattenTables,
+      timeout = timeout,
+      stopOnError = stopOnError,
+      priority = driverConf.getJobPriority
+    )
+    askCommand(securitizeCommand(batchCommand)).map {
+      case BatchSQLReply(_, results) =>
+        results
+      case SQLReply(_, ErrorSQLResult(message, cause)) =>
+        throw new RuntimeException(s"Unable to run the batch: $message", cause.orNull)
+      case other =>
+        throw new RuntimeException(s"BatchSQLReply expected. Received: $other")
+    }
+  }
+
+  private def sqlResponse(sqlCommand: SQLCommand): SQLResponse = {
+    val futureReply = askCommand(securitizeCommand(sqlCommand)).map {
+      case SQLReply(_, sqlResult) =>
+        sqlResult
+      case other =>
+        throw new RuntimeException(s"SQLReply expected. Received: $other")
+    }
+    new SQLResponse(sqlCommand.requestId, futureReply) {
+      // TODO cancel sync => 5 secs
+      override def cancelCommand(): Future[QueryCancelledReply] =
+        askCommand(securitizeCommand(CancelQueryExecution(sqlCommand.queryId))) map {
+          case reply: QueryCancelledReply => reply
+          case other => throw new RuntimeException(s"CancelQueryExecution expected. Received: $other")
         }
     }
   }
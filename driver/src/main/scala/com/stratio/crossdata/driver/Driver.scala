@@ -163,6 +163,16 @@ abstract class Driver(protected[crossdata] val driverConf: DriverConf) {
     */
   def sql(query: String): SQLResponse
 
+  /**
+    * Executes a SQL sentence whose result comes with the time spent in each of its phases:
+    * > val result = driver.sqlWithProfile("SELECT * FROM t").waitForResult()
+    * > result match { case SuccessfulSQLResult(_, _, Some(profile)) => println(profile.phases) }
+    *
+    * @param query The SQL Command.
+    * @return A SQLResponse with the id and the result set, whose [[QueryProfile]] is defined if it succeeds.
+    */
+  def sqlWithProfile(query: String): SQLResponse
+
   /**
     * Executes a SQL sentence whose result contains a [[Source]] of [[Row]]s'
     * Thus, the user can take advantage of the 'Akka Streams' API to consume/transform the stream of rows
@@ -172,6 +182,45 @@ abstract class Driver(protected[crossdata] val driverConf: DriverConf) {
     */
   def sqlStreamedResult(query: String): Future[StreamedSQLResult]
 
+  /**
+    * Executes a SQL sentence whose result is kept by the server and fetched as the returned iterator is consumed,
+    * so it can be traversed in bounded memory regardless of its size.
+    * > val cursor = driver.sqlCursor("SELECT * FROM t", 10000)
+    * > try cursor.foreach(process) finally cursor.close()
+    *
+    * @param query The SQL Command.
+    * @param fetchSize Number of rows requested to the server at a time.
+    * @return A lazy iterator over the result rows. Errors are thrown by its methods.
+    */
+  def sqlCursor(query: String, fetchSize: Int): SQLCursor
+
+  /**
+    * Executes several SQL sentences, in order, in a single round trip to the server:
+    * > driver.sqlBatch(Seq("CREATE TEMPORARY VIEW v AS SELECT * FROM t", "SELECT count(*) FROM v")) onComplete { callback }
+    * Their results are collected by the server so batches are meant for commands and small queries.
+    *
+    * @param queries The SQL Commands.
+    * @param stopOnError Whether the sentences following a failed one should be skipped.
+    * @param timeout Time after which the batch is cancelled, its remaining sentences aren't run.
+    * @return A Future with the result of each sentence which has been run. The failed sentences have an
+    *         [[ErrorSQLResult]]. The Future fails if the batch couldn't be run at all.
+    */
+  def sqlBatch(queries: Seq[String], stopOnError: Boolean = true, timeout: Option[FiniteDuration] = None): Future[Seq[SQLResult]]
+
+  /**
+    * Prepares a SQL sentence whose `?` placeholders are bound to values on each execution:
+    * > val byId = driver.prepare("SELECT * FROM t WHERE id = ?")
+    * > val sqlResult: SQLResult = byId.execute(42).waitForResult()
+    * The server keeps the analyzed plan of the sentence for the session, so its executions skip the parsing and
+    * analysis unless the catalog changes. Errors in the sentence are reported by its first execution.
+    *
+    * @param query The SQL Command.
+    * @return A statement which can be executed as many times as needed.
+    */
+  def prepare(query: String): PreparedStatement = new PreparedStatement(this, query)
+
+  protected[driver] def executePrepared(query: String, parameters: Seq[StatementParameter]): SQLResponse
+
   /**
     * Add Jar to the XD Context
     *
@@ -240,7 +289,7 @@ abstract class Driver(protected[crossdata] val driverConf: DriverConf) {
     import SQLResponse._
     val sqlResult: SQLResult = sql(s"SHOW TABLES ${databaseName.fold("")("IN " + _)}")
     sqlResult match {
-      case SuccessfulSQLResult(result, _) =>
+      case SuccessfulSQLResult(result, _, _) =>
         result.map(row => processTableName(row.getString(0)))
       case other => handleCommandError(other)
     }
@@ -261,7 +310,7 @@ abstract class Driver(protected[crossdata] val driverConf: DriverConf) {
     val sqlResult: SQLResult = sql(s"DESCRIBE ${database.map(_ + ".").getOrElse("")}$tableName")
 
     sqlResult match {
-      case SuccessfulSQLResult(result, _) =>
+      case SuccessfulSQLResult(result, _, _) =>
         result.map(extractNameDataType) flatMap { case (name, dataType) =>
           if (!driverConf.getFlattenTables) {
             FieldMetadata(name, DataTypesUtils.toDataType(dataType)) :: Nil
@@ -15,6 +15,7 @@
  */
 package com.stratio.crossdata.driver
 
+import java.nio.ByteOrder
 import java.security.SecureRandom
 import java.util.UUID
 import javax.net.ssl.{KeyManagerFactory, SSLContext, SSLException, TrustManagerFactory}
@@ -25,15 +26,16 @@ import akka.cluster.ClusterEvent.CurrentClusterState
 import akka.http.scaladsl.marshalling.{Marshal, Marshaller}
 import akka.http.scaladsl.model.HttpMethods._
 import akka.http.scaladsl.model._
+import akka.http.scaladsl.model.headers.Accept
 import akka.http.scaladsl.unmarshalling.{Unmarshaller, _}
 import akka.http.scaladsl.{Http, HttpExt, HttpsConnectionContext}
-import akka.stream.scaladsl.{Keep, Sink, Source}
-import akka.stream.{ActorMaterializer, TLSClientAuth}
+import akka.stream.scaladsl.{Framing, Keep, Sink, Source}
+import akka.stream.{ActorMaterializer, KillSwitches, TLSClientAuth}
 import akka.util.ByteString
 import com.stratio.crossdata.common._
 import com.stratio.crossdata.common.result._
 import com.stratio.crossdata.common.security.{KeyStoreUtils, Session}
-import com.stratio.crossdata.common.serializers.{CrossdataCommonSerializer, StreamedRowSerializer}
+import com.stratio.crossdata.common.serializers.{ColumnarResultSerializer, CrossdataCommonSerializer, StreamedRowSerializer}
 import com.stratio.crossdata.driver.actor.HttpSessionBeaconActor
 import com.stratio.crossdata.driver.config.DriverConf
 import com.stratio.crossdata.driver.exceptions.TLSInvalidAuthException
@@ -45,7 +47,7 @@ import org.slf4j.{Logger, LoggerFactory}
 
 import scala.concurrent.ExecutionContext.Implicits.global
 import scala.concurrent.duration._
-import scala.concurrent.{Await, Future}
+import scala.concurrent.{Await, Future, TimeoutException}
 import scala.language.postfixOps
 import scala.util.{Failure, Try}
 
@@ -145,18 +147,24 @@ class HttpDriver private[driver](driverConf: DriverConf,
   }
 
 
-  override def sql(query: String): SQLResponse = {
+  override def sql(query: String): SQLResponse =
+    sqlResponse(SQLCommand(query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority))
 
-    val sqlCommand = new SQLCommand(query, retrieveColNames = driverConf.getFlattenTables)
+  override protected[driver] def executePrepared(query: String, parameters: Seq[StatementParameter]): SQLResponse =
+    sqlResponse(SQLCommand(
+      query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority, parameters = Some(parameters.toList)
+    ))
+
+  private def sqlResponse(sqlCommand: SQLCommand): SQLResponse = {
 
     // Performs the request to server
     val response = Marshal(securitizeCommand(sqlCommand)).to[RequestEntity] flatMap { requestEntity =>
-      val request = HttpRequest(POST, s"$protocol://$serverHttp/query/${sqlCommand.requestId}", entity = requestEntity)
+      val request = HttpRequest(POST, s"$protocol://$serverHttp/query/${sqlCommand.requestId}", resultFormatHeaders, requestEntity)
        http.singleRequest(request) flatMap { httpResponse =>
 
          if(httpResponse.status == StatusCodes.OK) { // OK Responses will be served through streaming
 
-           receiveSchemaAndRows(httpResponse.entity.dataBytes).flatMap { case (schema, streamedRowSource) =>
+           receiveSchemaAndRows(httpResponse.entity).flatMap { case (schema, streamedRowSource) =>
              val rows = streamedRowSource.runFold(List.empty[Row]) {
                case (acc: List[Row], StreamedRow(row, None)) => row::acc
                case _ => Nil
@@ -175,30 +183,122 @@ class HttpDriver private[driver](driverConf: DriverConf,
     }
 
     new SQLResponse(sqlCommand.requestId, response) {
-      override def cancelCommand(): Future[QueryCancelledReply] = {
-        val command = CancelQueryExecution(sqlCommand.queryId)
-        simpleRequest(
-          securitizeCommand(command),
-          s"query/${command.requestId}", {
-            reply: QueryCancelledReply => reply
-          }
-        )
-      }
+      override def cancelCommand(): Future[QueryCancelledReply] = cancelQuery(sqlCommand.queryId)
     }
 
   }
 
+  // Profiled results aren't streamed, they are sent along with their profile
+  override def sqlWithProfile(query: String): SQLResponse = {
+    val sqlCommand = SQLCommand(query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority, profile = true)
+    val response = simpleRequest(
+      securitizeCommand(sqlCommand),
+      s"query/${sqlCommand.requestId}",
+      { reply: SQLReply => reply.sqlResult }
+    )
+    new SQLResponse(sqlCommand.requestId, response) {
+      override def cancelCommand(): Future[QueryCancelledReply] = cancelQuery(sqlCommand.queryId)
+    }
+  }
+
+  private def cancelQuery(queryId: UUID): Future[QueryCancelledReply] = {
+    val command = CancelQueryExecution(queryId)
+    simpleRequest(
+      securitizeCommand(command),
+      s"query/${command.requestId}", {
+        reply: QueryCancelledReply => reply
+      }
+    )
+  }
+
+
+  override def sqlBatch(
+                         queries: Seq[String], stopOnError: Boolean = true, timeout: Option[FiniteDuration] = None
+                       ): Future[Seq[SQLResult]] = {
+    val batchCommand = BatchSQLCommand(
+      queries.toList,
+      flattenResults = driverConf.getFlattenTables,
+      timeout = timeout,
+      stopOnError = stopOnError,
+      priority = driverConf.getJobPriority
+    )
+    Marshal(securitizeCommand(batchCommand)).to[RequestEntity] flatMap { requestEntity =>
+      http.singleRequest(HttpRequest(POST, s"$protocol://$serverHttp/query/${batchCommand.requestId}", entity = requestEntity))
+    } flatMap { httpResponse =>
+      if (httpResponse.status == StatusCodes.OK) {
+        Unmarshal(httpResponse.entity).to[BatchSQLReply].map(_.results)
+      } else {
+        Unmarshal(httpResponse.entity).to[SQLReply] map {
+          case SQLReply(_, ErrorSQLResult(message, cause)) =>
+            throw new RuntimeException(s"Unable to run the batch: $message", cause.orNull)
+          case other =>
+            throw new RuntimeException(s"BatchSQLReply expected. Received: $other")
+        }
+      }
+    }
+  }
+
+  override def sqlStreamedResult(query: String): Future[StreamedSQLResult] =
+    streamedResult(SQLCommand(query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority))
+
+  /**
+    * The server keeps the cursor open as long as the HTTP response is, its rows being fetched as the stream
+    * backpressure allows. Both the cursor opening and each fetch fail when the server doesn't answer within the
+    * tunnel timeout.
+    */
+  override def sqlCursor(query: String, fetchSize: Int): SQLCursor = {
+    require(fetchSize > 0, "The fetch size must be positive")
+    val sqlCommand = SQLCommand(
+      query, flattenResults = driverConf.getFlattenTables, priority = driverConf.getJobPriority, fetchSize = Some(fetchSize)
+    )
+    val cursorTimeout = driverConf.getTunnelTimeout
+    Await.result(streamedResult(sqlCommand), cursorTimeout) match {
+      case StreamedSuccessfulSQLResult(rowsSource, resultSchema) =>
+        val (killSwitch, queue) =
+          rowsSource.viaMat(KillSwitches.single)(Keep.right).toMat(Sink.queue())(Keep.both).run()
+
+        new SQLCursor {
+          private var nextRow: Option[Row] = None
+          private var exhausted = false
+
+          override def schema: StructType = resultSchema
+
+          override def hasNext: Boolean = nextRow.isDefined || !exhausted && {
+            nextRow = try Await.result(queue.pull(), cursorTimeout) catch {
+              case timeout: TimeoutException =>
+                close()
+                throw timeout
+            }
+            exhausted = nextRow.isEmpty
+            hasNext
+          }
 
-  override def sqlStreamedResult(query: String): Future[StreamedSQLResult] = {
+          override def next(): Row = if (hasNext) {
+            val row = nextRow.get
+            nextRow = None
+            row
+          } else Iterator.empty.next()
 
-    val sqlCommand = new SQLCommand(query, retrieveColNames = driverConf.getFlattenTables)
+          override def close(): Unit = {
+            exhausted = true
+            nextRow = None
+            killSwitch.shutdown()
+          }
+        }
+
+      case StreamedErrorSQLResult(message, cause) =>
+        throw cause.getOrElse(new RuntimeException(message))
+    }
+  }
+
+  private def streamedResult(sqlCommand: SQLCommand): Future[StreamedSQLResult] =
     Marshal(securitizeCommand(sqlCommand)).to[RequestEntity] flatMap { requestEntity =>
 
-      val request = HttpRequest(POST, s"$protocol://$serverHttp/query/${sqlCommand.requestId}", entity = requestEntity)
+      val request = HttpRequest(POST, s"$protocol://$serverHttp/query/${sqlCommand.requestId}", resultFormatHeaders, requestEntity)
       http.singleRequest(request) flatMap { httpResponse =>
 
         if (httpResponse.status == StatusCodes.OK) {  // OK Responses will be served through streaming
-          receiveSchemaAndRows(httpResponse.entity.dataBytes).map { case (schema, streamedRowSource) =>
+          receiveSchemaAndRows(httpResponse.entity).map { case (schema, streamedRowSource) =>
             val rows = streamedRowSource.map { case streamedRow: StreamedRow => streamedRow.row }
             StreamedSuccessfulSQLResult(rows, schema)
           }
@@ -209,9 +309,35 @@ class HttpDriver private[driver](driverConf: DriverConf,
         }
       }
     }
+
+  // Both formats are acceptable since servers only use the columnar one for results it can represent
+  private lazy val resultFormatHeaders: List[HttpHeader] =
+    if (driverConf.getColumnarResults)
+      List(Accept(MediaRange(ColumnarResultSerializer.ColumnarMediaType), MediaRange(MediaTypes.`application/json`)))
+    else Nil
+
+  private def receiveSchemaAndRows(entity: ResponseEntity): Future[(StructType, Source[InternalStreamedSuccessfulSQLResult, NotUsed])] =
+    if (entity.contentType.mediaType.value == ColumnarResultSerializer.ColumnarMediaType.value)
+      receiveColumnarSchemaAndRows(entity.dataBytes)
+    else
+      receiveJsonSchemaAndRows(entity.dataBytes)
+
+  private def receiveColumnarSchemaAndRows(bytesSource: Source[ByteString, Any]): Future[(StructType, Source[InternalStreamedSuccessfulSQLResult, NotUsed])] = {
+    import ColumnarResultSerializer.{LengthFieldSize, MaxFrameLength}
+    val framesSource = bytesSource.via(Framing.lengthField(LengthFieldSize, 0, MaxFrameLength, ByteOrder.BIG_ENDIAN))
+
+    framesSource.prefixAndTail(1).runWith(Sink.head).map { case (Seq(schemaFrame), rowsFrames) =>
+      val schema = ColumnarResultSerializer.deserializeSchema(schemaFrame.toArray)
+      val rows = rowsFrames mapConcat { frame =>
+        ColumnarResultSerializer.deserializeRows(schema, frame.toArray).toList map { row =>
+          StreamedRow(row): InternalStreamedSuccessfulSQLResult
+        }
+      }
+      (schema, rows)
+    }
   }
 
-  private def receiveSchemaAndRows(bytesSource: Source[ByteString, Any]): Future[(StructType, Source[InternalStreamedSuccessfulSQLResult, NotUsed])] = {
+  private def receiveJsonSchemaAndRows(bytesSource: Source[ByteString, Any]): Future[(StructType, Source[InternalStreamedSuccessfulSQLResult, NotUsed])] = {
     val framesSource = bytesSource.filterNot(bs => bs.isEmpty || bs == ByteString("\n")) //...empty lines get removed...
     val rawSchemaAndRawRowsSource = framesSource.prefixAndTail[ByteString](1) //remaining get transformed to ByteStrings.
 
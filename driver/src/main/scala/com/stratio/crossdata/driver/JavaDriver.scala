@@ -100,6 +100,18 @@ class JavaDriver private(driverConf: DriverConf,
   def sql(sqlText: String, timeoutDuration: Duration): SQLResult =
     scalaDriver.sql(sqlText).waitForResult(timeoutDuration)
 
+  /**
+    * Prepared statements whose executions are sync, see [[Driver.prepare]]
+    */
+  def prepare(sqlText: String): JavaPreparedStatement =
+    new JavaPreparedStatement(scalaDriver.prepare(sqlText), Duration.Inf)
+
+  def prepare(sqlText: String, timeoutDuration: Duration): JavaPreparedStatement =
+    new JavaPreparedStatement(scalaDriver.prepare(sqlText), timeoutDuration)
+
+  def sqlBatch(sqlTexts: java.util.List[String], stopOnError: Boolean): java.util.List[SQLResult] =
+    Await.result(scalaDriver.sqlBatch(sqlTexts.asScala, stopOnError), Duration.Inf).asJava
+
   def sqlStreamSource(query: String): StreamedSQLResult =
     Await.result(scalaDriver.sqlStreamedResult(query), Duration.Inf)
 
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.driver
+
+import com.stratio.crossdata.common.StatementParameter
+import com.stratio.crossdata.common.result.{SQLResponse, SQLResult}
+
+import scala.annotation.varargs
+import scala.concurrent.duration.Duration
+
+/**
+  * SQL sentence whose `?` placeholders are bound to values on each execution, see [[Driver.prepare]].
+  * Parameters can be `null`, strings, numbers, booleans, decimals, dates and timestamps.
+  */
+class PreparedStatement private[driver](driver: Driver, val query: String) {
+
+  @varargs
+  def execute(parameters: Any*): SQLResponse =
+    driver.executePrepared(query, parameters.map(StatementParameter(_)))
+
+}
+
+class JavaPreparedStatement private[driver](statement: PreparedStatement, timeoutDuration: Duration) {
+
+  def query: String = statement.query
+
+  @varargs
+  def execute(parameters: AnyRef*): SQLResult =
+    statement.execute(parameters: _*).waitForResult(timeoutDuration)
+
+}
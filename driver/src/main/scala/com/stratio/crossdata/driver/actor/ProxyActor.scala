@@ -22,7 +22,7 @@ import akka.actor.{Actor, ActorRef, Props}
 import akka.cluster.client.ClusterClient
 import akka.pattern.pipe
 import com.stratio.crossdata.common._
-import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
+import com.stratio.crossdata.common.result.{ErrorSQLResult, StreamedRowsReceiver, SuccessfulSQLResult}
 import com.stratio.crossdata.common.security.Session
 import com.stratio.crossdata.driver.ClusterClientDriver
 import com.stratio.crossdata.driver.actor.ProxyActor.PromisesByIds
@@ -40,7 +40,13 @@ object ProxyActor {
   def props(clusterClientActor: ActorRef, driver: ClusterClientDriver): Props =
     Props(new ProxyActor(clusterClientActor, driver))
 
-  case class PromisesByIds(promises: Map[UUID, Promise[ServerReply]])
+  case class PromisesByIds(
+                            promises: Map[UUID, Promise[ServerReply]],
+                            streams: Map[UUID, StreamedRowsReceiver] = Map.empty
+                          )
+
+  // Closed cursors don't receive any final reply from the server, so their receivers have to be forgotten
+  case class CursorClosed(requestId: UUID)
 
 }
 
@@ -68,6 +74,11 @@ class ProxyActor(clusterClientActor: ActorRef, driver: ClusterClientDriver) exte
       logger.debug("Sending message to the Crossdata cluster")
       context.become(start(promisesByIds.copy(promisesByIds.promises + (message.cmd.requestId -> promise))))
       self ! message
+
+    case (message: CommandEnvelope, receiver: StreamedRowsReceiver) =>
+      logger.debug("Sending streamed query to the Crossdata cluster")
+      context.become(start(promisesByIds.copy(streams = promisesByIds.streams + (message.cmd.requestId -> receiver))))
+      self ! message
   }
 
   // Process messages from the Crossdata Driver.
@@ -77,6 +88,10 @@ class ProxyActor(clusterClientActor: ActorRef, driver: ClusterClientDriver) exte
       logger.info(s"Sending query: ${sqlCommand.sql} with requestID=${sqlCommand.requestId} & queryID=${sqlCommand.queryId}")
       clusterClientActor ! ClusterClient.Send(ServerClusterClientParameters.ServerPath, secureSQLCommand, localAffinity = false)
 
+    case secureSQLCommand @ CommandEnvelope(batchCommand: BatchSQLCommand, _) =>
+      logger.info(s"Sending batch of ${batchCommand.statements.size} sentences with requestID=${batchCommand.requestId} & queryID=${batchCommand.queryId}")
+      clusterClientActor ! ClusterClient.Send(ServerClusterClientParameters.ServerPath, secureSQLCommand, localAffinity = false)
+
     case secureSQLCommand @ CommandEnvelope(addJARCommand @ AddJARCommand(path, _, _, _), session) =>
       import context.dispatcher
       val shipmentResponse: Future[SQLReply] = sendJarToServers(addJARCommand, path, session)
@@ -120,6 +135,15 @@ class ProxyActor(clusterClientActor: ActorRef, driver: ClusterClientDriver) exte
 
   // Message received from a Crossdata Server.
   def receiveFromServer(promisesByIds: PromisesByIds): Receive = {
+    case CursorClosed(requestId) =>
+      context.become(start(promisesByIds.copy(streams = promisesByIds.streams - requestId)))
+
+    case reply: ServerReply if promisesByIds.streams contains reply.requestId =>
+      if (promisesByIds.streams(reply.requestId).receive(reply)) {
+        logger.debug(s"Streamed result with ID=${reply.requestId} finished")
+        context.become(start(promisesByIds.copy(streams = promisesByIds.streams - reply.requestId)))
+      }
+
     case reply: ServerReply =>
       logger.info(s"Sever reply received from Crossdata Server: $sender with ID=${reply.requestId}")
       promisesByIds.promises.get(reply.requestId) match {
@@ -129,6 +153,9 @@ class ProxyActor(clusterClientActor: ActorRef, driver: ClusterClientDriver) exte
             case reply @ SQLReply(_, result) =>
               logger.info(s"Successful SQL execution: $result")
               p.success(reply)
+            case reply @ BatchSQLReply(_, results) =>
+              logger.info(s"Batch execution finished with ${results.size} results")
+              p.success(reply)
             case reply @ QueryCancelledReply(queryRqId, cancellationRqId) =>
               logger.info(s"Query $queryRqId cancelled")
               p.success(SQLReply(queryRqId, ErrorSQLResult("Query cancelled")))
@@ -16,13 +16,15 @@
 package com.stratio.crossdata.driver.config
 
 import java.io.File
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
 
+import com.stratio.crossdata.common.JobPriority
 import com.typesafe.config.{Config, ConfigFactory, ConfigValue, ConfigValueFactory}
 import org.apache.log4j.Logger
 import org.apache.spark.Logging
 
 import scala.collection.JavaConversions._
+import scala.concurrent.duration.FiniteDuration
 import scala.util.Try
 
 class DriverConf extends Logging {
@@ -79,6 +81,19 @@ class DriverConf extends Logging {
     this
   }
 
+  def setJobPriority(priority: JobPriority.JobPriority): DriverConf = {
+    userSettings.put(DriverJobPriority, ConfigValueFactory.fromAnyRef(priority.toString))
+    this
+  }
+
+  /**
+    * Asks the HTTP server for results in the binary columnar format instead of JSON.
+    */
+  def setColumnarResults(enabled: Boolean): DriverConf = {
+    userSettings.put(Http.ColumnarResults, ConfigValueFactory.fromAnyRef(enabled))
+    this
+  }
+
   def setTunnelTimeout(seconds: Int): DriverConf = {
     userSettings.put(AkkaClusterRecepcionistTunnelTimeout, ConfigValueFactory.fromAnyRef(seconds * 1000))
     this
@@ -136,6 +151,15 @@ class DriverConf extends Logging {
   private[crossdata] def getFlattenTables: Boolean =
     finalSettings.getBoolean(DriverFlattenTables)
 
+  private[crossdata] def getJobPriority: JobPriority.JobPriority =
+    Try(JobPriority.withName(finalSettings.getString(DriverJobPriority).toLowerCase)).getOrElse(JobPriority.Interactive)
+
+
+  private[crossdata] def getTunnelTimeout: FiniteDuration =
+    FiniteDuration(finalSettings.getDuration(AkkaClusterRecepcionistTunnelTimeout, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+
+  private[crossdata] def getColumnarResults: Boolean =
+    Try(finalSettings.getBoolean(Http.ColumnarResults)).getOrElse(false)
 
   private val typesafeConf: Config = {
 
@@ -239,6 +263,7 @@ object DriverConf {
   val DriverConfigFile = "external.config.filename"
   val DriverConfigHosts = "config.cluster.hosts"
   val DriverFlattenTables = "config.flatten-tables"
+  val DriverJobPriority = "config.jobs.priority"
   val DriverClusterName = "config.cluster.name"
   val SSLEnabled = "akka.remote.netty.ssl.enable-ssl"
   val AkkaClusterRecepcionistTunnelTimeout = "akka.contrib.cluster.receptionist.response-tunnel-receive-timeout"
@@ -251,6 +276,8 @@ object DriverConf {
 
     val RequestExecutionTimeout = "akka-http.request-execution-timeout"
 
+    val ColumnarResults = "akka-http.columnar-results"
+
     //TLS akka-http client authentication
     object TLS {
       val TlsEnable = "akka-http.ssl.enable"
@@ -158,7 +158,7 @@ object BasicShell extends App {
   private def printResult(queryId: UUID, result: SQLResult) = {
     console.println(s"Result for query ID: $queryId")
     result match {
-      case SuccessfulSQLResult(sqlResult, _) =>
+      case SuccessfulSQLResult(sqlResult, _, _) =>
         console.println("SUCCESS")
         result.prettyResult.foreach(l => console.println(l))
       case ErrorSQLResult(message, _) =>
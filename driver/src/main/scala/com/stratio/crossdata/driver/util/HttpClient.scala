@@ -21,9 +21,10 @@ import akka.actor.ActorSystem
 import akka.http.scaladsl.Http
 import akka.http.scaladsl.model.{HttpMethods, HttpRequest, _}
 import akka.stream.ActorMaterializer
-import akka.stream.scaladsl.{FileIO, Source}
+import akka.stream.scaladsl.{FileIO, Sink, Source}
 import com.stratio.crossdata.common.security.Session
 import com.stratio.crossdata.common.serializers.CrossdataCommonSerializer
+import com.stratio.crossdata.common.util.ContentHash
 import com.stratio.crossdata.driver.config.DriverConf
 import com.stratio.crossdata.driver.util.HttpClient.HttpClientContext
 import org.json4s.jackson
@@ -58,16 +59,27 @@ class HttpClient(ctx: HttpClientContext) extends CrossdataCommonSerializer{
   private val protocol = "http"
 
 
+  /**
+    * Jars are identified by the hash of their content so they are only uploaded if the servers don't have them yet.
+    */
   def sendJarToHTTPServer(path: String, session: Session): Future[String] = {
     val sessionUUID = session.id
+    val file = new File(path)
 
     for (
-      request <- createSendFileRequest(s"$protocol://$serverHttp/upload/$sessionUUID", new File(path));
-      response <- http.singleRequest(request) map {
+      hash <- Future(ContentHash.ofFile(file));
+      storedResponse <- http.singleRequest(HttpRequest(HttpMethods.POST, uri = s"$protocol://$serverHttp/upload/$sessionUUID/$hash"));
+      response <- storedResponse match {
+        case resp@HttpResponse(StatusCodes.OK, _, _, _) => Future.successful(resp)
+        case HttpResponse(_, _, entity, _) =>
+          entity.dataBytes.runWith(Sink.ignore)
+          createSendFileRequest(s"$protocol://$serverHttp/upload/$sessionUUID", file).flatMap(http.singleRequest(_))
+      };
+      okResponse = response match {
         case resp@HttpResponse(StatusCodes.OK, _, entity, _) => resp
         case HttpResponse(code, _, _, _) => throw new RuntimeException(s"Request failed, response code: $code")
       };
-      strictEntity <- response.entity.toStrict(5 seconds)
+      strictEntity <- okResponse.entity.toStrict(5 seconds)
     ) yield strictEntity.data.decodeString("UTF-8")
   }
 
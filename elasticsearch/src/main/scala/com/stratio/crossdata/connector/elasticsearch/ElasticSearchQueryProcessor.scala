@@ -18,22 +18,55 @@ package com.stratio.crossdata.connector.elasticsearch
 import com.sksamuel.elastic4s.ElasticDsl._
 import com.sksamuel.elastic4s._
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import com.stratio.crossdata.connector.NativeRowIterator
 import com.stratio.crossdata.connector.elasticsearch.ElasticSearchConnectionUtils._
-import org.apache.spark.sql.catalyst.expressions.{Attribute, Literal}
+import org.apache.spark.sql.catalyst.expressions.{Attribute, GenericRowWithSchema, Literal}
 import org.apache.spark.sql.catalyst.planning.PhysicalOperation
-import org.apache.spark.sql.catalyst.plans.logical.{Limit, LogicalPlan}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Limit, LogicalPlan}
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate.{AggregatedColumn, GroupingColumn, NativeFunction}
+import org.apache.spark.sql.crossdata.catalyst.planning.{NativeAggregate, NativeAggregation}
 import org.apache.spark.sql.{Row, sources}
 import org.apache.spark.sql.sources.CatalystToCrossdataAdapter.{BaseLogicalPlan, FilterReport, ProjectReport, SimpleLogicalPlan, CrossdataExecutionPlan}
 import org.apache.spark.sql.sources.{CatalystToCrossdataAdapter, Filter => SourceFilter}
-import org.apache.spark.sql.types.{StructField, StructType}
+import org.apache.spark.sql.types.{DoubleType, FloatType, NumericType, StructField, StructType}
 import org.elasticsearch.action.search.SearchResponse
-
-import scala.util.{Failure, Try}
+import org.elasticsearch.search.SearchHit
+import org.elasticsearch.search.aggregations.Aggregations
+import org.elasticsearch.search.aggregations.bucket.missing.Missing
+import org.elasticsearch.search.aggregations.bucket.terms.Terms
+import org.elasticsearch.search.aggregations.metrics.avg.Avg
+import org.elasticsearch.search.aggregations.metrics.max.Max
+import org.elasticsearch.search.aggregations.metrics.min.Min
+import org.elasticsearch.search.aggregations.metrics.sum.Sum
+import org.elasticsearch.search.aggregations.metrics.valuecount.ValueCount
+
+import scala.util.{Failure, Success, Try}
 
 object ElasticSearchQueryProcessor {
 
   def apply(logicalPlan: LogicalPlan, parameters: Map[String, String], schemaProvided: Option[StructType] = None)
                                           = new ElasticSearchQueryProcessor(logicalPlan, parameters, schemaProvided)
+
+  val ScrollKeepAlive = "1m"
+  val ScrollPageSize = 1000
+
+  val GroupsAggregation = "groups"
+  val MissingGroupAggregation = "missingGroup"
+
+  /**
+    * ElasticSearch computes COUNT(*) and the COUNT, SUM, AVG, MIN and MAX of numeric columns, grouped by at most one
+    * numeric column. Analyzed strings are split into terms, so they are neither grouped nor aggregated. Sums are
+    * computed as doubles, so only floating point columns are summed natively; Spark sums the rest exactly.
+    */
+  def isAggregationSupported(aggregation: NativeAggregation): Boolean =
+    aggregation.groupingColumns.length <= 1 &&
+      aggregation.groupingColumns.forall(_.dataType.isInstanceOf[NumericType]) &&
+      aggregation.outputColumns.forall {
+        case GroupingColumn(_) => true
+        case AggregatedColumn(_, None, _) => true
+        case AggregatedColumn(NativeFunction.Sum, Some(column), _) => column.dataType == DoubleType || column.dataType == FloatType
+        case AggregatedColumn(_, Some(column), _) => column.dataType.isInstanceOf[NumericType]
+      }
 }
 
 /**
@@ -46,46 +79,109 @@ object ElasticSearchQueryProcessor {
 class ElasticSearchQueryProcessor(val logicalPlan: LogicalPlan, val parameters: Map[String, String],
                                   val schemaProvided: Option[StructType] = None) extends SparkLoggerComponent {
 
+  import ElasticSearchQueryProcessor._
+
   type Limit = Option[Int]
 
   /**
-   * Executes the [[LogicalPlan]]] and query the ElasticSearch database
+   * Executes the [[LogicalPlan]]] and query the ElasticSearch database. The hits are read page by page through a
+   * scroll as they are consumed; the scroll and the client are released when the iterator is closed.
     *
-    * @return the query result
+    * @return the query result or None if the plan cannot be executed natively
+    * @throws Exception if ElasticSearch fails executing the query
    */
-  def execute(): Option[Array[Row]] = {
-
-    def tryRows(requiredColumns: Seq[Attribute], finalQuery: SearchDefinition, esClient: ElasticClient): Try[Array[Row]] = {
-      val rows: Try[Array[Row]] = Try {
-        val resp: SearchResponse = esClient.execute(finalQuery).await.original
-        if (resp.getShardFailures.length > 0) {
-          val errors = resp.getShardFailures map { failure => failure.reason() }
-          throw new RuntimeException(errors mkString("Errors from ES:", ";\n", ""))
-        } else {
-          ElasticSearchRowConverter.asRows(schemaProvided.get, resp.getHits.getHits, requiredColumns)
+  def execute(): Option[NativeRowIterator] = {
+
+    plannedNativeQuery map {
+      case (_, Some(0), _) =>
+        NativeRowIterator.empty(logicalPlan.schema)
+
+      case (baseLogicalPlan, limit, Some(aggregation)) =>
+        val finalQuery = aggregationQuery(baseLogicalPlan, aggregation)
+
+        withClientDo(parameters) { esClient =>
+          val rows = aggregationRows(aggregation, trySearch(finalQuery, esClient).get)
+          new NativeRowIterator(logicalPlan.schema, limit.fold(rows)(rows.take).iterator)
         }
-      }
-      rows
+
+      case (baseLogicalPlan, limit, None) =>
+        val (requiredColumns, finalQuery) = nativeQuery(baseLogicalPlan)
+        val scrollQuery = finalQuery scroll ScrollKeepAlive size limit.fold(ScrollPageSize)(math.min(_, ScrollPageSize))
+
+        val esClient = buildClient(parameters)
+        trySearch(scrollQuery, esClient) map (scrolledRows(esClient, _, requiredColumns, limit)) recoverWith {
+          case exc =>
+            esClient.close()
+            Failure(exc)
+        }.get
     }
+  }
 
-    val result: Try[Array[Row]] = validatedNativePlan.map {
-      case (baseLogicalPlan, limit) =>
-        val requiredColumns = baseLogicalPlan match {
-          case SimpleLogicalPlan(projects, _, _, _) =>
-            projects
-        }
+  // Errors planning the query just prevent the native execution; errors executing it are thrown to the caller
+  private def plannedNativeQuery: Option[(BaseLogicalPlan, Limit, Option[NativeAggregation])] =
+    Try(validatedNativePlan).recover {
+      case exc =>
+        log.warn(s"Exception planning the native query $logicalPlan", exc.getMessage)
+        None
+    }.get
 
-        val filters = baseLogicalPlan.filters
-        val (esIndex, esType) = extractIndexAndType(parameters).get
+  private def trySearch(finalQuery: SearchDefinition, esClient: ElasticClient): Try[SearchResponse] = Try {
+    withoutShardFailures(esClient.execute(finalQuery).await.original)
+  }
 
-        val finalQuery = buildNativeQuery(requiredColumns, filters, search in esIndex / esType)
+  // Failed shards do not fail the request, so their partial results would be returned as if they were complete
+  private def withoutShardFailures(resp: SearchResponse): SearchResponse =
+    if (resp.getShardFailures.length > 0) {
+      val errors = resp.getShardFailures map { failure => failure.reason() }
+      throw new RuntimeException(errors mkString("Errors from ES:", ";\n", ""))
+    } else {
+      resp
+    }
 
-        withClientDo(parameters) { esClient =>
-          tryRows(requiredColumns, finalQuery, esClient)
-        }
-    }.getOrElse(Failure(new RuntimeException("Invalid native plan")))
+  // The following page is requested once the hits of the current one have been consumed
+  private def scrolledRows(esClient: ElasticClient,
+                           firstPage: SearchResponse,
+                           requiredColumns: Seq[Attribute],
+                           limit: Limit): NativeRowIterator = {
+    var scrollId = firstPage.getScrollId
+
+    def nextPage(): Array[SearchHit] = {
+      val page = esClient.java.prepareSearchScroll(scrollId).setScroll(ScrollKeepAlive).get()
+      scrollId = page.getScrollId
+      withoutShardFailures(page)
+      page.getHits.getHits
+    }
+
+    val pages = (Iterator.single(firstPage.getHits.getHits) ++ Iterator.continually(nextPage())) takeWhile (_.nonEmpty)
+    val rows = pages flatMap (hits => ElasticSearchRowConverter.asRows(schemaProvided.get, hits, requiredColumns))
+
+    new NativeRowIterator(logicalPlan.schema, limit.fold(rows)(rows.take), () =>
+      try esClient.java.prepareClearScroll().addScrollId(scrollId).get() finally esClient.close()
+    )
+  }
+
+  /**
+   * @return the ElasticSearch query which would be executed or the reason why the plan cannot be executed natively
+   */
+  def explain(): Either[String, String] =
+    Try(nativePlan.right.map {
+      case (baseLogicalPlan, _, Some(aggregation)) => aggregationQuery(baseLogicalPlan, aggregation).toString
+      case (baseLogicalPlan, _, None) => nativeQuery(baseLogicalPlan)._2.toString
+    }) match {
+      case Success(explanation) => explanation
+      case Failure(exc) => Left(s"Unexpected plan: ${exc.getMessage}")
+    }
+
+  private def nativeQuery(baseLogicalPlan: BaseLogicalPlan): (Seq[Attribute], SearchDefinition) = {
+    val requiredColumns = baseLogicalPlan match {
+      case SimpleLogicalPlan(projects, _, _, _) =>
+        projects
+    }
 
-    result.toOption
+    val filters = baseLogicalPlan.filters
+    val (esIndex, esType) = extractIndexAndType(parameters).get
+
+    (requiredColumns, buildNativeQuery(requiredColumns, filters, search in esIndex / esType))
   }
 
 
@@ -96,14 +192,34 @@ class ElasticSearchQueryProcessor(val logicalPlan: LogicalPlan, val parameters:
 
   private def buildFilters(sFilters: Array[SourceFilter], query: SearchDefinition): SearchDefinition = {
 
-    val matchers = sFilters.collect {
+    val (matchers, searchFilters) = filterQueries(sFilters)
+
+    import scala.collection.JavaConversions._
+
+    val matchQuery = query bool must(matchers)
+
+    val finalQuery = if (searchFilters.isEmpty)
+      matchQuery
+    else matchQuery postFilter bool {
+      must(searchFilters)
+    }
+
+    log.debug("LogicalPlan transformed to the Elasticsearch query:" + finalQuery.toString())
+    finalQuery
+
+  }
+
+  /**
+    * @return the full-text matchers and the filters of the query
+    */
+  private def filterQueries(sFilters: Array[SourceFilter]): (Seq[QueryDefinition], Seq[QueryDefinition]) = {
+
+    val matchers: Seq[QueryDefinition] = sFilters.collect {
       case sources.StringContains(attribute, value) => termQuery(attribute, value.toLowerCase)
       case sources.StringStartsWith(attribute, value) => prefixQuery(attribute, value.toLowerCase)
     }
 
-    import scala.collection.JavaConversions._
-
-    val searchFilters = sFilters.collect {
+    val searchFilters: Seq[QueryDefinition] = sFilters.collect {
       case sources.EqualTo(attribute, value) => termQuery(attribute, value)
       case sources.GreaterThan(attribute, value) => rangeQuery(attribute).from(value).includeLower(false)
       case sources.GreaterThanOrEqual(attribute, value) => rangeQuery(attribute).gte(value.toString)
@@ -114,17 +230,81 @@ class ElasticSearchQueryProcessor(val logicalPlan: LogicalPlan, val parameters:
       case sources.IsNull(attribute) => must(not(existsQuery(attribute)))
     }
 
-    val matchQuery = query bool must(matchers)
+    (matchers, searchFilters)
+  }
 
-    val finalQuery = if (searchFilters.isEmpty)
-      matchQuery
-    else matchQuery postFilter bool {
-      must(searchFilters)
+  /**
+    * Builds a query which only returns aggregations. Filters restrict the query, since post filters are applied
+    * after aggregating. Each aggregated column is paired with the count of its values to output null, as Spark
+    * does, when there is nothing to aggregate.
+    */
+  private def aggregationQuery(baseLogicalPlan: BaseLogicalPlan, nativeAggregation: NativeAggregation): SearchDefinition = {
+    val (esIndex, esType) = extractIndexAndType(parameters).get
+    val (matchers, searchFilters) = filterQueries(baseLogicalPlan.filters)
+
+    val metrics: Seq[AbstractAggregationDefinition] = nativeAggregation.outputColumns.zipWithIndex flatMap {
+      case (AggregatedColumn(NativeFunction.Count, None, _), _) =>
+        Nil
+      case (AggregatedColumn(NativeFunction.Count, Some(column), _), i) =>
+        Seq(aggregation count s"a$i" field column.name)
+      case (AggregatedColumn(function, Some(column), _), i) =>
+        val metric: AbstractAggregationDefinition = function match {
+          case NativeFunction.Sum => aggregation sum s"a$i" field column.name
+          case NativeFunction.Avg => aggregation avg s"a$i" field column.name
+          case NativeFunction.Min => aggregation min s"a$i" field column.name
+          case NativeFunction.Max => aggregation max s"a$i" field column.name
+        }
+        Seq(metric, aggregation count s"n$i" field column.name)
+      case _ =>
+        Nil
     }
 
-    log.debug("LogicalPlan transformed to the Elasticsearch query:" + finalQuery.toString())
+    val definitions: Seq[AbstractAggregationDefinition] = nativeAggregation.groupingColumns.headOption.fold(metrics) { column =>
+      Seq(
+        aggregation terms GroupsAggregation field column.name size 0 aggregations metrics,
+        aggregation missing MissingGroupAggregation field column.name aggregations metrics
+      )
+    }
+
+    val finalQuery = search in esIndex / esType query bool(must(matchers ++ searchFilters)) size 0 aggregations definitions
+    log.debug("LogicalPlan transformed to the Elasticsearch aggregation query:" + finalQuery.toString())
     finalQuery
+  }
+
+  private def aggregationRows(aggregation: NativeAggregation, resp: SearchResponse): Array[Row] = {
+    import scala.collection.JavaConversions._
+
+    val schema = logicalPlan.schema
+
+    def toRow(groupKey: Any, docCount: Long, metrics: Aggregations): Row = {
+      def metricValue(function: NativeFunction.NativeFunction, column: Option[Attribute], i: Int): Any = function match {
+        case NativeFunction.Count => column.fold[Any](docCount)(_ => metrics.get[ValueCount](s"a$i").getValue)
+        case _ if metrics.get[ValueCount](s"n$i").getValue == 0 => null
+        case NativeFunction.Sum => metrics.get[Sum](s"a$i").getValue
+        case NativeFunction.Avg => metrics.get[Avg](s"a$i").getValue
+        case NativeFunction.Min => metrics.get[Min](s"a$i").getValue
+        case NativeFunction.Max => metrics.get[Max](s"a$i").getValue
+      }
+
+      val values = aggregation.outputColumns.zipWithIndex.zip(schema.fields) map {
+        case ((GroupingColumn(_), _), field) =>
+          NativeAggregate.toOutputType(groupKey, field.dataType)
+        case ((AggregatedColumn(function, column, _), i), field) =>
+          NativeAggregate.toOutputType(metricValue(function, column, i), field.dataType)
+      }
+      new GenericRowWithSchema(values.toArray, schema)
+    }
 
+    if (aggregation.isGlobal) {
+      Array(toRow(null, resp.getHits.getTotalHits, resp.getAggregations))
+    } else {
+      val groups = resp.getAggregations.get[Terms](GroupsAggregation).getBuckets.toSeq map { bucket =>
+        toRow(bucket.getKey, bucket.getDocCount, bucket.getAggregations)
+      }
+      val missingGroup = resp.getAggregations.get[Missing](MissingGroupAggregation)
+      val nullGroup = if (missingGroup.getDocCount > 0) Seq(toRow(null, missingGroup.getDocCount, missingGroup.getAggregations)) else Nil
+      (groups ++ nullGroup).toArray
+    }
   }
 
   private def selectFields(fields: Seq[Attribute], query: SearchDefinition): SearchDefinition = {
@@ -143,26 +323,45 @@ class ElasticSearchQueryProcessor(val logicalPlan: LogicalPlan, val parameters:
   }
 
 
-  def validatedNativePlan: Option[(BaseLogicalPlan, Limit)] = {
+  def validatedNativePlan: Option[(BaseLogicalPlan, Limit, Option[NativeAggregation])] = nativePlan.right.toOption
+
+  private def nativePlan: Either[String, (BaseLogicalPlan, Limit, Option[NativeAggregation])] = {
     lazy val limit: Option[Int] = logicalPlan.collectFirst { case Limit(Literal(num: Int, _), _) => num }
 
-    def findProjectsFilters(lplan: LogicalPlan): Option[BaseLogicalPlan] = {
+    def findProjectsFilters(lplan: LogicalPlan): Either[String, BaseLogicalPlan] = {
       lplan match {
 
         case Limit(_, child) =>
           findProjectsFilters(child)
 
+        case NativeAggregate(_, child) if child.collectFirst { case limit: Limit => limit }.isDefined =>
+          Left("Aggregations over limited results cannot be executed natively")
+
+        case NativeAggregate(aggregation, child) if ElasticSearchQueryProcessor.isAggregationSupported(aggregation) =>
+          findProjectsFilters(child)
+
+        case aggregate: Aggregate =>
+          Left(s"Unsupported aggregation: ${aggregate.aggregateExpressions.mkString(", ")}")
+
         case PhysicalOperation(projectList, filterList, _) =>
-          CatalystToCrossdataAdapter.getConnectorLogicalPlan(logicalPlan, projectList, filterList) match {
+          CatalystToCrossdataAdapter.getConnectorLogicalPlan(lplan, projectList, filterList) match {
             case CrossdataExecutionPlan(_, ProjectReport(exprIgnored), FilterReport(filtersIgnored, _)) if filtersIgnored.nonEmpty || exprIgnored.nonEmpty =>
-              None
+              Left(s"Expressions which cannot be pushed down: ${(exprIgnored ++ filtersIgnored).mkString(", ")}")
+            case CrossdataExecutionPlan(basePlan: SimpleLogicalPlan, _, _) =>
+              Right(basePlan)
             case CrossdataExecutionPlan(basePlan, _, _) =>
-              Some(basePlan)
+              Left(s"Projections or filters over aggregations cannot be executed natively: $lplan")
           }
       }
     }
 
-    findProjectsFilters(logicalPlan).collect{ case bp if checkNativeFilters(bp.filters) => (bp, limit) }
+    lazy val aggregation: Option[NativeAggregation] = logicalPlan.collectFirst { case NativeAggregate(agg, _) => agg }
+
+    findProjectsFilters(logicalPlan).right flatMap { basePlan =>
+      val unsupportedFilters = basePlan.filters.filterNot(filter => checkNativeFilters(Array(filter)))
+      if (unsupportedFilters.isEmpty) Right((basePlan, limit, aggregation))
+      else Left(s"Unsupported filters: ${unsupportedFilters.mkString(", ")}")
+    }
   }
 
   private[this] def checkNativeFilters(filters: Array[SourceFilter]): Boolean = filters.forall {
@@ -17,14 +17,17 @@ package org.elasticsearch.spark.sql
 
 import java.sql.{Date, Timestamp}
 
-import com.stratio.crossdata.connector.NativeScan
+import com.stratio.crossdata.connector.{NativeRowIterator, StreamingNativeScan}
+import com.stratio.crossdata.connector.elasticsearch.DefaultSource.ElasticCluster
 import com.stratio.crossdata.connector.elasticsearch.ElasticSearchQueryProcessor
 import org.apache.spark.{Logging, Partition, SparkContext, TaskContext}
 import org.apache.spark.sql.catalyst.plans.logical.{LeafNode, LogicalPlan, Project, UnaryNode, Filter => FilterPlan}
 import org.apache.spark.sql.catalyst.plans.logical.Limit
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate
 import org.apache.spark.sql.sources._
 import org.apache.spark.sql.types._
 import org.apache.spark.sql.{Row, SQLContext}
+import org.elasticsearch.hadoop.cfg.ConfigurationOptions.{ES_NODES, ES_NODES_DEFAULT, ES_RESOURCE, ES_RESOURCE_READ}
 import org.elasticsearch.hadoop.rest.RestService.PartitionDefinition
 import org.elasticsearch.spark.rdd.EsPartition
 
@@ -79,7 +82,7 @@ class ScalaXDEsRowRDD(
  * @param userSchema Spark User Defined Schema
  */
 class ElasticsearchXDRelation(parameters: Map[String, String], sqlContext: SQLContext, userSchema: Option[StructType] = None)
-  extends ElasticsearchRelation(parameters, sqlContext, userSchema) with NativeScan with Logging {
+  extends ElasticsearchRelation(parameters, sqlContext, userSchema) with StreamingNativeScan with Logging {
 
 
   override def buildScan(requiredColumns: Array[String], filters: Array[Filter]) = {
@@ -114,15 +117,31 @@ class ElasticsearchXDRelation(parameters: Map[String, String], sqlContext: SQLCo
    * Build and Execute a NativeScan for the [[LogicalPlan]] provided.
     *
     * @param optimizedLogicalPlan the [[LogicalPlan]] to be executed
-   * @return a list of Spark [[Row]] with the [[LogicalPlan]] execution result.
+   * @return the Spark [[Row]]s resulting from the [[LogicalPlan]] execution, read as they are consumed.
    */
-  override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
+  override def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[NativeRowIterator] = {
     logDebug(s"Processing ${optimizedLogicalPlan.toString()}")
     val queryExecutor = ElasticSearchQueryProcessor(optimizedLogicalPlan, parameters, userSchema)
     queryExecutor.execute()
   }
 
 
+  /**
+   * Describes the ElasticSearch query which would be executed for the [[LogicalPlan]] provided.
+   *
+   * @param optimizedLogicalPlan the [[LogicalPlan]] to be explained
+   * @return the query or the reason why the [[LogicalPlan]] cannot be executed natively
+   */
+  override def explainNativeQuery(optimizedLogicalPlan: LogicalPlan): Either[String, String] =
+    ElasticSearchQueryProcessor(optimizedLogicalPlan, parameters, userSchema).explain()
+
+  override def nativeDatasource: String = {
+    val cluster = parameters.get(ElasticCluster) getOrElse parameters.getOrElse(ES_NODES, ES_NODES_DEFAULT)
+    val index = parameters.get(ES_RESOURCE_READ) orElse parameters.get(ES_RESOURCE) map (_.split("/").head)
+    s"elasticsearch:$cluster/${index.getOrElse("")}"
+  }
+
+
   /**
    * Checks the ability to execute a [[LogicalPlan]].
    *
@@ -134,7 +153,8 @@ class ElasticsearchXDRelation(parameters: Map[String, String], sqlContext: SQLCo
     case ln: LeafNode => true // TODO leafNode == LogicalRelation(xdSourceRelation)
     case un: UnaryNode => un match {
       case Project(_, _) | FilterPlan(_, _)  => true
-      case Limit(_, _)=> false //TODO add support to others
+      case NativeAggregate(aggregation, _) => ElasticSearchQueryProcessor.isAggregationSupported(aggregation)
+      case Limit(_, _) => true
       case _ => false
 
     }
@@ -17,7 +17,7 @@ package org.elasticsearch.spark.sql
 
 import com.stratio.crossdata.test.BaseXDTest
 import org.apache.spark.sql.SQLContext
-import org.apache.spark.sql.catalyst.plans.logical.{Filter, LeafNode, LogicalPlan, Project}
+import org.apache.spark.sql.catalyst.plans.logical.{Filter, LeafNode, Limit, LogicalPlan, Project}
 import org.apache.spark.sql.types.StructType
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
@@ -69,6 +69,20 @@ class ElasticSearchXDRelationSpec extends BaseXDTest with MockitoSugar {
     result should be (true)
   }
 
+  it should "support Limit Node, as the hits are read through a scroll" in {
+    //Fixture
+    val logicalStep = mock[Limit]
+    val wholeLogicalPlan = mock[LogicalPlan]
+
+    val esRelation = buildElasticSearchRelation()
+
+    //Experimentation
+    val result = esRelation.isSupported(logicalStep, wholeLogicalPlan)
+
+    //Expectations
+    result should be (true)
+  }
+
   def buildElasticSearchRelation(): ElasticsearchXDRelation = {
     val parameters: Map[String, String] = mock[Map[String, String]]
     val sqlContext: SQLContext = mock[SQLContext]
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import java.util.concurrent.TimeUnit
+
+import scala.collection.mutable
+import scala.concurrent.duration.FiniteDuration
+
+/**
+  * Outcome of the queries sent during the measured period of a load test.
+  */
+class LatencyRecorder {
+
+  private val latencies = mutable.ArrayBuffer.empty[Long]
+  private var failures = 0L
+
+  def success(latencyNanos: Long): Unit = synchronized {
+    latencies += latencyNanos
+  }
+
+  def failure(): Unit = synchronized {
+    failures += 1
+  }
+
+  def report(elapsed: FiniteDuration): LoadReport = synchronized {
+    val sorted = latencies.sorted.toIndexedSeq
+
+    // Nearest-rank percentile, in milliseconds
+    def percentile(p: Double): Double =
+      if (sorted.isEmpty) 0 else millis(sorted(math.max(math.ceil(p * sorted.length).toInt - 1, 0)))
+
+    LoadReport(
+      succeeded = sorted.length,
+      failed = failures,
+      elapsed = elapsed,
+      throughput = sorted.length / (elapsed.toNanos.toDouble / TimeUnit.SECONDS.toNanos(1)),
+      mean = if (sorted.isEmpty) 0 else millis(sorted.sum) / sorted.length,
+      p50 = percentile(0.5),
+      p99 = percentile(0.99),
+      p999 = percentile(0.999),
+      max = if (sorted.isEmpty) 0 else millis(sorted.last)
+    )
+  }
+
+  private def millis(nanos: Long): Double = nanos.toDouble / TimeUnit.MILLISECONDS.toNanos(1)
+
+}
+
+/**
+  * @param throughput Queries answered successfully per second.
+  * @param mean Latencies in milliseconds, failed queries are not included.
+  */
+case class LoadReport(
+                       succeeded: Int,
+                       failed: Long,
+                       elapsed: FiniteDuration,
+                       throughput: Double,
+                       mean: Double,
+                       p50: Double,
+                       p99: Double,
+                       p999: Double,
+                       max: Double
+                     ) {
+
+  def prettyString: String =
+    f"""Queries: $succeeded succeeded, $failed failed in ${elapsed.toMillis / 1000.0}%.1f s
+       |Throughput: $throughput%.2f queries/s
+       |Latency (ms): mean $mean%.2f, p50 $p50%.2f, p99 $p99%.2f, p999 $p999%.2f, max $max%.2f""".stripMargin
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import java.util.concurrent.Executors
+
+import com.stratio.crossdata.common.result.ErrorSQLResult
+import com.stratio.crossdata.driver.Driver
+import org.apache.log4j.Logger
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+/**
+  * Sends the workload statements from concurrent clients, each one waiting for the answer to its previous query
+  * before sending the next one. A warm-up period, whose queries aren't measured, precedes the measured one.
+  *
+  * @param newClient Opens the session of a client.
+  */
+class LoadGenerator(config: LoadTestConfig, workload: Workload, newClient: () => Driver) {
+
+  lazy val logger = Logger.getLogger(classOf[LoadGenerator])
+
+  def run(): LoadReport = {
+    val threadPool = Executors.newFixedThreadPool(config.concurrency)
+    implicit val executionContext = ExecutionContext.fromExecutorService(threadPool)
+
+    val clients = Seq.fill(config.concurrency)(newClient())
+    try {
+      if (config.warmup > Duration.Zero) {
+        logger.info(s"Warming up for ${config.warmup}")
+        runPeriod(clients, config.warmup, new LatencyRecorder)
+      }
+      logger.info(s"Measuring ${config.concurrency} concurrent clients for ${config.duration}")
+      val recorder = new LatencyRecorder
+      val elapsed = runPeriod(clients, config.duration, recorder)
+      recorder.report(elapsed)
+    } finally {
+      clients.foreach(_.closeSession())
+      threadPool.shutdown()
+    }
+  }
+
+  /**
+    * @return the time elapsed until every client has finished.
+    */
+  private def runPeriod(clients: Seq[Driver], period: FiniteDuration, recorder: LatencyRecorder)
+                       (implicit executionContext: ExecutionContext): FiniteDuration = {
+    val start = System.nanoTime()
+    val deadline = period.fromNow
+    val running = Future.sequence(clients.map(client => Future(runClient(client, deadline, recorder))))
+    // Clients may be waiting for their last query when the period finishes
+    Await.result(running, period + config.queryTimeout + 10.seconds)
+    (System.nanoTime() - start).nanos
+  }
+
+  private def runClient(client: Driver, deadline: Deadline, recorder: LatencyRecorder): Unit =
+    Iterator.continually(workload.next()).takeWhile(_.isDefined && deadline.hasTimeLeft).flatten foreach { sql =>
+      val start = System.nanoTime()
+      client.sql(sql).waitForResult(config.queryTimeout) match {
+        case ErrorSQLResult(message, _) =>
+          logger.debug(s"Query failed: $sql - $message")
+          recorder.failure()
+        case _ =>
+          recorder.success(System.nanoTime() - start)
+      }
+    }
+
+}
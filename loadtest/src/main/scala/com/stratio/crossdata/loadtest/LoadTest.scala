@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import java.io.File
+
+import com.stratio.crossdata.common.result.ErrorSQLResult
+import com.stratio.crossdata.driver.Driver
+import org.apache.log4j.Logger
+
+import scala.collection.JavaConversions._
+
+/**
+  * Drives a Crossdata server with a configurable workload and reports its throughput and latency percentiles.
+  *
+  * usage: LoadTest [configFile], see loadtest-reference.conf for the available settings.
+  */
+object LoadTest extends App {
+
+  val logger = Logger.getLogger(getClass)
+
+  require(args.length <= 1, "usage: LoadTest [configFile]")
+
+  val config = LoadTestConfig(args.headOption.map(new File(_)))
+
+  val localServer = if (config.localServer) Some(new LocalServer(config.localServerRows)) else None
+
+  try {
+    localServer.foreach(_.start())
+
+    // A table left by a previous run can't be created again
+    runStatements(localServer.toSeq.flatMap(_.teardownStatements), ignoreErrors = true)
+    runStatements(localServer.toSeq.flatMap(_.setupStatements) ++ config.setup)
+
+    val report = new LoadGenerator(config, Workload(config), () => newClient()).run()
+    println(report.prettyString)
+
+    runStatements(localServer.toSeq.flatMap(_.teardownStatements))
+  } finally {
+    localServer.foreach(_.stop())
+    Driver.shutdown()
+  }
+
+  private def newClient(): Driver = config.driver match {
+    case LoadTestConfig.HttpDriver => Driver.http.newSession(config.httpHost, config.httpPort)
+    case LoadTestConfig.ClusterDriver => Driver.newSession(config.clusterHosts)
+  }
+
+  private def runStatements(statements: Seq[String], ignoreErrors: Boolean = false): Unit = if (statements.nonEmpty) {
+    val client = newClient()
+    try {
+      statements foreach { statement =>
+        client.sql(statement).waitForResult(config.queryTimeout) match {
+          case ErrorSQLResult(message, _) if !ignoreErrors =>
+            throw new RuntimeException(s"Statement failed: $statement - $message")
+          case _ =>
+        }
+      }
+    } finally client.closeSession()
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+import com.typesafe.config.{Config, ConfigFactory}
+
+import scala.collection.JavaConversions._
+import scala.concurrent.duration.FiniteDuration
+
+object LoadTestConfig {
+
+  val ParentConfigName = "crossdata-loadtest"
+  val ReferenceConfig = "loadtest-reference.conf"
+
+  val ClusterDriver = "cluster"
+  val HttpDriver = "http"
+
+  /**
+    * @param configFile File overriding the default configuration, see loadtest-reference.conf.
+    */
+  def apply(configFile: Option[File] = None): LoadTestConfig = {
+    val reference = ConfigFactory.parseResources(ReferenceConfig)
+    val userConfig = configFile.map(ConfigFactory.parseFile).getOrElse(ConfigFactory.empty)
+    new LoadTestConfig(userConfig.withFallback(reference).resolve().getConfig(ParentConfigName))
+  }
+
+}
+
+class LoadTestConfig(config: Config) {
+
+  import LoadTestConfig._
+
+  val driver: String = config.getString("driver")
+  require(Set(ClusterDriver, HttpDriver) contains driver, s"Unknown driver $driver, it must be $ClusterDriver or $HttpDriver")
+
+  val clusterHosts: Seq[String] = config.getStringList("cluster.hosts")
+  val httpHost: String = config.getString("http.host")
+  val httpPort: Int = config.getInt("http.port")
+
+  val localServer: Boolean = config.getBoolean("local-server.enabled")
+  val localServerRows: Int = config.getInt("local-server.rows")
+
+  val setup: Seq[String] = config.getStringList("setup")
+
+  val concurrency: Int = config.getInt("concurrency")
+  require(concurrency > 0, "The concurrency must be positive")
+
+  val warmup: FiniteDuration = durationOf("warmup")
+  val duration: FiniteDuration = durationOf("duration")
+  val queryTimeout: FiniteDuration = durationOf("query-timeout")
+
+  val queryMix: Seq[(String, Int)] = config.getConfigList("workload.queries") map { query =>
+    query.getString("sql") -> query.getInt("weight")
+  }
+
+  val replayFile: Option[File] = Option(config.getString("workload.replay-file")).filter(_.nonEmpty).map(new File(_))
+  val replayLoop: Boolean = config.getBoolean("workload.replay-loop")
+
+  private def durationOf(key: String): FiniteDuration =
+    FiniteDuration(config.getDuration(key, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+
+}
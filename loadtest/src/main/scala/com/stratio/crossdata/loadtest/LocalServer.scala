@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import java.io.{File, PrintWriter}
+import java.nio.file.Files
+
+import com.stratio.crossdata.server.CrossdataServer
+import com.stratio.crossdata.server.config.ServerConfig
+import org.apache.commons.io.FileUtils
+import org.apache.log4j.Logger
+
+object LocalServer {
+
+  val EventsTable = "loadtest_events"
+
+  val Categories = 10
+
+}
+
+/**
+  * Crossdata server running Spark in local mode within the load test JVM. The server configuration is read as usual,
+  * so it can be tuned through server-application.conf.
+  *
+  * @param rows Rows of the generated table, a JSON file of events with an id, a category, an amount and a timestamp.
+  */
+class LocalServer(rows: Int) {
+
+  import LocalServer._
+
+  lazy val logger = Logger.getLogger(classOf[LocalServer])
+
+  private val server = new CrossdataServer(new ServerConfig)
+
+  private val dataDirectory: File = Files.createTempDirectory("crossdata-loadtest").toFile
+
+  def start(): Unit = {
+    generateEvents(new File(dataDirectory, s"$EventsTable.json"))
+    server.start()
+  }
+
+  def stop(): Unit = {
+    server.stop()
+    FileUtils.deleteQuietly(dataDirectory)
+  }
+
+  /**
+    * Statements creating the generated table. The table is persistent so every client session can query it.
+    */
+  def setupStatements: Seq[String] = Seq(
+    s"CREATE TABLE $EventsTable USING json OPTIONS (path '${dataDirectory.getAbsolutePath}')"
+  )
+
+  def teardownStatements: Seq[String] = Seq(s"DROP TABLE $EventsTable")
+
+  private def generateEvents(file: File): Unit = {
+    logger.info(s"Generating $rows rows at $file")
+    val writer = new PrintWriter(file, "UTF-8")
+    try {
+      (0 until rows) foreach { id =>
+        writer.println(
+          s"""{"id": $id, "category": "category${id % Categories}", "amount": ${(id * 37) % 1000 / 10.0}, "ts": ${id * 1000L}}"""
+        )
+      }
+    } finally writer.close()
+  }
+
+}
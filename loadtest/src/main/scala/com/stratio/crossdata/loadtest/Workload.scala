@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+import org.json4s.JString
+import org.json4s.jackson.JsonMethods
+
+import scala.io.Source
+import scala.util.{Random, Try}
+
+/**
+  * Source of the statements sent by the load test clients. Implementations are shared by every client so they must
+  * be thread safe.
+  */
+trait Workload {
+
+  /**
+    * @return the next statement or None once the workload has been exhausted.
+    */
+  def next(): Option[String]
+
+}
+
+object Workload {
+
+  def apply(config: LoadTestConfig): Workload = config.replayFile map { file =>
+    new Replay(Replay.readStatements(file), config.replayLoop)
+  } getOrElse new QueryMix(config.queryMix)
+
+}
+
+/**
+  * Picks each statement randomly, in proportion to its weight.
+  */
+class QueryMix(weightedQueries: Seq[(String, Int)], random: Random = new Random) extends Workload {
+
+  require(weightedQueries.nonEmpty, "The query mix is empty")
+  require(weightedQueries.forall(_._2 > 0), "The weights of the query mix must be positive")
+
+  private val queries: IndexedSeq[String] = weightedQueries.map(_._1).toIndexedSeq
+  private val cumulativeWeights: IndexedSeq[Int] = weightedQueries.map(_._2).scanLeft(0)(_ + _).tail.toIndexedSeq
+
+  override def next(): Option[String] = {
+    val point = random.nextInt(cumulativeWeights.last)
+    Some(queries(cumulativeWeights.indexWhere(point < _)))
+  }
+
+}
+
+object Replay {
+
+  /**
+    * Reads the statements of a log: Either one statement per line or the JSON lines written by the server's slow query
+    * log, whose "sql" field is the statement. Empty lines and SQL comments are skipped.
+    */
+  def readStatements(file: File): IndexedSeq[String] = {
+    val source = Source.fromFile(file, "UTF-8")
+    try parseStatements(source.getLines()) finally source.close()
+  }
+
+  def parseStatements(lines: Iterator[String]): IndexedSeq[String] =
+    lines.map(_.trim).filterNot(line => line.isEmpty || line.startsWith("--")).map(statement).toIndexedSeq
+
+  // Log lines may be prefixed by the logger layout
+  private def statement(line: String): String = line.indexOf('{') match {
+    case -1 => line
+    case jsonStart =>
+      Try(JsonMethods.parse(line.substring(jsonStart)) \ "sql").toOption collect {
+        case JString(sql) => sql
+      } getOrElse line
+  }
+
+}
+
+/**
+  * Replays the statements in order.
+  *
+  * @param loop Whether to start again from the first statement once every statement has been sent.
+  */
+class Replay(statements: IndexedSeq[String], loop: Boolean) extends Workload {
+
+  require(statements.nonEmpty, "There are no statements to replay")
+
+  private val position = new AtomicLong(0)
+
+  override def next(): Option[String] = {
+    val index = position.getAndIncrement()
+    if (loop) Some(statements((index % statements.length).toInt))
+    else if (index < statements.length) Some(statements(index.toInt))
+    else None
+  }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import java.util.concurrent.TimeUnit
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.concurrent.duration._
+
+@RunWith(classOf[JUnitRunner])
+class LatencyRecorderSpec extends BaseXDTest {
+
+  "A LatencyRecorder" should "report the throughput and latency percentiles of the successful queries" in {
+    val recorder = new LatencyRecorder
+    (1 to 1000) foreach (i => recorder.success(TimeUnit.MILLISECONDS.toNanos(i)))
+    recorder.failure()
+
+    val report = recorder.report(10 seconds)
+    report.succeeded shouldBe 1000
+    report.failed shouldBe 1
+    report.throughput shouldBe 100.0
+    report.p50 shouldBe 500.0
+    report.p99 shouldBe 990.0
+    report.p999 shouldBe 999.0
+    report.max shouldBe 1000.0
+    report.mean shouldBe 500.5
+  }
+
+  it should "report no latencies when no query succeeded" in {
+    val report = new LatencyRecorder().report(1 second)
+    report.succeeded shouldBe 0
+    report.p99 shouldBe 0.0
+  }
+
+}
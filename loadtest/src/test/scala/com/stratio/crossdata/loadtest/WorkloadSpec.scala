@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.loadtest
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.util.Random
+
+@RunWith(classOf[JUnitRunner])
+class WorkloadSpec extends BaseXDTest {
+
+  "A QueryMix" should "pick the queries in proportion to their weights" in {
+    val queryMix = new QueryMix(Seq("q1" -> 3, "q2" -> 1), new Random(42))
+    val picks = Seq.fill(10000)(queryMix.next().get).groupBy(identity).mapValues(_.size)
+
+    picks.keySet shouldBe Set("q1", "q2")
+    picks("q1").toDouble / picks("q2") should (be > 2.5 and be < 3.5)
+  }
+
+  it should "reject empty mixes and non positive weights" in {
+    an[IllegalArgumentException] should be thrownBy new QueryMix(Seq.empty)
+    an[IllegalArgumentException] should be thrownBy new QueryMix(Seq("q1" -> 0))
+  }
+
+  "A Replay" should "send the statements in order and stop when they are exhausted" in {
+    val replay = new Replay(IndexedSeq("q1", "q2"), loop = false)
+    Seq.fill(3)(replay.next()) shouldBe Seq(Some("q1"), Some("q2"), None)
+  }
+
+  it should "start again from the first statement when looping" in {
+    val replay = new Replay(IndexedSeq("q1", "q2"), loop = true)
+    Seq.fill(3)(replay.next()) shouldBe Seq(Some("q1"), Some("q2"), Some("q1"))
+  }
+
+  it should "read plain statements and slow query log lines skipping comments and empty lines" in {
+    val lines = Iterator(
+      "-- a comment",
+      "SELECT * FROM t",
+      "",
+      """ WARN | 01-01-2016 10:00:00,000 | com.stratio.crossdata.server.SlowQueries | {"queryId":"1","sql":"SELECT count(*) FROM t","profile":{}}"""
+    )
+    Replay.parseStatements(lines) shouldBe IndexedSeq("SELECT * FROM t", "SELECT count(*) FROM t")
+  }
+
+}
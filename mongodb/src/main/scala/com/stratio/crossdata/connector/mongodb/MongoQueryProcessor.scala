@@ -20,6 +20,7 @@ import java.util.regex.Pattern
 import com.mongodb.{DBObject, QueryBuilder}
 import com.mongodb.casbah.Imports._
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import com.stratio.crossdata.connector.NativeRowIterator
 import com.stratio.datasource.mongodb.MongodbConnection
 import com.stratio.datasource.mongodb.MongodbRelation._
 import com.stratio.datasource.mongodb.config.MongodbConfig
@@ -27,23 +28,106 @@ import com.stratio.datasource.mongodb.schema.MongodbRowConverter._
 import com.stratio.datasource.util.Config
 import org.apache.spark.sql.catalyst.expressions._
 import org.apache.spark.sql.catalyst.planning.PhysicalOperation
-import org.apache.spark.sql.catalyst.plans.logical.{LogicalPlan, Limit => LogicalLimit}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, LogicalPlan, Limit => LogicalLimit}
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate.{AggregatedColumn, GroupingColumn, NativeFunction}
+import org.apache.spark.sql.crossdata.catalyst.planning.{NativeAggregate, NativeAggregation}
 import org.apache.spark.sql.{Row, sources}
 import org.apache.spark.sql.sources.CatalystToCrossdataAdapter.{BaseLogicalPlan, FilterReport, ProjectReport, SimpleLogicalPlan, CrossdataExecutionPlan}
 import org.apache.spark.sql.sources.{CatalystToCrossdataAdapter, Filter => SourceFilter}
-import org.apache.spark.sql.types.StructType
+import org.apache.spark.sql.types.{BooleanType, DataType, DecimalType, NumericType, StringType, StructType, TimestampType}
+
+import scala.util.control.NonFatal
 
 object MongoQueryProcessor {
 
-  val DefaultLimit = 10000
+  val ResultBatchSize = 1000
   type ColumnName = String
   type Limit = Option[Int]
 
-  case class MongoPlan(basePlan: BaseLogicalPlan, limit: Limit){
+  case class MongoPlan(basePlan: BaseLogicalPlan, limit: Limit, aggregation: Option[NativeAggregation] = None){
     def projects: Seq[NamedExpression] = basePlan.projects
     def filters: Array[SourceFilter] = basePlan.filters
   }
 
+  /**
+    * MongoDB groups by atomic columns and computes COUNT(*), the SUM and AVG of numeric columns and the MIN and MAX
+    * of numeric or string columns through its aggregation pipeline.
+    */
+  def isAggregationSupported(aggregation: NativeAggregation): Boolean = {
+    def isGroupable(dataType: DataType): Boolean = dataType match {
+      case StringType | BooleanType | TimestampType => true
+      case _: NumericType => true
+      case _ => false
+    }
+
+    def isNumeric(column: Attribute): Boolean = column.dataType.isInstanceOf[NumericType] &&
+      !column.dataType.isInstanceOf[DecimalType]
+
+    aggregation.groupingColumns.forall(column => isGroupable(column.dataType)) && aggregation.outputColumns.forall {
+      case GroupingColumn(_) => true
+      case AggregatedColumn(NativeFunction.Count, None, _) => true
+      case AggregatedColumn(NativeFunction.Sum | NativeFunction.Avg, Some(column), _) => isNumeric(column)
+      case AggregatedColumn(NativeFunction.Min | NativeFunction.Max, Some(column), _) =>
+        isNumeric(column) || column.dataType == StringType
+      case _ => false
+    }
+  }
+
+  def buildAggregationPipeline(filters: DBObject, aggregation: NativeAggregation, limit: Option[Int]): List[DBObject] = {
+    val groupId: Any =
+      if (aggregation.isGlobal) null
+      else MongoDBObject(aggregation.groupingColumns.zipWithIndex.map { case (column, i) => s"g$i" -> s"$$${column.name}" }: _*)
+
+    // $sum returns 0 over groups without values, so SUM also counts the non-null values to return null as Spark does
+    val accumulators = aggregation.outputColumns.zipWithIndex flatMap {
+      case (AggregatedColumn(function, column, _), i) =>
+        val operand: Any = column.fold[Any](1)(c => s"$$${c.name}")
+        val operator = function match {
+          case NativeFunction.Count | NativeFunction.Sum => "$sum"
+          case NativeFunction.Avg => "$avg"
+          case NativeFunction.Min => "$min"
+          case NativeFunction.Max => "$max"
+        }
+        val nonNullCount = column.filter(_ => function == NativeFunction.Sum) map { c =>
+          val isNull = MongoDBObject("$eq" -> MongoDBList(MongoDBObject("$ifNull" -> MongoDBList(s"$$${c.name}", null)), null))
+          s"n$i" -> MongoDBObject("$sum" -> MongoDBObject("$cond" -> MongoDBList(isNull, 0, 1)))
+        }
+        (s"a$i" -> MongoDBObject(operator -> operand)) +: nonNullCount.toSeq
+      case _ => Nil
+    }
+
+    List(
+      MongoDBObject("$match" -> filters),
+      MongoDBObject("$group" -> MongoDBObject((("_id" -> groupId) +: accumulators): _*))
+    ) ++ limit.map(n => MongoDBObject("$limit" -> n))
+  }
+
+  // MongoDB does not output any group when no document matches, whereas a global aggregation outputs one row
+  def sparkResultFromAggregation(aggregation: NativeAggregation, schema: StructType, results: Seq[DBObject]): Seq[Row] = {
+    def toRow(result: Option[DBObject]): Row = {
+      val groupId = result.flatMap(r => Option(r.get("_id"))).collect { case id: DBObject => id }
+      val values = aggregation.outputColumns.zipWithIndex map {
+        case (GroupingColumn(column), _) =>
+          val groupIndex = aggregation.groupingColumns.indexWhere(_.semanticEquals(column))
+          groupId.map(_.get(s"g$groupIndex")).orNull
+        case (AggregatedColumn(NativeFunction.Count, _, _), i) =>
+          result.map(_.get(s"a$i")).getOrElse(0L)
+        case (AggregatedColumn(NativeFunction.Sum, _, _), i) =>
+          result.filter(_.get(s"n$i") match {
+            case count: Number => count.longValue > 0
+            case _ => false
+          }).map(_.get(s"a$i")).orNull
+        case (AggregatedColumn(_, _, _), i) =>
+          result.map(_.get(s"a$i")).orNull
+      }
+      val converted = values.zip(schema.fields) map { case (value, field) => NativeAggregate.toOutputType(value, field.dataType) }
+      new GenericRowWithSchema(converted.toArray, schema)
+    }
+
+    if (results.isEmpty && aggregation.isGlobal) Seq(toRow(None))
+    else results.map(result => toRow(Some(result)))
+  }
+
   def apply(logicalPlan: LogicalPlan, config: Config, schemaProvided: Option[StructType] = None) = new MongoQueryProcessor(logicalPlan, config, schemaProvided)
 
   def buildNativeQuery(
@@ -153,64 +237,141 @@ class MongoQueryProcessor(logicalPlan: LogicalPlan, config: Config, schemaProvid
 
   import MongoQueryProcessor._
 
-  def execute(): Option[Array[Row]] = {
+  /**
+    * @return the rows read from the cursor, as they are consumed, or None if the plan cannot be executed natively.
+    *         The cursor and its client are closed when the iterator is closed.
+    * @throws Exception if MongoDB fails executing the query
+    */
+  def execute(): Option[NativeRowIterator] = {
 
-    // TODO convert to Spark result using an iterator with batches instead of an array
     if (schemaProvided.isEmpty) {
       None
     } else {
-      try {
-        validatedNativePlan.map { case MongoPlan(bs: SimpleLogicalPlan, limit) =>
-          if (limit.exists(_ == 0)) {
-            Array.empty[Row]
-          } else {
-            val name2randomAccess = bs.collectionRandomAccesses.map {
-              case (k, v) => s"${k.name}[${v.right}]" -> v
-            }
-            val (mongoFilters, mongoRequiredColumns) = buildNativeQuery(
-              bs.projects.map(_.name), bs.filters,
-              config,
-              name2randomAccess
-            )
-            val resultSet = MongodbConnection.withCollectionDo(config) { collection =>
-              logDebug(s"Executing native query: filters => $mongoFilters projects => $mongoRequiredColumns")
-              val cursor = collection.find(mongoFilters, mongoRequiredColumns)
-              val result = cursor.limit(limit.getOrElse(DefaultLimit)).toArray[DBObject]
+      plannedNativeQuery map {
+        case MongoPlan(_, limit, _) if limit.exists(_ == 0) =>
+          NativeRowIterator.empty(logicalPlan.schema)
+
+        case MongoPlan(bs: SimpleLogicalPlan, limit, Some(aggregation)) =>
+          val pipeline = aggregationPipeline(bs, aggregation, limit)
+          val (client, collection) = MongodbConnection.openCollection(config)
+          try {
+            logDebug(s"Executing native aggregation: ${pipeline.mkString(", ")}")
+            val results = collection.aggregate(pipeline).results.toList
+            new NativeRowIterator(logicalPlan.schema, sparkResultFromAggregation(aggregation, logicalPlan.schema, results).iterator)
+          } finally {
+            client.close()
+          }
+
+        case MongoPlan(bs: SimpleLogicalPlan, limit, None) =>
+          val (mongoFilters, mongoRequiredColumns) = nativeQuery(bs)
+          val (client, collection) = MongodbConnection.openCollection(config)
+          try {
+            logDebug(s"Executing native query: filters => $mongoFilters projects => $mongoRequiredColumns")
+            val query = collection.find(mongoFilters, mongoRequiredColumns).batchSize(ResultBatchSize)
+            val cursor = limit.fold(query)(query.limit)
+            val rows = sparkResultFromMongodb(bs.projects, bs.collectionRandomAccesses, schemaProvided.get, cursor)
+            new NativeRowIterator(logicalPlan.schema, rows, () => {
               cursor.close()
-              result
-            }
-            sparkResultFromMongodb(bs.projects, bs.collectionRandomAccesses, schemaProvided.get, resultSet)
+              client.close()
+            })
+          } catch {
+            case exc: Exception =>
+              client.close()
+              throw exc
           }
+      }
+    }
+
+  }
+
+
+  /**
+    * @return the MongoDB query which would be executed or the reason why the plan cannot be executed natively
+    */
+  def explain(): Either[String, String] =
+    if (schemaProvided.isEmpty) {
+      Left("The schema of the collection has not been provided")
+    } else {
+      try {
+        nativePlan.right.map {
+          case MongoPlan(bs: SimpleLogicalPlan, limit, Some(aggregation)) =>
+            s"aggregate(${aggregationPipeline(bs, aggregation, limit).mkString("[", ", ", "]")})"
+          case MongoPlan(bs: SimpleLogicalPlan, limit, None) =>
+            val (mongoFilters, mongoRequiredColumns) = nativeQuery(bs)
+            s"find($mongoFilters, $mongoRequiredColumns)" + limit.fold("")(n => s".limit($n)")
         }
       } catch {
-        case exc: Exception =>
-          log.warn(s"Exception executing the native query $logicalPlan", exc.getMessage); None
+        case NonFatal(exc) => Left(s"Unexpected plan: ${exc.getMessage}")
       }
     }
 
-  }
+  def validatedNativePlan: Option[MongoPlan] = nativePlan.right.toOption
 
+  // Errors planning the query just prevent the native execution; errors executing it are thrown to the caller
+  private[this] def plannedNativeQuery: Option[MongoPlan] =
+    try {
+      validatedNativePlan
+    } catch {
+      case NonFatal(exc) => log.warn(s"Exception planning the native query $logicalPlan", exc.getMessage); None
+    }
 
-  def validatedNativePlan: Option[_] = {// TODO
+  private[this] def nativePlan: Either[String, MongoPlan] = {
     lazy val limit: Option[Int] = logicalPlan.collectFirst { case LogicalLimit(Literal(num: Int, _), _) => num }
 
-    def findBasePlan(lplan: LogicalPlan): Option[BaseLogicalPlan] = lplan match {
+    def findBasePlan(lplan: LogicalPlan): Either[String, BaseLogicalPlan] = lplan match {
 
       case LogicalLimit(_, child) =>
         findBasePlan(child)
 
+      case NativeAggregate(_, child) if child.collectFirst { case limit: LogicalLimit => limit }.isDefined =>
+        Left("Aggregations over limited results cannot be executed natively")
+
+      case NativeAggregate(aggregation, child) if isAggregationSupported(aggregation) =>
+        findBasePlan(child)
+
+      case aggregate: Aggregate =>
+        Left(s"Unsupported aggregation: ${aggregate.aggregateExpressions.mkString(", ")}")
+
       case PhysicalOperation(projectList, filterList, _) =>
-        CatalystToCrossdataAdapter.getConnectorLogicalPlan(logicalPlan, projectList, filterList) match {
+        CatalystToCrossdataAdapter.getConnectorLogicalPlan(lplan, projectList, filterList) match {
           case CrossdataExecutionPlan(_, ProjectReport(exprIgnored), FilterReport(filtersIgnored, _)) if filtersIgnored.nonEmpty || exprIgnored.nonEmpty =>
-            None
+            Left(s"Expressions which cannot be pushed down: ${(exprIgnored ++ filtersIgnored).mkString(", ")}")
           case CrossdataExecutionPlan(basePlan: SimpleLogicalPlan, _, _) =>
-            Some(basePlan)
-          case _ => ??? // TODO
+            Right(basePlan)
+          case CrossdataExecutionPlan(basePlan, _, _) =>
+            Left(s"Projections or filters over aggregations cannot be executed natively: $lplan")
         }
 
     }
 
-    findBasePlan(logicalPlan).collect{ case bp if checkNativeFilters(bp.filters) => MongoPlan(bp, limit) }
+    lazy val aggregation: Option[NativeAggregation] = logicalPlan.collectFirst { case NativeAggregate(agg, _) => agg }
+
+    def unknownAggregatedColumns: Seq[Attribute] = {
+      val fieldNames = schemaProvided.map(_.fieldNames.toSet).getOrElse(Set.empty)
+      aggregation.toSeq.flatMap(_.outputColumns).flatMap {
+        case AggregatedColumn(_, column, _) => column
+        case GroupingColumn(column) => Some(column)
+      } filterNot (column => fieldNames.contains(column.name))
+    }
+
+    findBasePlan(logicalPlan).right flatMap { basePlan =>
+      val unsupportedFilters = basePlan.filters.filterNot(filter => checkNativeFilters(Seq(filter)))
+      if (unsupportedFilters.nonEmpty) Left(s"Unsupported filters: ${unsupportedFilters.mkString(", ")}")
+      else if (unknownAggregatedColumns.nonEmpty) Left(s"Only collection fields can be aggregated natively: ${unknownAggregatedColumns.mkString(", ")}")
+      else Right(MongoPlan(basePlan, limit, aggregation))
+    }
+  }
+
+  private[this] def aggregationPipeline(basePlan: SimpleLogicalPlan, aggregation: NativeAggregation, limit: Limit): List[DBObject] = {
+    val (mongoFilters, _) = nativeQuery(basePlan)
+    buildAggregationPipeline(mongoFilters, aggregation, limit)
+  }
+
+  private[this] def nativeQuery(basePlan: SimpleLogicalPlan): (DBObject, DBObject) = {
+    val name2randomAccess = basePlan.collectionRandomAccesses.map {
+      case (k, v) => s"${k.name}[${v.right}]" -> v
+    }
+    buildNativeQuery(basePlan.projects.map(_.name), basePlan.filters, config, name2randomAccess)
   }
 
 
@@ -238,15 +399,14 @@ class MongoQueryProcessor(logicalPlan: LogicalPlan, config: Config, schemaProvid
                                             requiredColumns: Seq[Attribute],
                                             indexAccesses: Map[Attribute, GetArrayItem],
                                             schema: StructType,
-                                            resultSet: Array[DBObject]
-                                          ): Array[Row] = {
-    asRow(
-      pruneSchema(
-        schema,
-        requiredColumns.map(r => r.name -> indexAccesses.get(r).map(_.right.toString().toInt)).toArray
-      ),
-      resultSet
+                                            resultSet: Iterator[DBObject]
+                                          ): Iterator[Row] = {
+    val requiredSchema = pruneSchema(
+      schema,
+      requiredColumns.map(r => r.name -> indexAccesses.get(r).map(_.right.toString().toInt)).toArray
     )
+    // Documents are fetched by the cursor and converted one batch at a time
+    resultSet.grouped(ResultBatchSize).flatMap(batch => asRow(requiredSchema, batch.toArray))
   }
 
 
@@ -16,12 +16,14 @@
 package com.stratio.crossdata.connector.mongodb
 
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
-import com.stratio.crossdata.connector.NativeScan
+import com.stratio.crossdata.connector.{NativeRowIterator, StreamingNativeScan}
 import com.stratio.datasource.mongodb.MongodbRelation
+import com.stratio.datasource.mongodb.config.MongodbConfig
 import com.stratio.datasource.util.Config
 import org.apache.spark.sql.catalyst.plans.logical.{Filter, LeafNode, Limit, LogicalPlan, Project, UnaryNode}
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate
 import org.apache.spark.sql.types.StructType
-import org.apache.spark.sql.{Row, SQLContext}
+import org.apache.spark.sql.SQLContext
 
 /**
  * A MongoDB baseRelation that can eliminate unneeded columns
@@ -37,19 +39,26 @@ import org.apache.spark.sql.{Row, SQLContext}
 case class MongodbXDRelation(config: Config,
                              schemaProvided: Option[StructType] = None)(
                             @transient sqlContext: SQLContext)
-  extends MongodbRelation(config, schemaProvided)(sqlContext) with NativeScan with SparkLoggerComponent{
+  extends MongodbRelation(config, schemaProvided)(sqlContext) with StreamingNativeScan with SparkLoggerComponent{
 
 
-  override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
+  override def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[NativeRowIterator] = {
     logDebug(s"Processing ${optimizedLogicalPlan.toString()}")
     val queryExecutor = MongoQueryProcessor(optimizedLogicalPlan, config, schemaProvided)
     queryExecutor.execute()
   }
 
+  override def explainNativeQuery(optimizedLogicalPlan: LogicalPlan): Either[String, String] =
+    MongoQueryProcessor(optimizedLogicalPlan, config, schemaProvided).explain()
+
+  override def nativeDatasource: String =
+    s"mongodb:${config[List[String]](MongodbConfig.Host).sorted.mkString(",")}/${config[String](MongodbConfig.Database)}"
+
   override def isSupported(logicalStep: LogicalPlan, wholeLogicalPlan: LogicalPlan): Boolean = logicalStep match {
     case ln: LeafNode => true // TODO leafNode == LogicalRelation(xdSourceRelation)
     case un: UnaryNode => un match {
       case Limit(_, _) | Project(_, _) | Filter(_, _) => true
+      case NativeAggregate(aggregation, _) => MongoQueryProcessor.isAggregationSupported(aggregation)
       case _ => false
 
     }
@@ -39,6 +39,18 @@ object MongodbConnection {
     }
   }
 
+  /**
+    * Unlike [[withCollectionDo]] the client isn't closed once the collection has been used, it has to be closed by
+    * the caller. E.g: When the results of a cursor are read lazily.
+    */
+  def openCollection(config: Config): (MongoClient, MongoCollection) = {
+    val databaseName: String = config(MongodbConfig.Database)
+    val collectionName: String = config(MongodbConfig.Collection)
+
+    val client = openClient(config)
+    client -> client(databaseName)(collectionName)
+  }
+
   private def openClient(config: Config): MongoClient =
     MongodbClientFactory.getClient(config.hosts, config.credentials, config.sslOptions, config.clientOptions)
 
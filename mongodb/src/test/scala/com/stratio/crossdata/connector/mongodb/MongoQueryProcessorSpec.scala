@@ -18,10 +18,14 @@ package com.stratio.crossdata.connector.mongodb
 import java.util
 import java.util.regex.Pattern
 
-import com.mongodb.{DBObject, QueryOperators}
+import com.mongodb.{BasicDBObject, DBObject, QueryOperators}
 import com.stratio.crossdata.test.BaseXDTest
 import com.stratio.datasource.mongodb.config.{MongodbConfig, MongodbConfigBuilder}
+import org.apache.spark.sql.catalyst.expressions.AttributeReference
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregate.{AggregatedColumn, GroupingColumn, NativeFunction}
+import org.apache.spark.sql.crossdata.catalyst.planning.NativeAggregation
 import org.apache.spark.sql.sources._
+import org.apache.spark.sql.types._
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -44,6 +48,22 @@ class MongoQueryProcessorSpec extends BaseXDTest {
     .set(MongodbConfig.Collection, "collection")
     .build()
 
+  val AgeAttribute = AttributeReference(ColumnAge, IntegerType)()
+  val IdAttribute = AttributeReference(ColumnId, StringType)()
+
+  val GlobalAggregation = NativeAggregation(Seq.empty, Seq(
+    AggregatedColumn(NativeFunction.Count, None, AttributeReference("count", LongType)()),
+    AggregatedColumn(NativeFunction.Sum, Some(AgeAttribute), AttributeReference("sum", LongType)()),
+    AggregatedColumn(NativeFunction.Avg, Some(AgeAttribute), AttributeReference("avg", DoubleType)())
+  ))
+  val GlobalSchema = StructType(Seq(StructField("count", LongType), StructField("sum", LongType), StructField("avg", DoubleType)))
+
+  val GroupedAggregation = NativeAggregation(Seq(IdAttribute), Seq(
+    GroupingColumn(IdAttribute),
+    AggregatedColumn(NativeFunction.Sum, Some(AgeAttribute), AttributeReference("sum", LongType)())
+  ))
+  val GroupedSchema = StructType(Seq(StructField(ColumnId, StringType), StructField("sum", LongType)))
+
   "A MongoQueryProcessor" should "build a query requiring some columns" in {
     val (filters, requiredColumns) = MongoQueryProcessor.buildNativeQuery(Array(ColumnId, ColumnAge), Array(), config)
     val columnsSet = requiredColumns.keySet
@@ -185,4 +205,56 @@ class MongoQueryProcessorSpec extends BaseXDTest {
     filters.get(ColumnId).asInstanceOf[Pattern].pattern should be (Pattern.compile(s".*${ValueId.toString}.*").pattern)
   }
 
+  it should "build a grouped aggregation pipeline counting the non-null values of the summed columns" in {
+    val pipeline = MongoQueryProcessor.buildAggregationPipeline(new BasicDBObject(ColumnAge, ValueAge), GroupedAggregation, None)
+
+    pipeline should have length 2
+    pipeline.head.get("$match").asInstanceOf[DBObject].get(ColumnAge) shouldBe ValueAge
+    val group = pipeline(1).get("$group").asInstanceOf[DBObject]
+    group.get("_id").asInstanceOf[DBObject].get("g0") shouldBe s"$$$ColumnId"
+    group.get("a1").asInstanceOf[DBObject].get("$sum") shouldBe s"$$$ColumnAge"
+    group.containsField("n1") shouldBe true
+  }
+
+  it should "build a global aggregation pipeline" in {
+    val pipeline = MongoQueryProcessor.buildAggregationPipeline(new BasicDBObject(), GlobalAggregation, Some(Limit))
+
+    pipeline should have length 3
+    val group = pipeline(1).get("$group").asInstanceOf[DBObject]
+    Option(group.get("_id")) shouldBe None
+    group.get("a0").asInstanceOf[DBObject].get("$sum") shouldBe 1
+    group.get("a2").asInstanceOf[DBObject].get("$avg") shouldBe s"$$$ColumnAge"
+    pipeline(2).get("$limit") shouldBe Limit
+  }
+
+  it should "return the groups of a grouped aggregation" in {
+    val results = Seq(
+      new BasicDBObject("_id", new BasicDBObject("g0", ValueId)).append("a1", ValueAge).append("n1", 1),
+      new BasicDBObject("_id", new BasicDBObject("g0", "other")).append("a1", 0).append("n1", 0)
+    )
+
+    MongoQueryProcessor.sparkResultFromAggregation(GroupedAggregation, GroupedSchema, results).map(_.toSeq) shouldBe
+      Seq(Seq(ValueId, ValueAge.toLong), Seq("other", null))
+    MongoQueryProcessor.sparkResultFromAggregation(GroupedAggregation, GroupedSchema, Seq.empty) shouldBe empty
+  }
+
+  it should "return a single row with null sums and averages for a global aggregation of no documents" in {
+    MongoQueryProcessor.sparkResultFromAggregation(GlobalAggregation, GlobalSchema, Seq.empty).map(_.toSeq) shouldBe
+      Seq(Seq(0L, null, null))
+  }
+
+  it should "not aggregate natively the columns Spark would aggregate differently" in {
+    val decimalColumn = AttributeReference("price", DecimalType(10, 2))()
+    val decimalSum = NativeAggregation(Seq.empty, Seq(
+      AggregatedColumn(NativeFunction.Sum, Some(decimalColumn), AttributeReference("sum", DecimalType(20, 2))())
+    ))
+    val arrayColumn = AttributeReference("tags", ArrayType(StringType))()
+    val arrayGrouping = NativeAggregation(Seq(arrayColumn), Seq(GroupingColumn(arrayColumn)))
+
+    MongoQueryProcessor.isAggregationSupported(GlobalAggregation) shouldBe true
+    MongoQueryProcessor.isAggregationSupported(GroupedAggregation) shouldBe true
+    MongoQueryProcessor.isAggregationSupported(decimalSum) shouldBe false
+    MongoQueryProcessor.isAggregationSupported(arrayGrouping) shouldBe false
+  }
+
 }
@@ -15,9 +15,8 @@
  */
 package com.stratio.crossdata.server
 
-import java.io.File
 import java.util.UUID
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{TimeUnit, TimeoutException}
 
 import akka.NotUsed
 import akka.actor.{ActorRef, ActorSystem}
@@ -27,18 +26,21 @@ import akka.cluster.pubsub.DistributedPubSubMediator.{Publish, SendToAll}
 import akka.http.scaladsl.common.EntityStreamingSupport
 import akka.http.scaladsl.model._
 import akka.http.scaladsl.model.Multipart.BodyPart
+import akka.http.scaladsl.model.headers.Accept
 import akka.http.scaladsl.server.Directive
 import akka.http.scaladsl.server.Directives._
 import akka.stream.ActorMaterializer
-import akka.stream.scaladsl.{FileIO, Flow, Source}
+import akka.stream.scaladsl.{Flow, Sink, Source}
 import akka.util.{ByteString, Timeout}
 import com.stratio.crossdata.common.security.Session
 import com.stratio.crossdata.common.util.akka.keepalive.LiveMan.HeartBeat
 import com.stratio.crossdata.common._
 import com.stratio.crossdata.common.result._
-import com.stratio.crossdata.server.actors.ResourceManagerActor
+import com.stratio.crossdata.common.serializers.ColumnarResultSerializer
+import com.stratio.crossdata.common.util.ContentHash
+import com.stratio.crossdata.server.actors.JobExecutionEngine.JobRejectedException
+import com.stratio.crossdata.server.actors.{ResourceManagerActor, StreamedResultActor}
 import com.stratio.crossdata.server.config.ServerConfig
-import com.stratio.crossdata.util.HdfsUtils
 import com.typesafe.config.{Config, ConfigException}
 import org.apache.log4j.Logger
 import org.apache.spark.sql.crossdata.XDContext
@@ -48,7 +50,7 @@ import org.json4s.jackson
 
 import scala.concurrent.Future
 import scala.concurrent.duration._
-import scala.util.{Success, Try}
+import scala.util.{Failure, Success, Try}
 
 
 class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val system: ActorSystem) extends CrossdataSerializer {
@@ -71,45 +73,41 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
       ServerConfig.DefaultHTTPRequestExecutionTimeout
   } get
 
+  private lazy val hdfsConfig = XDContext.xdConfig.getConfig("hdfs")
+
+  private lazy val jarStore =
+    new HdfsJarStore(hdfsConfig, system.dispatchers.lookup("akka.stream.default-blocking-io-dispatcher"))
+
   type SessionDirective[Session] = Directive[Tuple1[Session]]
 
   lazy val route =
-    path("upload" / JavaUUID) { sessionUUID =>
+    path("upload" / JavaUUID / ContentHash.HexPattern.r) { (sessionUUID, hash) =>
+      post { // Jars already stored don't need to be uploaded again
+        onSuccess(jarStore.lookup(hash)) {
+          case Some(hdfsPath) => complete(publishJar(sessionUUID, hdfsPath))
+          case None => complete(StatusCodes.NotFound)
+        }
+      }
+
+    } ~ path("upload" / JavaUUID) { sessionUUID =>
       entity(as[Multipart.FormData]) { formData =>
-        // collect all parts of the multipart as it arrives into a map
-        var path = ""
-        val allPartsF: Future[Map[String, Any]] = formData.parts.mapAsync[(String, Any)](1) {
+        // stream the jar into HDFS as its chunks arrive, other parts are discarded
+        val storedJarsF: Future[Seq[String]] = formData.parts.mapAsync(1) {
 
           case part: BodyPart if part.name == "fileChunk" =>
-            // stream into a file as the chunks of it arrives and return a future file to where it got stored
-            val file = new java.io.File(s"/tmp/${part.filename.getOrElse("uploadFile")}")
-            path = file.getAbsolutePath
             logger.info("Uploading file...")
-            // TODO map is not used
-            part.entity.dataBytes.runWith(FileIO.toFile(file)).map(_ => part.name -> file)
-
-        }.runFold(Map.empty[String, Any])((map, tuple) => map + tuple)
-
-
-        // when processing have finished create a response for the user
-        onSuccess(allPartsF) { allParts =>
-
-          logger.info("Recieved file")
-          complete {
-            val hdfsConfig = XDContext.xdConfig.getConfig("hdfs")
-            val hdfsPath = writeJarToHdfs(hdfsConfig, path)
-            val session = Session(sessionUUID, null)
-            val user = "fileupload"
-            allParts.values.toSeq.foreach{
-              case file: File =>
-                file.delete
-                logger.info("Tmp file deleted")
-              case _ => logger.error("Problem deleting the temporary file.")
-            }
-            //Send a broadcast message to all servers
-            mediator ! Publish(AddJarTopic, CommandEnvelope(AddJARCommand(hdfsPath, hdfsConfig = Option(hdfsConfig)), session))
-            hdfsPath
-          }
+            jarStore.store(part.filename.getOrElse("uploadFile"), part.entity.dataBytes).map(Option(_))
+
+          case part: BodyPart =>
+            part.entity.dataBytes.runWith(Sink.ignore).map(_ => None)
+
+        }.runFold(Seq.empty[String])(_ ++ _)
+
+        onSuccess(storedJarsF) { storedJars =>
+          storedJars.lastOption map { hdfsPath =>
+            logger.info(s"Received file stored at $hdfsPath")
+            complete(publishJar(sessionUUID, hdfsPath))
+          } getOrElse complete(StatusCodes.BadRequest -> "No fileChunk part has been received")
         }
       }
 
@@ -138,7 +136,61 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
                 case qcr: QueryCancelledReply => complete(qcr)
               }
 
-            case _ =>                       // SQL Commands
+            case sqlCommand: SQLCommand if sqlCommand.profile => // Profiled queries: Their profile comes with their result
+
+              onComplete(serverActor ? rq) {
+                case Success(reply @ SQLReply(_, ErrorSQLResult(_, Some(_: JobRejectedException)))) =>
+                  complete(StatusCodes.TooManyRequests -> reply)
+                case Success(reply: SQLReply) =>
+                  complete(reply)
+                case other =>
+                  completeWithErrorResult(s"Internal XD server error: $other")
+              }
+
+            case sqlCommand: SQLCommand =>  // Queries: Their results are streamed as the job produces them
+
+              val (streamedCommand, receiver) = launchStreamedQuery(sqlCommand, rq.session)
+
+              optionalHeaderValuePF { case accept: Accept => accept } { accept =>
+                onComplete(receiver.schemaWithin(requestExecutionTimeout, system.scheduler)) {
+
+                  case Success(schema) if acceptsColumnar(accept) && ColumnarResultSerializer.supports(schema) =>
+
+                    import ColumnarResultSerializer.{BatchSize, ColumnarContentType, serializeRows, serializeSchema}
+                    val frames: Source[ByteString, NotUsed] =
+                      receiver.rows.grouped(BatchSize).map(rows => ByteString(serializeRows(schema, rows))) prepend
+                        Source.single(ByteString(serializeSchema(schema)))
+
+                    complete(HttpResponse(entity = HttpEntity(ColumnarContentType, frames)))
+
+                  case Success(schema) =>
+
+                    implicit val jsonStreamingSupport = EntityStreamingSupport.json()
+                      .withFramingRenderer(
+                        Flow[ByteString].intersperse(ByteString("\n"))
+                      )
+
+                    implicit val _: StructType = schema
+                    import InternalStreamedSuccessfulSQLResult._
+                    val responseStream: Source[InternalStreamedSuccessfulSQLResult, NotUsed] =
+                      receiver.rows.map(row =>
+                        row: InternalStreamedSuccessfulSQLResult
+                      ) prepend Source.single(schema)
+
+                    complete(responseStream)
+
+                  case Failure(rejection: JobRejectedException) =>
+                    complete(StatusCodes.TooManyRequests -> SQLReply(streamedCommand.requestId, ErrorSQLResult(rejection.getMessage)))
+
+                  case Failure(timeout: TimeoutException) =>
+                    complete(StatusCodes.ServiceUnavailable -> SQLReply(streamedCommand.requestId, ErrorSQLResult(timeout.getMessage)))
+
+                  case Failure(error) =>
+                    complete(StatusCodes.InternalServerError -> SQLReply(streamedCommand.requestId, ErrorSQLResult(error.getMessage)))
+                }
+              }
+
+            case _ =>                       // Other commands
 
               onComplete(serverActor ? rq) {
 
@@ -148,7 +200,7 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
                 case Success(reply: ServerReply) =>
                   reply match {
 
-                    case SQLReply(_, SuccessfulSQLResult(resultSet, schema)) =>
+                    case SQLReply(_, SuccessfulSQLResult(resultSet, schema, _)) =>
 
                       implicit val jsonStreamingSupport = EntityStreamingSupport.json()
                         .withFramingRenderer(
@@ -164,6 +216,12 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
 
                       complete(responseStream)
 
+                    case batchReply: BatchSQLReply =>
+                      complete(batchReply)
+
+                    case SQLReply(_, ErrorSQLResult(_, Some(_: JobRejectedException))) =>
+                      complete(StatusCodes.TooManyRequests -> reply)
+
                     case _ => complete(StatusCodes.InternalServerError -> reply)
 
                   }
@@ -201,19 +259,35 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
     rqCtx.request
   }*/
 
-  private def writeJarToHdfs(hdfsConfig: Config, jar: String): String = {
-    val user = hdfsConfig.getString("user")
-    val hdfsMaster = hdfsConfig.getString("namenode")
-    val destPath = s"/user/$user/externalJars/"
-
-    val hdfsUtil = HdfsUtils(hdfsConfig)
+  // Clients have to explicitly ask for the columnar format, JSON is used otherwise
+  private def acceptsColumnar(accept: Option[Accept]): Boolean =
+    accept.exists(_.mediaRanges.exists {
+      case MediaRange.One(mediaType, _) => mediaType.value == ColumnarResultSerializer.ColumnarMediaType.value
+      case _ => false
+    })
+
+  /**
+    * Runs the query in streaming mode on behalf of the HTTP client. A [[StreamedResultActor]] acts as its requester
+    * so the rows flow from the job to the response as the client consumes them.
+    */
+  private def launchStreamedQuery(sqlCommand: SQLCommand, session: Session): (SQLCommand, StreamedRowsReceiver) = {
+    val streamedCommand = sqlCommand.copy(streamResults = true)
+
+    lazy val resultActor: ActorRef = system.actorOf(StreamedResultActor.props(receiver))
+    lazy val receiver: StreamedRowsReceiver = new StreamedRowsReceiver(
+      chunkIndex => resultActor ! AckStreamedChunk(streamedCommand.queryId, chunkIndex),
+      () => serverActor ! CommandEnvelope(CancelQueryExecution(streamedCommand.queryId), Session(session.id, Some(resultActor)))
+    )
+
+    serverActor ! CommandEnvelope(streamedCommand, Session(session.id, Some(resultActor)))
+    (streamedCommand, receiver)
+  }
 
-    //send to HDFS if not exists
-    val jarName = new File(jar).getName
-    if (!hdfsUtil.fileExist(s"$destPath/$jarName")) {
-      hdfsUtil.write(jar, destPath)
-    }
-    s"$hdfsMaster/$destPath/$jarName"
+  // Every server adds the jar to the session
+  private def publishJar(sessionUUID: UUID, hdfsPath: String): String = {
+    val session = Session(sessionUUID, null)
+    mediator ! Publish(AddJarTopic, CommandEnvelope(AddJARCommand(hdfsPath, hdfsConfig = Option(hdfsConfig)), session))
+    hdfsPath
   }
 
 }
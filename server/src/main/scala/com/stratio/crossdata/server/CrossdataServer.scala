@@ -30,7 +30,7 @@ import akka.cluster.pubsub.DistributedPubSub
 import akka.cluster.pubsub.DistributedPubSubMediator.Put
 import com.stratio.crossdata.common.security.KeyStoreUtils
 import com.stratio.crossdata.common.util.akka.keepalive.KeepAliveMaster
-import com.stratio.crossdata.server.actors.{ResourceManagerActor, ServerActor}
+import com.stratio.crossdata.server.actors.{ClusterLoad, ClusterLoadActor, JobAdmissionController, JobExecutionEngine, QueryResultCache, ResourceManagerActor, ServerActor}
 import com.stratio.crossdata.server.config.ServerConfig
 import com.stratio.crossdata.server.discovery.{ServiceDiscoveryConfigHelper => SDCH, ServiceDiscoveryHelper => SDH}
 import com.typesafe.config.{Config, ConfigFactory}
@@ -49,6 +49,7 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
   override lazy val logger = Logger.getLogger(classOf[CrossdataServer])
 
   private var system: Option[ActorSystem] = None
+  private var executionEngine: Option[JobExecutionEngine] = None
   private var bindingFuture: Option[Future[ServerBinding]] = None
 
   override protected lazy val serverConfig = sConfig.config
@@ -125,6 +126,25 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
         }
       }
 
+      // A single execution engine is shared by all the server actors so its limits apply to the whole server
+      val jobExecutionEngine = JobExecutionEngine(sConfig)
+      executionEngine = Some(jobExecutionEngine)
+      logger.info(
+        s"Job execution engine: mode=${jobExecutionEngine.mode} workers=${jobExecutionEngine.workers} " +
+          s"queue-depth=${jobExecutionEngine.queueDepth}"
+      )
+
+      // Results and admission limits are shared by the server actors as well
+      val queryResultCache = QueryResultCache(sConfig)
+      val admissionController = JobAdmissionController(sConfig, jobExecutionEngine)
+
+      // Loads published by the servers of the cluster, to choose where queries run
+      val clusterLoad = ClusterLoad(sConfig)
+      actorSystem.actorOf(
+        ClusterLoadActor.props(xdCluster, clusterLoad, admissionController, sConfig.loadBalancingPublishInterval),
+        "cluster-load"
+      )
+
       val resizer = DefaultResizer(lowerBound = sConfig.minServerActorInstances, upperBound = sConfig.maxServerActorInstances)
       val serverActor = actorSystem.actorOf(
         RoundRobinPool(sConfig.minServerActorInstances, Some(resizer)).props(
@@ -132,7 +152,11 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
             classOf[ServerActor],
             xdCluster,
             sessionProvider,
-            sConfig)),
+            sConfig,
+            jobExecutionEngine,
+            queryResultCache,
+            admissionController,
+            clusterLoad)),
         sConfig.actorName)
 
       val clientMonitor = actorSystem.actorOf(KeepAliveMaster.props(serverActor), "client-monitor")
@@ -175,6 +199,7 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
     */
   def stop(): Unit = {
 
+    executionEngine.foreach(_.shutdown())
     sessionProviderOpt.foreach(_.close())
     sessionProviderOpt.foreach(_.sc.stop())
 
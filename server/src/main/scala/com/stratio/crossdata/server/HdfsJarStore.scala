@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server
+
+import java.io.{File, IOException}
+import java.util.UUID
+
+import akka.stream.Materializer
+import akka.stream.scaladsl.{Source, StreamConverters}
+import akka.util.ByteString
+import com.stratio.crossdata.common.util.ContentHash
+import com.stratio.crossdata.util.HdfsUtils
+import com.typesafe.config.Config
+import org.apache.log4j.Logger
+
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.Failure
+
+/**
+  * Jars uploaded to the servers, stored at HDFS under a directory named after the hash of their content. Thus, a jar
+  * is stored once regardless of the number of times it's uploaded.
+  *
+  * @param blockingContext Execution context for the HDFS operations, which block the calling thread.
+  */
+class HdfsJarStore(hdfsConfig: Config, blockingContext: ExecutionContext) {
+
+  lazy val logger = Logger.getLogger(classOf[HdfsJarStore])
+
+  private val hdfsMaster = hdfsConfig.getString("namenode")
+  private val jarsPath = s"/user/${hdfsConfig.getString("user")}/externalJars"
+  private val uploadsPath = s"$jarsPath/.uploads"
+
+  private lazy val hdfsUtil = HdfsUtils(hdfsConfig)
+
+  /**
+    * @return The HDFS path of the jar with the given content hash if it has already been stored.
+    */
+  def lookup(hash: String): Future[Option[String]] = Future(storedJar(hash))(blockingContext)
+
+  /**
+    * Writes the jar to HDFS as its chunks arrive, hashing them in the meantime.
+    *
+    * @return The HDFS path of the stored jar, which is the previously stored one if its content was already known.
+    */
+  def store(fileName: String, bytes: Source[ByteString, Any])(implicit materializer: Materializer): Future[String] = {
+    val uploadPath = s"$uploadsPath/${UUID.randomUUID()}"
+    val digest = ContentHash.newDigest()
+
+    implicit val ec = blockingContext
+    val uploaded = bytes.map { chunk =>
+      digest.update(chunk.asByteBuffer)
+      chunk
+    }.runWith(StreamConverters.fromOutputStream(() => hdfsUtil.create(uploadPath)))
+
+    uploaded.flatMap(ioResult => Future.fromTry(ioResult.status)) map { _ =>
+      commit(uploadPath, ContentHash.hex(digest), new File(fileName).getName)
+    } andThen { case Failure(_) =>
+      hdfsUtil.delete(uploadPath)
+    }
+  }
+
+  private def commit(uploadPath: String, hash: String, jarName: String): String =
+    storedJar(hash) map { stored =>
+      logger.debug(s"Jar $jarName already stored at $stored")
+      hdfsUtil.delete(uploadPath)
+      stored
+    } getOrElse {
+      hdfsUtil.mkdirs(s"$jarsPath/$hash")
+      if (hdfsUtil.rename(uploadPath, s"$jarsPath/$hash/$jarName")) {
+        s"$hdfsMaster$jarsPath/$hash/$jarName"
+      } else { // The same content may have been stored by a concurrent upload
+        hdfsUtil.delete(uploadPath)
+        storedJar(hash) getOrElse (throw new IOException(s"Unable to store the jar $jarName at HDFS"))
+      }
+    }
+
+  private def storedJar(hash: String): Option[String] = {
+    val jarDir = s"$jarsPath/$hash"
+    if (!hdfsUtil.fileExist(jarDir)) None
+    else hdfsUtil.getFiles(jarDir).headOption.map(status => s"$hdfsMaster$jarDir/${status.getPath.getName}")
+  }
+
+}
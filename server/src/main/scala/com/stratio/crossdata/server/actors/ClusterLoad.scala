@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import akka.actor.Address
+import com.stratio.crossdata.server.config.ServerConfig
+
+import scala.concurrent.duration.FiniteDuration
+
+object ClusterLoad {
+
+  def apply(serverConfig: ServerConfig): ClusterLoad =
+    new ClusterLoad(
+      serverConfig.loadBalancingEnabled,
+      serverConfig.loadBalancingMaxLoadAge,
+      serverConfig.loadBalancingMinJobsDifference
+    )
+
+  // Servers using more heap than this are never chosen to run queries coming from other servers
+  val MaxHeapUsage = 0.9
+
+  /**
+    * @param runningJobs Jobs admitted by the server.
+    * @param queuedJobs Jobs waiting to be admitted.
+    * @param heapUsage Fraction of the maximum heap in use.
+    * @param timestamp Time the load was received at.
+    */
+  case class ServerLoad(address: Address, runningJobs: Int, queuedJobs: Int, heapUsage: Double, timestamp: Long) {
+    def pendingJobs: Int = runningJobs + queuedJobs
+  }
+
+  def localLoad(address: Address, admissionController: JobAdmissionController): ServerLoad = {
+    val runtime = Runtime.getRuntime
+    ServerLoad(
+      address,
+      admissionController.runningCount,
+      admissionController.queuedCount,
+      (runtime.totalMemory - runtime.freeMemory).toDouble / runtime.maxMemory,
+      System.currentTimeMillis()
+    )
+  }
+
+}
+
+/**
+  * Latest load published by each server of the cluster, used to send queries to the least loaded server.
+  *
+  * @param enabled Whether queries can be sent to other servers at all.
+  * @param maxAge Loads older than this are ignored, the server may be gone or unreachable.
+  * @param minJobsDifference A query only goes to another server if it has at least these fewer pending jobs. It
+  *                          prevents queries from bouncing between servers with similar loads.
+  */
+class ClusterLoad(val enabled: Boolean, val maxAge: FiniteDuration, val minJobsDifference: Int) {
+
+  import ClusterLoad._
+
+  private var loads = Map.empty[Address, ServerLoad]
+
+  def update(load: ServerLoad): Unit = synchronized {
+    loads += load.address -> load
+  }
+
+  def remove(address: Address): Unit = synchronized {
+    loads -= address
+  }
+
+  def serverLoads: Seq[ServerLoad] = synchronized(loads.values.toSeq)
+
+  /**
+    * Chooses the server which should run a query received by the local server.
+    *
+    * @return The least loaded server or None if the query should run locally.
+    */
+  def lessLoadedThan(local: ServerLoad): Option[ServerLoad] = if (!enabled) None else synchronized {
+    val candidates = loads.values filter { load =>
+      load.address != local.address &&
+        local.timestamp - load.timestamp <= maxAge.toMillis &&
+        load.heapUsage < MaxHeapUsage
+    }
+
+    val leastLoaded = if (candidates.isEmpty) None else Some(candidates.minBy(load => (load.pendingJobs, load.heapUsage)))
+    val chosen = leastLoaded.filter(_.pendingJobs + minJobsDifference <= local.pendingJobs)
+
+    // Accounts for the query sent until the server publishes its load again, so not every query goes there
+    chosen.foreach(load => loads += load.address -> load.copy(queuedJobs = load.queuedJobs + 1))
+    chosen
+  }
+
+}
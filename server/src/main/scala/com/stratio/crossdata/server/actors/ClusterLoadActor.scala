@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import akka.actor.{Actor, Props}
+import akka.cluster.Cluster
+import akka.cluster.ClusterEvent.MemberRemoved
+import akka.cluster.pubsub.DistributedPubSub
+import akka.cluster.pubsub.DistributedPubSubMediator.{Publish, Subscribe, SubscribeAck}
+import com.stratio.crossdata.server.actors.ClusterLoad.ServerLoad
+import org.apache.log4j.Logger
+
+import scala.concurrent.duration.FiniteDuration
+
+object ClusterLoadActor {
+
+  val LoadTopic: String = "serversLoad"
+
+  def props(
+             cluster: Cluster,
+             clusterLoad: ClusterLoad,
+             admissionController: JobAdmissionController,
+             publishInterval: FiniteDuration
+           ): Props =
+    Props(new ClusterLoadActor(cluster, clusterLoad, admissionController, publishInterval))
+
+  private case object PublishLoad
+
+}
+
+/**
+  * Periodically publishes the load of this server to the rest of the cluster and keeps the loads published by them.
+  */
+class ClusterLoadActor(
+                        cluster: Cluster,
+                        clusterLoad: ClusterLoad,
+                        admissionController: JobAdmissionController,
+                        publishInterval: FiniteDuration
+                      ) extends Actor {
+
+  import ClusterLoadActor._
+
+  lazy val logger = Logger.getLogger(classOf[ClusterLoadActor])
+
+  lazy val mediator = DistributedPubSub(context.system).mediator
+
+  private val publishing = {
+    import context.dispatcher
+    context.system.scheduler.schedule(publishInterval, publishInterval, self, PublishLoad)
+  }
+
+  override def preStart(): Unit = {
+    super.preStart()
+    mediator ! Subscribe(LoadTopic, self)
+    cluster.subscribe(self, classOf[MemberRemoved])
+  }
+
+  override def postStop(): Unit = {
+    publishing.cancel()
+    cluster.unsubscribe(self)
+    super.postStop()
+  }
+
+  override def receive: Receive = {
+
+    case SubscribeAck(Subscribe(LoadTopic, None, `self`)) =>
+      logger.debug(s"Subscribed to $LoadTopic")
+
+    case PublishLoad =>
+      mediator ! Publish(LoadTopic, ClusterLoad.localLoad(cluster.selfAddress, admissionController))
+
+    case load: ServerLoad =>
+      // Servers' clocks may differ so the load age is measured from its reception
+      clusterLoad.update(load.copy(timestamp = System.currentTimeMillis()))
+
+    case MemberRemoved(member, _) =>
+      clusterLoad.remove(member.address)
+  }
+
+}
@@ -15,22 +15,30 @@
  */
 package com.stratio.crossdata.server.actors
 
+import java.io.Closeable
 import java.util.UUID
-import java.util.concurrent.{CancellationException, Executor}
+import java.util.concurrent.{CancellationException, Executor, Semaphore, TimeUnit, TimeoutException}
 
 import akka.actor.{Actor, ActorRef, Props}
 import com.stratio.common.utils.concurrent.Cancellable
-import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
-import com.stratio.crossdata.common.{QueryCancelledReply, SQLCommand, SQLReply}
+import com.stratio.crossdata.common.result.{ErrorSQLResult, QueryProfile, SQLResult, SuccessfulSQLResult}
+import com.stratio.crossdata.common._
 import com.stratio.crossdata.server.actors.JobActor.Commands.{CancelJob, GetJobStatus, StartJob}
-import com.stratio.crossdata.server.actors.JobActor.Events.{JobCompleted, JobFailed}
-import com.stratio.crossdata.server.actors.JobActor.{ProlificExecutor, Task}
+import com.stratio.crossdata.server.actors.JobActor.Events.{CursorOpened, JobCompleted, JobFailed}
+import com.stratio.crossdata.server.actors.JobActor.{CursorIdleTimeout, CursorPageSent, StreamingSettings, Task}
+import com.stratio.crossdata.server.actors.ServerActor.JobId
 import org.apache.log4j.Logger
-import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame, XDSession}
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.crossdata.catalog.XDCatalog
+import org.apache.spark.sql.crossdata.execution.XDQueryExecution
+import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame, XDSQLConf, XDSession}
+import org.json4s.DefaultFormats
+import org.json4s.jackson.Serialization
 
 import scala.concurrent.duration.FiniteDuration
-import scala.concurrent.{ExecutionContext, ExecutionException}
-import scala.util.{Failure, Success}
+import scala.concurrent.{ExecutionContext, ExecutionException, Future}
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
 
 
 object JobActor {
@@ -49,6 +57,8 @@ object JobActor {
   object Events {
     case object JobCompleted extends JobEvent
     case class JobFailed(err: Throwable) extends JobEvent
+    // The first page of a cursor has been sent: The rest are read on demand, so the job no longer takes a slot
+    case object CursorOpened extends JobEvent
   }
 
   object Commands {
@@ -62,18 +72,47 @@ object JobActor {
     case object StartJob
   }
 
-  case class Task(command: SQLCommand, requester: ActorRef, timeout: Option[FiniteDuration])
+  case class Task(command: QueryCommand, requester: ActorRef, timeout: Option[FiniteDuration])
+
+  // Result of the tasks sending a page of a cursor which still has rows left, it isn't sent to the requester
+  private case class CursorPageSent(requestId: UUID) extends ServerReply
+
+  private case class CursorIdleTimeout(pagesSent: Int)
+
+  /**
+    * Incremental result delivery limits.
+    *
+    * @param chunkSize Maximum number of rows per chunk.
+    * @param maxChunksInFlight Number of chunks which can be sent without having been acknowledged by the requester.
+    * @param ackTimeout Maximum time to wait for an acknowledgement before giving up on the requester.
+    * @param cursorIdleTimeout Maximum time to wait for a [[FetchNext]] before closing a cursor.
+    */
+  case class StreamingSettings(
+                                chunkSize: Int,
+                                maxChunksInFlight: Int,
+                                ackTimeout: FiniteDuration,
+                                cursorIdleTimeout: FiniteDuration
+                              )
 
 
   /**
     * The [[JobActor]] state is directly given by the running task which can be: None (Idle st) or a Running, Completed,
     * Cancelled or Failed task.
     * @param runningTask [[Cancellable]] wrapping a [[scala.concurrent.Future]] which acts as a Spark driver.
+    * @param pagesSent Pages of the cursor sent to the requester.
+    * @param pendingFetches [[FetchNext]] requests received while a page of the cursor was being sent.
+    * @param cursorIdle The cursor waits for a [[FetchNext]] without any task running.
     */
-  case class State(runningTask: Option[Cancellable[SQLReply]]) {
+  case class State(
+                    runningTask: Option[Cancellable[ServerReply]],
+                    pagesSent: Int = 0,
+                    pendingFetches: Int = 0,
+                    cursorIdle: Boolean = false
+                  ) {
     import JobStatus._
-    def getStatus: JobStatus = runningTask map { task =>
+    def getStatus: JobStatus = if (cursorIdle) Running else runningTask map { task =>
       task.future.value map {
+        case Success(_: CursorPageSent) => Running
         case Success(_) => Completed
         case Failure(_: CancellationException) => Cancelled
         case Failure(err) => Failed(err)
@@ -81,8 +120,24 @@ object JobActor {
     } getOrElse Idle
   }
 
-  def props(xdSession: XDSession, command: SQLCommand, requester: ActorRef, timeout: Option[FiniteDuration]): Props =
-    Props(new JobActor(xdSession, Task(command, requester, timeout)))
+  def props(
+             xdSession: XDSession,
+             jobId: JobId,
+             command: QueryCommand,
+             requester: ActorRef,
+             timeout: Option[FiniteDuration],
+             executionEngine: JobExecutionEngine,
+             streamingSettings: StreamingSettings,
+             resultCache: QueryResultCache,
+             slowQueryThreshold: Option[FiniteDuration]
+           ): Props =
+    Props(
+      new JobActor(
+        xdSession, jobId, Task(command, requester, timeout), executionEngine, streamingSettings, resultCache, slowQueryThreshold
+      )
+    )
+
+  lazy val slowQueryLogger = Logger.getLogger("com.stratio.crossdata.server.SlowQueries")
 
   /**
     * Executor class which runs each command in a brand new thread each time
@@ -93,7 +148,12 @@ object JobActor {
 
 class JobActor(
                 val xdContext: XDContext,
-                val task: Task
+                val jobId: JobId,
+                val task: Task,
+                executionEngine: JobExecutionEngine,
+                streamingSettings: StreamingSettings,
+                resultCache: QueryResultCache,
+                slowQueryThreshold: Option[FiniteDuration]
               ) extends Actor {
 
 
@@ -104,6 +164,21 @@ class JobActor(
 
   lazy val logger = Logger.getLogger(classOf[ServerActor])
 
+  // Streamed chunks which can still be sent before waiting for the requester acknowledgements
+  private val chunkCredits = new Semaphore(streamingSettings.maxChunksInFlight)
+
+  // Closed cursors end as cancelled jobs but their requesters aren't interested in the cancellation anymore
+  @volatile private var cursorClosed = false
+
+  // Rows of the cursor, set by the task sending its first page
+  @volatile private var cursor: Option[OpenCursor] = None
+
+  // Set before cancelling the running task, whose result is discarded from then on
+  @volatile private var taskCancelled = false
+
+  // Cursors are also closed from the callbacks of the tasks, where the actor context mustn't be used
+  private val cursorClosingContext: ExecutionContext = context.system.dispatcher
+
   override def receive: Receive = receive(State(None))
 
 
@@ -116,26 +191,44 @@ class JobActor(
 
       import context.dispatcher
 
-      val runningTask = launchTask
-      runningTask.future onComplete {
-        case Success(queryRes) =>
-          requester ! queryRes
-          self ! JobCompleted
-        case Failure(_: CancellationException) => // Job cancellation
-          requester ! SQLReply(command.requestId, ErrorSQLResult("Query cancelled"))
-          self ! JobCompleted
-        case Failure(e: ExecutionException) => self ! JobFailed(e.getCause) // Spark exception
-        case Failure(reason) => self ! JobFailed(reason) // Job failure
-      }
+      launchTask(runCommand) match {
+
+        case Success(runningTask) =>
+          watch(runningTask)
 
+          val isRunning = runningTask.future.value.isEmpty
 
-      val isRunning = runningTask.future.value.isEmpty
+          timeout.filter(_ => isRunning).foreach {
+            context.system.scheduler.scheduleOnce(_, self, CancelJob(self, None))
+          }
 
-      timeout.filter(_ => isRunning).foreach {
-        context.system.scheduler.scheduleOnce(_, self, CancelJob)
+          context.become(receive(st.copy(runningTask = Some(runningTask))))
+
+        case Failure(rejection) => // The execution engine is full
+          logger.warn(s"Job rejected under ${context.parent.path}: ${rejection.getMessage}")
+          requester ! SQLReply(command.requestId, ErrorSQLResult(rejection.getMessage, Some(rejection)))
+          context.parent ! JobCompleted
+          context.become(finishedWithReply(Failed(rejection)))
       }
 
-      context.become(receive(st.copy(runningTask = Some(runningTask))))
+    case CancelJob(cancellationRequester, cancelRequestId) if st.getStatus == Idle => // Still waiting to be admitted
+      logger.debug(s"Cancelling ${self.path}'s queued task")
+      cancelRequestId foreach { cancelRqId =>
+        cancellationRequester ! QueryCancelledReply(command.requestId, cancelRqId)
+      }
+      if (!cursorClosed) requester ! SQLReply(command.requestId, ErrorSQLResult("Query cancelled"))
+      context.parent ! JobCompleted
+      context.become(finishedWithReply(Cancelled))
+
+    case CancelJob(cancellationRequester, cancelRequestId) if st.cursorIdle =>
+      logger.debug(s"Cancelling ${self.path}'s idle cursor")
+      closeCursor()
+      cancelRequestId foreach { cancelRqId =>
+        cancellationRequester ! QueryCancelledReply(command.requestId, cancelRqId)
+      }
+      if (!cursorClosed) requester ! SQLReply(command.requestId, ErrorSQLResult("Query cancelled"))
+      context.parent ! JobCompleted
+      context.become(finishedWithReply(Cancelled))
 
     case CancelJob(cancellationRequester, cancelRequestId) =>
       st.runningTask.foreach{ tsk =>
@@ -146,12 +239,37 @@ class JobActor(
             cancellationRequester ! QueryCancelledReply(command.requestId, cancelRqId)
           }
         }
+        val wasRunning = st.getStatus == Running
+        taskCancelled = true
         tsk.cancel()
+        // Cancelling the future doesn't stop the Spark jobs it has launched, their tasks would keep running
+        if (wasRunning) xdContext.sparkContext.cancelJobGroup(jobId.jobGroup)
       }
 
     case GetJobStatus =>
       sender ! st.getStatus
 
+    case AckStreamedChunk(_, _) =>
+      chunkCredits.release()
+
+    case FetchNext(_) if st.cursorIdle =>
+      sendNextPage(st.copy(cursorIdle = false))
+
+    case FetchNext(_) =>
+      context.become(receive(st.copy(pendingFetches = st.pendingFetches + 1)))
+
+    case CursorIdleTimeout(pagesSent) if st.cursorIdle && st.pagesSent == pagesSent =>
+      closeCursor()
+      self ! JobFailed(new TimeoutException(s"Cursor closed after being idle for ${streamingSettings.cursorIdleTimeout}"))
+      context.become(receive(st.copy(cursorIdle = false)))
+
+    case CursorIdleTimeout(_) =>
+
+    case CloseCursor(_) =>
+      logger.debug(s"Closing ${self.path}'s cursor")
+      cursorClosed = true
+      self ! CancelJob(self, None)
+
     // Events
 
     case event @ JobFailed(e) if sender == self =>
@@ -163,19 +281,248 @@ class JobActor(
     case msg @ JobCompleted if sender == self =>
       logger.debug(s"Completed or cancelled ${self.path} task")
       context.parent ! msg
+
+    case CursorPageSent(_) if sender == self =>
+      if (st.pagesSent == 0) context.parent ! CursorOpened
+      val pagesSent = st.pagesSent + 1
+      if (st.pendingFetches > 0) {
+        sendNextPage(st.copy(pagesSent = pagesSent, pendingFetches = st.pendingFetches - 1))
+      } else {
+        context.system.scheduler.scheduleOnce(
+          streamingSettings.cursorIdleTimeout, self, CursorIdleTimeout(pagesSent)
+        )(context.dispatcher)
+        context.become(receive(st.copy(pagesSent = pagesSent, cursorIdle = true)))
+      }
+  }
+
+  // Jobs cancelled while queued or idle, or rejected, have already replied: Neither a late StartJob from the
+  // admission controller nor a later cancellation must run them or reply again
+  private def finishedWithReply(status: JobActor.JobStatus): Receive = {
+    case GetJobStatus => sender ! status
+    case _ =>
   }
 
-  private def launchTask: Cancellable[SQLReply] = {
+  private def launchTask(body: => ServerReply): Try[Cancellable[ServerReply]] = executionEngine.submit(inJobGroup(body))
 
-    implicit val _: ExecutionContext = ExecutionContext.fromExecutor(new ProlificExecutor)
+  private def runCommand: ServerReply = command match {
+    case sqlCommand: SQLCommand => runQuery(sqlCommand)
+    case batchCommand: BatchSQLCommand => runBatch(batchCommand)
+  }
 
-    Cancellable {
-      val df = xdContext.sql(command.sql)
-      val rows = if (command.flattenResults)
-        df.asInstanceOf[XDDataFrame].flattenedCollect() //TODO: Replace this cast by an implicit conversion
-      else df.collect()
+  private def watch(runningTask: Cancellable[ServerReply]): Unit = {
+    import context.dispatcher
+    runningTask.future onComplete {
+      case Success(page: CursorPageSent) =>
+        self ! page
+      case Success(queryRes) =>
+        requester ! queryRes
+        self ! JobCompleted
+      case Failure(_: CancellationException) => // Job cancellation
+        closeCursor()
+        if (!cursorClosed) requester ! SQLReply(command.requestId, ErrorSQLResult("Query cancelled"))
+        self ! JobCompleted
+      case Failure(e: ExecutionException) => self ! JobFailed(e.getCause) // Spark exception
+      case Failure(reason) => self ! JobFailed(reason) // Job failure
+    }
+  }
 
-      SQLReply(command.requestId, SuccessfulSQLResult(rows, df.schema))
+  // Each page of a cursor is sent by a task of its own, so idle cursors don't hold any worker
+  private def sendNextPage(st: State): Unit = cursor foreach { openCursor =>
+    launchTask(openCursor.sendNextPage()) match {
+      case Success(pageTask) =>
+        watch(pageTask)
+        context.become(receive(st.copy(runningTask = Some(pageTask))))
+
+      case Failure(rejection) => // The execution engine is full
+        logger.warn(s"Cursor page rejected under ${context.parent.path}: ${rejection.getMessage}")
+        closeCursor()
+        requester ! SQLReply(command.requestId, ErrorSQLResult(rejection.getMessage, Some(rejection)))
+        context.parent ! JobCompleted
+        context.become(finishedWithReply(Failed(rejection)))
+    }
+  }
+
+  // Closed apart from the actor, since closing waits for any page being read
+  private def closeCursor(): Unit = cursor foreach { openCursor =>
+    Future(openCursor.close())(cursorClosingContext)
+  }
+
+  private def runQuery(sqlCommand: SQLCommand): ServerReply = {
+    val start = System.nanoTime()
+    // Read before planning the query so any concurrent catalog change makes its result stale
+    val catalogEpoch = XDCatalog.epoch
+    val df = sqlCommand.parameters.map { parameters =>
+      xdContext.executePrepared(sqlCommand.sql, parameters.map(_.value))
+    }.getOrElse(xdContext.sql(sqlCommand.sql)).asInstanceOf[XDDataFrame] //TODO: Replace this cast by an implicit conversion
+
+    val cacheKey = if (isResultCacheRequested)
+      resultCache.key(df.queryExecution, catalogEpoch, sqlCommand.flattenResults)
+    else None
+
+    val cachedRows = cacheKey.flatMap(resultCache.lookup)
+
+    if (sqlCommand.streamResults || isCursor) {
+      // Flattened results are streamed too: the flattening is part of the plan being executed
+      val streamedDf = if (sqlCommand.flattenResults) df.flattened() else df
+      val (rows, closeRows) = cachedRows match {
+        case Some(cached) => (cached.iterator, () => ())
+        case None =>
+          val computedRows = streamedDf.toLocalIterator()
+          // Native results being streamed keep the datasource resources until they are closed
+          val closeComputedRows = () => computedRows match {
+            case closeable: Closeable => closeable.close()
+            case _ =>
+          }
+          (cacheKey.map(resultCache.storing(_, computedRows)).getOrElse(computedRows), closeComputedRows)
+      }
+
+      requester ! StreamedSchemaReply(command.requestId, streamedDf.schema)
+      val reply = sqlCommand.fetchSize match {
+        case Some(pageSize) =>
+          val openCursor = new OpenCursor(rows.grouped(pageSize), closeRows)
+          cursor = Some(openCursor)
+          if (taskCancelled) openCursor.close() // Nobody would close it otherwise
+          openCursor.sendNextPage()
+        case None =>
+          try streamResult(rows) finally closeRows()
+      }
+      queryProfile(streamedDf, start).foreach(logIfSlow(sqlCommand, _))
+      reply
+    } else {
+      val rows = cachedRows getOrElse {
+        val computedRows = if (sqlCommand.flattenResults) df.flattenedCollect() else df.collect()
+        cacheKey.foreach(resultCache.store(_, computedRows))
+        computedRows
+      }
+      val profile = queryProfile(df, start)
+      profile.foreach(logIfSlow(sqlCommand, _))
+      SQLReply(sqlCommand.requestId, SuccessfulSQLResult(rows, df.schema, profile.filter(_ => sqlCommand.profile)))
+    }
+  }
+
+  private def queryProfile(df: XDDataFrame, start: Long): Option[QueryProfile] = df.queryExecution match {
+    case xdQueryExecution: XDQueryExecution =>
+      Some(xdQueryExecution.profiler.profile(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)))
+    case _ => None
+  }
+
+  // Slow queries are logged as JSON objects so they can be easily processed
+  private def logIfSlow(sqlCommand: SQLCommand, profile: QueryProfile): Unit =
+    slowQueryThreshold.filter(profile.totalMicros >= _.toMicros) foreach { _ =>
+      val slowQuery = Map(
+        "queryId" -> sqlCommand.queryId.toString,
+        "session" -> jobId.sessionId.toString,
+        "user" -> xdContext.conf.getConfString(XDSQLConf.UserIdPropertyKey, ""),
+        "sql" -> sqlCommand.sql,
+        "profile" -> profile
+      )
+      JobActor.slowQueryLogger.warn(Serialization.write(slowQuery)(DefaultFormats))
+    }
+
+  /**
+    * Runs the sentences of a batch one after another within this job. Failures are reported as the result of the
+    * failed sentence instead of failing the whole job.
+    */
+  private def runBatch(batchCommand: BatchSQLCommand): ServerReply = {
+    val results = batchCommand.statements.foldLeft(List.empty[SQLResult]) {
+      case (previous, _) if batchCommand.stopOnError && previous.exists(_.hasError) => previous
+      case (previous, statement) =>
+        // A cancelled batch doesn't run its remaining sentences, they may depend on the cancelled ones
+        if (taskCancelled || Thread.currentThread().isInterrupted)
+          throw new CancellationException(s"Batch cancelled before running: $statement")
+        val result = try {
+          val df = xdContext.sql(statement).asInstanceOf[XDDataFrame]
+          val rows = if (batchCommand.flattenResults) df.flattenedCollect() else df.collect()
+          SuccessfulSQLResult(rows, df.schema)
+        } catch {
+          case _: InterruptedException =>
+            throw new CancellationException(s"Batch interrupted while running: $statement")
+          case NonFatal(e) if taskCancelled =>
+            // Spark jobs of cancelled batches fail, that's the cancellation rather than a sentence error
+            throw new CancellationException(s"Batch cancelled while running: $statement")
+          case NonFatal(e) =>
+            logger.debug(s"Batch sentence failed at ${self.path}: $statement", e)
+            ErrorSQLResult(e.getMessage, Some(new Exception(e.getMessage)))
+        }
+        result :: previous
+    }
+    BatchSQLReply(batchCommand.requestId, results.reverse)
+  }
+
+  /**
+    * Runs `body` tagging the Spark jobs it launches with the job group of this query. Job groups are thread local
+    * properties so they are cleared before the worker thread is reused by other queries.
+    */
+  private def inJobGroup[T](body: => T): T = {
+    val sparkContext = xdContext.sparkContext
+    sparkContext.setJobGroup(jobId.jobGroup, s"Crossdata query ${command.queryId}: ${command.description}", interruptOnCancel = true)
+    try body finally sparkContext.clearJobGroup()
+  }
+
+  private def isResultCacheRequested: Boolean =
+    (command match {
+      case sqlCommand: SQLCommand => sqlCommand.cacheResults
+      case _ => false
+    }) ||
+      Try(xdContext.conf.getConfString(XDSQLConf.ResultCacheEnabledPropertyKey, "false").toBoolean).getOrElse(false)
+
+  private def isCursor: Boolean = fetchSize.isDefined
+
+  private def fetchSize: Option[Int] = command match {
+    case sqlCommand: SQLCommand => sqlCommand.fetchSize
+    case _ => None
+  }
+
+  /**
+    * Sends the result as a sequence of bounded chunks, blocking the job whenever the requester falls behind
+    * (`maxChunksInFlight` chunks pending to be acknowledged).
+    */
+  private def streamResult(rows: Iterator[Row]): ServerReply = {
+    import streamingSettings._
+
+    rows.grouped(chunkSize).zipWithIndex foreach { case (chunk, chunkIndex) =>
+      if (!chunkCredits.tryAcquire(ackTimeout.toMillis, TimeUnit.MILLISECONDS))
+        throw new TimeoutException(s"Streamed result chunk not acknowledged after $ackTimeout")
+      requester ! StreamedRowsChunkReply(command.requestId, chunkIndex, chunk.toArray)
+    }
+
+    StreamCompletedReply(command.requestId)
+  }
+
+  /**
+    * Rows of a cursor, sent a page at a time as they are requested. Pages are read and the rows are closed one at a
+    * time, whichever thread does it.
+    */
+  private class OpenCursor(pages: Iterator[Seq[Row]], closeRows: () => Unit) {
+
+    private var nextChunk = 0
+    private var closed = false
+
+    // The rows are closed as soon as they are exhausted or fail
+    def sendNextPage(): ServerReply = synchronized {
+      try {
+        if (!closed && pages.hasNext) {
+          requester ! StreamedRowsChunkReply(command.requestId, nextChunk, pages.next().toArray)
+          nextChunk += 1
+        }
+        if (!closed && pages.hasNext) {
+          CursorPageSent(command.requestId)
+        } else {
+          close()
+          StreamCompletedReply(command.requestId)
+        }
+      } catch {
+        case error: Throwable =>
+          close()
+          throw error
+      }
+    }
+
+    def close(): Unit = synchronized {
+      if (!closed) {
+        closed = true
+        closeRows()
+      }
     }
   }
 
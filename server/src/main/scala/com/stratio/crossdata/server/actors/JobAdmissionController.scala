@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.util.UUID
+
+import akka.actor.ActorRef
+import com.stratio.crossdata.common.JobPriority
+import com.stratio.crossdata.common.JobPriority.JobPriority
+import com.stratio.crossdata.server.actors.JobActor.Commands.StartJob
+import com.stratio.crossdata.server.actors.JobExecutionEngine.JobRejectedException
+import com.stratio.crossdata.server.actors.ServerActor.JobId
+import com.stratio.crossdata.server.config.ServerConfig
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
+
+import scala.annotation.tailrec
+import scala.collection.mutable
+import scala.util.{Failure, Success, Try}
+
+object JobAdmissionController {
+
+  def apply(serverConfig: ServerConfig, executionEngine: JobExecutionEngine): JobAdmissionController = {
+    val unbounded = executionEngine.mode == JobExecutionEngine.Mode.Unbounded
+    new JobAdmissionController(
+      if (unbounded) Int.MaxValue else executionEngine.workers,
+      if (unbounded) Int.MaxValue else executionEngine.queueDepth,
+      serverConfig.maxRunningJobsPerSession,
+      serverConfig.maxRunningJobsPerUser
+    )
+  }
+
+  case class SessionJobs(running: Int, queued: Int)
+
+}
+
+/**
+  * Decides when each job is started: Jobs wait until they fit within the server, session and user limits.
+  * Among the waiting jobs, interactive ones go first and sessions are served in turns, so a session submitting
+  * lots of jobs can't starve the rest of them. A session or user over its limit can only keep one job waiting, so
+  * it can't fill the queue shared by the whole server either.
+  *
+  * @param maxRunningJobs Jobs started at the same time within the server.
+  * @param maxQueuedJobs Jobs waiting to be started within the server; new jobs are rejected when exceeded.
+  * @param maxRunningJobsPerSession Limit of started jobs per session (non-positive values disable it).
+  * @param maxRunningJobsPerUser Limit of started jobs per user (non-positive values disable it).
+  */
+class JobAdmissionController(
+                              val maxRunningJobs: Int,
+                              val maxQueuedJobs: Int,
+                              val maxRunningJobsPerSession: Int,
+                              val maxRunningJobsPerUser: Int
+                            ) {
+
+  import JobAdmissionController._
+
+  private case class Job(id: JobId, userId: Option[String], priority: JobPriority, jobActor: ActorRef)
+
+  private val runningJobs = mutable.Map.empty[JobId, Job]
+
+  // Waiting jobs by priority class, with a queue per session. Sessions are moved to the end after being served
+  private val queuedJobs: Map[JobPriority, mutable.LinkedHashMap[UUID, mutable.Queue[Job]]] =
+    JobPriority.values.toSeq.map(_ -> mutable.LinkedHashMap.empty[UUID, mutable.Queue[Job]]).toMap
+
+  /**
+    * Queues a job which will be sent a [[StartJob]] as soon as it is its turn.
+    *
+    * @return A failure wrapping a [[JobRejectedException]] if the job can't be queued.
+    */
+  def submit(jobId: JobId, userId: Option[String], priority: JobPriority, jobActor: ActorRef): Try[Unit] =
+    synchronized {
+      val job = Job(jobId, userId, priority, jobActor)
+      if (queuedCount >= maxQueuedJobs && !(runningJobs.size < maxRunningJobs && fits(job))) {
+        XDMetricsSource.jobsRejected.mark()
+        Failure(new JobRejectedException(
+          s"Server too busy: $maxRunningJobs jobs running and $maxQueuedJobs jobs waiting. Try again later"
+        ))
+      } else if (!fits(job) && queuedJobsOf(job).nonEmpty) {
+        XDMetricsSource.jobsRejected.mark()
+        Failure(new JobRejectedException(
+          "Too many jobs: the session or user is at its limit of running jobs and has jobs waiting. Try again later"
+        ))
+      } else {
+        queuedJobs(priority).getOrElseUpdate(jobId.sessionId, mutable.Queue.empty) += job
+        XDMetricsSource.jobsPending.inc()
+        dispatch()
+        Success(())
+      }
+    }
+
+  /**
+    * Releases the resources held by a job, either because it has ended or because it won't ever be started.
+    */
+  def finished(jobId: JobId): Unit = synchronized {
+    if (runningJobs.remove(jobId).isEmpty) queuedJobs.values foreach { sessionQueues =>
+      sessionQueues.get(jobId.sessionId) foreach { queue =>
+        queue.dequeueFirst(_.id == jobId).foreach(_ => XDMetricsSource.jobsPending.dec())
+        if (queue.isEmpty) sessionQueues.remove(jobId.sessionId)
+      }
+    }
+    dispatch()
+  }
+
+  def sessionJobs(sessionId: UUID): SessionJobs = synchronized {
+    SessionJobs(
+      runningJobs.keys.count(_.sessionId == sessionId),
+      queuedJobs.values.flatMap(_.get(sessionId)).map(_.size).sum
+    )
+  }
+
+  def runningCount: Int = synchronized(runningJobs.size)
+
+  def queuedCount: Int = synchronized(queuedJobs.values.flatMap(_.values).map(_.size).sum)
+
+  private def fits(job: Job): Boolean = {
+    def belowLimit(limit: Int, running: Job => Boolean): Boolean =
+      limit <= 0 || runningJobs.values.count(running) < limit
+
+    belowLimit(maxRunningJobsPerSession, _.id.sessionId == job.id.sessionId) &&
+      job.userId.forall(user => belowLimit(maxRunningJobsPerUser, _.userId.contains(user)))
+  }
+
+  // Waiting jobs of the session or user of a job which is over the session or user limit
+  private def queuedJobsOf(job: Job): Iterable[Job] = {
+    def overLimit(limit: Int, running: Job => Boolean): Boolean =
+      limit > 0 && runningJobs.values.count(running) >= limit
+
+    val sameSession = (other: Job) => other.id.sessionId == job.id.sessionId
+    val sameUser = (other: Job) => job.userId.isDefined && other.userId == job.userId
+    val queued = queuedJobs.values.flatMap(_.values).flatten
+
+    queued.filter { other =>
+      (overLimit(maxRunningJobsPerSession, sameSession) && sameSession(other)) ||
+        (overLimit(maxRunningJobsPerUser, sameUser) && sameUser(other))
+    }
+  }
+
+  private def nextJob: Option[(JobPriority, UUID)] =
+    JobPriority.values.toSeq.view.flatMap { priority =>
+      queuedJobs(priority) collectFirst {
+        case (sessionId, queue) if fits(queue.head) => priority -> sessionId
+      }
+    }.headOption
+
+  @tailrec
+  private def dispatch(): Unit = nextJob match {
+    case Some((priority, sessionId)) if runningJobs.size < maxRunningJobs =>
+      val sessionQueues = queuedJobs(priority)
+      val queue = sessionQueues.remove(sessionId).get
+      val job = queue.dequeue()
+      if (queue.nonEmpty) sessionQueues.put(sessionId, queue)
+
+      XDMetricsSource.jobsPending.dec()
+      runningJobs += job.id -> job
+      job.jobActor ! StartJob
+      dispatch()
+
+    case _ =>
+  }
+
+}
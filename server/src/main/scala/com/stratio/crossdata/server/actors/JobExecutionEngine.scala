@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
+import java.util.concurrent._
+
+import com.stratio.common.utils.concurrent.Cancellable
+import com.stratio.crossdata.server.actors.JobActor.ProlificExecutor
+import com.stratio.crossdata.server.config.ServerConfig
+import org.apache.log4j.Logger
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
+
+import scala.concurrent.ExecutionContext
+import scala.util.{Failure, Try}
+
+object JobExecutionEngine {
+
+  object Mode extends Enumeration {
+    type Mode = Value
+    val Bounded = Value("bounded")
+    val Virtual = Value("virtual")
+    val Unbounded = Value("unbounded")
+  }
+
+  import Mode._
+
+  class JobRejectedException(message: String) extends RuntimeException(message)
+
+  def apply(serverConfig: ServerConfig): JobExecutionEngine =
+    new JobExecutionEngine(
+      serverConfig.jobExecutorMode,
+      serverConfig.jobExecutorWorkers,
+      serverConfig.jobExecutorQueueDepth
+    )
+
+  private class NamedThreadFactory(prefix: String) extends ThreadFactory {
+    private val threadCount = new AtomicInteger(0)
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, s"$prefix-${threadCount.incrementAndGet()}")
+      thread.setDaemon(true)
+      thread
+    }
+  }
+
+  /**
+    * Java 21+ virtual threads executor, looked up by reflection so the server keeps running on older JVMs.
+    */
+  private def virtualThreadsExecutor(): Option[ExecutorService] = Try {
+    classOf[Executors].getMethod("newVirtualThreadPerTaskExecutor").invoke(null).asInstanceOf[ExecutorService]
+  }.toOption
+
+}
+
+/**
+  * Runs the Spark driver side of each job. At most `workers` jobs are run at the same time and at most
+  * `queueDepth` admitted jobs wait for a free worker; any job beyond that is rejected right away.
+  *
+  * @param mode [[JobExecutionEngine.Mode.Bounded]] uses a fixed thread pool, [[JobExecutionEngine.Mode.Virtual]]
+  *             a virtual thread per job (falling back to the bounded pool when the JVM doesn't support them) and
+  *             [[JobExecutionEngine.Mode.Unbounded]] keeps the legacy behaviour: a brand new thread per job without limits.
+  */
+class JobExecutionEngine(val mode: JobExecutionEngine.Mode.Mode, val workers: Int, val queueDepth: Int) {
+
+  import JobExecutionEngine._
+  import JobExecutionEngine.Mode._
+
+  require(workers > 0, "The number of job workers must be positive")
+  require(queueDepth >= 0, "The job queue depth can't be negative")
+
+  private lazy val logger = Logger.getLogger(classOf[JobExecutionEngine])
+
+  private val executor: Executor = mode match {
+    case Unbounded =>
+      new ProlificExecutor
+    case Virtual =>
+      virtualThreadsExecutor() getOrElse {
+        logger.warn("Virtual threads are not supported by this JVM. Using a bounded thread pool")
+        boundedThreadPool
+      }
+    case Bounded =>
+      boundedThreadPool
+  }
+
+  private def boundedThreadPool: ExecutorService = {
+    val pool = new ThreadPoolExecutor(
+      workers, workers, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue[Runnable](), new NamedThreadFactory("crossdata-job")
+    )
+    pool.allowCoreThreadTimeOut(true)
+    pool
+  }
+
+  private val (admissionPermits, runningPermits) =
+    if (mode == Unbounded) (Int.MaxValue, Int.MaxValue) else (workers + queueDepth, workers)
+
+  // Jobs either running or waiting for a worker
+  private val admission = new Semaphore(admissionPermits)
+  // Jobs running
+  private val running = new Semaphore(runningPermits)
+
+  private val queued = new AtomicInteger(0)
+  private val active = new AtomicInteger(0)
+
+  def queuedJobs: Int = queued.get()
+
+  def activeJobs: Int = active.get()
+
+  /**
+    * Launches a job if there is room for it either at the workers or at the waiting queue.
+    *
+    * @return The running (or waiting) job or a failure wrapping a [[JobRejectedException]] when the engine is full.
+    */
+  def submit[T](job: => T): Try[Cancellable[T]] =
+    if (!admission.tryAcquire()) {
+      XDMetricsSource.jobsRejected.mark()
+      Failure(
+        new JobRejectedException(s"Server too busy: $workers jobs running and $queueDepth jobs waiting. Try again later")
+      )
+    } else {
+      queued.incrementAndGet()
+      XDMetricsSource.jobsQueued.inc()
+      Try(Cancellable(job)(new AdmittedJobExecutionContext(System.nanoTime()))) recoverWith {
+        case error =>
+          dequeue()
+          admission.release()
+          Failure(error)
+      }
+    }
+
+  def shutdown(): Unit = executor match {
+    case executorService: ExecutorService => executorService.shutdownNow()
+    case _ =>
+  }
+
+  private def dequeue(): Unit = {
+    queued.decrementAndGet()
+    XDMetricsSource.jobsQueued.dec()
+  }
+
+  /**
+    * Execution context for a single admitted job: The first runnable it receives is the job itself, which holds
+    * its admission permit until it finishes.
+    */
+  private class AdmittedJobExecutionContext(enqueuedAt: Long) extends ExecutionContext {
+
+    private val jobLaunched = new AtomicBoolean(false)
+
+    override def execute(runnable: Runnable): Unit =
+      if (jobLaunched.compareAndSet(false, true)) executor.execute(new Runnable {
+        override def run(): Unit = {
+          dequeue()
+          try {
+            running.acquire()
+            try {
+              XDMetricsSource.jobsWaitTime.update(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS)
+              active.incrementAndGet()
+              XDMetricsSource.jobsActive.inc()
+              runnable.run()
+            } finally {
+              active.decrementAndGet()
+              XDMetricsSource.jobsActive.dec()
+              running.release()
+            }
+          } catch {
+            case _: InterruptedException => // The job was cancelled while waiting for a worker
+          } finally {
+            admission.release()
+          }
+        }
+      })
+      else executor.execute(runnable)
+
+    override def reportFailure(cause: Throwable): Unit = logger.error(cause.getMessage, cause)
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.util.{LinkedHashMap => JLinkedHashMap, Map => JMap}
+
+import com.stratio.crossdata.server.config.ServerConfig
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.plans.logical.{Command, InsertIntoTable, LogicalPlan}
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
+import org.apache.spark.sql.execution.QueryExecution
+import org.apache.spark.sql.execution.datasources.CreateTableUsingAsSelect
+
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.duration.FiniteDuration
+
+object QueryResultCache {
+
+  def apply(serverConfig: ServerConfig): QueryResultCache =
+    new QueryResultCache(
+      serverConfig.resultCacheMaxEntries,
+      serverConfig.resultCacheMaxRows,
+      serverConfig.resultCacheTTL
+    )
+
+  /**
+    * @param id Textual representation of the plan (without expression ids), catalog epoch and result format.
+    * @param plan Optimized plan, used to check that a cached result comes from an equivalent plan.
+    */
+  class Key private[actors](val id: String, val plan: LogicalPlan)
+
+  private case class Entry(plan: LogicalPlan, rows: Array[Row], expiresAt: Long)
+
+  private val ExpressionIdPattern = "#\\d+".r
+
+}
+
+/**
+  * Results of the latest queries, keyed by their optimized plans and the catalog epoch they were run against:
+  * Any catalog change or command execution moves to a new epoch so results computed before aren't used anymore.
+  *
+  * @param maxEntries Number of results kept, the least recently used one is evicted when exceeded.
+  * @param maxRows Results with more rows than this limit aren't cached.
+  * @param ttl Time a result is valid for. Changes on the data sources not done through this server are only
+  *            noticed once it expires.
+  */
+class QueryResultCache(val maxEntries: Int, val maxRows: Int, val ttl: FiniteDuration) {
+
+  import QueryResultCache._
+
+  private val entries = new JLinkedHashMap[String, Entry](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: JMap.Entry[String, Entry]): Boolean = {
+      val evict = size() > maxEntries
+      if (evict) XDMetricsSource.resultCacheEvictions.inc()
+      evict
+    }
+  }
+
+  def isEnabled: Boolean = maxEntries > 0 && maxRows > 0
+
+  /**
+    * @return The cache key of the query or None if its results can't be cached (commands and non-deterministic
+    *         queries).
+    */
+  def key(queryExecution: QueryExecution, catalogEpoch: Long, flattened: Boolean): Option[Key] =
+    queryExecution.logical match {
+      case _: Command | _: InsertIntoTable | _: CreateTableUsingAsSelect => None
+      case _ => key(queryExecution.optimizedPlan, catalogEpoch, flattened)
+    }
+
+  def key(optimizedPlan: LogicalPlan, catalogEpoch: Long, flattened: Boolean): Option[Key] = {
+    val deterministic = optimizedPlan.find(_.expressions.exists(!_.deterministic)).isEmpty
+    if (!isEnabled || !deterministic) None
+    else {
+      val planId = ExpressionIdPattern.replaceAllIn(optimizedPlan.treeString, "")
+      Some(new Key(s"$catalogEpoch|$flattened|$planId", optimizedPlan))
+    }
+  }
+
+  def lookup(key: Key): Option[Array[Row]] = synchronized {
+    val result = Option(entries.get(key.id)) flatMap {
+      case Entry(_, _, expiresAt) if expiresAt < System.currentTimeMillis() =>
+        entries.remove(key.id)
+        None
+      case Entry(plan, rows, _) =>
+        Some(rows).filter(_ => plan.sameResult(key.plan))
+    }
+    (if (result.isDefined) XDMetricsSource.resultCacheHits else XDMetricsSource.resultCacheMisses).inc()
+    result
+  }
+
+  def store(key: Key, rows: Array[Row]): Unit =
+    if (rows.length <= maxRows) synchronized {
+      entries.put(key.id, Entry(key.plan, rows, System.currentTimeMillis() + ttl.toMillis))
+    }
+
+  /**
+    * Stores the rows as they are consumed, provided that the whole result is consumed without exceeding `maxRows`.
+    */
+  def storing(key: Key, rows: Iterator[Row]): Iterator[Row] = new Iterator[Row] {
+
+    private var buffer: Option[ArrayBuffer[Row]] = Some(ArrayBuffer.empty)
+
+    override def hasNext: Boolean = {
+      val more = rows.hasNext
+      if (!more) {
+        buffer.foreach(buffered => store(key, buffered.toArray))
+        buffer = None
+      }
+      more
+    }
+
+    override def next(): Row = {
+      val row = rows.next()
+      buffer = buffer.filter(_.length < maxRows).map(_ += row)
+      row
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.util.UUID
+
+import akka.actor.{ActorRef, ActorSelection}
+import akka.pattern.ask
+import akka.util.Timeout
+import com.stratio.crossdata.common.CommandEnvelope
+
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration.FiniteDuration
+import scala.util.Success
+
+/**
+  * Hands queries over to a less loaded server so that each one runs at most once:
+  *  1. The origin sends a [[RoutingHandoff.RoutedCommand]] and the peer reserves it, replying a
+  *     [[RoutingHandoff.RoutedCommandAck]].
+  *  1. If the acknowledgement arrives within the timeout, the origin sends a [[RoutingHandoff.ConfirmRoutedCommand]]
+  *     and the peer runs the reserved query. Otherwise the origin runs the query and never confirms it.
+  *  1. Reservations which aren't confirmed expire. A confirmation arriving after its reservation has expired is
+  *     answered with an [[RoutingHandoff.UnroutedCommand]], so the query runs at its origin.
+  */
+object RoutingHandoff {
+
+  // Query sent by a more loaded server, it has to be reserved and run once confirmed
+  case class RoutedCommand(scommand: CommandEnvelope, requester: ActorRef)
+
+  case class RoutedCommandAck(requestId: UUID)
+
+  case class ConfirmRoutedCommand(scommand: CommandEnvelope, requester: ActorRef)
+
+  case class ReservationExpired(requestId: UUID)
+
+  // Routed query which won't run at the chosen server, so it runs at its sender
+  case class UnroutedCommand(scommand: CommandEnvelope, requester: ActorRef)
+
+  // Reservations outlive the acknowledgement timeout so that confirmations of timely acknowledgements find them
+  def reservationTimeout(ackTimeout: FiniteDuration): FiniteDuration = ackTimeout * 2
+
+  /**
+    * Origin side of the handoff: the query is confirmed to the peer or sent back to the origin as an
+    * [[UnroutedCommand]], never both.
+    */
+  def route(scommand: CommandEnvelope, requester: ActorRef, peer: ActorSelection, origin: ActorRef, ackTimeout: FiniteDuration)
+           (implicit executionContext: ExecutionContext): Unit = {
+    implicit val timeout = Timeout(ackTimeout)
+    peer ? RoutedCommand(scommand, requester) onComplete {
+      case Success(RoutedCommandAck(_)) =>
+        peer.tell(ConfirmRoutedCommand(scommand, requester), origin)
+      case _ =>
+        origin ! UnroutedCommand(scommand, requester)
+    }
+  }
+
+}
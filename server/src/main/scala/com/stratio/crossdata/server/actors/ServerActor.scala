@@ -26,10 +26,12 @@ import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
 import com.stratio.crossdata.common.security.Session
 import com.stratio.crossdata.common.util.akka.keepalive.KeepAliveMaster.{DoCheck, HeartbeatLost}
 import com.stratio.crossdata.common.{CommandEnvelope, SQLCommand, _}
-import com.stratio.crossdata.server.actors.JobActor.Commands.{CancelJob, StartJob}
-import com.stratio.crossdata.server.actors.JobActor.Events.{JobCompleted, JobFailed}
+import com.stratio.crossdata.server.actors.JobActor.Commands.CancelJob
+import com.stratio.crossdata.server.actors.JobActor.Events.{CursorOpened, JobCompleted, JobFailed}
 import com.stratio.crossdata.server.config.ServerConfig
 import org.apache.log4j.Logger
+import org.apache.spark.sql.crossdata.XDSQLConf
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
 import org.apache.spark.sql.crossdata.session.{HazelcastSessionProvider, XDSessionProvider}
 import org.apache.spark.sql.types.StructType
 
@@ -41,10 +43,25 @@ import scala.util.{Failure, Success}
 object ServerActor {
   val ManagementTopic: String = "jobsManagement"
 
-  def props(cluster: Cluster, sessionProvider: XDSessionProvider, serverConfig: ServerConfig): Props =
-    Props(new ServerActor(cluster, sessionProvider, serverConfig))
-
-  case class JobId(sessionId: UUID, queryId: UUID)
+  def props(
+             cluster: Cluster,
+             sessionProvider: XDSessionProvider,
+             serverConfig: ServerConfig,
+             executionEngine: JobExecutionEngine,
+             resultCache: QueryResultCache,
+             admissionController: JobAdmissionController,
+             clusterLoad: ClusterLoad
+           ): Props =
+    Props(
+      new ServerActor(
+        cluster, sessionProvider, serverConfig, executionEngine, resultCache, admissionController, clusterLoad
+      )
+    )
+
+  case class JobId(sessionId: UUID, queryId: UUID) {
+    // Spark job group of every Spark job run by the query, used to cancel them and to find them at the Spark UI
+    def jobGroup: String = s"crossdata-$sessionId-$queryId"
+  }
 
   private case class ManagementEnvelope(command: ControlCommand, source: ActorRef)
 
@@ -56,14 +73,23 @@ object ServerActor {
 
   }
 
-  private case class State(jobsById: Map[JobId, ActorRef])
+  // Routed queries reserved by this server until their origin confirms them, see [[RoutingHandoff]]
+  private case class State(jobsById: Map[JobId, ActorRef], routedCommands: Map[UUID, RoutedCommand] = Map.empty)
 
 }
 
 // TODO it should only accept messages from known sessions
-class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverConfig: ServerConfig)
-  extends Actor {
-
+class ServerActor(
+                   cluster: Cluster,
+                   sessionProvider: XDSessionProvider,
+                   serverConfig: ServerConfig,
+                   executionEngine: JobExecutionEngine,
+                   resultCache: QueryResultCache,
+                   admissionController: JobAdmissionController,
+                   clusterLoad: ClusterLoad
+                 ) extends Actor {
+
+  import RoutingHandoff._
   import ServerActor.ManagementMessages._
   import ServerActor._
 
@@ -105,21 +131,42 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
     */
 
   private def executeAccepted(cmd: CommandEnvelope, requester: ActorRef)(st: State): Unit = cmd match {
-    case CommandEnvelope(sqlCommand@SQLCommand(query, queryId, withColnames, timeout), session@Session(id, _)) =>
-      logger.debug(s"Query received $queryId: $query. Actor ${self.path.toStringWithoutAddress}")
+    case CommandEnvelope(queryCommand: QueryCommand, session@Session(id, _)) =>
+      logger.debug(s"Query received ${queryCommand.queryId}: ${queryCommand.description}. Actor ${self.path.toStringWithoutAddress}")
       logger.debug(s"Session identifier $session")
       sessionProvider.session(id) match {
         case Success(xdSession) =>
-          val jobActor = context.actorOf(JobActor.props(xdSession, sqlCommand, requester, timeout))
-          jobActor ! StartJob
-          context.become(
-            ready(st.copy(jobsById = st.jobsById + (JobId(id, sqlCommand.queryId) -> jobActor)))
+          val jobId = JobId(id, queryCommand.queryId)
+          val jobActor = context.actorOf(
+            JobActor.props(
+              xdSession,
+              jobId,
+              queryCommand,
+              requester,
+              queryCommand.timeout,
+              executionEngine,
+              serverConfig.streamingSettings,
+              resultCache,
+              serverConfig.slowQueryThreshold
+            )
           )
+          val userId = Option(xdSession.conf.getConfString(XDSQLConf.UserIdPropertyKey, null))
+
+          admissionController.submit(jobId, userId, queryCommand.priority, jobActor) match {
+            case Success(_) =>
+              logger.debug(s"Job $jobId admitted. Session jobs: ${admissionController.sessionJobs(id)}")
+              context.become(ready(st.copy(jobsById = st.jobsById + (jobId -> jobActor))))
+
+            case Failure(rejection) =>
+              logger.warn(s"Job $jobId rejected: ${rejection.getMessage}")
+              requester ! SQLReply(queryCommand.requestId, ErrorSQLResult(rejection.getMessage, Some(rejection)))
+              context.stop(jobActor)
+          }
 
         case Failure(error) =>
           logger.warn(s"Received message with an unknown sessionId $id", error)
           requester ! SQLReply(
-            sqlCommand.requestId,
+            queryCommand.requestId,
             ErrorSQLResult(s"Unable to recover the session ${session.id}. Cause: ${error.getMessage}")
           )
       }
@@ -133,6 +180,15 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
 
     case CommandEnvelope(cc@CancelQueryExecution(queryId), session@Session(id, Some(cancellationRequester))) =>
       st.jobsById(JobId(id, queryId)) ! CancelJob(cancellationRequester, Some(cc.requestId))
+
+    case CommandEnvelope(ack: AckStreamedChunk, Session(id, _)) =>
+      st.jobsById.get(JobId(id, ack.queryId)).foreach(_ ! ack)
+
+    case CommandEnvelope(fetch: FetchNext, Session(id, _)) =>
+      st.jobsById.get(JobId(id, fetch.queryId)).foreach(_ ! fetch)
+
+    case CommandEnvelope(close: CloseCursor, Session(id, _)) =>
+      st.jobsById.get(JobId(id, close.queryId)).foreach(_ ! close)
   }
 
 
@@ -145,9 +201,9 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
     case DelegateCommand(cmd, broadcaster) if broadcaster != self =>
       cmd match {
         // Inner pattern matching for future delegated command validations
-        case sc@CommandEnvelope(CancelQueryExecution(queryId), Session(sid, requesterOpt)) =>
+        case sc@CommandEnvelope(jc: JobControlCommand, Session(sid, requesterOpt)) =>
           val requester = actualRequester(requesterOpt)
-          st.jobsById.get(JobId(sid, queryId)) foreach (_ => executeAccepted(sc, requester)(st))
+          st.jobsById.get(JobId(sid, jc.queryId)) foreach (_ => executeAccepted(sc, requester)(st))
         /* If it doesn't validate it won't be re-broadcast since the source server already distributed it to all
             servers through the topic. */
       }
@@ -156,8 +212,39 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
   // Commands reception: Checks whether the command can be run at this Server passing it to the execution method if so
   def commandMessagesRec(st: State): Receive = {
 
-    case sc@CommandEnvelope(_: SQLCommand, session) =>
-      executeAccepted(sc, actualRequester(session.clientRef))(st)
+    case sc@CommandEnvelope(_: QueryCommand, session) =>
+      val requester = actualRequester(session.clientRef)
+      lessLoadedServer map { server =>
+        logger.debug(s"Query ${sc.cmd.requestId} sent to ${server.address} (${server.pendingJobs} pending jobs)")
+        route(sc, requester, server)
+      } getOrElse executeAccepted(sc, requester)(st)
+
+    case routed@RoutedCommand(sc, _) =>
+      val requestId = sc.cmd.requestId
+      sender ! RoutedCommandAck(requestId)
+      context.system.scheduler.scheduleOnce(
+        reservationTimeout(serverConfig.loadBalancingAckTimeout), self, ReservationExpired(requestId)
+      )(context.dispatcher)
+      context.become(ready(st.copy(routedCommands = st.routedCommands + (requestId -> routed))))
+
+    case ConfirmRoutedCommand(sc, requester) =>
+      val requestId = sc.cmd.requestId
+      if (st.routedCommands.contains(requestId)) {
+        executeAccepted(sc, requester)(st.copy(routedCommands = st.routedCommands - requestId))
+      } else {
+        logger.warn(s"Query $requestId confirmed after its reservation expired, returning it to its server")
+        sender ! UnroutedCommand(sc, requester)
+      }
+
+    case ReservationExpired(requestId) if st.routedCommands.contains(requestId) =>
+      logger.debug(s"Reservation of the routed query $requestId expired without confirmation")
+      context.become(ready(st.copy(routedCommands = st.routedCommands - requestId)))
+
+    case ReservationExpired(_) =>
+
+    case UnroutedCommand(sc, requester) =>
+      logger.warn(s"Query ${sc.cmd.requestId} not run by the chosen server, running it locally")
+      executeAccepted(sc, requester)(st)
 
     /*case sc@CommandEnvelope(_: AddJARCommand, _, _) => //TODO Adapt Requester
       executeAccepted(sc)(st)
@@ -166,9 +253,9 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
       executeAccepted(sc)(st)*/
 
 
-    case sc@CommandEnvelope(cc: ControlCommand, session@Session(id, requesterOpt)) =>
+    case sc@CommandEnvelope(jc: JobControlCommand, session@Session(id, requesterOpt)) =>
         val requester = actualRequester(requesterOpt)
-      st.jobsById.get(JobId(id, cc.requestId)) map { _ =>
+      st.jobsById.get(JobId(id, jc.queryId)) map { _ =>
         executeAccepted(sc, requester)(st) // Command validated to be executed by this server.
       } getOrElse {
         // If it can't run here it should be executed somewhere else
@@ -191,6 +278,7 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
       val open = sessionProvider.newSession(sid, user) match {
         case Success(_) =>
           logger.info(s"new session with sessionID=${sid} has been created")
+          XDMetricsSource.sessionsOpen.inc()
           true
         case Failure(error) =>
           logger.error(s"failure while creating the session with sessionID=${sid}")
@@ -213,11 +301,17 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
 
     case JobFailed(e) =>
       logger.error(e.getMessage, e)
+      releaseAdmission(sender())(st)
       sentenceToDeath(sender())
 
     case JobCompleted =>
+      releaseAdmission(sender())(st)
       sentenceToDeath(sender())
 
+    // Open cursors are kept until they end, but they only take a worker while sending a page
+    case CursorOpened =>
+      releaseAdmission(sender())(st)
+
     case FinishJob(who) =>
       context.become(ready(st.copy(jobsById = st.jobsById.filterNot(_._2 == who))))
       context.children.find(_ == who).foreach(gracefullyKill)
@@ -240,15 +334,29 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
 
   private def closeSessionTerminatingJobs(sessionId: UUID)(st: State): Unit = {
     val newjobsmap = st.jobsById filter {
-      case (JobId(`sessionId`, _), job) =>
+      case (jobId @ JobId(`sessionId`, _), job) =>
         gracefullyKill(job) // WARNING! Side-effect within filter function
+        admissionController.finished(jobId)
         false
       case _ => true
     }
     context.become(ready(st.copy(jobsById = newjobsmap)))
-    sessionProvider.closeSession(sessionId)
+    sessionProvider.closeSession(sessionId).foreach(_ => XDMetricsSource.sessionsOpen.dec())
   }
 
+  private def route(sc: CommandEnvelope, requester: ActorRef, server: ClusterLoad.ServerLoad): Unit = {
+    val peer = context.actorSelection(RootActorPath(server.address) / "user" / serverConfig.actorName)
+    RoutingHandoff.route(sc, requester, peer, self, serverConfig.loadBalancingAckTimeout)(context.dispatcher)
+  }
+
+  // Other servers can only run the query if they can recover its session
+  private def lessLoadedServer: Option[ClusterLoad.ServerLoad] =
+    if (!sessionProvider.isInstanceOf[HazelcastSessionProvider]) None
+    else clusterLoad.lessLoadedThan(ClusterLoad.localLoad(cluster.selfAddress, admissionController))
+
+  private def releaseAdmission(job: ActorRef)(st: State): Unit =
+    st.jobsById collectFirst { case (jobId, `job`) => jobId } foreach admissionController.finished
+
   private def sentenceToDeath(victim: ActorRef): Unit = serverConfig.completedJobTTL match {
     case finite: FiniteDuration =>
       context.system.scheduler.scheduleOnce(finite, self, FinishJob(victim))(context.dispatcher)
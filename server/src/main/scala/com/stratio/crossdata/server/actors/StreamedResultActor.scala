@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import akka.actor.{Actor, ActorRef, Props}
+import com.stratio.crossdata.common.{AckStreamedChunk, ServerReply, StreamedSchemaReply}
+import com.stratio.crossdata.common.result.StreamedRowsReceiver
+import org.apache.log4j.Logger
+
+object StreamedResultActor {
+
+  def props(receiver: StreamedRowsReceiver): Props = Props(new StreamedResultActor(receiver))
+
+}
+
+/**
+  * Requester of a streamed query run on behalf of a local client (e.g. an HTTP request). It feeds the
+  * [[StreamedRowsReceiver]] with the job replies and relays its acknowledgements straight to the job.
+  */
+class StreamedResultActor(receiver: StreamedRowsReceiver) extends Actor {
+
+  lazy val logger = Logger.getLogger(classOf[StreamedResultActor])
+
+  override def receive: Receive = waitingForJob
+
+  private val waitingForJob: Receive = {
+    case reply @ StreamedSchemaReply(_, _) =>
+      context.become(streaming(sender))
+      feed(reply)
+
+    case reply: ServerReply =>
+      feed(reply)
+  }
+
+  private def streaming(job: ActorRef): Receive = {
+    case ack: AckStreamedChunk =>
+      job ! ack
+
+    case reply: ServerReply =>
+      feed(reply)
+  }
+
+  private def feed(reply: ServerReply): Unit =
+    if (receiver.receive(reply)) {
+      logger.debug(s"Streamed result with ID=${reply.requestId} finished")
+      context.stop(self)
+    }
+
+}
@@ -18,6 +18,8 @@ package com.stratio.crossdata.server.config
 import java.io.File
 import java.util.concurrent.TimeUnit
 
+import com.stratio.crossdata.server.actors.JobActor.StreamingSettings
+import com.stratio.crossdata.server.actors.JobExecutionEngine
 import com.typesafe.config.{Config, ConfigFactory, ConfigValueFactory}
 import org.apache.log4j.Logger
 import org.apache.spark.sql.crossdata.config.CoreConfig
@@ -52,6 +54,36 @@ object ServerConfig {
   // Job management settings
   val FinishedJobTTL = "config.jobs.finished.ttl_ms"
 
+  // Job execution engine settings
+  val JobExecutorMode = "config.jobs.executor.mode"
+  val JobExecutorWorkers = "config.jobs.executor.workers"
+  val JobExecutorQueueDepth = "config.jobs.executor.queue-depth"
+
+  // Job admission settings
+  val MaxRunningJobsPerSession = "config.jobs.admission.max-running-per-session"
+  val MaxRunningJobsPerUser = "config.jobs.admission.max-running-per-user"
+
+  // Incremental result delivery settings
+  val StreamingChunkSize = "config.jobs.streaming.chunk-size"
+  val StreamingMaxChunksInFlight = "config.jobs.streaming.max-chunks-in-flight"
+  val StreamingAckTimeout = "config.jobs.streaming.ack-timeout"
+  val CursorIdleTimeout = "config.jobs.cursors.idle-timeout"
+
+  // Queries taking at least this long are written to the slow query log
+  val SlowQueryThreshold = "config.jobs.slow-query-threshold"
+
+  // Query result cache settings
+  val ResultCacheMaxEntries = "config.jobs.result-cache.max-entries"
+  val ResultCacheMaxRows = "config.jobs.result-cache.max-rows"
+  val ResultCacheTTL = "config.jobs.result-cache.ttl"
+
+  // Load balancing settings
+  val LoadBalancingEnabled = "config.load-balancing.enabled"
+  val LoadBalancingPublishInterval = "config.load-balancing.publish-interval"
+  val LoadBalancingMaxLoadAge = "config.load-balancing.max-load-age"
+  val LoadBalancingMinJobsDifference = "config.load-balancing.min-jobs-difference"
+  val LoadBalancingAckTimeout = "config.load-balancing.ack-timeout"
+
   // Host
   val Host = "akka.remote.netty.tcp.hostname"
 
@@ -81,6 +113,28 @@ object ServerConfig {
 
 
   val DefaultHTTPRequestExecutionTimeout = 4 hour
+
+  val DefaultJobExecutorMode = JobExecutionEngine.Mode.Bounded
+  val DefaultJobExecutorQueueDepth = 256
+
+  val DefaultMaxRunningJobsPerSession = 16
+  val DefaultMaxRunningJobsPerUser = 32
+
+  val DefaultStreamingChunkSize = 1000
+  val DefaultStreamingMaxChunksInFlight = 4
+  val DefaultStreamingAckTimeout = 5 minutes
+  val DefaultCursorIdleTimeout = 1 minute
+
+  val DefaultSlowQueryThreshold = 10 seconds
+
+  val DefaultResultCacheMaxEntries = 256
+  val DefaultResultCacheMaxRows = 10000
+  val DefaultResultCacheTTL = 1 minute
+
+  val DefaultLoadBalancingPublishInterval = 2 seconds
+  val DefaultLoadBalancingMaxLoadAge = 10 seconds
+  val DefaultLoadBalancingMinJobsDifference = 2
+  val DefaultLoadBalancingAckTimeout = 2 seconds
 }
 
 class ServerConfig(userConfig: Option[Config] = None) extends NumberActorConfig {
@@ -108,6 +162,75 @@ class ServerConfig(userConfig: Option[Config] = None) extends NumberActorConfig
 
   lazy val isHazelcastEnabled = config.getBoolean(ServerConfig.IsHazelcastProviderEnabledProperty)
 
+  lazy val jobExecutorMode: JobExecutionEngine.Mode.Mode =
+    Try(JobExecutionEngine.Mode.withName(config.getString(ServerConfig.JobExecutorMode).toLowerCase))
+      .getOrElse(ServerConfig.DefaultJobExecutorMode)
+
+  lazy val jobExecutorWorkers: Int =
+    Try(config.getInt(ServerConfig.JobExecutorWorkers)).getOrElse(Runtime.getRuntime.availableProcessors * 4)
+
+  lazy val jobExecutorQueueDepth: Int =
+    Try(config.getInt(ServerConfig.JobExecutorQueueDepth)).getOrElse(ServerConfig.DefaultJobExecutorQueueDepth)
+
+  lazy val maxRunningJobsPerSession: Int =
+    Try(config.getInt(ServerConfig.MaxRunningJobsPerSession)).getOrElse(ServerConfig.DefaultMaxRunningJobsPerSession)
+
+  lazy val maxRunningJobsPerUser: Int =
+    Try(config.getInt(ServerConfig.MaxRunningJobsPerUser)).getOrElse(ServerConfig.DefaultMaxRunningJobsPerUser)
+
+  lazy val streamingSettings: StreamingSettings = StreamingSettings(
+    Try(config.getInt(ServerConfig.StreamingChunkSize)).getOrElse(ServerConfig.DefaultStreamingChunkSize),
+    Try(config.getInt(ServerConfig.StreamingMaxChunksInFlight)).getOrElse(ServerConfig.DefaultStreamingMaxChunksInFlight),
+    extractDurationField(ServerConfig.StreamingAckTimeout) match {
+      case d: FiniteDuration => d
+      case _ => ServerConfig.DefaultStreamingAckTimeout
+    },
+    extractDurationField(ServerConfig.CursorIdleTimeout) match {
+      case d: FiniteDuration => d
+      case _ => ServerConfig.DefaultCursorIdleTimeout
+    }
+  )
+
+  // None if the slow query log is disabled (threshold 0)
+  lazy val slowQueryThreshold: Option[FiniteDuration] = extractDurationField(ServerConfig.SlowQueryThreshold) match {
+    case d: FiniteDuration => Some(d).filter(_.length > 0)
+    case _ => Some(ServerConfig.DefaultSlowQueryThreshold)
+  }
+
+  lazy val resultCacheMaxEntries: Int =
+    Try(config.getInt(ServerConfig.ResultCacheMaxEntries)).getOrElse(ServerConfig.DefaultResultCacheMaxEntries)
+
+  lazy val resultCacheMaxRows: Int =
+    Try(config.getInt(ServerConfig.ResultCacheMaxRows)).getOrElse(ServerConfig.DefaultResultCacheMaxRows)
+
+  lazy val resultCacheTTL: FiniteDuration = extractDurationField(ServerConfig.ResultCacheTTL) match {
+    case d: FiniteDuration => d
+    case _ => ServerConfig.DefaultResultCacheTTL
+  }
+
+  lazy val loadBalancingEnabled: Boolean =
+    Try(config.getBoolean(ServerConfig.LoadBalancingEnabled)).getOrElse(true)
+
+  lazy val loadBalancingPublishInterval: FiniteDuration =
+    extractDurationField(ServerConfig.LoadBalancingPublishInterval) match {
+      case d: FiniteDuration => d
+      case _ => ServerConfig.DefaultLoadBalancingPublishInterval
+    }
+
+  lazy val loadBalancingMaxLoadAge: FiniteDuration = extractDurationField(ServerConfig.LoadBalancingMaxLoadAge) match {
+    case d: FiniteDuration => d
+    case _ => ServerConfig.DefaultLoadBalancingMaxLoadAge
+  }
+
+  lazy val loadBalancingMinJobsDifference: Int =
+    Try(config.getInt(ServerConfig.LoadBalancingMinJobsDifference))
+      .getOrElse(ServerConfig.DefaultLoadBalancingMinJobsDifference)
+
+  lazy val loadBalancingAckTimeout: FiniteDuration = extractDurationField(ServerConfig.LoadBalancingAckTimeout) match {
+    case d: FiniteDuration => d
+    case _ => ServerConfig.DefaultLoadBalancingAckTimeout
+  }
+
   override val config: Config = {
 
     var defaultConfig = ConfigFactory.load(ServerConfig.ServerBasicConfig).getConfig(ServerConfig.ParentConfigName)
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import akka.actor.Address
+import com.stratio.crossdata.server.actors.ClusterLoad.ServerLoad
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.concurrent.duration._
+
+@RunWith(classOf[JUnitRunner])
+class ClusterLoadSpec extends BaseXDTest {
+
+  val now = System.currentTimeMillis()
+
+  def load(host: String, jobs: Int, heapUsage: Double = 0.5, timestamp: Long = now): ServerLoad =
+    ServerLoad(Address("akka.tcp", "CrossdataServerCluster", host, 13420), jobs, 0, heapUsage, timestamp)
+
+  "A ClusterLoad" should "choose the least loaded server when it is clearly less loaded than the local one" in {
+    val clusterLoad = new ClusterLoad(true, 10 seconds, 2)
+    clusterLoad.update(load("server2", 5))
+    clusterLoad.update(load("server3", 1))
+
+    clusterLoad.lessLoadedThan(load("server1", 10)).map(_.address.host) shouldBe Some(Some("server3"))
+    clusterLoad.lessLoadedThan(load("server1", 2)) shouldBe None
+  }
+
+  it should "account for the queries sent to a server until it publishes its load again" in {
+    val clusterLoad = new ClusterLoad(true, 10 seconds, 1)
+    clusterLoad.update(load("server2", 0))
+
+    clusterLoad.lessLoadedThan(load("server1", 2)).map(_.address.host) shouldBe Some(Some("server2"))
+    clusterLoad.lessLoadedThan(load("server1", 2)) shouldBe None
+  }
+
+  it should "ignore stale, overloaded and removed servers" in {
+    val clusterLoad = new ClusterLoad(true, 10 seconds, 1)
+    clusterLoad.update(load("stale", 0, timestamp = now - 1.minute.toMillis))
+    clusterLoad.update(load("fullHeap", 0, heapUsage = 0.95))
+    clusterLoad.update(load("removed", 0))
+    clusterLoad.remove(load("removed", 0).address)
+
+    clusterLoad.lessLoadedThan(load("server1", 10)) shouldBe None
+  }
+
+  it should "keep queries at the local server when disabled" in {
+    val clusterLoad = new ClusterLoad(false, 10 seconds, 1)
+    clusterLoad.update(load("server2", 0))
+
+    clusterLoad.lessLoadedThan(load("server1", 10)) shouldBe None
+  }
+
+}
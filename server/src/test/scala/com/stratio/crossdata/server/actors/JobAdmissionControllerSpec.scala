@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.util.UUID
+
+import akka.actor.ActorSystem
+import akka.testkit.{TestKit, TestProbe}
+import com.stratio.crossdata.common.JobPriority
+import com.stratio.crossdata.server.actors.JobActor.Commands.StartJob
+import com.stratio.crossdata.server.actors.JobAdmissionController.SessionJobs
+import com.stratio.crossdata.server.actors.JobExecutionEngine.JobRejectedException
+import com.stratio.crossdata.server.actors.ServerActor.JobId
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfterAll, FlatSpecLike, Matchers}
+
+import scala.concurrent.duration._
+
+@RunWith(classOf[JUnitRunner])
+class JobAdmissionControllerSpec extends TestKit(ActorSystem("JobAdmissionControllerSpec"))
+  with FlatSpecLike
+  with BeforeAndAfterAll
+  with Matchers {
+
+  override def afterAll(): Unit = TestKit.shutdownActorSystem(system)
+
+  def newJob(sessionId: UUID): (JobId, TestProbe) = (JobId(sessionId, UUID.randomUUID()), TestProbe())
+
+  "A JobAdmissionController" should "queue the jobs of a session exceeding its limit until one of them finishes" in {
+    val controller = new JobAdmissionController(10, 10, 1, 0)
+    val session = UUID.randomUUID()
+    val (firstId, first) = newJob(session)
+    val (secondId, second) = newJob(session)
+
+    controller.submit(firstId, None, JobPriority.Interactive, first.ref).isSuccess shouldBe true
+    controller.submit(secondId, None, JobPriority.Interactive, second.ref).isSuccess shouldBe true
+
+    first.expectMsg(StartJob)
+    second.expectNoMsg(100 millis)
+    controller.sessionJobs(session) shouldBe SessionJobs(1, 1)
+
+    controller.finished(firstId)
+    second.expectMsg(StartJob)
+    controller.sessionJobs(session) shouldBe SessionJobs(1, 0)
+  }
+
+  it should "apply the user limit across sessions" in {
+    val controller = new JobAdmissionController(10, 10, 0, 1)
+    val (firstId, first) = newJob(UUID.randomUUID())
+    val (secondId, second) = newJob(UUID.randomUUID())
+    val (otherUserId, otherUser) = newJob(UUID.randomUUID())
+
+    controller.submit(firstId, Some("alice"), JobPriority.Interactive, first.ref)
+    controller.submit(secondId, Some("alice"), JobPriority.Interactive, second.ref)
+    controller.submit(otherUserId, Some("bob"), JobPriority.Interactive, otherUser.ref)
+
+    first.expectMsg(StartJob)
+    otherUser.expectMsg(StartJob)
+    second.expectNoMsg(100 millis)
+  }
+
+  it should "start interactive jobs before batch ones and serve sessions in turns" in {
+    val controller = new JobAdmissionController(1, 10, 0, 0)
+    val (blockerId, blocker) = newJob(UUID.randomUUID())
+    controller.submit(blockerId, None, JobPriority.Interactive, blocker.ref)
+    blocker.expectMsg(StartJob)
+
+    val busySession = UUID.randomUUID()
+    val (batchId, batch) = newJob(UUID.randomUUID())
+    val (busy1Id, busy1) = newJob(busySession)
+    val (busy2Id, busy2) = newJob(busySession)
+    val (quietId, quiet) = newJob(UUID.randomUUID())
+
+    controller.submit(batchId, None, JobPriority.Batch, batch.ref)
+    controller.submit(busy1Id, None, JobPriority.Interactive, busy1.ref)
+    controller.submit(busy2Id, None, JobPriority.Interactive, busy2.ref)
+    controller.submit(quietId, None, JobPriority.Interactive, quiet.ref)
+
+    controller.finished(blockerId)
+    busy1.expectMsg(StartJob)
+
+    controller.finished(busy1Id)
+    quiet.expectMsg(StartJob)
+
+    controller.finished(quietId)
+    busy2.expectMsg(StartJob)
+
+    controller.finished(busy2Id)
+    batch.expectMsg(StartJob)
+  }
+
+  it should "reject jobs when the queue is full and never start cancelled queued jobs" in {
+    val controller = new JobAdmissionController(1, 1, 0, 0)
+    val (runningId, running) = newJob(UUID.randomUUID())
+    val (queuedId, queued) = newJob(UUID.randomUUID())
+    val (rejectedId, rejected) = newJob(UUID.randomUUID())
+
+    controller.submit(runningId, None, JobPriority.Interactive, running.ref).isSuccess shouldBe true
+    controller.submit(queuedId, None, JobPriority.Interactive, queued.ref).isSuccess shouldBe true
+    controller.submit(rejectedId, None, JobPriority.Interactive, rejected.ref).failed.get shouldBe a[JobRejectedException]
+
+    controller.finished(queuedId)
+    controller.finished(runningId)
+    queued.expectNoMsg(100 millis)
+    rejected.expectNoMsg(100 millis)
+  }
+
+  it should "reject the jobs of a session or user at its limit which already has jobs waiting" in {
+    val controller = new JobAdmissionController(10, 10, 1, 2)
+    val session = UUID.randomUUID()
+    val (runningId, running) = newJob(session)
+    val (queuedId, queued) = newJob(session)
+    val (rejectedId, _) = newJob(session)
+
+    controller.submit(runningId, None, JobPriority.Interactive, running.ref).isSuccess shouldBe true
+    controller.submit(queuedId, None, JobPriority.Interactive, queued.ref).isSuccess shouldBe true
+    controller.submit(rejectedId, None, JobPriority.Interactive, TestProbe().ref).failed.get shouldBe a[JobRejectedException]
+    controller.sessionJobs(session) shouldBe SessionJobs(1, 1)
+
+    val (aliceId, alice) = newJob(UUID.randomUUID())
+    val (aliceSecondId, aliceSecond) = newJob(UUID.randomUUID())
+    val (aliceQueuedId, _) = newJob(UUID.randomUUID())
+    val (aliceRejectedId, _) = newJob(UUID.randomUUID())
+    controller.submit(aliceId, Some("alice"), JobPriority.Interactive, alice.ref).isSuccess shouldBe true
+    controller.submit(aliceSecondId, Some("alice"), JobPriority.Interactive, aliceSecond.ref).isSuccess shouldBe true
+    controller.submit(aliceQueuedId, Some("alice"), JobPriority.Interactive, TestProbe().ref).isSuccess shouldBe true
+    controller.submit(aliceRejectedId, Some("alice"), JobPriority.Interactive, TestProbe().ref)
+      .failed.get shouldBe a[JobRejectedException]
+
+    controller.finished(runningId)
+    queued.expectMsg(StartJob)
+    controller.queuedCount shouldBe 1
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.util.concurrent.CountDownLatch
+
+import com.stratio.crossdata.server.actors.JobExecutionEngine.JobRejectedException
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.concurrent.Eventually
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.time.{Seconds, Span}
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+import scala.language.postfixOps
+
+@RunWith(classOf[JUnitRunner])
+class JobExecutionEngineSpec extends BaseXDTest with Eventually {
+
+  "A bounded JobExecutionEngine" should "reject jobs once its workers and its queue are full" in {
+
+    val engine = new JobExecutionEngine(JobExecutionEngine.Mode.Bounded, workers = 1, queueDepth = 1)
+    val latch = new CountDownLatch(1)
+
+    try {
+      val running = engine.submit { latch.await(); 1 }
+      val waiting = engine.submit { latch.await(); 2 }
+      val rejected = engine.submit(3)
+
+      running.isSuccess shouldBe true
+      waiting.isSuccess shouldBe true
+      rejected.failed.get shouldBe a[JobRejectedException]
+
+      latch.countDown()
+
+      Await.result(running.get.future, 10 seconds) shouldBe 1
+      Await.result(waiting.get.future, 10 seconds) shouldBe 2
+
+      eventually(timeout(Span(10, Seconds))) {
+        Await.result(engine.submit(4).get.future, 10 seconds) shouldBe 4
+      }
+    } finally {
+      latch.countDown()
+      engine.shutdown()
+    }
+  }
+
+  it should "release the slot of a job cancelled while waiting for a worker" in {
+
+    val engine = new JobExecutionEngine(JobExecutionEngine.Mode.Bounded, workers = 1, queueDepth = 1)
+    val latch = new CountDownLatch(1)
+
+    try {
+      val running = engine.submit { latch.await(); 1 }
+      val waiting = engine.submit(2)
+
+      waiting.get.cancel()
+      latch.countDown()
+
+      Await.result(running.get.future, 10 seconds) shouldBe 1
+      eventually(timeout(Span(10, Seconds))) {
+        Await.result(engine.submit(3).get.future, 10 seconds) shouldBe 3
+      }
+    } finally {
+      latch.countDown()
+      engine.shutdown()
+    }
+  }
+
+}
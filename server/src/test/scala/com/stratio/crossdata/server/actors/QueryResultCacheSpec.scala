@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.{AttributeReference, GreaterThan, Literal, Rand}
+import org.apache.spark.sql.catalyst.plans.logical.{Filter, LocalRelation, LogicalPlan}
+import org.apache.spark.sql.types.IntegerType
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.concurrent.duration._
+
+@RunWith(classOf[JUnitRunner])
+class QueryResultCacheSpec extends BaseXDTest {
+
+  // Each call builds a new plan with new expression ids, as analyzing the same query twice would
+  def plan(threshold: Int): LogicalPlan = {
+    val id = AttributeReference("id", IntegerType)()
+    Filter(GreaterThan(id, Literal(threshold)), LocalRelation(id))
+  }
+
+  val rows: Array[Row] = Array(Row(2), Row(3))
+
+  "A QueryResultCache" should "return the result of an equivalent plan run against the same catalog epoch" in {
+    val cache = new QueryResultCache(10, 100, 1 minute)
+
+    cache.key(plan(1), 0L, flattened = false).foreach(cache.store(_, rows))
+
+    cache.key(plan(1), 0L, flattened = false).flatMap(cache.lookup) shouldBe Some(rows)
+    cache.key(plan(2), 0L, flattened = false).flatMap(cache.lookup) shouldBe None
+    cache.key(plan(1), 1L, flattened = false).flatMap(cache.lookup) shouldBe None
+    cache.key(plan(1), 0L, flattened = true).flatMap(cache.lookup) shouldBe None
+  }
+
+  it should "discard expired, oversized and least recently used results" in {
+    val expiring = new QueryResultCache(10, 100, 0 millis)
+    expiring.key(plan(1), 0L, flattened = false).foreach(expiring.store(_, rows))
+    Thread.sleep(5)
+    expiring.key(plan(1), 0L, flattened = false).flatMap(expiring.lookup) shouldBe None
+
+    val small = new QueryResultCache(1, 1, 1 minute)
+    small.key(plan(1), 0L, flattened = false).foreach(small.store(_, rows))
+    small.key(plan(1), 0L, flattened = false).flatMap(small.lookup) shouldBe None
+
+    small.key(plan(1), 0L, flattened = false).foreach(small.store(_, rows.take(1)))
+    small.key(plan(2), 0L, flattened = false).foreach(small.store(_, rows.take(1)))
+    small.key(plan(1), 0L, flattened = false).flatMap(small.lookup) shouldBe None
+    small.key(plan(2), 0L, flattened = false).flatMap(small.lookup).map(_.toList) shouldBe Some(List(Row(2)))
+  }
+
+  it should "only cache streamed results which have been completely consumed" in {
+    val cache = new QueryResultCache(10, 100, 1 minute)
+
+    val partiallyConsumed = cache.key(plan(1), 0L, flattened = false).map(cache.storing(_, rows.iterator))
+    partiallyConsumed.foreach(_.next())
+    cache.key(plan(1), 0L, flattened = false).flatMap(cache.lookup) shouldBe None
+
+    val consumed = cache.key(plan(1), 0L, flattened = false).map(cache.storing(_, rows.iterator))
+    consumed.map(_.toList) shouldBe Some(rows.toList)
+    cache.key(plan(1), 0L, flattened = false).flatMap(cache.lookup).map(_.toList) shouldBe Some(rows.toList)
+  }
+
+  it should "not cache non-deterministic queries" in {
+    val cache = new QueryResultCache(10, 100, 1 minute)
+    val id = AttributeReference("id", IntegerType)()
+    cache.key(Filter(GreaterThan(Rand(0), Literal(0.5)), LocalRelation(id)), 0L, flattened = false) shouldBe None
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.util.UUID
+
+import akka.actor.ActorSystem
+import akka.testkit.{TestKit, TestProbe}
+import com.stratio.crossdata.common.security.Session
+import com.stratio.crossdata.common.{CommandEnvelope, SQLCommand}
+import com.stratio.crossdata.server.actors.RoutingHandoff._
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfterAll, FlatSpecLike, Matchers}
+
+import scala.concurrent.duration._
+
+@RunWith(classOf[JUnitRunner])
+class RoutingHandoffSpec extends TestKit(ActorSystem("RoutingHandoffSpec"))
+  with FlatSpecLike
+  with BeforeAndAfterAll
+  with Matchers {
+
+  import system.dispatcher
+
+  override def afterAll(): Unit = TestKit.shutdownActorSystem(system)
+
+  val AckTimeout = 500 millis
+
+  def routedQuery: CommandEnvelope =
+    CommandEnvelope(new SQLCommand("SELECT * FROM highschool", false), Session(UUID.randomUUID(), None))
+
+  "A RoutingHandoff" should "confirm the query to the chosen server when it acknowledges it in time" in {
+    val (peer, origin, requester) = (TestProbe(), TestProbe(), TestProbe())
+    val query = routedQuery
+
+    route(query, requester.ref, system.actorSelection(peer.ref.path), origin.ref, AckTimeout)
+
+    peer.expectMsg(RoutedCommand(query, requester.ref))
+    peer.reply(RoutedCommandAck(query.cmd.requestId))
+    peer.expectMsg(ConfirmRoutedCommand(query, requester.ref))
+    peer.lastSender shouldBe origin.ref
+    origin.expectNoMsg(AckTimeout * 2)
+  }
+
+  it should "run the query at its origin and never confirm it when the acknowledgement is delayed" in {
+    val (peer, origin, requester) = (TestProbe(), TestProbe(), TestProbe())
+    val query = routedQuery
+
+    route(query, requester.ref, system.actorSelection(peer.ref.path), origin.ref, AckTimeout)
+
+    peer.expectMsg(RoutedCommand(query, requester.ref))
+    origin.expectMsg(AckTimeout * 2, UnroutedCommand(query, requester.ref))
+    peer.reply(RoutedCommandAck(query.cmd.requestId))
+    peer.expectNoMsg(AckTimeout * 2)
+  }
+
+}
@@ -64,6 +64,50 @@ class DriverIT extends EndToEndTest with ScalaFutures {
       }
     }
 
+    it should "run a batch of sentences in order, stopping at the first error if requested" + factoryDesc in {
+      assumeCrossdataUpAndRunning()
+      withDriverDo { driver =>
+
+        val jsonPath = Paths.get(getClass.getResource("/tabletest.json").toURI).toString
+        val createTable = s"CREATE TEMPORARY TABLE batchTable USING org.apache.spark.sql.json OPTIONS (path '$jsonPath')"
+
+        val results = Await.result(
+          driver.sqlBatch(Seq(createTable, "select select", "SELECT * FROM batchTable")), 10 seconds
+        )
+        results should have length 2
+        results(0) shouldBe a[SuccessfulSQLResult]
+        results(1) shouldBe an[ErrorSQLResult]
+
+        val allResults = Await.result(
+          driver.sqlBatch(Seq("select select", "SELECT * FROM batchTable"), stopOnError = false), 10 seconds
+        )
+        allResults should have length 2
+        allResults(0) shouldBe an[ErrorSQLResult]
+        allResults(1).resultSet should have length 2
+      }
+    }
+
+    it should "not run the remaining sentences of a batch cancelled partway through" + factoryDesc in {
+      assumeCrossdataUpAndRunning()
+      withDriverDo { driver =>
+
+        val jsonPath = Paths.get(getClass.getResource("/tabletest.json").toURI).toString
+        driver.sql(s"CREATE TEMPORARY TABLE slowBatchTable USING org.apache.spark.sql.json OPTIONS (path '$jsonPath')").waitForResult()
+
+        // 2^24 rows cartesian product, still running when the batch times out
+        val slowQuery = "SELECT count(*) FROM " + (1 to 24).map(i => s"slowBatchTable t$i").mkString(", ")
+        val createTable = s"CREATE TEMPORARY TABLE cancelledBatchTable USING org.apache.spark.sql.json OPTIONS (path '$jsonPath')"
+
+        val cancelled = driver.sqlBatch(Seq(slowQuery, createTable), timeout = Some(2 seconds))
+        the[RuntimeException] thrownBy Await.result(cancelled, 30 seconds) should have message
+          "Unable to run the batch: Query cancelled"
+
+        // The sentence following the cancelled one would have been run right after the cancellation
+        Thread.sleep(5000)
+        driver.sql("SELECT * FROM cancelledBatchTable").waitForResult(10 seconds) shouldBe an[ErrorSQLResult]
+      }
+    }
+
     it should "get a list of tables" + factoryDesc in {
       assumeCrossdataUpAndRunning
       withDriverDo { driver =>